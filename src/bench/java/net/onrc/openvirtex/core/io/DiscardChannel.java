@@ -0,0 +1,113 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.channel.AbstractChannel;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.ChannelConfig;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.DefaultChannelConfig;
+import org.jboss.netty.channel.MessageEvent;
+
+/**
+ * Connected channel that drops whatever is written to it, counting the
+ * OpenFlow messages. Stands in for switch and controller connections when
+ * the virtualization paths are exercised in memory.
+ */
+public class DiscardChannel extends AbstractChannel {
+
+    private static final SocketAddress ADDRESS = new InetSocketAddress(
+            "127.0.0.1", 6633);
+
+    private final ChannelConfig config = new DefaultChannelConfig();
+    private final AtomicLong messages;
+
+    /**
+     * Creates an open, connected channel.
+     */
+    public DiscardChannel() {
+        this(new AtomicLong());
+    }
+
+    private DiscardChannel(final AtomicLong messages) {
+        super(null, null, Channels.pipeline(), new Sink(messages));
+        this.messages = messages;
+    }
+
+    /**
+     * Gets the number of OpenFlow messages written to this channel.
+     *
+     * @return the number of messages
+     */
+    public long getMessages() {
+        return this.messages.get();
+    }
+
+    @Override
+    public ChannelConfig getConfig() {
+        return this.config;
+    }
+
+    @Override
+    public boolean isBound() {
+        return this.isOpen();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.isOpen();
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return ADDRESS;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return ADDRESS;
+    }
+
+    private static final class Sink extends AbstractChannelSink {
+        private final AtomicLong messages;
+
+        private Sink(final AtomicLong messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void eventSunk(final ChannelPipeline pipeline,
+                              final ChannelEvent e) {
+            if (e instanceof MessageEvent) {
+                final Object msg = ((MessageEvent) e).getMessage();
+                this.messages.addAndGet(msg instanceof List ? ((List<?>) msg)
+                        .size() : 1);
+            }
+            e.getFuture().setSuccess();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFactory;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures the FlowMods per second delivered to a local fake switch, with
+ * and without write batching. Each burst is written the way a channel
+ * handler replies to a batch of incoming messages, one message per write,
+ * and completes once the switch has received all of its bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXMessageBatcherBenchmark {
+
+    private static final int BURST = 256;
+    private static final int BATCH_SIZE = 65536;
+    private static final int FLUSH_DELAY = 50;
+
+    @Param({"true", "false"})
+    private boolean batching;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private final FakeSwitch fakeSwitch = new FakeSwitch();
+    private ChannelFactory serverFactory;
+    private ChannelFactory clientFactory;
+    private Channel server;
+    private Channel client;
+    private OFMessage[] messages;
+    private long burstBytes;
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.serverFactory = new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        final ServerBootstrap sb = new ServerBootstrap(this.serverFactory);
+        sb.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                return Channels.pipeline(OVXMessageBatcherBenchmark.this.fakeSwitch);
+            }
+        });
+        sb.setOption("child.tcpNoDelay", true);
+        this.server = sb.bind(new InetSocketAddress("127.0.0.1", 0));
+
+        this.clientFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        final ClientBootstrap cb = new ClientBootstrap(this.clientFactory);
+        cb.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                final ChannelHandler encoder = OVXMessageBatcherBenchmark.this.batching
+                        ? new OVXMessageBatcher(BATCH_SIZE, FLUSH_DELAY)
+                        : new OVXMessageEncoder();
+                return Channels.pipeline(encoder);
+            }
+        });
+        cb.setOption("tcpNoDelay", true);
+        this.client = cb.connect(this.server.getLocalAddress())
+                .awaitUninterruptibly().getChannel();
+
+        this.messages = new OFMessage[BURST];
+        final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (int i = 0; i < BURST; i++) {
+            this.messages[i] = this.factory.buildFlowAdd()
+                    .setXid(i)
+                    .setPriority(100)
+                    .setMatch(this.factory.buildMatch()
+                            .setExact(MatchField.IN_PORT, OFPort.of(i % 48 + 1))
+                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                            .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a000000 + i))
+                            .build())
+                    .build();
+            this.messages[i].writeTo(buf);
+        }
+        this.burstBytes = buf.readableBytes();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.client.close().awaitUninterruptibly();
+        this.server.close().awaitUninterruptibly();
+        this.clientFactory.releaseExternalResources();
+        this.serverFactory.releaseExternalResources();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public long flowModBurst() throws InterruptedException {
+        this.expected += this.burstBytes;
+        OVXMessageBatcher.beginBatch();
+        try {
+            for (OFMessage m : this.messages) {
+                this.client.write(Collections.singletonList(m));
+            }
+        } finally {
+            OVXMessageBatcher.endBatch();
+        }
+        return this.fakeSwitch.await(this.expected);
+    }
+
+    /**
+     * Switch end of the connection, counting the bytes it receives.
+     */
+    private static final class FakeSwitch extends SimpleChannelUpstreamHandler {
+        private long received;
+
+        @Override
+        public void messageReceived(final ChannelHandlerContext ctx,
+                                    final MessageEvent e) {
+            final int n = ((ChannelBuffer) e.getMessage()).readableBytes();
+            synchronized (this) {
+                this.received += n;
+                this.notifyAll();
+            }
+        }
+
+        private synchronized long await(final long bytes)
+                throws InterruptedException {
+            while (this.received < bytes) {
+                this.wait();
+            }
+            return this.received;
+        }
+    }
+
+}
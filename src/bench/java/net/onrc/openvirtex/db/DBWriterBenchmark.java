@@ -0,0 +1,298 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.port.Port;
+import net.onrc.openvirtex.routing.SwitchRoute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to persist 100 virtual networks through the database
+ * writer, provisioned in parallel the way restore boots save them, on the
+ * in-memory backend with and without a simulated round trip time. Each
+ * network re-provisions half of its links and some networks are deleted,
+ * so that pulls and document removals are coalesced with pending adds.
+ * <p>
+ * After each iteration the stored documents are checked against the same
+ * updates written directly to the backend, and the writer and backend
+ * counters are printed. A capacity of 0 writes synchronously; a small
+ * capacity makes the provisioning threads block on the full queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DBWriterBenchmark {
+
+    private static final int TENANTS = 100;
+    private static final int THREADS = 4;
+    private static final int SWITCHES = 4;
+    private static final int PORTS = 4;
+    private static final int LINKS = 8;
+    private static final int ROUTES = 8;
+    // Every n-th network is deleted once provisioned
+    private static final int DELETED = 10;
+
+    @Param({"0", "64", "4096"})
+    private int capacity;
+
+    // Round trip time of each backend call, in microseconds
+    @Param({"0", "100"})
+    private long latency;
+
+    private List<Map<String, Object>> expected;
+    private MemoryConnection db;
+    private DBWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MemoryConnection reference = new MemoryConnection();
+        reference.ensureIndex(DBManager.DB_VNET, TenantHandler.TENANT);
+        Store direct = new Store() {
+            @Override
+            public void insert(Map<String, Object> index,
+                    Map<String, Object> doc) {
+                reference.insert(DBManager.DB_VNET, doc);
+            }
+
+            @Override
+            public void removeDoc(Map<String, Object> index,
+                    Map<String, Object> query) {
+                reference.remove(DBManager.DB_VNET, query);
+            }
+
+            @Override
+            public void addToSet(Map<String, Object> index, String key,
+                    Map<String, Object> value) {
+                reference.update(DBManager.DB_VNET, index,
+                        operator("$addToSet", key, value), true);
+            }
+
+            @Override
+            public void pull(Map<String, Object> index, String key,
+                    Map<String, Object> criterion) {
+                reference.update(DBManager.DB_VNET, index,
+                        operator("$pull", key, criterion), false);
+            }
+        };
+        for (int t = 1; t <= TENANTS; t++) {
+            provision(direct, t);
+        }
+        this.expected = reference.find(DBManager.DB_VNET);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.db = new MemoryConnection(this.latency);
+        this.db.ensureIndex(DBManager.DB_VNET, TenantHandler.TENANT);
+    }
+
+    /**
+     * Checks that the writer stored the same documents as direct writes,
+     * and prints its counters.
+     */
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        long calls = this.db.getCalls();
+        if (!normalize(this.db.find(DBManager.DB_VNET)).equals(
+                normalize(this.expected))) {
+            throw new IllegalStateException(
+                    "Writer stored different documents than direct writes");
+        }
+        System.out.println();
+        System.out.println("Writer: " + this.writer.getStats()
+                + ", backend calls: " + calls);
+    }
+
+    /**
+     * Provisions all networks from parallel threads and stops the writer,
+     * which writes the updates still queued.
+     */
+    @Benchmark
+    public long persist() throws InterruptedException {
+        final DBWriter w = new DBWriter(this.db, this.capacity);
+        w.start();
+        final Store queued = new Store() {
+            @Override
+            public void insert(Map<String, Object> index,
+                    Map<String, Object> doc) {
+                w.insert(DBManager.DB_VNET, index, doc);
+            }
+
+            @Override
+            public void removeDoc(Map<String, Object> index,
+                    Map<String, Object> query) {
+                w.removeDoc(DBManager.DB_VNET, index, query);
+            }
+
+            @Override
+            public void addToSet(Map<String, Object> index, String key,
+                    Map<String, Object> value) {
+                w.addToSet(DBManager.DB_VNET, index, key, value);
+            }
+
+            @Override
+            public void pull(Map<String, Object> index, String key,
+                    Map<String, Object> criterion) {
+                w.pull(DBManager.DB_VNET, index, key, criterion);
+            }
+        };
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            final int first = i + 1;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    // Each network is provisioned by a single thread
+                    for (int t = first; t <= TENANTS; t += THREADS) {
+                        provision(queued, t);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        w.stop();
+        this.writer = w;
+        return this.db.getCalls();
+    }
+
+    private static void provision(Store store, int tenant) {
+        Map<String, Object> index = new HashMap<String, Object>();
+        index.put(TenantHandler.TENANT, tenant);
+        Map<String, Object> vnet = new HashMap<String, Object>();
+        vnet.put(TenantHandler.TENANT, tenant);
+        vnet.put(TenantHandler.NETADD, 0x0a000000 + (tenant << 8));
+        store.insert(index, vnet);
+
+        for (int s = 0; s < SWITCHES; s++) {
+            Map<String, Object> sw = new HashMap<String, Object>();
+            sw.put(TenantHandler.VDPID, ((long) tenant << 48) | s);
+            store.addToSet(index, Switch.DB_KEY, sw);
+            for (int p = 1; p <= PORTS; p++) {
+                Map<String, Object> port = new HashMap<String, Object>();
+                port.put(TenantHandler.DPID, (long) s + 1);
+                port.put(TenantHandler.PORT, p);
+                store.addToSet(index, Port.DB_KEY, port);
+            }
+        }
+        for (int l = 1; l <= LINKS; l++) {
+            store.addToSet(index, OVXLink.DB_KEY, link(l, 1));
+        }
+        for (int r = 1; r <= ROUTES; r++) {
+            Map<String, Object> route = new HashMap<String, Object>();
+            route.put(TenantHandler.ROUTE, r);
+            route.put(TenantHandler.DPID, ((long) tenant << 48) | (r % SWITCHES));
+            store.addToSet(index, SwitchRoute.DB_KEY, route);
+        }
+        // Re-provision half of the links over another path, the way a
+        // recovered virtual link is removed and saved again
+        for (int l = 1; l <= LINKS; l += 2) {
+            Map<String, Object> criterion = new HashMap<String, Object>();
+            criterion.put(TenantHandler.LINK, l);
+            store.pull(index, OVXLink.DB_KEY, criterion);
+            if (l % 4 == 1) {
+                store.addToSet(index, OVXLink.DB_KEY, link(l, 2));
+            }
+        }
+        if (tenant % DELETED == 0) {
+            store.removeDoc(index, index);
+        }
+    }
+
+    private static Map<String, Object> link(int id, int path) {
+        Map<String, Object> link = new HashMap<String, Object>();
+        link.put(TenantHandler.LINK, id);
+        link.put(TenantHandler.PATH, path);
+        return link;
+    }
+
+    private static Map<String, Object> operator(String op, String key,
+            Map<String, Object> value) {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(key, value);
+        Map<String, Object> update = new HashMap<String, Object>();
+        update.put(op, fields);
+        return update;
+    }
+
+    /**
+     * Turns arrays into sets, since the writer may store the elements of
+     * an array in another order than direct writes.
+     */
+    private static Set<Map<String, Object>> normalize(
+            List<Map<String, Object>> docs) {
+        Set<Map<String, Object>> set = new HashSet<Map<String, Object>>();
+        for (Map<String, Object> doc : docs) {
+            Map<String, Object> copy = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> e : doc.entrySet()) {
+                copy.put(e.getKey(), e.getValue() instanceof List
+                        ? new HashSet<Object>((List<?>) e.getValue())
+                        : e.getValue());
+            }
+            set.add(copy);
+        }
+        return set;
+    }
+
+    /**
+     * Destination of the provisioning updates.
+     */
+    private interface Store {
+        void insert(Map<String, Object> index, Map<String, Object> doc);
+
+        void removeDoc(Map<String, Object> index, Map<String, Object> query);
+
+        void addToSet(Map<String, Object> index, String key,
+                Map<String, Object> value);
+
+        void pull(Map<String, Object> index, String key,
+                Map<String, Object> criterion);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.elements.datapath.Switch;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.port.Port;
+import net.onrc.openvirtex.routing.SwitchRoute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the startup restore time of the embedded database holding 1000
+ * virtual networks, from the journal alone or from a snapshot, and prints
+ * the size of the files on disk. Each network is provisioned one element
+ * at a time, the way the API stores it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class JournalConnectionBenchmark {
+
+    private static final int TENANTS = 1000;
+    private static final int SWITCHES = 8;
+    private static final int PORTS = 4;
+    private static final int LINKS = 8;
+    private static final int ROUTES = 16;
+    private static final int HOPS = 3;
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.dir = Files.createTempDirectory("ovxdb").toFile();
+        JournalConnection db = new JournalConnection(this.dir.getPath());
+        db.connect(null, null);
+        db.ensureIndex(DBManager.DB_VNET, TenantHandler.TENANT);
+        for (int t = 1; t <= TENANTS; t++) {
+            provision(db, t);
+        }
+        if (this.snapshot) {
+            db.snapshot();
+        }
+        System.out.println();
+        System.out.println("Database files: " + db.getStats());
+        db.disconnect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.walkFileTree(this.dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e)
+                    throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Opens the database and decodes every virtual network, as the
+     * database manager does on startup.
+     */
+    @Benchmark
+    public int restore() {
+        JournalConnection db = new JournalConnection(this.dir.getPath());
+        db.connect(null, null);
+        int elements = 0;
+        for (Map<String, Object> vnet : db.find(DBManager.DB_VNET)) {
+            elements += vnet.size();
+        }
+        db.disconnect();
+        return elements;
+    }
+
+    private static void provision(DBConnection db, int tenant) {
+        Map<String, Object> vnet = new HashMap<String, Object>();
+        vnet.put(TenantHandler.TENANT, tenant);
+        List<String> ctrls = new ArrayList<String>();
+        ctrls.add("tcp:10.0.0." + (tenant % 250) + ":6633");
+        vnet.put(TenantHandler.CTRLURLS, ctrls);
+        vnet.put(TenantHandler.NETADD, 0x0a000000 + (tenant << 8));
+        vnet.put(TenantHandler.NETMASK, (short) 24);
+        db.insert(DBManager.DB_VNET, vnet);
+
+        for (int s = 0; s < SWITCHES; s++) {
+            long vdpid = ((long) tenant << 48) | s;
+            Map<String, Object> sw = new HashMap<String, Object>();
+            sw.put(TenantHandler.VDPID, vdpid);
+            List<Long> dpids = new ArrayList<Long>();
+            dpids.add((long) s + 1);
+            sw.put(TenantHandler.DPIDS, dpids);
+            save(db, tenant, Switch.DB_KEY, sw);
+            for (short p = 1; p <= PORTS; p++) {
+                Map<String, Object> port = new HashMap<String, Object>();
+                port.put(TenantHandler.DPID, (long) s + 1);
+                port.put(TenantHandler.PORT, p);
+                port.put(TenantHandler.VPORT, p);
+                save(db, tenant, Port.DB_KEY, port);
+            }
+        }
+        for (int l = 0; l < LINKS; l++) {
+            Map<String, Object> link = new HashMap<String, Object>();
+            link.put(TenantHandler.LINK, l + 1);
+            link.put(TenantHandler.PRIORITY, (byte) 1);
+            link.put(TenantHandler.ALGORITHM, "spf");
+            link.put(TenantHandler.BACKUPS, (byte) 1);
+            link.put(TenantHandler.PATH, path(l));
+            save(db, tenant, OVXLink.DB_KEY, link);
+        }
+        for (int r = 0; r < ROUTES; r++) {
+            Map<String, Object> route = new HashMap<String, Object>();
+            route.put(TenantHandler.VDPID, ((long) tenant << 48) | (r % SWITCHES));
+            route.put(TenantHandler.SRC_PORT, (short) 1);
+            route.put(TenantHandler.DST_PORT, (short) 2);
+            route.put(TenantHandler.PRIORITY, (byte) 1);
+            route.put(TenantHandler.ROUTE, r + 1);
+            route.put(TenantHandler.PATH, path(r));
+            save(db, tenant, SwitchRoute.DB_KEY, route);
+        }
+    }
+
+    private static List<Map<String, Object>> path(int n) {
+        List<Map<String, Object>> path = new ArrayList<Map<String, Object>>();
+        for (int h = 0; h < HOPS; h++) {
+            Map<String, Object> hop = new HashMap<String, Object>();
+            hop.put(TenantHandler.SRC_DPID, (long) (n + h) % SWITCHES + 1);
+            hop.put(TenantHandler.SRC_PORT, (short) 3);
+            hop.put(TenantHandler.DST_DPID, (long) (n + h + 1) % SWITCHES + 1);
+            hop.put(TenantHandler.DST_PORT, (short) 4);
+            path.add(hop);
+        }
+        return path;
+    }
+
+    private static void save(DBConnection db, int tenant, String key,
+            Map<String, Object> obj) {
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put(TenantHandler.TENANT, tenant);
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(key, obj);
+        Map<String, Object> update = new HashMap<String, Object>();
+        update.put("$addToSet", fields);
+        db.update(DBManager.DB_VNET, query, update, true);
+    }
+
+}
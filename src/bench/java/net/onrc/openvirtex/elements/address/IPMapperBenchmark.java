@@ -0,0 +1,100 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures the translation of the virtual IP addresses of a match with
+ * {@link IPMapper#rewriteMatch(Integer, Match)}, once the physical
+ * addresses have been allocated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IPMapperBenchmark {
+
+    @Param({"ipv4", "l2"})
+    private String match;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private NetworkFixture fixture;
+    private Integer tenantId;
+    private Match virtualMatch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(2);
+        this.tenantId = this.fixture.getLinkNetwork().getTenantId();
+        final Match.Builder builder = this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(1))
+                .setExact(MatchField.ETH_SRC,
+                        NetworkFixture.hostMac(this.tenantId, 1))
+                .setExact(MatchField.ETH_DST,
+                        NetworkFixture.hostMac(this.tenantId, 2));
+        if ("ipv4".equals(this.match)) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_SRC,
+                            IPv4Address.of(NetworkFixture.hostIp(1)))
+                    .setExact(MatchField.IPV4_DST,
+                            IPv4Address.of(NetworkFixture.hostIp(2)));
+        }
+        this.virtualMatch = builder.build();
+        IPMapper.rewriteMatch(this.tenantId, this.virtualMatch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public Match rewriteMatch() {
+        return IPMapper.rewriteMatch(this.tenantId, this.virtualMatch);
+    }
+
+}
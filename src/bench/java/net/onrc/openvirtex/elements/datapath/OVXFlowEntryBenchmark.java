@@ -0,0 +1,133 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TransportPort;
+
+/**
+ * Measures a single {@link OVXFlowEntry#compare} of a stored entry against
+ * the match of an incoming FlowMod, either from the plain match or from
+ * the match compiled once per FlowMod as the flow table does. Entries and
+ * matches are host-pair exact matches, destination prefixes and TCP flows,
+ * so all outcomes of the comparison occur.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXFlowEntryBenchmark {
+
+    private static final int SIZE = 1024;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private OVXFlowEntry[] entries;
+    private Match[] matches;
+    private CompiledMatch[] compiled;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.entries = new OVXFlowEntry[SIZE];
+        this.matches = new Match[SIZE];
+        this.compiled = new CompiledMatch[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            final OVXFlowMod fm = new OVXFlowMod(this.factory.buildFlowAdd()
+                    .setMatch(this.match(i))
+                    .build());
+            this.entries[i] = new OVXFlowEntry().setOVXFlowMod(fm);
+            // pair each entry with the match of a neighbour
+            this.matches[i] = this.match(i * 7 + 3);
+            this.compiled[i] = new OVXFlowMod(this.factory.buildFlowAdd()
+                    .setMatch(this.matches[i])
+                    .build()).getCompiledMatch();
+        }
+    }
+
+    @Benchmark
+    public int compareMatch() {
+        final int i = this.probe();
+        return this.entries[i].compare(this.matches[i], false);
+    }
+
+    @Benchmark
+    public int compareCompiled() {
+        final int i = this.probe();
+        return this.entries[i].compare(this.compiled[i], false);
+    }
+
+    private int probe() {
+        this.next = (this.next + 1) & (SIZE - 1);
+        return this.next;
+    }
+
+    private Match match(int i) {
+        final int host = i % 16;
+        switch (i % 3) {
+            case 0:
+                return this.factory.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(host % 4 + 1))
+                        .setExact(MatchField.ETH_SRC, MacAddress.of(host + 1))
+                        .setExact(MatchField.ETH_DST, MacAddress.of(host + 2))
+                        .build();
+            case 1:
+                return this.factory.buildMatch()
+                        .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                        .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a000000 + host))
+                        .build();
+            default:
+                return this.factory.buildMatch()
+                        .setExact(MatchField.ETH_SRC, MacAddress.of(host + 1))
+                        .setExact(MatchField.ETH_DST, MacAddress.of(host + 2))
+                        .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                        .setExact(MatchField.IPV4_SRC, IPv4Address.of(0x0a000000 + host))
+                        .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a000001 + host))
+                        .setExact(MatchField.IP_PROTO, IpProtocol.TCP)
+                        .setExact(MatchField.TCP_DST, TransportPort.of(80))
+                        .build();
+        }
+    }
+}
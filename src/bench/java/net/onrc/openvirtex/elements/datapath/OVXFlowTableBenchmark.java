@@ -0,0 +1,186 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowModCommand;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Compares the indexed and the scanned virtual flow table on the FlowMod
+ * paths that used to walk the whole table: strict modify, overlap checked
+ * add with strict delete, and non-strict delete.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXFlowTableBenchmark {
+
+    private static final int EXACT_PRIORITY = 100;
+    private static final int WILDCARD_PRIORITY = 200;
+    private static final int PROBES = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    private int entries;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private OVXFlowTable table;
+    private OVXFlowMod[] modify;
+    private OVXFlowMod[] add;
+    private OVXFlowMod[] deleteStrict;
+    private OVXFlowMod[] delete;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the controller only holds settings here, nothing is booted
+        new OpenVirteXController(new CmdLineSettings());
+        this.table = new OVXFlowTable(new OVXSingleSwitch(1L, 1), this.indexed);
+        for (int i = 0; i < this.entries; i++) {
+            this.table.addFlowMod(this.entry(i, OFFlowModCommand.ADD),
+                    this.table.getCookie());
+        }
+        this.modify = new OVXFlowMod[PROBES];
+        this.add = new OVXFlowMod[PROBES];
+        this.deleteStrict = new OVXFlowMod[PROBES];
+        this.delete = new OVXFlowMod[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int existing = (int) ((long) i * this.entries / PROBES);
+            this.modify[i] = this.entry(existing, OFFlowModCommand.MODIFY_STRICT);
+            this.add[i] = this.newEntry(i, OFFlowModCommand.ADD);
+            this.deleteStrict[i] = this.newEntry(i, OFFlowModCommand.DELETE_STRICT);
+            this.delete[i] = new OVXFlowMod(this.factory.buildFlowDelete()
+                    .setMatch(this.factory.buildMatch()
+                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                            .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0b000000 + i))
+                            .build())
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public boolean modifyStrict() {
+        return this.table.handleFlowMods(this.modify[this.probe()]);
+    }
+
+    @Benchmark
+    public boolean addCheckOverlapThenDeleteStrict() {
+        int i = this.probe();
+        return this.table.handleFlowMods(this.add[i])
+                & this.table.handleFlowMods(this.deleteStrict[i]);
+    }
+
+    @Benchmark
+    public boolean deleteNonStrict() {
+        return this.table.handleFlowMods(this.delete[this.probe()]);
+    }
+
+    private int probe() {
+        this.next = (this.next + 1) & (PROBES - 1);
+        return this.next;
+    }
+
+    /*
+     * Three entries out of four are host-pair exact matches, the others are
+     * destination prefixes spread over a few priorities.
+     */
+    private OVXFlowMod entry(int i, OFFlowModCommand command) {
+        if (i % 4 == 3) {
+            Match match = this.factory.buildMatch()
+                    .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a000000 + i))
+                    .build();
+            return this.flowMod(match, WILDCARD_PRIORITY + i % 8, command);
+        }
+        Match match = this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(i % 48 + 1))
+                .setExact(MatchField.ETH_SRC, MacAddress.of(i + 1))
+                .setExact(MatchField.ETH_DST, MacAddress.of((1L << 24) + i + 1))
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IPV4_SRC, IPv4Address.of(0x0a000000 + i))
+                .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a800000 + i))
+                .build();
+        return this.flowMod(match, EXACT_PRIORITY, command);
+    }
+
+    private OVXFlowMod newEntry(int i, OFFlowModCommand command) {
+        Match match = this.factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(60 + i % 4))
+                .setExact(MatchField.ETH_SRC, MacAddress.of((1L << 32) + i))
+                .setExact(MatchField.ETH_DST, MacAddress.of((1L << 33) + i))
+                .build();
+        return this.flowMod(match, EXACT_PRIORITY, command);
+    }
+
+    private OVXFlowMod flowMod(Match match, int priority, OFFlowModCommand command) {
+        switch (command) {
+            case ADD:
+                return new OVXFlowMod(this.factory.buildFlowAdd()
+                        .setMatch(match)
+                        .setPriority(priority)
+                        .setFlags(Collections.singleton(OFFlowModFlags.CHECK_OVERLAP))
+                        .build());
+            case MODIFY_STRICT:
+                return new OVXFlowMod(this.factory.buildFlowModifyStrict()
+                        .setMatch(match)
+                        .setPriority(priority)
+                        .build());
+            default:
+                return new OVXFlowMod(this.factory.buildFlowDeleteStrict()
+                        .setMatch(match)
+                        .setPriority(priority)
+                        .build());
+        }
+    }
+
+}
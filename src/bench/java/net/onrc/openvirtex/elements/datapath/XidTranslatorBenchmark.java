@@ -0,0 +1,93 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Measures a request and its reply going through an {@link XidTranslator}:
+ * the XID is translated on the way to the switch and untranslated when
+ * the reply comes back. Requests arrive faster than their entries expire,
+ * so once the translator has filled up every translation reuses the
+ * oldest slot it probes, as it would under sustained load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XidTranslatorBenchmark {
+
+    @Param({"1024", "65536"})
+    private int capacity;
+
+    private XidTranslator<Object> translator;
+    private final Object sender = new Object();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.translator = new XidTranslator<Object>(this.capacity);
+    }
+
+    @Benchmark
+    public Object roundTrip(final Requester requester) {
+        return this.translator.untranslate(this.translator.translate(
+                requester.xid++, this.sender, OFType.BARRIER_REQUEST));
+    }
+
+    /**
+     * One switch connection per thread, shared by four tenant controllers.
+     *
+     * @param requester the per thread XID source
+     * @return the reply destination
+     */
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public Object contendedRoundTrip(final Requester requester) {
+        return this.roundTrip(requester);
+    }
+
+    /**
+     * XIDs sent by one tenant controller.
+     */
+    @State(Scope.Thread)
+    public static class Requester {
+        private int xid;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.role;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.io.DiscardChannel;
+import net.onrc.openvirtex.elements.datapath.role.RoleManager.Role;
+import net.onrc.openvirtex.exceptions.UnknownRoleException;
+
+import org.jboss.netty.channel.Channel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+
+/**
+ * Measures the role check of a flow mod sent to a virtual switch shared by
+ * a cluster of controllers: one master, whose messages are admitted, and
+ * slaves, whose messages are denied. The contended group checks messages
+ * from four threads while another controller keeps reconnecting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoleManagerBenchmark {
+
+    @Param({"3", "4", "5"})
+    private int controllers;
+
+    private final OFMessage flowMod = OFFactories.getFactory(OFVersion.OF_13)
+            .buildFlowAdd().build();
+    private final Channel reconnecting = new DiscardChannel();
+    private RoleManager roleMan;
+    private Channel master;
+    private Channel slave;
+
+    @Setup(Level.Trial)
+    public void setUp() throws UnknownRoleException {
+        this.roleMan = new RoleManager(1);
+        for (int i = 0; i < this.controllers; i++) {
+            Channel c = new DiscardChannel();
+            this.roleMan.addController(c);
+            if (i == 0) {
+                this.slave = c;
+            } else if (i == this.controllers - 1) {
+                this.master = c;
+            }
+        }
+        this.roleMan.setRole(this.slave, Role.SLAVE);
+        this.roleMan.setRole(this.master, Role.MASTER);
+    }
+
+    @Benchmark
+    public boolean master() {
+        return this.roleMan.canSend(this.master, this.flowMod);
+    }
+
+    @Benchmark
+    public boolean slave() {
+        return this.roleMan.canSend(this.slave, this.flowMod);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public boolean contendedMaster() {
+        return this.master();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void reconnect() {
+        this.roleMan.addController(this.reconnecting);
+        this.roleMan.removeChannel(this.reconnecting);
+    }
+
+}
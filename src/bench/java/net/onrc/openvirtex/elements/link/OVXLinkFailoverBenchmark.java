@@ -0,0 +1,153 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.link;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.routing.SwitchRoute;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures switching a virtual link, or a big switch route, over to a new
+ * path while the virtual switch it starts from holds a large flow table.
+ * Only one entry in {@code spread} crosses the link or the route, the
+ * others forward between host ports, or along the route the other way.
+ * Each invocation switches to the current path again, which reinstalls the
+ * crossing entries just like a failover does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXLinkFailoverBenchmark {
+
+    @Param({"link", "route"})
+    private String scenario;
+
+    @Param({"50000"})
+    private int entries;
+
+    @Param({"50"})
+    private int spread;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private NetworkFixture fixture;
+    private OVXLink link;
+    private SwitchRoute route;
+    private List<PhysicalLink> path;
+    private byte priority;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(3);
+        final OVXFlowTable table;
+        final OVXPort in;
+        final OVXPort out;
+        final OVXPort other;
+        final int tenantId;
+        if ("link".equals(this.scenario)) {
+            table = (OVXFlowTable) this.fixture.getEdgeSwitch().getFlowTable();
+            in = this.fixture.getEdgePort(0);
+            out = this.fixture.getLinkPort();
+            other = this.fixture.getEdgePort(1);
+            tenantId = this.fixture.getLinkNetwork().getTenantId();
+            this.link = out.getLink().getOutLink();
+            this.path = OVXMap.getInstance().getPhysicalLinks(this.link);
+            this.priority = this.link.getPriority();
+        } else {
+            table = (OVXFlowTable) this.fixture.getBigSwitch().getFlowTable();
+            in = this.fixture.getBigPort(0);
+            out = this.fixture.getBigPort(1);
+            other = in;
+            tenantId = this.fixture.getBigNetwork().getTenantId();
+            this.route = this.fixture.getBigSwitch().getRoute(in, out);
+            this.path = OVXMap.getInstance().getRoute(this.route);
+            this.priority = this.route.getPriority();
+        }
+        for (int i = 0; i < this.entries; i++) {
+            final boolean crossing = i % this.spread == 0;
+            // the route entries that do not cross it go the other way
+            final OVXPort from = crossing || this.link != null ? in : out;
+            this.add(table, tenantId, i, from, crossing ? out : other);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public void switchPath() {
+        if (this.link != null) {
+            this.link.switchPath(this.path, this.priority);
+        } else {
+            this.route.switchPath(this.path, this.priority);
+        }
+    }
+
+    private void add(final OVXFlowTable table, final int tenantId,
+                     final int i, final OVXPort in, final OVXPort out) {
+        final OFAction output = this.factory.actions().buildOutput()
+                .setPort(OFPort.of(out.getPortNumber()))
+                .build();
+        final OVXFlowMod fm = new OVXFlowMod(this.factory.buildFlowAdd()
+                .setMatch(this.factory.buildMatch()
+                        .setExact(MatchField.IN_PORT, OFPort.of(in.getPortNumber()))
+                        .setExact(MatchField.ETH_SRC, NetworkFixture.hostMac(tenantId, 1))
+                        .setExact(MatchField.ETH_DST, NetworkFixture.hostMac(tenantId, 3))
+                        .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                        .setExact(MatchField.IPV4_DST, IPv4Address.of(0x0a000000 + i))
+                        .build())
+                .setActions(Collections.singletonList(output))
+                .build());
+        table.addFlowMod(fm, table.getCookie());
+    }
+}
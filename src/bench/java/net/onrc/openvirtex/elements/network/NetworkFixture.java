@@ -0,0 +1,374 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.core.io.DiscardChannel;
+import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.packet.ARP;
+import net.onrc.openvirtex.packet.Data;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.packet.IPv4;
+import net.onrc.openvirtex.packet.UDP;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPortFeatures;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * In-memory physical and virtual networks for the benchmarks. Nothing is
+ * connected to a socket or a database: switches and tenant controllers sit
+ * behind {@link DiscardChannel}s.
+ * <p>
+ * The physical network is a grid of OpenFlow 1.3 switches. Ports 1 and 2
+ * of each switch face hosts, ports 3 to 6 the north, east, south and west
+ * neighbours. Two virtual networks are booted on top of it:
+ * <ul>
+ * <li>the link network: two single switches on the first two physical
+ * switches, joined by a virtual link, with two hosts on the first one and
+ * one host on the second one;</li>
+ * <li>the big network: a big switch over the whole grid, with a host at
+ * two opposite corners.</li>
+ * </ul>
+ * The fixture relies on the singletons, so build at most one per JVM.
+ */
+public final class NetworkFixture {
+
+    public static final short HOST_PORT = 1;
+    public static final short SECOND_HOST_PORT = 2;
+    private static final short NORTH = 3;
+    private static final short EAST = 4;
+    private static final short SOUTH = 5;
+    private static final short WEST = 6;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private final int size;
+    private final PhysicalSwitch[] switches;
+    private final DiscardChannel physicalChannel = new DiscardChannel();
+    private final DiscardChannel controllerChannel = new DiscardChannel();
+
+    private OVXNetwork linkNetwork;
+    private OVXSwitch edgeSwitch;
+    private OVXSwitch remoteSwitch;
+    private OVXPort[] edgePorts;
+    private OVXPort linkPort;
+    private OVXNetwork bigNetwork;
+    private OVXBigSwitch bigSwitch;
+    private OVXPort[] bigPorts;
+
+    /**
+     * Builds a size x size grid and boots the virtual networks on it.
+     *
+     * @param size the number of switches per side, at least 2
+     * @throws Exception if the fixture cannot be built
+     */
+    public NetworkFixture(final int size) throws Exception {
+        this.size = size;
+        this.switches = new PhysicalSwitch[size * size];
+        // the controller only holds settings here, nothing is booted
+        new OpenVirteXController(new CmdLineSettings());
+        this.buildPhysicalNetwork();
+        this.buildLinkNetwork();
+        this.buildBigNetwork();
+    }
+
+    /**
+     * Stops the link discovery timer, which would otherwise keep the JVM
+     * from exiting.
+     */
+    public void close() {
+        PhysicalNetwork.getTimer().stop();
+    }
+
+    /**
+     * Gets the MAC address of a host, unique across tenants.
+     *
+     * @param tenantId the tenant ID
+     * @param host the host number, counting from 1
+     * @return the MAC address
+     */
+    public static MacAddress hostMac(final int tenantId, final int host) {
+        return MacAddress.of((long) tenantId << 8 | host);
+    }
+
+    /**
+     * Gets the virtual IP address of a host.
+     *
+     * @param host the host number, counting from 1
+     * @return the IP address
+     */
+    public static int hostIp(final int host) {
+        return 0x0a000000 | host;
+    }
+
+    public PhysicalSwitch getPhysicalSwitch(final int row, final int col) {
+        return this.switches[row * this.size + col];
+    }
+
+    public PhysicalSwitch getFirstPhysicalSwitch() {
+        return this.switches[0];
+    }
+
+    public PhysicalSwitch getLastPhysicalSwitch() {
+        return this.switches[this.switches.length - 1];
+    }
+
+    public OVXNetwork getLinkNetwork() {
+        return this.linkNetwork;
+    }
+
+    /**
+     * Gets the switch of the link network with two hosts.
+     *
+     * @return the virtual switch
+     */
+    public OVXSwitch getEdgeSwitch() {
+        return this.edgeSwitch;
+    }
+
+    public OVXSwitch getRemoteSwitch() {
+        return this.remoteSwitch;
+    }
+
+    /**
+     * Gets a host facing port of the edge switch.
+     *
+     * @param i the host index, 0 or 1
+     * @return the virtual port
+     */
+    public OVXPort getEdgePort(final int i) {
+        return this.edgePorts[i];
+    }
+
+    /**
+     * Gets the port of the edge switch the virtual link starts from.
+     *
+     * @return the virtual port
+     */
+    public OVXPort getLinkPort() {
+        return this.linkPort;
+    }
+
+    public OVXNetwork getBigNetwork() {
+        return this.bigNetwork;
+    }
+
+    public OVXBigSwitch getBigSwitch() {
+        return this.bigSwitch;
+    }
+
+    /**
+     * Gets a host facing port of the big switch.
+     *
+     * @param i 0 for the port on the first physical switch, 1 for the port
+     *            on the last one
+     * @return the virtual port
+     */
+    public OVXPort getBigPort(final int i) {
+        return this.bigPorts[i];
+    }
+
+    /**
+     * Gets the number of messages written to the physical switches.
+     *
+     * @return the number of messages
+     */
+    public long getSouthboundMessages() {
+        return this.physicalChannel.getMessages();
+    }
+
+    /**
+     * Gets the number of messages written to the tenant controllers.
+     *
+     * @return the number of messages
+     */
+    public long getNorthboundMessages() {
+        return this.controllerChannel.getMessages();
+    }
+
+    /**
+     * Builds a broadcast ARP request frame.
+     *
+     * @param src the sender MAC address
+     * @param srcIp the sender IP address
+     * @param dstIp the target IP address
+     * @return the frame
+     */
+    public static byte[] arpRequest(final MacAddress src, final int srcIp,
+                                    final int dstIp) {
+        final ARP arp = new ARP()
+                .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                .setProtocolType(ARP.PROTO_TYPE_IP)
+                .setHardwareAddressLength((byte) 6)
+                .setProtocolAddressLength((byte) 4)
+                .setOpCode(ARP.OP_REQUEST)
+                .setSenderHardwareAddress(src.getBytes())
+                .setSenderProtocolAddress(srcIp)
+                .setTargetHardwareAddress(new byte[6])
+                .setTargetProtocolAddress(dstIp);
+        final Ethernet eth = new Ethernet()
+                .setSourceMACAddress(src.getBytes())
+                .setDestinationMACAddress(MacAddress.BROADCAST.getBytes())
+                .setEtherType(Ethernet.TYPE_ARP);
+        eth.setPayload(arp);
+        return eth.serialize();
+    }
+
+    /**
+     * Builds a UDP over IPv4 frame with a 64 byte payload.
+     *
+     * @param src the source MAC address
+     * @param dst the destination MAC address
+     * @param srcIp the source IP address
+     * @param dstIp the destination IP address
+     * @return the frame
+     */
+    public static byte[] udp(final MacAddress src, final MacAddress dst,
+                             final int srcIp, final int dstIp) {
+        final UDP udp = new UDP()
+                .setSourcePort((short) 5000)
+                .setDestinationPort((short) 5001);
+        udp.setPayload(new Data(new byte[64]));
+        final IPv4 ip = new IPv4()
+                .setTtl((byte) 64)
+                .setProtocol(IPv4.PROTOCOL_UDP)
+                .setSourceAddress(srcIp)
+                .setDestinationAddress(dstIp);
+        ip.setPayload(udp);
+        final Ethernet eth = new Ethernet()
+                .setSourceMACAddress(src.getBytes())
+                .setDestinationMACAddress(dst.getBytes())
+                .setEtherType(Ethernet.TYPE_IPV4);
+        eth.setPayload(ip);
+        return eth.serialize();
+    }
+
+    private void buildPhysicalNetwork() {
+        final PhysicalNetwork pnet = PhysicalNetwork.getInstance();
+        for (int i = 0; i < this.switches.length; i++) {
+            final long dpid = i + 1;
+            final PhysicalSwitch sw = new PhysicalSwitch(dpid, OFVersion.OF_13);
+            sw.setChannel(this.physicalChannel);
+            sw.setConnected(true);
+            pnet.addSwitch(sw);
+            for (short p = HOST_PORT; p <= WEST; p++) {
+                sw.addPort(new PhysicalPort(this.factory.buildPortDesc()
+                        .setPortNo(OFPort.of(p))
+                        .setHwAddr(MacAddress.of(dpid << 16 | p))
+                        .setName("s" + dpid + "-eth" + p)
+                        .setCurr(Collections.singleton(OFPortFeatures.PF_10GB_FD))
+                        .build(), sw, true));
+            }
+            this.switches[i] = sw;
+        }
+        for (int row = 0; row < this.size; row++) {
+            for (int col = 0; col < this.size; col++) {
+                final PhysicalSwitch sw = this.getPhysicalSwitch(row, col);
+                if (col + 1 < this.size) {
+                    this.connect(sw.getPort(EAST),
+                            this.getPhysicalSwitch(row, col + 1).getPort(WEST));
+                }
+                if (row + 1 < this.size) {
+                    this.connect(sw.getPort(SOUTH),
+                            this.getPhysicalSwitch(row + 1, col).getPort(NORTH));
+                }
+            }
+        }
+    }
+
+    private void connect(final PhysicalPort a, final PhysicalPort b) {
+        PhysicalNetwork.getInstance().createLink(a, b);
+        PhysicalNetwork.getInstance().createLink(b, a);
+    }
+
+    private void buildLinkNetwork() throws Exception {
+        this.linkNetwork = new OVXNetwork(new ArrayList<String>(),
+                new OVXIPAddress("10.0.0.0", -1), (short) 16);
+        this.linkNetwork.register();
+        final long first = this.getPhysicalSwitch(0, 0).getSwitchId();
+        final long second = this.getPhysicalSwitch(0, 1).getSwitchId();
+        this.edgeSwitch = this.linkNetwork.createSwitch(
+                Collections.singletonList(first));
+        this.remoteSwitch = this.linkNetwork.createSwitch(
+                Collections.singletonList(second));
+        this.edgePorts = new OVXPort[] {
+            this.linkNetwork.createPort(first, HOST_PORT),
+            this.linkNetwork.createPort(first, SECOND_HOST_PORT)};
+        final OVXPort remoteHost = this.linkNetwork.createPort(second, HOST_PORT);
+        this.linkPort = this.linkNetwork.createPort(first, EAST);
+        final OVXPort remoteLink = this.linkNetwork.createPort(second, WEST);
+        final int tenantId = this.linkNetwork.getTenantId();
+        for (int i = 0; i < this.edgePorts.length; i++) {
+            this.linkNetwork.connectHost(this.edgeSwitch.getSwitchId(),
+                    this.edgePorts[i].getPortNumber(), hostMac(tenantId, i + 1));
+        }
+        this.linkNetwork.connectHost(this.remoteSwitch.getSwitchId(),
+                remoteHost.getPortNumber(), hostMac(tenantId, 3));
+        this.linkNetwork.connectLink(this.edgeSwitch.getSwitchId(),
+                this.linkPort.getPortNumber(), this.remoteSwitch.getSwitchId(),
+                remoteLink.getPortNumber(), "spf", (byte) 0);
+        this.boot(this.linkNetwork);
+    }
+
+    private void buildBigNetwork() throws Exception {
+        this.bigNetwork = new OVXNetwork(new ArrayList<String>(),
+                new OVXIPAddress("10.0.0.0", -1), (short) 16);
+        this.bigNetwork.register();
+        final List<Long> dpids = new ArrayList<Long>();
+        for (PhysicalSwitch sw : this.switches) {
+            dpids.add(sw.getSwitchId());
+        }
+        this.bigSwitch = (OVXBigSwitch) this.bigNetwork.createSwitch(dpids);
+        this.bigNetwork.setOVXBigSwitchRouting(this.bigSwitch.getSwitchId(),
+                "spf", (byte) 1);
+        this.bigPorts = new OVXPort[] {
+            this.bigNetwork.createPort(this.getFirstPhysicalSwitch()
+                    .getSwitchId(), SECOND_HOST_PORT),
+            this.bigNetwork.createPort(this.getLastPhysicalSwitch()
+                    .getSwitchId(), SECOND_HOST_PORT)};
+        final int tenantId = this.bigNetwork.getTenantId();
+        for (int i = 0; i < this.bigPorts.length; i++) {
+            this.bigNetwork.connectHost(this.bigSwitch.getSwitchId(),
+                    this.bigPorts[i].getPortNumber(), hostMac(tenantId, i + 1));
+        }
+        this.boot(this.bigNetwork);
+    }
+
+    private void boot(final OVXNetwork net) {
+        net.boot();
+        for (OVXSwitch vsw : net.getSwitches()) {
+            vsw.setChannel(this.controllerChannel);
+            vsw.setConnected(true);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures {@link OVXFlowMod#devirtualize(OVXSwitch)} of FlowMods sent by a
+ * tenant controller: between two hosts of a single switch, across a
+ * virtual link, and across a big switch. The FlowMods cycle through a
+ * fixed set of matches, so the virtual flow table stops growing after the
+ * first pass and each one replaces the entry added by its predecessor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXFlowModBenchmark {
+
+    private static final int MATCHES = 256;
+
+    @Param({"single", "link", "big"})
+    private String scenario;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private NetworkFixture fixture;
+    private OVXSwitch sw;
+    private OFFlowMod[] flowMods;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(4);
+        final OVXPort in;
+        final OVXPort out;
+        final int tenantId;
+        if ("big".equals(this.scenario)) {
+            this.sw = this.fixture.getBigSwitch();
+            in = this.fixture.getBigPort(0);
+            out = this.fixture.getBigPort(1);
+            tenantId = this.fixture.getBigNetwork().getTenantId();
+        } else {
+            this.sw = this.fixture.getEdgeSwitch();
+            in = this.fixture.getEdgePort(0);
+            out = "link".equals(this.scenario) ? this.fixture.getLinkPort()
+                    : this.fixture.getEdgePort(1);
+            tenantId = this.fixture.getLinkNetwork().getTenantId();
+        }
+        this.flowMods = new OFFlowMod[MATCHES];
+        for (int i = 0; i < MATCHES; i++) {
+            this.flowMods[i] = this.factory.buildFlowAdd()
+                    .setMatch(this.factory.buildMatch()
+                            .setExact(MatchField.IN_PORT,
+                                    OFPort.of(in.getPortNumber()))
+                            .setExact(MatchField.ETH_SRC,
+                                    NetworkFixture.hostMac(tenantId, 1))
+                            .setExact(MatchField.ETH_DST,
+                                    NetworkFixture.hostMac(tenantId, 2))
+                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                            .setExact(MatchField.IPV4_SRC, IPv4Address.of(
+                                    NetworkFixture.hostIp(1)))
+                            .setExact(MatchField.IPV4_DST, IPv4Address.of(
+                                    NetworkFixture.hostIp(0x100 + i)))
+                            .build())
+                    .setActions(Collections.<OFAction>singletonList(
+                            this.factory.actions().output(
+                                    OFPort.of(out.getPortNumber()), 0xffff)))
+                    .setFlags(Collections.singleton(OFFlowModFlags.SEND_FLOW_REM))
+                    .setPriority(100)
+                    .build();
+        }
+        // first pass allocates the physical IPs and flow IDs
+        for (int i = 0; i < MATCHES; i++) {
+            this.devirtualize();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public OVXFlowMod devirtualize() {
+        final OVXFlowMod fm = new OVXFlowMod(this.flowMods[this.next]);
+        this.next = (this.next + 1) % MATCHES;
+        fm.devirtualize(this.sw);
+        return fm;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * Measures the decoding of a frame into an exact match with
+ * {@link OVXMessageUtil#loadFromPacket(byte[], short, OFVersion)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXMessageUtilBenchmark {
+
+    @Param({"arp", "ipv4"})
+    private String frame;
+
+    @Param({"OF_10", "OF_13"})
+    private OFVersion version;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MacAddress src = NetworkFixture.hostMac(1, 1);
+        this.data = "arp".equals(this.frame)
+                ? NetworkFixture.arpRequest(src, NetworkFixture.hostIp(1),
+                        NetworkFixture.hostIp(2))
+                : NetworkFixture.udp(src, NetworkFixture.hostMac(1, 2),
+                        NetworkFixture.hostIp(1), NetworkFixture.hostIp(2));
+    }
+
+    @Benchmark
+    public Match loadFromPacket() {
+        return OVXMessageUtil.loadFromPacket(this.data,
+                NetworkFixture.HOST_PORT, this.version);
+    }
+
+}
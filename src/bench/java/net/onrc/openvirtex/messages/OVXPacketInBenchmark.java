@@ -0,0 +1,92 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * Measures {@link OVXPacketIn#virtualize(PhysicalSwitch)} of frames sent by
+ * a host to its edge switch, from the decoding of the frame to the
+ * PacketIn written to the tenant controller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXPacketInBenchmark {
+
+    @Param({"arp", "ipv4"})
+    private String frame;
+
+    private PhysicalSwitch sw;
+    private OFMessage packetIn;
+
+    private NetworkFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(2);
+        final int tenantId = this.fixture.getLinkNetwork().getTenantId();
+        final MacAddress src = NetworkFixture.hostMac(tenantId, 1);
+        final byte[] data = "arp".equals(this.frame)
+                ? NetworkFixture.arpRequest(src, NetworkFixture.hostIp(1),
+                        NetworkFixture.hostIp(2))
+                : NetworkFixture.udp(src, NetworkFixture.hostMac(tenantId, 2),
+                        NetworkFixture.hostIp(1), NetworkFixture.hostIp(2));
+        this.sw = this.fixture.getFirstPhysicalSwitch();
+        this.packetIn = new OVXPacketIn(data, NetworkFixture.HOST_PORT,
+                OFVersion.OF_13).getOFMessage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public OVXPacketIn virtualize() {
+        final OVXPacketIn pi = new OVXPacketIn(this.packetIn);
+        pi.virtualize(this.sw);
+        return pi;
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.projectfloodlight.openflow.exceptions.OFParseError;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Measures {@link OVXPacketOut#devirtualize(OVXSwitch)} of unbuffered
+ * PacketOuts sent by a tenant controller, out of a host facing port of
+ * the same switch or into a virtual link.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OVXPacketOutBenchmark {
+
+    @Param({"edge", "link"})
+    private String output;
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private NetworkFixture fixture;
+    private OVXSwitch sw;
+    private OFPacketOut packetOut;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(2);
+        final int tenantId = this.fixture.getLinkNetwork().getTenantId();
+        final int dst = "link".equals(this.output) ? 3 : 2;
+        final OVXPort out = "link".equals(this.output) ? this.fixture.getLinkPort()
+                : this.fixture.getEdgePort(1);
+        this.sw = this.fixture.getEdgeSwitch();
+        this.packetOut = this.factory.buildPacketOut()
+                .setInPort(OFPort.of(this.fixture.getEdgePort(0).getPortNumber()))
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setActions(Collections.<OFAction>singletonList(
+                        this.factory.actions().output(
+                                OFPort.of(out.getPortNumber()), 0xffff)))
+                .setData(NetworkFixture.udp(
+                        NetworkFixture.hostMac(tenantId, 1),
+                        NetworkFixture.hostMac(tenantId, dst),
+                        NetworkFixture.hostIp(1), NetworkFixture.hostIp(dst)))
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public OVXPacketOut devirtualize() throws OFParseError {
+        final OVXPacketOut po = new OVXPacketOut(this.packetOut);
+        po.devirtualize(this.sw);
+        return po;
+    }
+
+}
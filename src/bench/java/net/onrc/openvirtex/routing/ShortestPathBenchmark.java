@@ -0,0 +1,92 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.network.NetworkFixture;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ShortestPath#getRoute(OVXBigSwitch, OVXPort, OVXPort)}
+ * between two opposite corners of a big switch over a grid, both when the
+ * route is already in the route map and when it has to be computed, with
+ * one backup path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShortestPathBenchmark {
+
+    @Param({"4", "8"})
+    private int size;
+
+    private final ShortestPath spf = new ShortestPath();
+    private NetworkFixture fixture;
+    private OVXBigSwitch sw;
+    private OVXPort src;
+    private OVXPort dst;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.fixture = new NetworkFixture(this.size);
+        this.sw = this.fixture.getBigSwitch();
+        this.src = this.fixture.getBigPort(0);
+        this.dst = this.fixture.getBigPort(1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.fixture.close();
+    }
+
+    @Benchmark
+    public SwitchRoute cached() {
+        return this.spf.getRoute(this.sw, this.src, this.dst);
+    }
+
+    @Benchmark
+    public SwitchRoute computed() {
+        final SwitchRoute route = this.spf.getRoute(this.sw, this.src,
+                this.dst);
+        // drops the route and its reverse, so the next call computes again
+        this.sw.unregisterRoute(route.getRouteId());
+        return route;
+    }
+
+}
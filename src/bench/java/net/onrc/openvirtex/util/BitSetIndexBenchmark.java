@@ -0,0 +1,126 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.cmd.CmdLineSettings;
+import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
+import net.onrc.openvirtex.util.BitSetIndex.IndexType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Allocates a million flow IDs from an empty allocator, and releases and
+ * reallocates IDs in a full one, against the synchronized BitSet scanned
+ * from 0 the allocator used to be.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BitSetIndexBenchmark {
+
+    private static final int ALLOCATIONS = 1000000;
+    private static final int CHURN = 10000;
+
+    @Param({"true", "false"})
+    private boolean bitmap;
+
+    private BitSetIndex index;
+    private BitSet set;
+    private int[] released;
+
+    @Setup(Level.Trial)
+    public void setUpController() {
+        // the controller only holds settings here, nothing is booted
+        new OpenVirteXController(new CmdLineSettings());
+        this.released = new int[CHURN];
+        for (int i = 0; i < CHURN; i++) {
+            this.released[i] = 1 + (int) ((long) i * 7919 % ALLOCATIONS);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        this.index = new BitSetIndex(IndexType.FLOW_ID);
+        this.set = new BitSet();
+        this.set.set(0);
+    }
+
+    @Benchmark
+    public int allocate() throws IndexOutOfBoundException {
+        int last = 0;
+        for (int i = 0; i < ALLOCATIONS; i++) {
+            last = this.next();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public int releaseAndReallocate() throws IndexOutOfBoundException {
+        for (int i = 0; i < ALLOCATIONS; i++) {
+            this.next();
+        }
+        int last = 0;
+        for (int i = 0; i < CHURN; i++) {
+            this.release(this.released[i]);
+            last = this.next();
+        }
+        return last;
+    }
+
+    private int next() throws IndexOutOfBoundException {
+        if (this.bitmap) {
+            return this.index.getNewIndex();
+        }
+        synchronized (this.set) {
+            final int i = this.set.nextClearBit(0);
+            this.set.set(i);
+            return i;
+        }
+    }
+
+    private void release(final int i) {
+        if (this.bitmap) {
+            this.index.releaseIndex(i);
+            return;
+        }
+        synchronized (this.set) {
+            this.set.clear(i);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers;
+
+import java.util.HashMap;
+
+import net.onrc.openvirtex.api.service.handlers.admin.SetTracing;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Request;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+import com.thetransactioncompany.jsonrpc2.server.MessageContext;
+import com.thetransactioncompany.jsonrpc2.server.RequestHandler;
+
+/**
+ * Creates handlers for all admin API calls, which change the settings of
+ * the hypervisor itself, and selects the appropriate handler when
+ * processing a request.
+ */
+public class AdminHandler extends AbstractHandler implements RequestHandler {
+
+    /**
+     * Whether tracing is enabled.
+     */
+    public static final String ENABLED = "enabled";
+    /**
+     * Default tracing sample rate.
+     */
+    public static final String RATE = "rate";
+    /**
+     * Tracing sample rates by tenant ID.
+     */
+    public static final String TENANT_RATES = "tenantRates";
+    /**
+     * Tracing sample rates by message type.
+     */
+    public static final String TYPE_RATES = "typeRates";
+
+    @SuppressWarnings({ "serial", "rawtypes" })
+    private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
+        {
+            this.put("setTracing", new SetTracing());
+        }
+    };
+
+    @Override
+    public String[] handledRequests() {
+        return this.handlers.keySet().toArray(new String[] {});
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public JSONRPC2Response process(final JSONRPC2Request req,
+                                    final MessageContext ctxt) {
+
+        final ApiHandler m = this.handlers.get(req.getMethod());
+        if (m != null) {
+
+            if (m.getType() != JSONRPC2ParamsType.NO_PARAMS
+                    && m.getType() != req.getParamsType()) {
+                return new JSONRPC2Response(new JSONRPC2Error(
+                        JSONRPC2Error.INVALID_PARAMS.getCode(), req.getMethod()
+                        + " requires: " + m.getType() + "; got: "
+                        + req.getParamsType()), req.getID());
+            }
+
+            switch (m.getType()) {
+                case NO_PARAMS:
+                    return m.process(null);
+                case ARRAY:
+                    return m.process(req.getPositionalParams());
+                case OBJECT:
+                    return m.process(req.getNamedParams());
+                default:
+                    break;
+            }
+        }
+
+        return new JSONRPC2Response(JSONRPC2Error.METHOD_NOT_FOUND, req.getID());
+    }
+
+}
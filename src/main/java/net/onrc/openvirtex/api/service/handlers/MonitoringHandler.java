@@ -21,9 +21,19 @@ package net.onrc.openvirtex.api.service.handlers;
 
 import java.util.HashMap;
 
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetChannelStats;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetDBStats;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetFlowCleanupStats;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetFlowIdUsage;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetIndexUtilization;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetPacketInBuffers;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalFlowtable;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalHosts;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetPhysicalTopology;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetRestoreStatus;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetRoleStats;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetRouteInstalls;
+import net.onrc.openvirtex.api.service.handlers.monitoring.GetStatsPollStats;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetSubnet;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualAddressMapping;
 import net.onrc.openvirtex.api.service.handlers.monitoring.GetVirtualFlowtable;
@@ -63,6 +73,14 @@ public class MonitoringHandler extends AbstractHandler implements
      * Virtual datapath ID.
      */
     public static final String VDPID = "vdpid";
+    /**
+     * Topology version.
+     */
+    public static final String VERSION = "version";
+    /**
+     * Whether the topology is unchanged since the given version.
+     */
+    public static final String UNCHANGED = "unchanged";
 
     @SuppressWarnings({ "serial", "rawtypes" })
     private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
@@ -78,6 +96,16 @@ public class MonitoringHandler extends AbstractHandler implements
             this.put("getVirtualFlowtable", new GetVirtualFlowtable());
             this.put("getPhysicalFlowtable", new GetPhysicalFlowtable());
             this.put("getVirtualAddressMapping", new GetVirtualAddressMapping());
+            this.put("getChannelStats", new GetChannelStats());
+            this.put("getIndexUtilization", new GetIndexUtilization());
+            this.put("getFlowIdUsage", new GetFlowIdUsage());
+            this.put("getPacketInBuffers", new GetPacketInBuffers());
+            this.put("getFlowCleanupStats", new GetFlowCleanupStats());
+            this.put("getRouteInstalls", new GetRouteInstalls());
+            this.put("getDBStats", new GetDBStats());
+            this.put("getRestoreStatus", new GetRestoreStatus());
+            this.put("getStatsPollStats", new GetStatsPollStats());
+            this.put("getRoleStats", new GetRoleStats());
         }
     };
 
@@ -105,7 +133,9 @@ public class MonitoringHandler extends AbstractHandler implements
 
             switch (m.getType()) {
                 case NO_PARAMS:
-                    return m.process(null);
+                    // optional named parameters are passed on
+                    return m.process(req.getParamsType() == JSONRPC2ParamsType.OBJECT
+                            ? req.getNamedParams() : null);
                 case ARRAY:
                     return m.process(req.getPositionalParams());
                 case OBJECT:
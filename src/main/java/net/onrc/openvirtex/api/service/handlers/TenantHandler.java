@@ -148,6 +148,10 @@ public class TenantHandler extends AbstractHandler implements RequestHandler {
      * Keyword for the boot state.
      */
     public static final String IS_BOOTED = "isBooted";
+    /**
+     * Keyword for the number of PacketIns buffered per virtual switch.
+     */
+    public static final String PACKET_IN_BUFFERS = "packetInBuffers";
 
     @SuppressWarnings({ "serial", "rawtypes" })
     private HashMap<String, ApiHandler> handlers = new HashMap<String, ApiHandler>() {
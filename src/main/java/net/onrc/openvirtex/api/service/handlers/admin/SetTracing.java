@@ -0,0 +1,99 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.admin;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.AdminHandler;
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
+import net.onrc.openvirtex.util.MessageTracer;
+
+import org.projectfloodlight.openflow.protocol.OFType;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Enables or disables the tracing of the message pipeline, and sets its
+ * sampling rates. All parameters are optional; without any, the current
+ * settings are returned unchanged.
+ *
+ * @param enabled whether to trace
+ * @param rate the default rate: one event in rate is traced, 0 for none
+ * @param tenantRates rates by tenant ID, negative to remove one
+ * @param typeRates rates by OpenFlow message type name, e.g. PACKET_IN,
+ *            negative to remove one
+ * @return the tracing settings, and the events traced, written and dropped
+ */
+public class SetTracing extends ApiHandler<Map<String, Object>> {
+
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        try {
+            final Boolean enabled = HandlerUtils.<Boolean>fetchField(
+                    AdminHandler.ENABLED, params, false, null);
+            final Number rate = HandlerUtils.<Number>fetchField(
+                    AdminHandler.RATE, params, false, null);
+            final Map<String, Number> tenants = HandlerUtils
+                    .<Map<String, Number>>fetchField(
+                            AdminHandler.TENANT_RATES, params, false,
+                            null);
+            final Map<String, Number> types = HandlerUtils
+                    .<Map<String, Number>>fetchField(
+                            AdminHandler.TYPE_RATES, params, false, null);
+
+            Map<Integer, Integer> tenantRates = null;
+            if (tenants != null) {
+                tenantRates = new HashMap<Integer, Integer>();
+                for (Map.Entry<String, Number> e : tenants.entrySet()) {
+                    tenantRates.put(Integer.valueOf(e.getKey()),
+                            e.getValue().intValue());
+                }
+            }
+            Map<OFType, Integer> typeRates = null;
+            if (types != null) {
+                typeRates = new HashMap<OFType, Integer>();
+                for (Map.Entry<String, Number> e : types.entrySet()) {
+                    typeRates.put(OFType.valueOf(e.getKey()),
+                            e.getValue().intValue());
+                }
+            }
+            MessageTracer.configure(enabled,
+                    rate == null ? null : rate.intValue(), tenantRates,
+                    typeRates);
+            return new JSONRPC2Response(MessageTracer.getStatus(), 0);
+        } catch (ClassCastException | IllegalArgumentException
+                | MissingRequiredField e) {
+            return new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to set tracing : " + e.getMessage()), 0);
+        }
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.OBJECT;
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.io.OVXMessageBatcher;
+import net.onrc.openvirtex.elements.datapath.XidTranslator;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the outbound write batching and XID translation settings and
+ * counters of the OpenFlow channels.
+ *
+ * @return the batch size, flush delay, message, byte and flush counts, and
+ *         translated, evicted, unmatched and late XID counts
+ */
+public class GetChannelStats extends ApiHandler<Object> {
+
+    @Override
+    public JSONRPC2Response process(final Object params) {
+        final OpenVirteXController ctrl = OpenVirteXController.getInstance();
+        final Map<String, Object> stats = OVXMessageBatcher.getStats();
+        stats.put("writeBatchSize", ctrl.getWriteBatchSize());
+        stats.put("writeFlushDelay", ctrl.getWriteFlushDelay());
+        stats.put("xidCapacity", ctrl.getXidCapacity());
+        stats.put("xids", XidTranslator.getStats());
+        return new JSONRPC2Response(stats, 0);
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.NO_PARAMS;
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.db.DBManager;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the database write-behind counters.
+ *
+ * @return the queue capacity and depth, the updates queued and written,
+ *         and the flush latency in microseconds
+ */
+public class GetDBStats extends ApiHandler<Object> {
+
+    @Override
+    public JSONRPC2Response process(final Object params) {
+        return new JSONRPC2Response(DBManager.getInstance().getWriterStats(), 0);
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.NO_PARAMS;
+    }
+
+}
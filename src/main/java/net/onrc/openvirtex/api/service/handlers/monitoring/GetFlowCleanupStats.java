@@ -0,0 +1,56 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.elements.datapath.FlowCleaner;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the flow cleanup counters of each virtual network, summed over all
+ * physical switches.
+ *
+ * @return per tenant id, the cleanups started, completed and timed out,
+ *         the flow entries removed and deletes sent, and the total, maximum
+ *         and last cleanup time in microseconds
+ */
+public class GetFlowCleanupStats extends ApiHandler<Object> {
+
+    @Override
+    public JSONRPC2Response process(final Object params) {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        for (Map.Entry<Integer, Map<String, Long>> e : FlowCleaner
+                .getTenantStats().entrySet()) {
+            stats.put(e.getKey().toString(), e.getValue());
+        }
+        return new JSONRPC2Response(stats, 0);
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.NO_PARAMS;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+
+import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
+
+/**
+ * Gets the PacketIn buffer counters of each virtual switch.
+ *
+ * @return per tenant id and virtual switch name, the buffer capacity, the
+ *         PacketIns buffered, and the buffer ID lookups that hit, missed,
+ *         or found their buffer reused
+ */
+public class GetPacketInBuffers extends ApiHandler<Object> {
+
+    @Override
+    public JSONRPC2Response process(final Object params) {
+        final Map<String, Object> buffers = new HashMap<String, Object>();
+        for (OVXNetwork net : OVXMap.getInstance().listVirtualNetworks()
+                .values()) {
+            final Map<String, Object> switches = new HashMap<String, Object>();
+            for (OVXSwitch sw : net.getSwitches()) {
+                switches.put(sw.getSwitchName(),
+                        sw.getPacketInBuffer().getStats());
+            }
+            buffers.put(net.getTenantId().toString(), switches);
+        }
+        return new JSONRPC2Response(buffers, 0);
+    }
+
+    @Override
+    public JSONRPC2ParamsType getType() {
+        return JSONRPC2ParamsType.NO_PARAMS;
+    }
+
+}
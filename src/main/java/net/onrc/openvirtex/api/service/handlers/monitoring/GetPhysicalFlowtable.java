@@ -30,6 +30,8 @@ import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore.TenantFlowStats;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.InvalidDPIDException;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
@@ -107,8 +109,11 @@ public class GetPhysicalFlowtable extends ApiHandler<Map<String, Object>> {
         LinkedList<OFFlowStatsEntry> flows = new LinkedList<OFFlowStatsEntry>();
         final PhysicalSwitch sw = PhysicalNetwork.getInstance().getSwitch(dpid);
         for (Integer tid : map.listVirtualNetworks().keySet()) {
-            if (sw.getFlowStats(tid) != null) {
-                flows.addAll(sw.getFlowStats(tid));
+            final TenantFlowStats stats = sw.getFlowStats(tid);
+            if (stats != null) {
+                for (FlowStatsStore.Entry e : stats.getEntries().values()) {
+                    flows.addAll(e.getStats());
+                }
             }
         }
         return flows;
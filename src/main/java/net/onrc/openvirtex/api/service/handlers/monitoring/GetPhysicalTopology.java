@@ -22,47 +22,51 @@ package net.onrc.openvirtex.api.service.handlers.monitoring;
 import java.util.Map;
 
 import net.onrc.openvirtex.api.service.handlers.ApiHandler;
+import net.onrc.openvirtex.api.service.handlers.HandlerUtils;
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitchSerializer;
 
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.elements.port.PhysicalPortSerializer;
+import net.onrc.openvirtex.exceptions.MissingRequiredField;
 
-import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
 /**
- * Gets the physical topology in json format.
+ * Gets the physical topology in json format, along with its version. If
+ * the version passed in is still current, only reports that the topology
+ * is unchanged.
  */
-public class GetPhysicalTopology extends ApiHandler<Object> {
+public class GetPhysicalTopology extends ApiHandler<Map<String, Object>> {
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public JSONRPC2Response process(final Object params) {
-        Map<String, Object> result;
-        JSONRPC2Response resp = null;
-        // TODO: gson objects can be shared with other methods
-        final GsonBuilder gsonBuilder = new GsonBuilder();
-        // gsonBuilder.setPrettyPrinting();
-        gsonBuilder.excludeFieldsWithoutExposeAnnotation();
-        gsonBuilder.registerTypeAdapter(PhysicalSwitch.class,
-                new PhysicalSwitchSerializer());
-        gsonBuilder.registerTypeAdapter(PhysicalPort.class,
-                new PhysicalPortSerializer());
-        /*
-         * gsonBuilder.registerTypeAdapter(PhysicalLink.class, new
-         * PhysicalLinkSerializer());
-         */
-
-        final Gson gson = gsonBuilder.create();
+    private final TopologySnapshotCache cache = new TopologySnapshotCache(
+            new GsonBuilder()
+                    .excludeFieldsWithoutExposeAnnotation()
+                    .registerTypeAdapter(PhysicalSwitch.class,
+                            new PhysicalSwitchSerializer())
+                    .registerTypeAdapter(PhysicalPort.class,
+                            new PhysicalPortSerializer())
+                    .create());
 
-        result = gson.fromJson(gson.toJson(PhysicalNetwork.getInstance()),
-                Map.class);
-        resp = new JSONRPC2Response(result, 0);
-        return resp;
+    @Override
+    public JSONRPC2Response process(final Map<String, Object> params) {
+        try {
+            final Number version = params == null ? null : HandlerUtils
+                    .<Number>fetchField(MonitoringHandler.VERSION, params,
+                            false, null);
+            final PhysicalNetwork pnet = PhysicalNetwork.getInstance();
+            return new JSONRPC2Response(this.cache.get(pnet, pnet, version), 0);
+        } catch (ClassCastException | MissingRequiredField e) {
+            return new JSONRPC2Response(new JSONRPC2Error(
+                    JSONRPC2Error.INVALID_PARAMS.getCode(), this.cmdName()
+                    + ": Unable to fetch physical topology : "
+                    + e.getMessage()), 0);
+        }
     }
 
     @Override
@@ -19,7 +19,6 @@
  */
 package net.onrc.openvirtex.api.service.handlers.monitoring;
 
-import java.util.List;
 import java.util.Map;
 
 import net.onrc.openvirtex.api.service.handlers.ApiHandler;
@@ -32,18 +31,25 @@ import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 
-import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
+/**
+ * Gets the hosts of a virtual network in json format. If the topology
+ * version of the virtual network passed in is still current, only reports
+ * that the hosts are unchanged.
+ */
 public class GetVirtualHosts extends ApiHandler<Map<String, Object>> {
 
-    @SuppressWarnings("unchecked")
+    private final TopologySnapshotCache cache = new TopologySnapshotCache(
+            new GsonBuilder()
+                    .registerTypeAdapter(Host.class, new HostSerializer())
+                    .create());
+
     @Override
     public JSONRPC2Response process(final Map<String, Object> params) {
-        List<Object> result;
         JSONRPC2Response resp = null;
         Number tid = null;
         try {
@@ -52,15 +58,10 @@ public class GetVirtualHosts extends ApiHandler<Map<String, Object>> {
             final OVXNetwork vnet = OVXMap.getInstance().getVirtualNetwork(
                     tid.intValue());
 
-            // TODO: gson objects can be shared with other methods
-            final GsonBuilder gsonBuilder = new GsonBuilder();
-            // gsonBuilder.setPrettyPrinting();
-            gsonBuilder.registerTypeAdapter(Host.class, new HostSerializer());
-            final Gson gson = gsonBuilder.create();
-            // TODO Fix this GSON crazy shit.
-
-            result = gson.fromJson(gson.toJson(vnet.getHosts()), List.class);
-            resp = new JSONRPC2Response(result, 0);
+            final Number version = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.VERSION, params, false, null);
+            resp = new JSONRPC2Response(this.cache.get(vnet, vnet.getHosts(),
+                    version), 0);
         } catch (ClassCastException | MissingRequiredField e) {
             resp = new JSONRPC2Response(
                     new JSONRPC2Error(JSONRPC2Error.INVALID_PARAMS.getCode(),
@@ -63,6 +63,9 @@ public class GetVirtualSwitchMapping extends ApiHandler<Map<String, Object>> {
                         l.add(li.getLinkId());
                     }
                     subRes.put("links", l);
+                    subRes.put("routes", ((OVXBigSwitch) vsw).getRouteCount());
+                    subRes.put("routeBootTime",
+                            ((OVXBigSwitch) vsw).getRouteBootTime());
                 } else {
                     subRes.put("links", new LinkedList<>());
                 }
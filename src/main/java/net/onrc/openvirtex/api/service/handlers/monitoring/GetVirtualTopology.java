@@ -33,21 +33,29 @@ import net.onrc.openvirtex.elements.port.OVXPortSerializer;
 import net.onrc.openvirtex.exceptions.MissingRequiredField;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 
-import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Error;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2ParamsType;
 import com.thetransactioncompany.jsonrpc2.JSONRPC2Response;
 
 /**
- * Gets the virtual topology in json format.
+ * Gets the virtual topology in json format, along with its version. If the
+ * version passed in is still current, only reports that the topology is
+ * unchanged.
  */
 public class GetVirtualTopology extends ApiHandler<Map<String, Object>> {
 
-    @SuppressWarnings("unchecked")
+    private final TopologySnapshotCache cache = new TopologySnapshotCache(
+            new GsonBuilder()
+                    .excludeFieldsWithoutExposeAnnotation()
+                    .registerTypeAdapter(OVXSwitch.class,
+                            new OVXSwitchSerializer())
+                    .registerTypeAdapter(OVXPort.class,
+                            new OVXPortSerializer())
+                    .create());
+
     @Override
     public JSONRPC2Response process(final Map<String, Object> params) {
-        Map<String, Object> result;
         JSONRPC2Response resp = null;
         Number tid = null;
         try {
@@ -55,22 +63,9 @@ public class GetVirtualTopology extends ApiHandler<Map<String, Object>> {
                     params, true, null);
             OVXNetwork vnet = OVXMap.getInstance().getVirtualNetwork(
                     tid.intValue());
-            // TODO: gson objects can be shared with other methods
-            final GsonBuilder gsonBuilder = new GsonBuilder();
-            gsonBuilder.setPrettyPrinting();
-            gsonBuilder.excludeFieldsWithoutExposeAnnotation();
-            gsonBuilder.registerTypeAdapter(OVXSwitch.class,
-                    new OVXSwitchSerializer());
-            gsonBuilder.registerTypeAdapter(OVXPort.class,
-                    new OVXPortSerializer());
-            /*
-             * gsonBuilder.registerTypeAdapter(OVXLink.class, new
-             * OVXLinkSerializer());
-             */
-
-            final Gson gson = gsonBuilder.create();
-            result = gson.fromJson(gson.toJson(vnet), Map.class);
-            resp = new JSONRPC2Response(result, 0);
+            final Number version = HandlerUtils.<Number>fetchField(
+                    MonitoringHandler.VERSION, params, false, null);
+            resp = new JSONRPC2Response(this.cache.get(vnet, vnet, version), 0);
             return resp;
         } catch (ClassCastException | MissingRequiredField e) {
             resp = new JSONRPC2Response(new JSONRPC2Error(
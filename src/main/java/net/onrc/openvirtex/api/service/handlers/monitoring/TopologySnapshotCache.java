@@ -0,0 +1,179 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.api.service.handlers.monitoring;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.onrc.openvirtex.api.service.handlers.MonitoringHandler;
+import net.onrc.openvirtex.elements.network.Network;
+
+import net.minidev.json.JSONAware;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+/**
+ * Caches the JSON encoding of a network, or of a part of it, per topology
+ * version, so that monitoring calls polled over and over only encode the
+ * network again once it has changed.
+ * <p>
+ * The cached encoding is handed to the JSON-RPC response as is, without
+ * being parsed back. A client that passes the version it last got is
+ * answered with a short "unchanged" result while that version is current.
+ */
+final class TopologySnapshotCache {
+
+    private final Gson gson;
+    // Network to its last encoding; networks that are gone drop out
+    private final Map<Network<?, ?, ?>, Snapshot> snapshots = Collections
+            .synchronizedMap(new WeakHashMap<Network<?, ?, ?>, Snapshot>());
+
+    /**
+     * Creates an empty cache that encodes with the given Gson instance.
+     *
+     * @param gson the Gson instance
+     */
+    TopologySnapshotCache(final Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * Gets the result of a monitoring call on the given network. If the
+     * encoding of the source object is a JSON object, it carries the
+     * topology version it was taken at.
+     *
+     * @param net the network the source object belongs to
+     * @param src the object to encode
+     * @param known the topology version the client already has, or null
+     * @return the result to put in the response
+     */
+    Object get(final Network<?, ?, ?> net, final Object src,
+               final Number known) {
+        final long version = net.getVersion();
+        if (known != null && known.longValue() == version) {
+            final Map<String, Object> ret = new LinkedHashMap<String, Object>();
+            ret.put(MonitoringHandler.VERSION, version);
+            ret.put(MonitoringHandler.UNCHANGED, true);
+            return ret;
+        }
+        Snapshot snapshot = this.snapshots.get(net);
+        if (snapshot == null || snapshot.version != version) {
+            // a change made while encoding gives a newer version, so the
+            // next call encodes again
+            snapshot = new Snapshot(version, this.encode(src, version));
+            this.snapshots.put(net, snapshot);
+        }
+        return snapshot.result;
+    }
+
+    private Object encode(final Object src, final long version) {
+        final JsonElement tree = this.gson.toJsonTree(src);
+        if (tree.isJsonObject()) {
+            tree.getAsJsonObject().addProperty(MonitoringHandler.VERSION,
+                    version);
+            return new EncodedObject(this.gson.toJson(tree));
+        }
+        return new EncodedArray(this.gson.toJson(tree));
+    }
+
+    private static final class Snapshot {
+        private final long version;
+        private final Object result;
+
+        private Snapshot(final long version, final Object result) {
+            this.version = version;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Encoded JSON object, written out as is. It is only decoded if it is
+     * read as a map.
+     */
+    private static final class EncodedObject extends
+            AbstractMap<String, Object> implements JSONAware {
+        private final String json;
+        private Map<String, Object> decoded;
+
+        private EncodedObject(final String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String toJSONString() {
+            return this.json;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public synchronized Set<Map.Entry<String, Object>> entrySet() {
+            if (this.decoded == null) {
+                this.decoded = Collections.unmodifiableMap(new Gson()
+                        .fromJson(this.json, Map.class));
+            }
+            return this.decoded.entrySet();
+        }
+    }
+
+    /**
+     * Encoded JSON array, written out as is. It is only decoded if it is
+     * read as a list.
+     */
+    private static final class EncodedArray extends AbstractList<Object>
+            implements JSONAware {
+        private final String json;
+        private List<Object> decoded;
+
+        private EncodedArray(final String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String toJSONString() {
+            return this.json;
+        }
+
+        @Override
+        public Object get(final int index) {
+            return this.decode().get(index);
+        }
+
+        @Override
+        public int size() {
+            return this.decode().size();
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized List<Object> decode() {
+            if (this.decoded == null) {
+                this.decoded = Collections.unmodifiableList(new Gson()
+                        .fromJson(this.json, List.class));
+            }
+            return this.decoded;
+        }
+    }
+}
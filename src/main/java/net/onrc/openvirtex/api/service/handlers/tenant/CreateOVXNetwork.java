@@ -57,6 +57,8 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
                     TenantHandler.NETADD, params, true, null);
             final Number netMask = HandlerUtils.<Number>fetchField(
                     TenantHandler.NETMASK, params, true, null);
+            final Number packetInBuffers = HandlerUtils.<Number>fetchField(
+                    TenantHandler.PACKET_IN_BUFFERS, params, false, null);
 
             for (String ctrl : ctrlUrls) {
                 String[] ctrlParts = ctrl.split(":");
@@ -67,6 +69,9 @@ public class CreateOVXNetwork extends ApiHandler<Map<String, Object>> {
             final IPAddress addr = new OVXIPAddress(netAddress, -1);
             final OVXNetwork virtualNetwork = new OVXNetwork(ctrlUrls, addr,
                     netMask.shortValue());
+            if (packetInBuffers != null) {
+                virtualNetwork.setPacketInBuffers(packetInBuffers.intValue());
+            }
             virtualNetwork.register();
             this.log.info("Created virtual network {}",
                     virtualNetwork.getTenantId());
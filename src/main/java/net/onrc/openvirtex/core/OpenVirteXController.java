@@ -30,6 +30,7 @@ import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.core.io.ClientChannelPipeline;
 import net.onrc.openvirtex.core.io.SwitchChannelPipeline;
 import net.onrc.openvirtex.db.DBManager;
+import net.onrc.openvirtex.db.JournalConnection;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
@@ -67,6 +68,9 @@ public class OpenVirteXController implements Runnable {
     private String dbHost = null;
     private Integer dbPort = null;
     private Boolean dbClear = null;
+    private Integer dbQueue = null;
+    private String dbType = null;
+    private String dbPath = null;
     Thread server;
 
     private final NioClientSocketChannelFactory clientSockets = new NioClientSocketChannelFactory(
@@ -92,17 +96,41 @@ public class OpenVirteXController implements Runnable {
 
     private final Boolean useBDDP;
 
+    private final Boolean useFlowTableIndex;
+
+    private final Integer writeBatchSize;
+
+    private final Integer writeFlushDelay;
+    private final Integer xidCapacity;
+    private final Integer packetInBuffers;
+    private final Integer probeRate;
+    private final Integer probeTimeout;
+    private final Integer probeBackoff;
+    private final Integer restoreThreads;
+
     public OpenVirteXController(CmdLineSettings settings) {
         this.ofHost = settings.getOFHost();
         this.ofPort = settings.getOFPort();
         this.dbHost = settings.getDBHost();
         this.dbPort = settings.getDBPort();
         this.dbClear = settings.getDBClear();
+        this.dbQueue = settings.getDBQueue();
+        this.dbType = settings.getDBType();
+        this.dbPath = settings.getDBPath();
         this.maxVirtual = settings.getNumberOfVirtualNets();
         this.statsRefresh = settings.getStatsRefresh();
         this.nClientThreads = settings.getClientThreads();
         this.nServerThreads = settings.getServerThreads();
         this.useBDDP = settings.getUseBDDP();
+        this.useFlowTableIndex = settings.getUseFlowTableIndex();
+        this.writeBatchSize = settings.getWriteBatchSize();
+        this.writeFlushDelay = settings.getWriteFlushDelay();
+        this.xidCapacity = settings.getXidCapacity();
+        this.packetInBuffers = settings.getPacketInBuffers();
+        this.probeRate = settings.getProbeRate();
+        this.probeTimeout = settings.getProbeTimeout();
+        this.probeBackoff = settings.getProbeBackoff();
+        this.restoreThreads = settings.getRestoreThreads();
         // by default, use Mac addresses to store vLinks informations
         this.ovxLinkField = OVXLinkField.MAC_ADDRESS;
         this.clientThreads = new OrderedMemoryAwareThreadPoolExecutor(
@@ -223,7 +251,12 @@ public class OpenVirteXController implements Runnable {
 
     private void startDatabase() {
         DBManager dbManager = DBManager.getInstance();
-        dbManager.init(this.dbHost, this.dbPort, this.dbClear);
+        if ("embedded".equals(this.dbType)) {
+            dbManager.init(new JournalConnection(this.dbPath), this.dbHost,
+                    this.dbPort, this.dbClear, this.dbQueue);
+        } else {
+            dbManager.init(this.dbHost, this.dbPort, this.dbClear, this.dbQueue);
+        }
     }
 
     private void startServer() {
@@ -298,4 +331,40 @@ public class OpenVirteXController implements Runnable {
         return this.useBDDP;
     }
 
+    public Boolean getUseFlowTableIndex() {
+        return this.useFlowTableIndex;
+    }
+
+    public Integer getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    public Integer getWriteFlushDelay() {
+        return this.writeFlushDelay;
+    }
+
+    public Integer getXidCapacity() {
+        return this.xidCapacity;
+    }
+
+    public Integer getPacketInBuffers() {
+        return this.packetInBuffers;
+    }
+
+    public Integer getProbeRate() {
+        return this.probeRate;
+    }
+
+    public Integer getProbeTimeout() {
+        return this.probeTimeout;
+    }
+
+    public Integer getProbeBackoff() {
+        return this.probeBackoff;
+    }
+
+    public Integer getRestoreThreads() {
+        return this.restoreThreads;
+    }
+
 }
@@ -70,6 +70,61 @@ public class CmdLineSettings {
      * Default value if BDDP is used for discovery.
      */
     public static final Boolean DEFAULT_USE_BDDP = false;
+    /**
+     * Default value if virtual flow tables are scanned instead of indexed.
+     */
+    public static final Boolean DEFAULT_FLOWTABLE_SCAN = false;
+    /**
+     * Default number of bytes coalesced per channel before a write is flushed.
+     */
+    public static final Integer DEFAULT_WRITE_BATCH_SIZE = 65536;
+    /**
+     * Default time (in microseconds) a write waits for more writes before
+     * it is flushed.
+     */
+    public static final Integer DEFAULT_WRITE_FLUSH_DELAY = 50;
+    /**
+     * Default number of outstanding requests per switch whose XID is kept
+     * for routing replies.
+     */
+    public static final Integer DEFAULT_XID_CAPACITY = 1 << 16;
+    /**
+     * Default number of PacketIns buffered per virtual switch for its
+     * controller to refer to.
+     */
+    public static final Integer DEFAULT_PACKET_IN_BUFFERS = 4096;
+    /**
+     * Default interval between discovery probes on a port, in milliseconds.
+     */
+    public static final Integer DEFAULT_PROBE_RATE = 1000;
+    /**
+     * Default number of unacknowledged discovery probes before a link is
+     * removed.
+     */
+    public static final Integer DEFAULT_PROBE_TIMEOUT = 3;
+    /**
+     * Default factor by which probing of stable links may be slowed down;
+     * 1 probes all links at the probe rate.
+     */
+    public static final Integer DEFAULT_PROBE_BACKOFF = 1;
+    /**
+     * Default number of database updates queued for the write-behind
+     * thread; 0 writes synchronously on the calling thread.
+     */
+    public static final Integer DEFAULT_DB_QUEUE = 4096;
+    /**
+     * Default database backend.
+     */
+    public static final String DEFAULT_DB_TYPE = "mongo";
+    /**
+     * Default directory of the embedded database.
+     */
+    public static final String DEFAULT_DB_PATH = "ovxdb";
+    /**
+     * Default number of threads booting virtual networks restored from the
+     * database.
+     */
+    public static final Integer DEFAULT_RESTORE_THREADS = 4;
 
     @Option(name = "-p", aliases = "--of-port", metaVar = "INT", usage = "OpenVirteX OpenFlow listen port")
     private Integer ofPort = CmdLineSettings.DEFAULT_OF_PORT;
@@ -101,6 +156,42 @@ public class CmdLineSettings {
     @Option(name = "--ub", aliases = "--use-bddp", usage = "Use BDDP for network discovery; only use if you know what you are doing.")
     private Boolean useBDDP = CmdLineSettings.DEFAULT_USE_BDDP;
 
+    @Option(name = "--fs", aliases = "--flowtable-scan", usage = "Scan virtual flow tables on each FlowMod instead of indexing them by match")
+    private Boolean flowTableScan = CmdLineSettings.DEFAULT_FLOWTABLE_SCAN;
+
+    @Option(name = "--wb", aliases = "--write-batch", metaVar = "INT", usage = "Bytes of OpenFlow messages coalesced per channel before flushing; 0 disables write batching")
+    private Integer writeBatchSize = CmdLineSettings.DEFAULT_WRITE_BATCH_SIZE;
+
+    @Option(name = "--wd", aliases = "--write-delay", metaVar = "INT", usage = "Microseconds a write outside of a read batch waits for more writes before flushing")
+    private Integer writeFlushDelay = CmdLineSettings.DEFAULT_WRITE_FLUSH_DELAY;
+
+    @Option(name = "--xc", aliases = "--xid-capacity", metaVar = "INT", usage = "Number of outstanding requests per switch whose XID is kept for routing replies")
+    private Integer xidCapacity = CmdLineSettings.DEFAULT_XID_CAPACITY;
+
+    @Option(name = "--pb", aliases = "--packet-in-buffers", metaVar = "INT", usage = "Default number of PacketIns buffered per virtual switch, rounded up to a power of two")
+    private Integer packetInBuffers = CmdLineSettings.DEFAULT_PACKET_IN_BUFFERS;
+
+    @Option(name = "--pr", aliases = "--probe-rate", metaVar = "INT", usage = "Milliseconds between link discovery probes on a port")
+    private Integer probeRate = CmdLineSettings.DEFAULT_PROBE_RATE;
+
+    @Option(name = "--pt", aliases = "--probe-timeout", metaVar = "INT", usage = "Number of unacknowledged link discovery probes before a link is removed")
+    private Integer probeTimeout = CmdLineSettings.DEFAULT_PROBE_TIMEOUT;
+
+    @Option(name = "--pbo", aliases = "--probe-backoff", metaVar = "INT", usage = "Maximum factor by which probing of stable links is slowed down; 1 disables backoff")
+    private Integer probeBackoff = CmdLineSettings.DEFAULT_PROBE_BACKOFF;
+
+    @Option(name = "--dq", aliases = "--db-queue", metaVar = "INT", usage = "Number of database updates queued for writing in the background; 0 writes synchronously")
+    private Integer dbQueue = CmdLineSettings.DEFAULT_DB_QUEUE;
+
+    @Option(name = "--dt", aliases = "--db-type", metaVar = "String", usage = "Database backend: mongo, or embedded to store the database in --db-path")
+    private String dbType = CmdLineSettings.DEFAULT_DB_TYPE;
+
+    @Option(name = "--dbp", aliases = "--db-path", metaVar = "String", usage = "Directory of the embedded database")
+    private String dbPath = CmdLineSettings.DEFAULT_DB_PATH;
+
+    @Option(name = "--rt", aliases = "--restore-threads", metaVar = "INT", usage = "Number of threads booting virtual networks restored from the database")
+    private Integer restoreThreads = CmdLineSettings.DEFAULT_RESTORE_THREADS;
+
     /**
      * Gets the host OVX is running on.
      *
@@ -193,4 +284,119 @@ public class CmdLineSettings {
         return this.useBDDP;
     }
 
+    /**
+     * Checks if virtual flow tables are indexed by match.
+     *
+     * @return true if flow tables are indexed, false if they are scanned
+     */
+    public Boolean getUseFlowTableIndex() {
+        return !this.flowTableScan;
+    }
+
+    /**
+     * Gets the number of bytes coalesced per channel before a write is
+     * flushed.
+     *
+     * @return the write batch size in bytes, 0 if batching is disabled
+     */
+    public Integer getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    /**
+     * Gets the time a write issued outside of a read batch waits for more
+     * writes before it is flushed.
+     *
+     * @return the flush delay in microseconds
+     */
+    public Integer getWriteFlushDelay() {
+        return this.writeFlushDelay;
+    }
+
+    /**
+     * Gets the number of outstanding requests per switch whose XID is kept
+     * for routing replies.
+     *
+     * @return the XID translator capacity
+     */
+    public Integer getXidCapacity() {
+        return this.xidCapacity;
+    }
+
+    /**
+     * Gets the default number of PacketIns buffered per virtual switch.
+     *
+     * @return the number of buffers
+     */
+    public Integer getPacketInBuffers() {
+        return this.packetInBuffers;
+    }
+
+    /**
+     * Gets the interval between link discovery probes on a port.
+     *
+     * @return the probe rate in milliseconds
+     */
+    public Integer getProbeRate() {
+        return this.probeRate;
+    }
+
+    /**
+     * Gets the number of unacknowledged link discovery probes before a
+     * link is removed.
+     *
+     * @return the probe timeout count
+     */
+    public Integer getProbeTimeout() {
+        return this.probeTimeout;
+    }
+
+    /**
+     * Gets the maximum factor by which probing of stable links is slowed
+     * down.
+     *
+     * @return the probe backoff factor
+     */
+    public Integer getProbeBackoff() {
+        return this.probeBackoff;
+    }
+
+    /**
+     * Gets the number of database updates queued for the write-behind
+     * thread.
+     *
+     * @return the database queue size
+     */
+    public Integer getDBQueue() {
+        return this.dbQueue;
+    }
+
+    /**
+     * Gets the database backend, mongo or embedded.
+     *
+     * @return the database type
+     */
+    public String getDBType() {
+        return this.dbType;
+    }
+
+    /**
+     * Gets the directory of the embedded database.
+     *
+     * @return the database path
+     */
+    public String getDBPath() {
+        return this.dbPath;
+    }
+
+    /**
+     * Gets the number of threads booting virtual networks restored from
+     * the database.
+     *
+     * @return the number of restore threads
+     */
+    public Integer getRestoreThreads() {
+        return this.restoreThreads;
+    }
+
 }
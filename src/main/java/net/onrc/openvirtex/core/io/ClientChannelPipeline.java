@@ -63,7 +63,7 @@ public class ClientChannelPipeline extends OpenflowChannelPipeline {
         pipeline.addLast("reconnect", new ReconnectHandler(this.sw,
                 this.bootstrap, this.timer, 15, this.cg));
         pipeline.addLast("ofmessagedecoder", new OVXMessageDecoder());
-        pipeline.addLast("ofmessageencoder", new OVXMessageEncoder());
+        pipeline.addLast("ofmessageencoder", this.newEncoder());
         pipeline.addLast("idle", this.idleHandler);
         pipeline.addLast("timeout", this.readTimeoutHandler);
         pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
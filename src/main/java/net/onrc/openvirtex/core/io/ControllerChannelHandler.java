@@ -618,42 +618,48 @@ public class ControllerChannelHandler extends OFChannelHandler {
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
-
-                try {
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_OUT:
-                        /*
-                         * Is this packet a packet out? If yes is it an lldp?
-                         * then send it to the OVXNetwork.
-                         */
-                            final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
-                            if (data.length >= 14) {
-
-                                final int tenantId = ((OVXSwitch) this.sw)
-                                        .getTenantId();
-
-                                if (OVXLLDP.isLLDP(data)) {
-//                                    this.log.info("tenantId = " + tenantId);
-
-                                    OVXMap.getInstance()
-                                            .getVirtualNetwork(tenantId)
-                                            .handleLLDP(ofm, this.sw);
-                                    break;
+            // replies to the whole batch of messages go out together
+            OVXMessageBatcher.beginBatch();
+            try {
+                for (final OVXMessage ofm : msglist) {
+
+                    try {
+                        switch (ofm.getOFMessage().getType()) {
+                            case PACKET_OUT:
+                            /*
+                             * Is this packet a packet out? If yes is it an lldp?
+                             * then send it to the OVXNetwork.
+                             */
+                                final byte[] data = ((OFPacketOut) ofm.getOFMessage()).getData();
+                                if (data.length >= 14) {
+
+                                    final int tenantId = ((OVXSwitch) this.sw)
+                                            .getTenantId();
+
+                                    if (OVXLLDP.isLLDP(data)) {
+    //                                    this.log.info("tenantId = " + tenantId);
+
+                                        OVXMap.getInstance()
+                                                .getVirtualNetwork(tenantId)
+                                                .handleLLDP(ofm, this.sw);
+                                        break;
+                                    }
                                 }
-                            }
-                        default:
-                            // Process all non-packet-ins
-                            this.state.processOFMessage(this, ofm);
-                            break;
+                            default:
+                                // Process all non-packet-ins
+                                this.state.processOFMessage(this, ofm);
+                                break;
+                        }
+
+                    } catch (final Exception ex) {
+                        // We are the last handler in the stream, so run the
+                        // exception through the channel again by passing in
+                        // ctx.getChannel().
+                        Channels.fireExceptionCaught(ctx.getChannel(), ex);
                     }
-
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
                 }
+            } finally {
+                OVXMessageBatcher.endBatch();
             }
 
         } else {
@@ -0,0 +1,392 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.core.io;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+
+/**
+ * Encodes OpenFlow messages written to a channel into pooled direct
+ * buffers, coalescing consecutive writes into a single socket write.
+ * <p>
+ * Pending messages are flushed when the buffer reaches the batch size,
+ * when the read batch during which they were written ends (see
+ * {@link #beginBatch()}), or, for writes issued outside of a read batch,
+ * after a short delay. Replaces {@link OVXMessageEncoder} in the pipeline
+ * when write batching is enabled.
+ */
+public class OVXMessageBatcher extends SimpleChannelHandler {
+
+    /**
+     * Why pending messages were flushed.
+     */
+    public enum FlushCause {
+        /** The batch buffer was full. */
+        SIZE,
+        /** The read batch the messages were written in ended. */
+        BATCH,
+        /** The flush delay expired. */
+        TIMER,
+        /** Something else had to be written, or the channel is closing. */
+        FORCED
+    }
+
+    // buffers kept around for reuse, per batcher size
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final ConcurrentLinkedQueue<ChannelBuffer> POOL =
+            new ConcurrentLinkedQueue<ChannelBuffer>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private static final AtomicLong MESSAGES = new AtomicLong();
+    private static final AtomicLong BYTES = new AtomicLong();
+    private static final AtomicLong[] FLUSHES =
+            new AtomicLong[FlushCause.values().length];
+
+    static {
+        for (int i = 0; i < FLUSHES.length; i++) {
+            FLUSHES[i] = new AtomicLong();
+        }
+    }
+
+    private static final ScheduledThreadPoolExecutor TIMER =
+            new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread t = new Thread(r, "ovx-write-flush");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    // batchers written to by the read batch running on this thread
+    private static final ThreadLocal<ReadBatch> BATCH =
+            new ThreadLocal<ReadBatch>() {
+                @Override
+                protected ReadBatch initialValue() {
+                    return new ReadBatch();
+                }
+            };
+
+    private final int batchSize;
+    private final long flushDelay;
+    private final Runnable timerFlush = new Runnable() {
+        @Override
+        public void run() {
+            OVXMessageBatcher.this.flush(FlushCause.TIMER);
+        }
+    };
+
+    private ChannelHandlerContext ctx;
+    private ChannelBuffer pending;
+    private List<ChannelFuture> futures = new ArrayList<ChannelFuture>();
+    private boolean flushScheduled;
+    private boolean closed;
+
+    /**
+     * Creates a batcher for a single channel.
+     *
+     * @param batchSize the number of bytes coalesced before flushing
+     * @param flushDelay the time, in microseconds, a write issued outside of
+     *            a read batch waits for more writes
+     */
+    public OVXMessageBatcher(final int batchSize, final int flushDelay) {
+        this.batchSize = batchSize;
+        this.flushDelay = flushDelay;
+    }
+
+    /**
+     * Marks the beginning of a read batch on the calling thread. Messages
+     * written until the matching {@link #endBatch()} are flushed together
+     * when it is called. Batches may nest.
+     */
+    public static void beginBatch() {
+        BATCH.get().depth++;
+    }
+
+    /**
+     * Marks the end of a read batch on the calling thread, flushing the
+     * channels written to since the outermost {@link #beginBatch()}.
+     */
+    public static void endBatch() {
+        final ReadBatch batch = BATCH.get();
+        if (--batch.depth > 0) {
+            return;
+        }
+        batch.depth = 0;
+        if (batch.dirty.isEmpty()) {
+            return;
+        }
+        // flushing may write, and so dirty batchers, again
+        final List<OVXMessageBatcher> dirty = batch.dirty;
+        batch.dirty = new ArrayList<OVXMessageBatcher>();
+        for (OVXMessageBatcher batcher : dirty) {
+            batcher.flush(FlushCause.BATCH);
+        }
+        dirty.clear();
+        batch.dirty = dirty;
+    }
+
+    /**
+     * Gets the write batching counters: messages and bytes written, and
+     * flushes per cause.
+     *
+     * @return the counters, by name
+     */
+    public static Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("messages", MESSAGES.get());
+        stats.put("bytes", BYTES.get());
+        final Map<String, Long> flushes = new HashMap<String, Long>();
+        long total = 0;
+        for (FlushCause cause : FlushCause.values()) {
+            final long n = FLUSHES[cause.ordinal()].get();
+            flushes.put(cause.name().toLowerCase(), n);
+            total += n;
+        }
+        flushes.put("total", total);
+        stats.put("flushes", flushes);
+        stats.put("pooledBuffers", POOLED.get());
+        return stats;
+    }
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx,
+                               final MessageEvent e) throws Exception {
+        if (!(e.getMessage() instanceof List)) {
+            synchronized (this) {
+                this.ctx = ctx;
+                this.flush(FlushCause.FORCED);
+                ctx.sendDownstream(e);
+            }
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        final List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
+        boolean deferred;
+        synchronized (this) {
+            this.ctx = ctx;
+            if (this.closed) {
+                e.getFuture().setFailure(new ClosedChannelException());
+                return;
+            }
+            for (OFMessage ofm : msglist) {
+                if (ofm != null) {
+                    this.append(ofm);
+                }
+            }
+            this.futures.add(e.getFuture());
+            deferred = this.pending != null;
+        }
+        if (deferred) {
+            this.defer();
+        }
+    }
+
+    @Override
+    public void closeRequested(final ChannelHandlerContext ctx,
+                               final ChannelStateEvent e) throws Exception {
+        this.flush(FlushCause.FORCED);
+        super.closeRequested(ctx, e);
+    }
+
+    @Override
+    public void disconnectRequested(final ChannelHandlerContext ctx,
+                                    final ChannelStateEvent e) throws Exception {
+        this.flush(FlushCause.FORCED);
+        super.disconnectRequested(ctx, e);
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx,
+                              final ChannelStateEvent e) throws Exception {
+        final List<ChannelFuture> failed;
+        synchronized (this) {
+            this.closed = true;
+            failed = this.futures;
+            this.futures = new ArrayList<ChannelFuture>();
+            if (this.pending != null) {
+                release(this.pending);
+                this.pending = null;
+            }
+        }
+        for (ChannelFuture future : failed) {
+            future.setFailure(new ClosedChannelException());
+        }
+        super.channelClosed(ctx, e);
+    }
+
+    /*
+     * Encodes the message into the pending buffer, flushing first if it
+     * does not fit. Messages larger than a batch go out on their own.
+     */
+    private void append(final OFMessage ofm) {
+        if (this.pending == null) {
+            this.pending = acquire(this.batchSize);
+        }
+        final int mark = this.pending.writerIndex();
+        try {
+            ofm.writeTo(this.pending);
+        } catch (IndexOutOfBoundsException full) {
+            this.pending.writerIndex(mark);
+            if (mark > 0) {
+                this.flush(FlushCause.SIZE);
+                this.pending = acquire(this.batchSize);
+            }
+            try {
+                ofm.writeTo(this.pending);
+            } catch (IndexOutOfBoundsException tooLarge) {
+                this.pending.writerIndex(0);
+                final ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+                ofm.writeTo(buf);
+                this.write(buf, false, FlushCause.SIZE);
+                MESSAGES.incrementAndGet();
+                return;
+            }
+        }
+        MESSAGES.incrementAndGet();
+        if (this.pending.writableBytes() == 0) {
+            this.flush(FlushCause.SIZE);
+        }
+    }
+
+    /*
+     * Flushes at the end of the current read batch if there is one, else
+     * after the flush delay.
+     */
+    private void defer() {
+        final ReadBatch batch = BATCH.get();
+        if (batch.depth > 0) {
+            if (!batch.dirty.contains(this)) {
+                batch.dirty.add(this);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (this.flushDelay <= 0) {
+                this.flush(FlushCause.FORCED);
+                return;
+            }
+            if (this.flushScheduled) {
+                return;
+            }
+            this.flushScheduled = true;
+        }
+        TIMER.schedule(this.timerFlush, this.flushDelay, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Writes out the pending messages, if any.
+     *
+     * @param cause the reason for flushing
+     */
+    synchronized void flush(final FlushCause cause) {
+        if (cause == FlushCause.TIMER) {
+            this.flushScheduled = false;
+        }
+        if (this.pending == null || this.ctx == null) {
+            return;
+        }
+        final ChannelBuffer buf = this.pending;
+        this.pending = null;
+        if (buf.readableBytes() == 0) {
+            release(buf);
+            return;
+        }
+        this.write(buf, true, cause);
+    }
+
+    /*
+     * Must be called with the lock held, so that writes reach the channel
+     * in the order they were issued.
+     */
+    private void write(final ChannelBuffer buf, final boolean pooled,
+                       final FlushCause cause) {
+        final List<ChannelFuture> done = this.futures;
+        this.futures = new ArrayList<ChannelFuture>();
+        final ChannelFuture future = Channels.future(this.ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(final ChannelFuture f) {
+                if (pooled) {
+                    release(buf);
+                }
+                for (ChannelFuture d : done) {
+                    if (f.isSuccess()) {
+                        d.setSuccess();
+                    } else {
+                        d.setFailure(f.getCause());
+                    }
+                }
+            }
+        });
+        FLUSHES[cause.ordinal()].incrementAndGet();
+        BYTES.addAndGet(buf.readableBytes());
+        Channels.write(this.ctx, future, buf);
+    }
+
+    private static ChannelBuffer acquire(final int size) {
+        ChannelBuffer buf;
+        while ((buf = POOL.poll()) != null) {
+            POOLED.decrementAndGet();
+            if (buf.capacity() == size) {
+                buf.clear();
+                return buf;
+            }
+        }
+        return ChannelBuffers.directBuffer(size);
+    }
+
+    private static void release(final ChannelBuffer buf) {
+        if (POOLED.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            POOLED.decrementAndGet();
+            return;
+        }
+        POOL.offer(buf);
+    }
+
+    /**
+     * Per thread read batch state.
+     */
+    private static final class ReadBatch {
+        private int depth;
+        private List<OVXMessageBatcher> dirty =
+                new ArrayList<OVXMessageBatcher>();
+    }
+}
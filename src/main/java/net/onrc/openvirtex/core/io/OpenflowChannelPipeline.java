@@ -23,6 +23,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 
+import org.jboss.netty.channel.ChannelHandler;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
@@ -37,6 +38,20 @@ public abstract class OpenflowChannelPipeline implements
     protected IdleStateHandler idleHandler;
     protected ReadTimeoutHandler readTimeoutHandler;
 
+    /**
+     * Creates the handler encoding outbound OpenFlow messages of a new
+     * channel, coalescing them if write batching is enabled.
+     *
+     * @return the encoder
+     */
+    protected ChannelHandler newEncoder() {
+        final int batchSize = this.ctrl.getWriteBatchSize();
+        if (batchSize <= 0) {
+            return new OVXMessageEncoder();
+        }
+        return new OVXMessageBatcher(batchSize, this.ctrl.getWriteFlushDelay());
+    }
+
     @Override
     public void releaseExternalResources() {
         this.timer.stop();
@@ -1047,41 +1047,47 @@ public class SwitchChannelHandler extends OFChannelHandler {
             @SuppressWarnings("unchecked")
             final List<OVXMessage> msglist = (List<OVXMessage>) e.getMessage();
 
-            for (final OVXMessage ofm : msglist) {
-                try {
-
-                    switch (ofm.getOFMessage().getType()) {
-                        case PACKET_IN:
-                            //this.log.info("PACKET_IN");
-
-                            OFPacketIn temp = (OFPacketIn)(ofm.getOFMessage());
-                            final byte[] data = temp.getData();
-
-                            //this.log.info(temp.getData().toString());
-
-                            if (OVXLLDP.isLLDP(data)) {
-                                if (this.sw != null) {
-                                    //this.log.info("PACKET_IN - handleLLDP");
-                                    PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
-                                } else {
-                                    this.log.warn("Switch has not connected yet; dropping LLDP for now");
+            // replies to the whole batch of messages go out together
+            OVXMessageBatcher.beginBatch();
+            try {
+                for (final OVXMessage ofm : msglist) {
+                    try {
+
+                        switch (ofm.getOFMessage().getType()) {
+                            case PACKET_IN:
+                                //this.log.info("PACKET_IN");
+
+                                OFPacketIn temp = (OFPacketIn)(ofm.getOFMessage());
+                                final byte[] data = temp.getData();
+
+                                //this.log.info(temp.getData().toString());
+
+                                if (OVXLLDP.isLLDP(data)) {
+                                    if (this.sw != null) {
+                                        //this.log.info("PACKET_IN - handleLLDP");
+                                        PhysicalNetwork.getInstance().handleLLDP(ofm, this.sw);
+                                    } else {
+                                        this.log.warn("Switch has not connected yet; dropping LLDP for now");
+                                    }
+                                    break;
                                 }
+
+                            default:
+                                // Process all non-packet-ins
+                                //this.log.info("Not PACKET_IN - " + ofm.toString());
+                                this.state.processOFMessage(this, ofm);
                                 break;
-                            }
+                        }
 
-                        default:
-                            // Process all non-packet-ins
-                            //this.log.info("Not PACKET_IN - " + ofm.toString());
-                            this.state.processOFMessage(this, ofm);
-                            break;
+                    } catch (final Exception ex) {
+                        // We are the last handler in the stream, so run the
+                        // exception through the channel again by passing in
+                        // ctx.getChannel().
+                        Channels.fireExceptionCaught(ctx.getChannel(), ex);
                     }
-
-                } catch (final Exception ex) {
-                    // We are the last handler in the stream, so run the
-                    // exception through the channel again by passing in
-                    // ctx.getChannel().
-                    Channels.fireExceptionCaught(ctx.getChannel(), ex);
                 }
+            } finally {
+                OVXMessageBatcher.endBatch();
             }
         } else {
             this.log.info("Message is not List");
@@ -58,7 +58,7 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
 
         final ChannelPipeline pipeline = Channels.pipeline();
         pipeline.addLast("ofmessagedecoder", new OVXMessageDecoder());
-        pipeline.addLast("ofmessageencoder", new OVXMessageEncoder());
+        pipeline.addLast("ofmessageencoder", this.newEncoder());
         pipeline.addLast("idle", this.idleHandler);
         pipeline.addLast("timeout", this.readTimeoutHandler);
 
@@ -19,8 +19,68 @@
  */
 package net.onrc.openvirtex.db;
 
+import java.util.Map;
+
+/**
+ * Backend storing the documents of the database manager. Documents are
+ * maps in MongoDB format, grouped in named collections, and are updated
+ * with the MongoDB $addToSet, $pull and $pullAll operators.
+ */
 public interface DBConnection {
     public void connect(String host, Integer port);
 
     public void disconnect();
+
+    /**
+     * Makes the given field a unique index of the collection.
+     *
+     * @param coll the collection name
+     * @param field the indexed field
+     */
+    public void ensureIndex(String coll, String field);
+
+    /**
+     * Removes all documents of the collection.
+     *
+     * @param coll the collection name
+     */
+    public void drop(String coll);
+
+    /**
+     * Gets all documents of the collection. Backends may read the
+     * documents lazily while they are iterated.
+     *
+     * @param coll the collection name
+     * @return the documents
+     */
+    public Iterable<Map<String, Object>> find(String coll);
+
+    /**
+     * Inserts a document in the collection.
+     *
+     * @param coll the collection name
+     * @param doc the document
+     * @return false if a document with the same index already exists,
+     * true otherwise
+     */
+    public boolean insert(String coll, Map<String, Object> doc);
+
+    /**
+     * Removes all documents matching the query from the collection.
+     *
+     * @param coll the collection name
+     * @param query the fields to match
+     */
+    public void remove(String coll, Map<String, Object> query);
+
+    /**
+     * Applies the update operators to the document matching the query.
+     *
+     * @param coll the collection name
+     * @param query the fields to match
+     * @param update the update operators
+     * @param upsert create the document if none matches
+     */
+    public void update(String coll, Map<String, Object> query,
+            Map<String, Object> update, boolean upsert);
 }
@@ -20,12 +20,12 @@
 package net.onrc.openvirtex.db;
 
 import java.io.PrintStream;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
+import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.datapath.DPIDandPort;
 import net.onrc.openvirtex.elements.datapath.DPIDandPortPair;
@@ -41,12 +41,6 @@ import net.onrc.openvirtex.routing.SwitchRoute;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.mongodb.BasicDBObject;
-import com.mongodb.DB;
-import com.mongodb.DBCollection;
-import com.mongodb.DBCursor;
-import com.mongodb.MongoException;
-
 
 /**
  * The singleton class database manager is responsible
@@ -72,27 +66,17 @@ public final class DBManager {
 
     private static DBManager instance;
     private DBConnection dbConnection;
-    private Map<String, DBCollection> collections;
+    // Writes updates behind the threads that make them
+    private volatile DBWriter writer;
     private boolean clear;
-    // Mapping between physical dpids and a list of vnet managers
-    private Map<Long, List<OVXNetworkManager>> dpidToMngr;
-    // Mapping between physical links and a list of vnet managers
-    private Map<DPIDandPortPair, List<OVXNetworkManager>> linkToMngr;
-    // Mapping between physical ports and a list of vnet managers
-    private Map<DPIDandPort, List<OVXNetworkManager>> portToMngr;
+    // Boots restored vnets as their physical elements come online
+    private volatile RestoreCoordinator restore;
 
     private static Logger log = LogManager.getLogger(DBManager.class.getName());
 
-    /** Creates the database manager instance. Connects
-     * to the database backend, and creates mappings between
-     * network elements and virtual network managers.
+    /** Creates the database manager instance.
      */
     private DBManager() {
-        this.dbConnection = new MongoConnection();
-        this.collections = new HashMap<String, DBCollection>();
-        this.dpidToMngr = new HashMap<Long, List<OVXNetworkManager>>();
-        this.linkToMngr = new HashMap<DPIDandPortPair, List<OVXNetworkManager>>();
-        this.portToMngr = new HashMap<DPIDandPort, List<OVXNetworkManager>>();
     }
 
     /**
@@ -109,38 +93,53 @@ public final class DBManager {
     }
 
     /**
-     * Initializes database backend by creating
-     * config, user and vnet collections.
+     * Initializes the MongoDB database backend.
+     *
+     * @param host the database host
+     * @param port the database port
+     * @param clear flag to clear the database
+     * @param queueSize the number of updates queued for writing in the
+     *        background, or 0 to write synchronously
+     */
+    public void init(String host, Integer port, boolean clear, int queueSize) {
+        this.init(new MongoConnection(), host, port, clear, queueSize);
+    }
+
+    /**
+     * Initializes the given database backend, reads the stored virtual
+     * networks and starts writing updates to the backend.
      *
+     * @param connection the database backend
      * @param host the database host
      * @param port the database port
      * @param clear flag to clear the database
+     * @param queueSize the number of updates queued for writing in the
+     *        background, or 0 to write synchronously
      */
-    public void init(String host, Integer port, boolean clear) {
+    public void init(DBConnection connection, String host, Integer port,
+            boolean clear, int queueSize) {
+        this.dbConnection = connection;
         this.dbConnection.connect(host, port);
+        // Restored networks are saved from the restore threads, so the
+        // writer must be running before the first of them boots
+        DBWriter w = new DBWriter(this.dbConnection, queueSize);
+        w.start();
+        this.writer = w;
         // Suppress error stream when MongoDB raises java.net.ConnectException
         // in another component (and cannot be caught)
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            // Retrieve (create if non-existing) collections from db
-            // and store their handlers
-            DB db = ((MongoConnection) this.dbConnection).getDB();
-
-            DBCollection cfg = db.getCollection(DBManager.DB_CONFIG);
-            this.collections.put(DBManager.DB_CONFIG, cfg);
-            DBCollection user = db.getCollection(DBManager.DB_USER);
-            this.collections.put(DBManager.DB_USER, user);
-            DBCollection vnet = db.getCollection(DBManager.DB_VNET);
-            this.collections.put(DBManager.DB_VNET, vnet);
-
             this.setIndex(DBManager.DB_VNET);
 
             this.clear = clear;
             if (this.clear) {
                 this.clear(DBManager.DB_VNET);
             } else {
+                this.restore = new RestoreCoordinator(OpenVirteXController
+                        .getInstance().getRestoreThreads());
                 this.readOVXNetworks();
+                this.restore.start();
             }
 
         } catch (Exception e) {
@@ -162,9 +161,7 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            BasicDBObject options = new BasicDBObject("unique", true);
-            BasicDBObject index = new BasicDBObject(TenantHandler.TENANT, 1);
-            this.collections.get(coll).ensureIndex(index, options);
+            this.dbConnection.ensureIndex(coll, TenantHandler.TENANT);
         } catch (Exception e) {
             log.error("Failed to set database index: {}", e.getMessage());
         } finally {
@@ -184,7 +181,7 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            this.collections.get(coll).drop();
+            this.dbConnection.drop(coll);
             this.setIndex(DBManager.DB_VNET);
         } catch (Exception e) {
             log.error("Failed to clear database: {}", e.getMessage());
@@ -195,9 +192,18 @@ public final class DBManager {
     }
 
     /**
-     * Closes connection to database backend.
+     * Writes all queued updates and closes connection to database backend.
      */
     public void close() {
+        DBWriter w = this.writer;
+        if (w == null) {
+            return;
+        }
+        this.writer = null;
+        w.stop();
+        if (this.restore != null) {
+            this.restore.shutdown();
+        }
         // Suppress error stream when MongoDB raises java.net.ConnectException
         // in another component (and cannot be caught)
         PrintStream ps = System.err;
@@ -218,25 +224,9 @@ public final class DBManager {
      * @param obj the object to create
      */
     public void createDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.insert(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            // Do not log when duplicate key
-            // Virtual network was already stored and we're trying to create it
-            // again on startup
-            if (e instanceof MongoException.DuplicateKey) {
-                log.warn("Skipped saving of virtual network with duplicate tenant id");
-            } else {
-                log.error("Failed to insert document into database: {}", e.getMessage());
-            }
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
+        if (this.writer != null) {
+            this.writer.insert(obj.getDBName(), obj.getDBIndex(),
+                    obj.getDBObject());
         }
     }
 
@@ -246,19 +236,9 @@ public final class DBManager {
      * @param obj the object to remove
      */
     public void removeDoc(Persistable obj) {
-        // Suppress error stream when MongoDB raises java.net.ConnectException
-        // in another component (and cannot be caught)
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.remove(new BasicDBObject(obj.getDBObject()));
-        } catch (Exception e) {
-            log.error("Failed to remove document from database: {}",
-                    e.getMessage());
-        } finally {
-            // Restore error stream
-            System.setErr(ps);
+        if (this.writer != null) {
+            this.writer.removeDoc(obj.getDBName(), obj.getDBIndex(),
+                    obj.getDBObject());
         }
     }
 
@@ -268,19 +248,9 @@ public final class DBManager {
      * @param obj the object to persist
      */
     public void save(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$addToSet",
-                new BasicDBObject(obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update, true, false);
-        } catch (Exception e) {
-            log.error("Failed to update database: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
+        if (this.writer != null) {
+            this.writer.addToSet(obj.getDBName(), obj.getDBIndex(),
+                    obj.getDBKey(), obj.getDBObject());
         }
     }
 
@@ -290,19 +260,9 @@ public final class DBManager {
      * @param obj the object to remove
      */
     public void remove(Persistable obj) {
-        BasicDBObject query = new BasicDBObject();
-        query.putAll(obj.getDBIndex());
-        BasicDBObject update = new BasicDBObject("$pull", new BasicDBObject(
-                obj.getDBKey(), obj.getDBObject()));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(obj.getDBName());
-            collection.update(query, update);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
+        if (this.writer != null) {
+            this.writer.pull(obj.getDBName(), obj.getDBIndex(),
+                    obj.getDBKey(), obj.getDBObject());
         }
     }
 
@@ -313,20 +273,11 @@ public final class DBManager {
      * @param switchId the dpid
      */
     public void removeSwitchPath(int tenantId, long switchId) {
-        BasicDBObject query = new BasicDBObject();
-        query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                SwitchRoute.DB_KEY, new BasicDBObject(TenantHandler.DPID,
-                switchId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
+        if (this.writer != null) {
+            Map<String, Object> criterion = new HashMap<String, Object>();
+            criterion.put(TenantHandler.DPID, switchId);
+            this.writer.pull(DB_VNET, this.tenantIndex(tenantId),
+                    SwitchRoute.DB_KEY, criterion);
         }
     }
 
@@ -337,20 +288,32 @@ public final class DBManager {
      * @param linkId the link ID
      */
     public void removeLinkPath(int tenantId, int linkId) {
-        BasicDBObject query = new BasicDBObject();
-        query.put(TenantHandler.TENANT, tenantId);
-        BasicDBObject pull = new BasicDBObject("$pull", new BasicDBObject(
-                OVXLink.DB_KEY, new BasicDBObject(TenantHandler.LINK, linkId)));
-        PrintStream ps = System.err;
-        System.setErr(null);
-        try {
-            DBCollection collection = this.collections.get(DB_VNET);
-            collection.update(query, pull);
-        } catch (Exception e) {
-            log.error("Failed to remove from db: {}", e.getMessage());
-        } finally {
-            System.setErr(ps);
+        if (this.writer != null) {
+            Map<String, Object> criterion = new HashMap<String, Object>();
+            criterion.put(TenantHandler.LINK, linkId);
+            this.writer.pull(DB_VNET, this.tenantIndex(tenantId),
+                    OVXLink.DB_KEY, criterion);
+        }
+    }
+
+    private Map<String, Object> tenantIndex(int tenantId) {
+        Map<String, Object> index = new HashMap<String, Object>();
+        index.put(TenantHandler.TENANT, tenantId);
+        return index;
+    }
+
+    /**
+     * Gets the write-behind queue depth and flush latency counters.
+     *
+     * @return the counters, or an empty map if the database is not
+     *         initialized
+     */
+    public Map<String, Object> getWriterStats() {
+        DBWriter w = this.writer;
+        if (w == null) {
+            return new HashMap<String, Object>();
         }
+        return w.getStats();
     }
 
     /**
@@ -362,16 +325,17 @@ public final class DBManager {
         PrintStream ps = System.err;
         System.setErr(null);
         try {
-            // Get a cursor over all virtual networks
-            DBCollection coll = this.collections.get(DBManager.DB_VNET);
-            DBCursor cursor = coll.find();
-            log.info("Loading {} virtual networks from database", cursor.size());
-            while (cursor.hasNext()) {
+            // Stream all virtual networks into their managers
+            int count = 0;
+            log.info("Loading virtual networks from database");
+            for (Map<String, Object> vnet : this.dbConnection
+                    .find(DBManager.DB_VNET)) {
+                count++;
                 OVXNetworkManager mngr = null;
-                Map<String, Object> vnet = cursor.next().toMap();
                 try {
                     // Create vnet manager for each virtual network
                     mngr = new OVXNetworkManager(vnet);
+                    this.restore.add(mngr);
                     OVXNetwork.reserveTenantId(mngr.getTenantId());
                     // Accessing DB_KEY field through a class derived from the
                     // abstract OVXSwitch
@@ -397,6 +361,7 @@ public final class DBManager {
                             mngr.getTenantId(), e.getMessage());
                 }
             }
+            log.info("Loaded {} virtual networks from database", count);
         } catch (Exception e) {
             log.error("Failed to load virtual networks from db: {}",
                     e.getMessage());
@@ -422,13 +387,9 @@ public final class DBManager {
         for (Map<String, Object> sw : switches) {
             List<Long> physwitches = (List<Long>) sw.get(TenantHandler.DPIDS);
             for (Long physwitch : physwitches) {
-                mngr.registerSwitch(physwitch);
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(physwitch);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(physwitch,
-                            new ArrayList<OVXNetworkManager>());
+                if (mngr.registerSwitch(physwitch)) {
+                    this.restore.register(mngr, physwitch);
                 }
-                this.dpidToMngr.get(physwitch).add(mngr);
             }
         }
     }
@@ -461,32 +422,8 @@ public final class DBManager {
                         .shortValue();
                 DPIDandPortPair dpp = new DPIDandPortPair(new DPIDandPort(
                         srcDpid, srcPort), new DPIDandPort(dstDpid, dstPort));
-                // Register link in current manager
-                mngr.registerLink(dpp);
-                // Update list of managers that wait for this link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs == null) {
-                    this.linkToMngr
-                            .put(dpp, new ArrayList<OVXNetworkManager>());
-                }
-                this.linkToMngr.get(dpp).add(mngr);
-
-                // Register src/dst switches of this link
-                mngr.registerSwitch(srcDpid);
-                mngr.registerSwitch(dstDpid);
-                // Update list of managers that wait for these switches
-                mngrs = this.dpidToMngr.get(srcDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(srcDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(srcDpid).add(mngr);
-                mngrs = this.dpidToMngr.get(dstDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(dstDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(dstDpid).add(mngr);
+                // Register link and its src/dst switches in current manager
+                this.registerLink(mngr, dpp);
             }
         }
     }
@@ -511,13 +448,9 @@ public final class DBManager {
                     .shortValue();
             DPIDandPort p = new DPIDandPort(dpid, portNumber);
             // Register port in current manager
-            mngr.registerPort(p);
-            // Update list of managers that wait for this port
-            List<OVXNetworkManager> mngrs = this.portToMngr.get(p);
-            if (mngrs == null) {
-                this.portToMngr.put(p, new ArrayList<OVXNetworkManager>());
+            if (mngr.registerPort(p)) {
+                this.restore.register(mngr, p);
             }
-            this.portToMngr.get(p).add(mngr);
         }
     }
 
@@ -546,197 +479,121 @@ public final class DBManager {
                         .shortValue();
                 DPIDandPortPair dpp = new DPIDandPortPair(new DPIDandPort(
                         srcDpid, srcPort), new DPIDandPort(dstDpid, dstPort));
-                // Register links in the appropriate manager
-                mngr.registerLink(dpp);
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs == null) {
-                    this.linkToMngr.put(dpp, new ArrayList<OVXNetworkManager>());
-                }
-                this.linkToMngr.get(dpp).add(mngr);
-
-                // Register switches
-                mngr.registerSwitch(srcDpid);
-                mngr.registerSwitch(dstDpid);
-                mngrs = this.dpidToMngr.get(srcDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(srcDpid, new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(srcDpid).add(mngr);
-                mngrs = this.dpidToMngr.get(dstDpid);
-                if (mngrs == null) {
-                    this.dpidToMngr.put(dstDpid,
-                            new ArrayList<OVXNetworkManager>());
-                }
-                this.dpidToMngr.get(dstDpid).add(mngr);
+                // Register link and its src/dst switches in current manager
+                this.registerLink(mngr, dpp);
             }
         }
     }
 
     /**
-     * Adds physical switch to the OVXNetworkManagers that are waiting for this
-     * switch. Removes OVXNetworkManagers that were booted after adding this
-     * switch. This method is called by the PhysicalSwitch.boot() method.
+     * Registers a physical link and its source and destination switches
+     * in the given manager.
+     *
+     * @param mngr the virtual network manager
+     * @param dpp the link given as a dpid and port pair
+     */
+    private void registerLink(OVXNetworkManager mngr, DPIDandPortPair dpp) {
+        if (mngr.registerLink(dpp)) {
+            this.restore.register(mngr, dpp);
+        }
+        Long srcDpid = dpp.getSrc().getDpid();
+        Long dstDpid = dpp.getDst().getDpid();
+        if (mngr.registerSwitch(srcDpid)) {
+            this.restore.register(mngr, srcDpid);
+        }
+        if (mngr.registerSwitch(dstDpid)) {
+            this.restore.register(mngr, dstDpid);
+        }
+    }
+
+    /**
+     * Marks physical switch online in the OVXNetworkManagers that are
+     * waiting for this switch, booting the ones it completes. This method
+     * is called by the PhysicalSwitch.boot() method.
      *
      * @param dpid the swith dpid
      */
     public void addSwitch(final Long dpid) {
-        // Disregard physical switch creation if OVX was started with --dbClear
-        if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical switch
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(dpid);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setSwitch(dpid);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
-            }
-            this.removeOVXNetworkManagers(completedMngrs);
-        }
+        this.elementUp(dpid);
     }
 
     /**
-     * Deletes physical switch from the OVXNetworkManagers that are waiting for
-     * this switch. This method is called by PhysicalNetwork when switch has
-     * disconnected.
+     * Marks physical switch offline in the OVXNetworkManagers that are
+     * waiting for this switch. This method is called by PhysicalNetwork when
+     * switch has disconnected.
      *
      * @param dpid the switch dpid
      */
     public void delSwitch(final Long dpid) {
-        // Disregard physical switch deletion if OVX was started with --dbClear
-        if (!this.clear) {
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical switch
-                List<OVXNetworkManager> mngrs = this.dpidToMngr.get(dpid);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetSwitch(dpid);
-                    }
-                }
-            }
-        }
+        this.elementDown(dpid);
     }
 
     /**
-     * Adds physical link to the OVXNetworkManagers that are waiting for this
-     * link. Removes OVXNetworkManagers that were booted after adding this link.
+     * Marks physical link online in the OVXNetworkManagers that are waiting
+     * for this link, booting the ones it completes.
      *
      * @param dpp physical link given as a dpid and port pair
      */
     public void addLink(final DPIDandPortPair dpp) {
-        // Disregard physical link creation if OVX was started with --dbClear
-        if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.linkToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setLink(dpp);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
-            }
-            this.removeOVXNetworkManagers(completedMngrs);
-        }
+        this.elementUp(dpp);
     }
 
     /**
-     * Deletes physical link from the OVXNetworkManagers that are waiting for
-     * this switch.
+     * Marks physical link offline in the OVXNetworkManagers that are
+     * waiting for this link.
      *
      * @param dpp the physical link given as a dpid and port pair
      */
     public void delLink(final DPIDandPortPair dpp) {
-        // Disregard physical link deletion if OVX was started with --dbClear
-        if (!this.clear) {
-            synchronized (this.linkToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.linkToMngr.get(dpp);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetLink(dpp);
-                    }
-                }
-            }
-        }
+        this.elementDown(dpp);
     }
 
     /**
-     * Adds physical port to the OVXNetworkManagers that are waiting for this
-     * port. Remove OVXNetworkManagers that were booted after adding this port.
+     * Marks physical port online in the OVXNetworkManagers that are waiting
+     * for this port, booting the ones it completes.
      *
      * @param port the port given as a dpid and port pair
      */
     public void addPort(final DPIDandPort port) {
-        // Disregard physical port creation if OVX was started with --dbClear
-        if (!this.clear) {
-            List<OVXNetworkManager> completedMngrs = new ArrayList<OVXNetworkManager>();
-            synchronized (this.portToMngr) {
-                // Lookup virtual networks that use this physical port
-                List<OVXNetworkManager> mngrs = this.portToMngr.get(port);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.setPort(port);
-                        if (mngr.getStatus()) {
-                            completedMngrs.add(mngr);
-                        }
-                    }
-                }
-            }
-            this.removeOVXNetworkManagers(completedMngrs);
-        }
+        this.elementUp(port);
     }
 
     /**
-     * Deletes physical port from the OVXNetworkManagers that are waiting for
-     * this switch.
+     * Marks physical port offline in the OVXNetworkManagers that are
+     * waiting for this port.
      *
      * @param port the port given as a dpid and port pair
      */
     public void delPort(final DPIDandPort port) {
-        // Disregard physical link deletion if OVX was started with --dbClear
-        if (!this.clear) {
-            synchronized (this.dpidToMngr) {
-                // Lookup virtual networks that use this physical link
-                List<OVXNetworkManager> mngrs = this.portToMngr.get(port);
-                if (mngrs != null) {
-                    for (OVXNetworkManager mngr : mngrs) {
-                        mngr.unsetPort(port);
-                    }
-                }
-            }
+        this.elementDown(port);
+    }
+
+    private void elementUp(final Object element) {
+        // Disregard physical elements if OVX was started with --dbClear
+        RestoreCoordinator r = this.restore;
+        if (!this.clear && r != null) {
+            r.up(element);
+        }
+    }
+
+    private void elementDown(final Object element) {
+        RestoreCoordinator r = this.restore;
+        if (!this.clear && r != null) {
+            r.down(element);
         }
     }
 
     /**
-     * Removes network managers that were waiting for switches, links or ports.
+     * Gets the progress of restoring the virtual networks read from the
+     * database.
      *
-     * @param mngrs list of virtual network managers
+     * @return the progress counters, or an empty map if nothing was read
      */
-    private void removeOVXNetworkManagers(List<OVXNetworkManager> mngrs) {
-        for (OVXNetworkManager mngr : mngrs) {
-            synchronized (this.dpidToMngr) {
-                for (Long dpid : this.dpidToMngr.keySet()) {
-                    this.dpidToMngr.get(dpid).remove(mngr);
-                }
-            }
-            synchronized (this.linkToMngr) {
-                for (DPIDandPortPair dpp : this.linkToMngr.keySet()) {
-                    this.linkToMngr.get(dpp).remove(mngr);
-                }
-            }
-            synchronized (this.portToMngr) {
-                for (DPIDandPort dp : this.portToMngr.keySet()) {
-                    this.portToMngr.get(dp).remove(mngr);
-                }
-            }
+    public Map<String, Object> getRestoreStatus() {
+        RestoreCoordinator r = this.restore;
+        if (r == null) {
+            return new HashMap<String, Object>();
         }
+        return r.getStatus();
     }
 }
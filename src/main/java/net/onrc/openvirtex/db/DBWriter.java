@@ -0,0 +1,502 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes database updates behind the threads that make them. Updates are
+ * queued in a bounded queue, and a dedicated thread drains the queue and
+ * coalesces the $addToSet and $pull updates of each document into as few
+ * backend updates as possible. Callers block while the queue is full.
+ * <p>
+ * Within a drained batch the last update of an element wins: a pull
+ * cancels a pending add of the same element, and all pulls of a document
+ * are written before its adds. Removing a document discards its pending
+ * updates. With a queue size of 0 updates are written on the calling
+ * thread.
+ */
+final class DBWriter implements Runnable {
+
+    private static final Logger log = LogManager.getLogger(DBWriter.class
+            .getName());
+
+    /**
+     * Maximum number of queued updates coalesced in one flush.
+     */
+    private static final int FLUSH_BATCH = 1024;
+    /**
+     * Time allowed to drain the queue on shutdown, in milliseconds.
+     */
+    private static final long STOP_TIMEOUT = 10000;
+
+    private static final String ADD_TO_SET = "$addToSet";
+    private static final String EACH = "$each";
+    private static final String PULL = "$pull";
+
+    private static final int INSERT = 0;
+    private static final int REMOVE_DOC = 1;
+    private static final int ADD = 2;
+    private static final int REMOVE = 3;
+    private static final int STOP = 4;
+
+    private final DBConnection connection;
+    private final BlockingQueue<Op> queue;
+    private final int capacity;
+    private Thread thread;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile int maxDepth;
+    private long flushes;
+    private long flushedOps;
+    private long totalMicros;
+    private long maxMicros;
+    private long lastMicros;
+
+    /**
+     * Creates a writer on the given backend.
+     *
+     * @param connection the database backend
+     * @param capacity the queue size, or 0 to write synchronously
+     */
+    DBWriter(DBConnection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = Math.max(capacity, 0);
+        this.queue = this.capacity > 0 ? new ArrayBlockingQueue<Op>(
+                this.capacity) : null;
+    }
+
+    /**
+     * Starts the writer thread, if updates are queued.
+     */
+    void start() {
+        if (this.queue != null) {
+            this.thread = new Thread(this, "DBWriter");
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Writes all queued updates and stops the writer thread.
+     */
+    void stop() {
+        if (this.thread == null) {
+            return;
+        }
+        this.enqueue(new Op(STOP, null, null, null, null));
+        try {
+            this.thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.thread.isAlive()) {
+            log.warn("Gave up writing {} queued database updates",
+                    this.queue.size());
+        }
+        this.thread = null;
+    }
+
+    /**
+     * Inserts a document.
+     *
+     * @param coll the collection name
+     * @param index the unique index of the document
+     * @param doc the document
+     */
+    void insert(String coll, Map<String, Object> index,
+            Map<String, Object> doc) {
+        this.enqueue(new Op(INSERT, coll, index, null, doc));
+    }
+
+    /**
+     * Removes the documents matching the query.
+     *
+     * @param coll the collection name
+     * @param index the unique index of the document
+     * @param query the fields to match
+     */
+    void removeDoc(String coll, Map<String, Object> index,
+            Map<String, Object> query) {
+        this.enqueue(new Op(REMOVE_DOC, coll, index, null, query));
+    }
+
+    /**
+     * Adds an element to an array of a document, creating the document
+     * if needed.
+     *
+     * @param coll the collection name
+     * @param index the unique index of the document
+     * @param key the array field
+     * @param value the element
+     */
+    void addToSet(String coll, Map<String, Object> index, String key,
+            Map<String, Object> value) {
+        this.enqueue(new Op(ADD, coll, index, key, value));
+    }
+
+    /**
+     * Removes the elements matching the criterion from an array of a
+     * document.
+     *
+     * @param coll the collection name
+     * @param index the unique index of the document
+     * @param key the array field
+     * @param criterion the fields of the elements to remove
+     */
+    void pull(String coll, Map<String, Object> index, String key,
+            Map<String, Object> criterion) {
+        this.enqueue(new Op(REMOVE, coll, index, key, criterion));
+    }
+
+    private void enqueue(Op op) {
+        if (this.thread == null) {
+            if (op.type != STOP) {
+                this.enqueued.incrementAndGet();
+                this.flush(Collections.singletonList(op));
+            }
+            return;
+        }
+        this.enqueued.incrementAndGet();
+        try {
+            if (!this.queue.offer(op)) {
+                this.blocked.incrementAndGet();
+                this.queue.put(op);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while queueing database update");
+            return;
+        }
+        int depth = this.queue.size();
+        if (depth > this.maxDepth) {
+            this.maxDepth = depth;
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Op> batch = new ArrayList<Op>(FLUSH_BATCH);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.queue.drainTo(batch, FLUSH_BATCH - 1);
+            Iterator<Op> it = batch.iterator();
+            while (it.hasNext()) {
+                if (it.next().type == STOP) {
+                    it.remove();
+                    stopped = true;
+                }
+            }
+            if (!batch.isEmpty()) {
+                this.flush(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Coalesces the updates of the batch per document and writes them.
+     *
+     * @param batch the updates, in the order they were made
+     */
+    private void flush(List<Op> batch) {
+        long start = System.nanoTime();
+        Map<DocKey, Pending> pending = new LinkedHashMap<DocKey, Pending>();
+        // Suppress error stream when MongoDB raises java.net.ConnectException
+        // in another component (and cannot be caught)
+        PrintStream ps = System.err;
+        System.setErr(null);
+        try {
+            for (Op op : batch) {
+                DocKey doc = new DocKey(op.coll, op.index);
+                Pending p = pending.get(doc);
+                switch (op.type) {
+                    case ADD:
+                    case REMOVE:
+                        if (p == null) {
+                            p = new Pending();
+                            pending.put(doc, p);
+                        }
+                        if (op.type == ADD) {
+                            p.add(op.key, op.value);
+                        } else {
+                            p.pull(op.key, op.value);
+                        }
+                        break;
+                    case INSERT:
+                        if (p != null) {
+                            this.write(doc, pending.remove(doc));
+                        }
+                        this.execute(op);
+                        break;
+                    case REMOVE_DOC:
+                        pending.remove(doc);
+                        this.execute(op);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            for (Map.Entry<DocKey, Pending> e : pending.entrySet()) {
+                this.write(e.getKey(), e.getValue());
+            }
+        } finally {
+            System.setErr(ps);
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        synchronized (this) {
+            this.flushes++;
+            this.flushedOps += batch.size();
+            this.totalMicros += micros;
+            this.lastMicros = micros;
+            if (micros > this.maxMicros) {
+                this.maxMicros = micros;
+            }
+        }
+    }
+
+    private void execute(Op op) {
+        this.writes.incrementAndGet();
+        try {
+            if (op.type == INSERT) {
+                if (!this.connection.insert(op.coll, op.value)) {
+                    // Virtual network was already stored and we're trying
+                    // to create it again on startup
+                    log.warn("Skipped saving of virtual network with duplicate tenant id");
+                }
+            } else {
+                this.connection.remove(op.coll, op.value);
+            }
+        } catch (Exception e) {
+            this.failures.incrementAndGet();
+            log.error("Failed to {} document: {}",
+                    op.type == INSERT ? "insert" : "remove", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the pending updates of a document: first one update per
+     * round of pulls, then all adds in a single update.
+     */
+    private void write(DocKey doc, Pending p) {
+        for (int round = 0;; round++) {
+            Map<String, Object> pulls = new HashMap<String, Object>();
+            for (Map.Entry<String, List<Map<String, Object>>> e : p.pulls
+                    .entrySet()) {
+                if (e.getValue().size() > round) {
+                    pulls.put(e.getKey(), e.getValue().get(round));
+                }
+            }
+            if (pulls.isEmpty()) {
+                break;
+            }
+            Map<String, Object> update = new HashMap<String, Object>();
+            update.put(PULL, pulls);
+            this.update(doc, update, false);
+        }
+        Map<String, Object> adds = new HashMap<String, Object>();
+        for (Map.Entry<String, List<Map<String, Object>>> e : p.adds
+                .entrySet()) {
+            List<Map<String, Object>> values = e.getValue();
+            if (values.size() == 1) {
+                adds.put(e.getKey(), values.get(0));
+            } else if (!values.isEmpty()) {
+                Map<String, Object> each = new HashMap<String, Object>();
+                each.put(EACH, values);
+                adds.put(e.getKey(), each);
+            }
+        }
+        if (!adds.isEmpty()) {
+            Map<String, Object> update = new HashMap<String, Object>();
+            update.put(ADD_TO_SET, adds);
+            this.update(doc, update, true);
+        }
+    }
+
+    private void update(DocKey doc, Map<String, Object> update,
+            boolean upsert) {
+        this.writes.incrementAndGet();
+        try {
+            this.connection.update(doc.coll, new HashMap<String, Object>(
+                    doc.index), update, upsert);
+        } catch (Exception e) {
+            this.failures.incrementAndGet();
+            log.error("Failed to update database: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the queue and flush counters of the writer.
+     *
+     * @return the counters
+     */
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("capacity", this.capacity);
+        stats.put("depth", this.queue == null ? 0 : this.queue.size());
+        stats.put("maxDepth", this.maxDepth);
+        stats.put("enqueued", this.enqueued.get());
+        stats.put("blocked", this.blocked.get());
+        stats.put("flushes", this.flushes);
+        stats.put("flushedUpdates", this.flushedOps);
+        stats.put("writes", this.writes.get());
+        stats.put("failures", this.failures.get());
+        stats.put("avgFlushMicros", this.flushes == 0 ? 0
+                : this.totalMicros / this.flushes);
+        stats.put("maxFlushMicros", this.maxMicros);
+        stats.put("lastFlushMicros", this.lastMicros);
+        return stats;
+    }
+
+    /**
+     * Returns true if all fields of the criterion are equal in the
+     * element, the way MongoDB matches the elements to pull.
+     *
+     * @param element the array element
+     * @param criterion the fields to match
+     * @return true if the element matches
+     */
+    static boolean matches(Object element, Map<String, Object> criterion) {
+        if (!(element instanceof Map)) {
+            return false;
+        }
+        Map<?, ?> map = (Map<?, ?>) element;
+        for (Map.Entry<String, Object> e : criterion.entrySet()) {
+            Object v = map.get(e.getKey());
+            if (v == null ? e.getValue() != null || !map.containsKey(e.getKey())
+                    : !v.equals(e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queued update.
+     */
+    private static final class Op {
+        private final int type;
+        private final String coll;
+        private final Map<String, Object> index;
+        private final String key;
+        private final Map<String, Object> value;
+
+        private Op(int type, String coll, Map<String, Object> index,
+                String key, Map<String, Object> value) {
+            this.type = type;
+            this.coll = coll;
+            this.index = index;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Collection and unique index of a document.
+     */
+    private static final class DocKey {
+        private final String coll;
+        private final Map<String, Object> index;
+
+        private DocKey(String coll, Map<String, Object> index) {
+            this.coll = coll;
+            this.index = index;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.coll.hashCode() + this.index.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DocKey)) {
+                return false;
+            }
+            DocKey other = (DocKey) obj;
+            return this.coll.equals(other.coll)
+                    && this.index.equals(other.index);
+        }
+    }
+
+    /**
+     * Coalesced array updates of one document.
+     */
+    private static final class Pending {
+        private final Map<String, List<Map<String, Object>>> adds =
+                new LinkedHashMap<String, List<Map<String, Object>>>();
+        private final Map<String, List<Map<String, Object>>> pulls =
+                new LinkedHashMap<String, List<Map<String, Object>>>();
+
+        private void add(String key, Map<String, Object> value) {
+            List<Map<String, Object>> values = list(this.adds, key);
+            if (!values.contains(value)) {
+                values.add(value);
+            }
+        }
+
+        private void pull(String key, Map<String, Object> criterion) {
+            List<Map<String, Object>> values = this.adds.get(key);
+            if (values != null) {
+                Iterator<Map<String, Object>> it = values.iterator();
+                while (it.hasNext()) {
+                    if (matches(it.next(), criterion)) {
+                        it.remove();
+                    }
+                }
+            }
+            List<Map<String, Object>> criteria = list(this.pulls, key);
+            if (!criteria.contains(criterion)) {
+                criteria.add(criterion);
+            }
+        }
+
+        private static List<Map<String, Object>> list(
+                Map<String, List<Map<String, Object>>> map, String key) {
+            List<Map<String, Object>> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<Map<String, Object>>();
+                map.put(key, list);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of database documents. Values are tagged,
+ * integers are zigzag varints, and every string is written once per
+ * document and referenced by index afterwards, so the field names
+ * repeated in each switch, port and hop cost a byte or two.
+ * <p>
+ * Bytes and shorts are encoded as integers and floats as doubles, so
+ * decoded documents have the types MongoDB returns.
+ */
+final class DocumentCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int NULL = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int STRING = 3;
+    private static final int STRING_REF = 4;
+    private static final int TRUE = 5;
+    private static final int FALSE = 6;
+    private static final int DOUBLE = 7;
+    private static final int LIST = 8;
+    private static final int MAP = 9;
+
+    private DocumentCodec() {
+    }
+
+    /**
+     * Encodes a document.
+     *
+     * @param doc the document
+     * @return the encoded document
+     */
+    static byte[] encode(Map<String, Object> doc) {
+        Encoder enc = new Encoder();
+        enc.map(doc);
+        return Arrays.copyOf(enc.buf, enc.pos);
+    }
+
+    /**
+     * Decodes a document.
+     *
+     * @param buf the buffer holding the document
+     * @param off the offset of the document
+     * @param len the length of the document
+     * @return the document
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> decode(byte[] buf, int off, int len) {
+        Decoder dec = new Decoder(buf, off, off + len);
+        Object doc = dec.value();
+        if (dec.pos != off + len || !(doc instanceof Map)) {
+            throw new IllegalArgumentException("Malformed document");
+        }
+        return (Map<String, Object>) doc;
+    }
+
+    private static final class Encoder {
+        private byte[] buf = new byte[256];
+        private int pos;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        private void ensure(int n) {
+            if (this.pos + n > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf,
+                        Math.max(this.buf.length * 2, this.pos + n));
+            }
+        }
+
+        private void varint(long v) {
+            this.ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                this.buf[this.pos++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            this.buf[this.pos++] = (byte) v;
+        }
+
+        private void zigzag(long v) {
+            this.varint((v << 1) ^ (v >> 63));
+        }
+
+        /**
+         * Writes a map key: 0 and the string if new, or the string index
+         * plus one.
+         */
+        private void key(String s) {
+            Integer ref = this.strings.get(s);
+            if (ref != null) {
+                this.varint(ref + 1);
+            } else {
+                this.varint(0);
+                this.chars(s);
+            }
+        }
+
+        private void chars(String s) {
+            this.strings.put(s, this.strings.size());
+            byte[] b = s.getBytes(UTF8);
+            this.varint(b.length);
+            this.ensure(b.length);
+            System.arraycopy(b, 0, this.buf, this.pos, b.length);
+            this.pos += b.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void value(Object v) {
+            if (v == null) {
+                this.varint(NULL);
+            } else if (v instanceof Integer || v instanceof Short
+                    || v instanceof Byte) {
+                this.varint(INT);
+                this.zigzag(((Number) v).intValue());
+            } else if (v instanceof Long) {
+                this.varint(LONG);
+                this.zigzag((Long) v);
+            } else if (v instanceof String) {
+                Integer ref = this.strings.get(v);
+                if (ref != null) {
+                    this.varint(STRING_REF);
+                    this.varint(ref);
+                } else {
+                    this.varint(STRING);
+                    this.chars((String) v);
+                }
+            } else if (v instanceof Boolean) {
+                this.varint((Boolean) v ? TRUE : FALSE);
+            } else if (v instanceof Double || v instanceof Float) {
+                this.varint(DOUBLE);
+                long bits = Double.doubleToLongBits(((Number) v).doubleValue());
+                this.ensure(8);
+                for (int i = 56; i >= 0; i -= 8) {
+                    this.buf[this.pos++] = (byte) (bits >>> i);
+                }
+            } else if (v instanceof List) {
+                List<Object> list = (List<Object>) v;
+                this.varint(LIST);
+                this.varint(list.size());
+                for (Object o : list) {
+                    this.value(o);
+                }
+            } else if (v instanceof Map) {
+                this.map((Map<String, Object>) v);
+            } else {
+                throw new IllegalArgumentException("Cannot encode "
+                        + v.getClass().getName());
+            }
+        }
+
+        private void map(Map<String, Object> map) {
+            this.varint(MAP);
+            this.varint(map.size());
+            for (Map.Entry<String, Object> e : map.entrySet()) {
+                this.key(e.getKey());
+                this.value(e.getValue());
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] buf;
+        private int pos;
+        private final int end;
+        private final List<String> strings = new ArrayList<String>();
+
+        private Decoder(byte[] buf, int off, int end) {
+            this.buf = buf;
+            this.pos = off;
+            this.end = end;
+        }
+
+        private long varint() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (this.pos >= this.end) {
+                    throw new IllegalArgumentException("Truncated document");
+                }
+                byte b = this.buf[this.pos++];
+                v |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        private long zigzag() {
+            long v = this.varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private int length() {
+            long n = this.varint();
+            if (n < 0 || n > this.end - this.pos) {
+                throw new IllegalArgumentException("Malformed length");
+            }
+            return (int) n;
+        }
+
+        private String chars() {
+            int n = this.length();
+            String s = new String(this.buf, this.pos, n, UTF8);
+            this.pos += n;
+            this.strings.add(s);
+            return s;
+        }
+
+        private String ref(long i) {
+            if (i < 0 || i >= this.strings.size()) {
+                throw new IllegalArgumentException("Malformed string reference");
+            }
+            return this.strings.get((int) i);
+        }
+
+        private Object value() {
+            int tag = (int) this.varint();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case INT:
+                    return (int) this.zigzag();
+                case LONG:
+                    return this.zigzag();
+                case STRING:
+                    return this.chars();
+                case STRING_REF:
+                    return this.ref(this.varint());
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DOUBLE:
+                    if (this.end - this.pos < 8) {
+                        throw new IllegalArgumentException("Truncated document");
+                    }
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (this.buf[this.pos++] & 0xff);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case LIST:
+                    int n = this.length();
+                    List<Object> list = new ArrayList<Object>(n);
+                    for (int i = 0; i < n; i++) {
+                        list.add(this.value());
+                    }
+                    return list;
+                case MAP:
+                    int size = this.length();
+                    Map<String, Object> map = new HashMap<String, Object>(
+                            size * 2);
+                    for (int i = 0; i < size; i++) {
+                        long k = this.varint();
+                        String key = k == 0 ? this.chars() : this.ref(k - 1);
+                        map.put(key, this.value());
+                    }
+                    return map;
+                default:
+                    throw new IllegalArgumentException("Unknown tag " + tag);
+            }
+        }
+    }
+}
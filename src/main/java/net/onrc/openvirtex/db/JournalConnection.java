@@ -0,0 +1,681 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Embedded database backend, for running without a MongoDB server.
+ * <p>
+ * Documents are held in memory in the compact {@link DocumentCodec}
+ * encoding. Every change is appended to a memory-mapped journal, and when
+ * the journal fills up all documents are written to a snapshot and the
+ * journal starts over. Snapshot and journal carry a generation number, so
+ * a journal left over from before the last snapshot is never replayed.
+ * Records are checksummed, and replay stops at the first torn record.
+ * <p>
+ * The journal survives a crash of the process as soon as a record is
+ * appended; it is forced to disk on snapshots and on disconnect.
+ */
+public class JournalConnection implements DBConnection {
+
+    /**
+     * Default size of the journal, in bytes.
+     */
+    public static final int DEFAULT_JOURNAL_SIZE = 64 * 1024 * 1024;
+
+    static final String JOURNAL = "ovx.journal";
+    static final String SNAPSHOT = "ovx.snapshot";
+
+    private static final int JOURNAL_MAGIC = 0x4f56584a;
+    private static final int SNAPSHOT_MAGIC = 0x4f565853;
+    // Magic number and generation, padded
+    private static final int HEADER = 16;
+    // Record length and checksum
+    private static final int RECORD_HEADER = 8;
+
+    private static final int INSERT = 1;
+    private static final int REMOVE = 2;
+    private static final int UPDATE = 3;
+    private static final int DROP = 4;
+    private static final int INDEX = 5;
+
+    // Key returned when no document matches, as index values may be null
+    private static final Object NONE = new Object();
+
+    private static final int KEY_NONE = 0;
+    private static final int KEY_INT = 1;
+    private static final int KEY_LONG = 2;
+    private static final int KEY_STRING = 3;
+
+    private static Logger log = LogManager.getLogger(JournalConnection.class
+            .getName());
+
+    private final File dir;
+    private final int journalSize;
+    private final Map<String, Collection> collections =
+            new LinkedHashMap<String, Collection>();
+    private long generation;
+    private RandomAccessFile file;
+    private MappedByteBuffer journal;
+    private long snapshots;
+    private long replayed;
+    private boolean replaying;
+
+    /**
+     * Creates an embedded backend storing its files in the given
+     * directory.
+     *
+     * @param dir the database directory
+     */
+    public JournalConnection(String dir) {
+        this(dir, DEFAULT_JOURNAL_SIZE);
+    }
+
+    /**
+     * Creates an embedded backend storing its files in the given
+     * directory.
+     *
+     * @param dir the database directory
+     * @param journalSize the size of the journal, in bytes
+     */
+    public JournalConnection(String dir, int journalSize) {
+        this.dir = new File(dir);
+        this.journalSize = journalSize;
+    }
+
+    /**
+     * Opens the database directory, reading the snapshot and replaying the
+     * journal. Host and port are ignored.
+     */
+    @Override
+    public synchronized void connect(String host, Integer port) {
+        log.info("Opening embedded database in {}", this.dir.getAbsolutePath());
+        try {
+            if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+                throw new IOException("Cannot create " + this.dir);
+            }
+            long start = System.nanoTime();
+            this.readSnapshot();
+            this.openJournal();
+            log.info("Restored {} documents and {} journal records in {} ms",
+                    this.count(), this.replayed,
+                    (System.nanoTime() - start) / 1000000);
+        } catch (IOException e) {
+            log.error("Error opening embedded database: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (this.file == null) {
+            return;
+        }
+        try {
+            this.journal.force();
+            this.file.close();
+        } catch (IOException e) {
+            log.error("Error closing embedded database: {}", e.getMessage());
+        }
+        this.file = null;
+        this.journal = null;
+    }
+
+    @Override
+    public synchronized void ensureIndex(String coll, String field) {
+        Collection c = this.collection(coll);
+        if (!field.equals(c.index)) {
+            c.reindex(field);
+            this.append(INDEX, coll, this.field(field));
+        }
+    }
+
+    @Override
+    public synchronized void drop(String coll) {
+        this.collections.remove(coll);
+        this.append(DROP, coll);
+    }
+
+    @Override
+    public synchronized Iterable<Map<String, Object>> find(String coll) {
+        Collection c = this.collections.get(coll);
+        final List<byte[]> docs = c == null ? new ArrayList<byte[]>()
+                : new ArrayList<byte[]>(c.docs.values());
+        // Documents are decoded one at a time while iterating
+        return new Iterable<Map<String, Object>>() {
+            @Override
+            public Iterator<Map<String, Object>> iterator() {
+                final Iterator<byte[]> it = docs.iterator();
+                return new Iterator<Map<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Map<String, Object> next() {
+                        byte[] doc = it.next();
+                        return DocumentCodec.decode(doc, 0, doc.length);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public synchronized boolean insert(String coll, Map<String, Object> doc) {
+        doc = MemoryConnection.copyDoc(doc);
+        if (!this.collection(coll).insert(doc)) {
+            return false;
+        }
+        this.append(INSERT, coll, doc);
+        return true;
+    }
+
+    @Override
+    public synchronized void remove(String coll, Map<String, Object> query) {
+        query = MemoryConnection.copyDoc(query);
+        Collection c = this.collections.get(coll);
+        if (c != null && c.remove(query)) {
+            this.append(REMOVE, coll, query);
+        }
+    }
+
+    @Override
+    public synchronized void update(String coll, Map<String, Object> query,
+            Map<String, Object> update, boolean upsert) {
+        query = MemoryConnection.copyDoc(query);
+        update = MemoryConnection.copyDoc(update);
+        if (this.collection(coll).update(query, update, upsert)) {
+            Map<String, Object> record = new HashMap<String, Object>();
+            record.put("q", query);
+            record.put("u", update);
+            record.put("upsert", upsert);
+            this.append(UPDATE, coll, record);
+        }
+    }
+
+    /**
+     * Writes all documents to a new snapshot and empties the journal.
+     */
+    public synchronized void snapshot() {
+        try {
+            this.writeSnapshot();
+            this.resetJournal();
+            this.snapshots++;
+        } catch (IOException e) {
+            log.error("Failed to write database snapshot: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Gets the sizes of the journal and snapshot.
+     *
+     * @return the journal bytes in use and its size, the snapshot size,
+     *         the generation and the number of snapshots taken
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("documents", this.count());
+        stats.put("generation", this.generation);
+        stats.put("journalBytes", this.journal == null ? 0
+                : this.journal.position());
+        stats.put("journalSize", this.journal == null ? 0
+                : this.journal.capacity());
+        stats.put("snapshotBytes", new File(this.dir, SNAPSHOT).length());
+        stats.put("snapshots", this.snapshots);
+        return stats;
+    }
+
+    private int count() {
+        int n = 0;
+        for (Collection c : this.collections.values()) {
+            n += c.docs.size();
+        }
+        return n;
+    }
+
+    private Collection collection(String coll) {
+        Collection c = this.collections.get(coll);
+        if (c == null) {
+            c = new Collection();
+            if (this.replaying) {
+                c.defer();
+            }
+            this.collections.put(coll, c);
+        }
+        return c;
+    }
+
+    private Map<String, Object> field(String field) {
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("f", field);
+        return m;
+    }
+
+    private void append(int op, String coll) {
+        this.append(op, coll, new HashMap<String, Object>());
+    }
+
+    /**
+     * Appends a record to the journal, taking a snapshot first if it does
+     * not fit.
+     */
+    private void append(int op, String coll, Map<String, Object> body) {
+        if (this.journal == null) {
+            return;
+        }
+        Map<String, Object> record = new HashMap<String, Object>();
+        record.put("op", op);
+        record.put("c", coll);
+        record.put("b", body);
+        byte[] payload = DocumentCodec.encode(record);
+        if (this.journal.remaining() < RECORD_HEADER + payload.length + 4) {
+            // The record is already applied in memory, so the snapshot
+            // covers it
+            this.snapshot();
+            if (this.journal.remaining() < RECORD_HEADER + payload.length + 4) {
+                log.error("Database record of {} bytes does not fit the journal",
+                        payload.length);
+            }
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        int start = this.journal.position();
+        this.journal.position(start + 4);
+        this.journal.putInt((int) crc.getValue());
+        this.journal.put(payload);
+        // Publish the length last, so a torn record reads as the end
+        this.journal.putInt(start, payload.length);
+    }
+
+    private void openJournal() throws IOException {
+        File f = new File(this.dir, JOURNAL);
+        this.file = new RandomAccessFile(f, "rw");
+        long size = Math.max(this.file.length(), this.journalSize);
+        this.journal = this.file.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, size);
+        if (this.journal.getInt(0) == JOURNAL_MAGIC
+                && this.journal.getLong(4) == this.generation) {
+            this.replay();
+        } else {
+            this.resetJournal();
+        }
+    }
+
+    /**
+     * Applies the records of the journal, up to the first torn record.
+     */
+    @SuppressWarnings("unchecked")
+    private void replay() {
+        this.replaying = true;
+        for (Collection c : this.collections.values()) {
+            c.defer();
+        }
+        this.journal.position(HEADER);
+        CRC32 crc = new CRC32();
+        while (this.journal.remaining() >= RECORD_HEADER) {
+            int start = this.journal.position();
+            int len = this.journal.getInt(start);
+            if (len <= 0 || len > this.journal.remaining() - RECORD_HEADER) {
+                break;
+            }
+            int sum = this.journal.getInt(start + 4);
+            byte[] payload = new byte[len];
+            this.journal.position(start + RECORD_HEADER);
+            this.journal.get(payload);
+            crc.reset();
+            crc.update(payload, 0, len);
+            if ((int) crc.getValue() != sum) {
+                this.journal.position(start);
+                break;
+            }
+            Map<String, Object> record;
+            try {
+                record = DocumentCodec.decode(payload, 0, len);
+            } catch (IllegalArgumentException e) {
+                this.journal.position(start);
+                break;
+            }
+            String coll = (String) record.get("c");
+            Map<String, Object> body = (Map<String, Object>) record.get("b");
+            switch ((Integer) record.get("op")) {
+                case INSERT:
+                    this.collection(coll).insert(body);
+                    break;
+                case REMOVE:
+                    this.collection(coll).remove(body);
+                    break;
+                case UPDATE:
+                    this.collection(coll).update(
+                            (Map<String, Object>) body.get("q"),
+                            (Map<String, Object>) body.get("u"),
+                            (Boolean) body.get("upsert"));
+                    break;
+                case DROP:
+                    this.collections.remove(coll);
+                    break;
+                case INDEX:
+                    this.collection(coll).reindex((String) body.get("f"));
+                    break;
+                default:
+                    break;
+            }
+            this.replayed++;
+        }
+        for (Collection c : this.collections.values()) {
+            c.encode();
+        }
+        this.replaying = false;
+        // Clear what is left of a torn record, so it cannot be mistaken
+        // for records appended after it
+        int pos = this.journal.position();
+        int len = this.journal.remaining() >= 4 ? this.journal.getInt(pos) : 0;
+        int end = len > 0 ? (int) Math.min((long) pos + RECORD_HEADER + len,
+                this.journal.capacity()) : Math.min(pos + 4,
+                this.journal.capacity());
+        for (int i = pos; i < end; i++) {
+            this.journal.put(i, (byte) 0);
+        }
+        this.journal.position(pos);
+    }
+
+    /**
+     * Clears the journal and stamps it with the current generation.
+     */
+    private void resetJournal() {
+        int used = this.journal.getInt(0) == JOURNAL_MAGIC ? this.journal
+                .position() : this.journal.capacity();
+        for (int i = HEADER; i < used; i++) {
+            this.journal.put(i, (byte) 0);
+        }
+        this.journal.putInt(0, JOURNAL_MAGIC);
+        this.journal.putLong(4, this.generation);
+        this.journal.position(HEADER);
+        this.journal.force();
+    }
+
+    private void readSnapshot() throws IOException {
+        File f = new File(this.dir, SNAPSHOT);
+        if (!f.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(f), 65536))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a database snapshot: " + f);
+            }
+            this.generation = in.readLong();
+            int colls = in.readInt();
+            for (int i = 0; i < colls; i++) {
+                Collection c = this.collection(in.readUTF());
+                c.index = in.readBoolean() ? in.readUTF() : null;
+                int docs = in.readInt();
+                for (int j = 0; j < docs; j++) {
+                    Object key = this.readKey(in);
+                    byte[] doc = new byte[in.readInt()];
+                    in.readFully(doc);
+                    if (key == NONE) {
+                        c.put(doc);
+                    } else {
+                        c.docs.put(key, doc);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the next generation snapshot next to the current one, and
+     * atomically replaces it.
+     */
+    private void writeSnapshot() throws IOException {
+        File tmp = new File(this.dir, SNAPSHOT + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(fos, 65536));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(this.generation + 1);
+            out.writeInt(this.collections.size());
+            for (Map.Entry<String, Collection> e : this.collections.entrySet()) {
+                Collection c = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeBoolean(c.index != null);
+                if (c.index != null) {
+                    out.writeUTF(c.index);
+                }
+                out.writeInt(c.docs.size());
+                for (Map.Entry<Object, byte[]> doc : c.docs.entrySet()) {
+                    this.writeKey(out, c.index == null ? NONE : doc.getKey());
+                    out.writeInt(doc.getValue().length);
+                    out.write(doc.getValue());
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), new File(this.dir, SNAPSHOT).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        this.generation++;
+    }
+
+    /**
+     * Writes the index value of a document, so the document need not be
+     * decoded when the snapshot is read. Values of other types, and
+     * documents of collections without index, are keyed on reading.
+     */
+    private void writeKey(DataOutputStream out, Object key) throws IOException {
+        if (key instanceof Integer) {
+            out.writeByte(KEY_INT);
+            out.writeInt((Integer) key);
+        } else if (key instanceof Long) {
+            out.writeByte(KEY_LONG);
+            out.writeLong((Long) key);
+        } else if (key instanceof String) {
+            out.writeByte(KEY_STRING);
+            out.writeUTF((String) key);
+        } else {
+            out.writeByte(KEY_NONE);
+        }
+    }
+
+    private Object readKey(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case KEY_INT:
+                return in.readInt();
+            case KEY_LONG:
+                return in.readLong();
+            case KEY_STRING:
+                return in.readUTF();
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Encoded documents of a collection, keyed by the value of their
+     * unique index field. While the journal is replayed, changed documents
+     * are kept decoded and encoded once at the end.
+     */
+    private static final class Collection {
+        private String index;
+        private Map<Object, byte[]> docs = new LinkedHashMap<Object, byte[]>();
+        private Map<Object, Map<String, Object>> decoded;
+        private long sequence;
+        private Map<String, Object> matched;
+
+        private Object key(Map<String, Object> doc) {
+            return this.index == null ? Long.valueOf(this.sequence++) : doc
+                    .get(this.index);
+        }
+
+        private void put(byte[] doc) {
+            Object key = this.index == null ? Long.valueOf(this.sequence++)
+                    : DocumentCodec.decode(doc, 0, doc.length).get(this.index);
+            this.docs.put(key, doc);
+        }
+
+        private void store(Object key, Map<String, Object> doc) {
+            if (this.decoded != null) {
+                this.docs.put(key, null);
+                this.decoded.put(key, doc);
+            } else {
+                this.docs.put(key, DocumentCodec.encode(doc));
+            }
+        }
+
+        private Map<String, Object> load(Object key, byte[] doc) {
+            if (doc == null) {
+                return this.decoded.get(key);
+            }
+            return DocumentCodec.decode(doc, 0, doc.length);
+        }
+
+        private void defer() {
+            this.decoded = new HashMap<Object, Map<String, Object>>();
+        }
+
+        private void encode() {
+            if (this.decoded != null) {
+                for (Map.Entry<Object, Map<String, Object>> e : this.decoded
+                        .entrySet()) {
+                    if (this.docs.containsKey(e.getKey())) {
+                        this.docs.put(e.getKey(),
+                                DocumentCodec.encode(e.getValue()));
+                    }
+                }
+                this.decoded = null;
+            }
+        }
+
+        private void reindex(String field) {
+            boolean deferred = this.decoded != null;
+            this.encode();
+            this.index = field;
+            Map<Object, byte[]> old = this.docs;
+            this.docs = new LinkedHashMap<Object, byte[]>();
+            for (byte[] doc : old.values()) {
+                this.put(doc);
+            }
+            if (deferred) {
+                this.defer();
+            }
+        }
+
+        private boolean insert(Map<String, Object> doc) {
+            Object key = this.key(doc);
+            if (this.docs.containsKey(key)) {
+                return false;
+            }
+            this.store(key, doc);
+            return true;
+        }
+
+        private boolean remove(Map<String, Object> query) {
+            boolean removed = false;
+            Object key;
+            while ((key = this.match(query)) != NONE) {
+                this.docs.remove(key);
+                if (this.decoded != null) {
+                    this.decoded.remove(key);
+                }
+                removed = true;
+            }
+            return removed;
+        }
+
+        private boolean update(Map<String, Object> query,
+                Map<String, Object> update, boolean upsert) {
+            Object key = this.match(query);
+            Map<String, Object> doc = this.matched;
+            this.matched = null;
+            if (key == NONE) {
+                if (!upsert) {
+                    return false;
+                }
+                doc = MemoryConnection.copyDoc(query);
+                key = this.key(doc);
+            }
+            MemoryConnection.apply(doc, update);
+            this.store(key, doc);
+            return true;
+        }
+
+        /**
+         * Gets the key of the first document matching the query, looking
+         * it up by index value if the query has one, and keeps the decoded
+         * document in matched.
+         *
+         * @return the key, or NONE
+         */
+        private Object match(Map<String, Object> query) {
+            if (this.index != null && query.containsKey(this.index)) {
+                Object key = query.get(this.index);
+                return this.docs.containsKey(key)
+                        && this.matches(this.load(key, this.docs.get(key)),
+                                query) ? key : NONE;
+            }
+            for (Map.Entry<Object, byte[]> e : this.docs.entrySet()) {
+                if (this.matches(this.load(e.getKey(), e.getValue()), query)) {
+                    return e.getKey();
+                }
+            }
+            return NONE;
+        }
+
+        private boolean matches(Map<String, Object> doc,
+                Map<String, Object> query) {
+            if (DBWriter.matches(doc, query)) {
+                this.matched = doc;
+                return true;
+            }
+            return false;
+        }
+    }
+}
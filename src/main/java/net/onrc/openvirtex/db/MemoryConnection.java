@@ -0,0 +1,260 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Database backend keeping all documents in memory, for running the
+ * database manager without a MongoDB server. Implements the subset of
+ * MongoDB update semantics used by the database manager, and can delay
+ * every call by a fixed round trip time to stand in for a remote server.
+ */
+public class MemoryConnection implements DBConnection {
+
+    private final Map<String, List<Map<String, Object>>> collections =
+            new HashMap<String, List<Map<String, Object>>>();
+    private final Map<String, Set<String>> indexes =
+            new HashMap<String, Set<String>>();
+    private final long latency;
+    private long calls;
+
+    /**
+     * Creates an in-memory backend that answers immediately.
+     */
+    public MemoryConnection() {
+        this(0);
+    }
+
+    /**
+     * Creates an in-memory backend that delays every call.
+     *
+     * @param latency the delay of each call, in microseconds
+     */
+    public MemoryConnection(long latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public void connect(String host, Integer port) {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public synchronized void ensureIndex(String coll, String field) {
+        Set<String> fields = this.indexes.get(coll);
+        if (fields == null) {
+            fields = new HashSet<String>();
+            this.indexes.put(coll, fields);
+        }
+        fields.add(field);
+    }
+
+    @Override
+    public synchronized void drop(String coll) {
+        this.roundTrip();
+        this.collections.remove(coll);
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> find(String coll) {
+        this.roundTrip();
+        List<Map<String, Object>> docs = new ArrayList<Map<String, Object>>();
+        for (Map<String, Object> doc : this.collection(coll)) {
+            docs.add(copyDoc(doc));
+        }
+        return docs;
+    }
+
+    @Override
+    public synchronized boolean insert(String coll, Map<String, Object> doc) {
+        this.roundTrip();
+        doc = copyDoc(doc);
+        Set<String> fields = this.indexes.get(coll);
+        if (fields != null) {
+            for (String field : fields) {
+                Map<String, Object> query = new HashMap<String, Object>();
+                query.put(field, doc.get(field));
+                if (this.findOne(coll, query) != null) {
+                    return false;
+                }
+            }
+        }
+        this.collection(coll).add(doc);
+        return true;
+    }
+
+    @Override
+    public synchronized void remove(String coll, Map<String, Object> query) {
+        this.roundTrip();
+        query = copyDoc(query);
+        Iterator<Map<String, Object>> it = this.collection(coll).iterator();
+        while (it.hasNext()) {
+            if (DBWriter.matches(it.next(), query)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void update(String coll, Map<String, Object> query,
+            Map<String, Object> update, boolean upsert) {
+        this.roundTrip();
+        query = copyDoc(query);
+        update = copyDoc(update);
+        Map<String, Object> doc = this.findOne(coll, query);
+        if (doc == null) {
+            if (!upsert) {
+                return;
+            }
+            doc = copyDoc(query);
+            this.collection(coll).add(doc);
+        }
+        apply(doc, update);
+    }
+
+    /**
+     * Applies $addToSet and $pull operators to a document.
+     *
+     * @param doc the document
+     * @param update the update operators
+     */
+    @SuppressWarnings("unchecked")
+    static void apply(Map<String, Object> doc, Map<String, Object> update) {
+        for (Map.Entry<String, Object> op : update.entrySet()) {
+            Map<String, Object> fields = (Map<String, Object>) op.getValue();
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                List<Object> array = (List<Object>) doc.get(field.getKey());
+                if (array == null) {
+                    array = new ArrayList<Object>();
+                    doc.put(field.getKey(), array);
+                }
+                if ("$addToSet".equals(op.getKey())) {
+                    addToSet(array, field.getValue());
+                } else if ("$pull".equals(op.getKey())) {
+                    Iterator<Object> it = array.iterator();
+                    while (it.hasNext()) {
+                        if (DBWriter.matches(it.next(),
+                                (Map<String, Object>) field.getValue())) {
+                            it.remove();
+                        }
+                    }
+                } else {
+                    throw new UnsupportedOperationException(op.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of calls made to this backend.
+     *
+     * @return the number of calls
+     */
+    public synchronized long getCalls() {
+        return this.calls;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addToSet(List<Object> array, Object value) {
+        if (value instanceof Map && ((Map<String, Object>) value)
+                .containsKey("$each")) {
+            for (Object v : (List<Object>) ((Map<String, Object>) value)
+                    .get("$each")) {
+                addToSet(array, v);
+            }
+        } else {
+            Object v = copy(value);
+            if (!array.contains(v)) {
+                array.add(v);
+            }
+        }
+    }
+
+    private Map<String, Object> findOne(String coll, Map<String, Object> query) {
+        for (Map<String, Object> doc : this.collection(coll)) {
+            if (DBWriter.matches(doc, query)) {
+                return doc;
+            }
+        }
+        return null;
+    }
+
+    private List<Map<String, Object>> collection(String coll) {
+        List<Map<String, Object>> docs = this.collections.get(coll);
+        if (docs == null) {
+            docs = new ArrayList<Map<String, Object>>();
+            this.collections.put(coll, docs);
+        }
+        return docs;
+    }
+
+    private void roundTrip() {
+        this.calls++;
+        if (this.latency > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(this.latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Deep copies maps and lists, so stored documents do not share state
+     * with the caller. Bytes and shorts are widened to integers, the way
+     * they come back from MongoDB.
+     */
+    @SuppressWarnings("unchecked")
+    static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value)
+                    .entrySet()) {
+                map.put(e.getKey(), copy(e.getValue()));
+            }
+            return map;
+        } else if (value instanceof List) {
+            List<Object> list = new ArrayList<Object>();
+            for (Object v : (List<Object>) value) {
+                list.add(copy(v));
+            }
+            return list;
+        } else if (value instanceof Byte || value instanceof Short) {
+            return Integer.valueOf(((Number) value).intValue());
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> copyDoc(Map<String, Object> doc) {
+        return (Map<String, Object>) copy(doc);
+    }
+}
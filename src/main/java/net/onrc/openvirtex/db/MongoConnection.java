@@ -20,12 +20,17 @@
 package net.onrc.openvirtex.db;
 
 import java.net.UnknownHostException;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBCursor;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoException;
 
 public class MongoConnection implements DBConnection {
     private static final String DB_NAME = "OVX";
@@ -57,4 +62,69 @@ public class MongoConnection implements DBConnection {
         return mongo.getDB(MongoConnection.DB_NAME);
     }
 
+    @Override
+    public void ensureIndex(String coll, String field) {
+        this.getDB().getCollection(coll).ensureIndex(
+                new BasicDBObject(field, 1), new BasicDBObject("unique", true));
+    }
+
+    @Override
+    public void drop(String coll) {
+        this.getDB().getCollection(coll).drop();
+    }
+
+    @Override
+    public Iterable<Map<String, Object>> find(final String coll) {
+        return new Iterable<Map<String, Object>>() {
+            @Override
+            public Iterator<Map<String, Object>> iterator() {
+                final DBCursor cursor = MongoConnection.this.getDB()
+                        .getCollection(coll).find();
+                return new Iterator<Map<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        if (cursor.hasNext()) {
+                            return true;
+                        }
+                        cursor.close();
+                        return false;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Map<String, Object> next() {
+                        return cursor.next().toMap();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public boolean insert(String coll, Map<String, Object> doc) {
+        try {
+            this.getDB().getCollection(coll).insert(new BasicDBObject(doc));
+            return true;
+        } catch (MongoException.DuplicateKey e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void remove(String coll, Map<String, Object> query) {
+        this.getDB().getCollection(coll).remove(new BasicDBObject(query));
+    }
+
+    @Override
+    public void update(String coll, Map<String, Object> query,
+            Map<String, Object> update, boolean upsert) {
+        this.getDB().getCollection(coll).update(new BasicDBObject(query),
+                new BasicDBObject(update), upsert, false);
+    }
+
 }
@@ -25,6 +25,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.elements.address.IPAddress;
@@ -59,16 +61,17 @@ public class OVXNetworkManager {
 
     private Map<String, Object> vnet;
     private Integer tenantId;
-    // Set of offline and online physical switches
-    private Set<Long> offlineSwitches;
-    private Set<Long> onlineSwitches;
-    // Set of offline and online physical links identified as (dpid, port number)-pair
-    private Set<DPIDandPortPair> offlineLinks;
-    private Set<DPIDandPortPair> onlineLinks;
-    // Set of offline and online physical ports
-    private Set<DPIDandPort> offlinePorts;
-    private Set<DPIDandPort> onlinePorts;
-    private boolean bootState;
+    // Physical switches, links and ports required by the virtual network
+    private Set<Object> elements;
+    private int switchCount;
+    private int linkCount;
+    private int portCount;
+    // Number of required elements that are offline
+    private final AtomicInteger missing = new AtomicInteger();
+    // Set while the virtual network is queued for boot
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean bootState;
+    private volatile boolean failed;
     private OVXNetwork virtualNetwork;
 
     private static Logger log = LogManager.getLogger(OVXNetworkManager.class
@@ -78,12 +81,7 @@ public class OVXNetworkManager {
             throws IndexOutOfBoundException, DuplicateIndexException {
         this.vnet = vnet;
         this.tenantId = (Integer) vnet.get(TenantHandler.TENANT);
-        this.offlineSwitches = new HashSet<Long>();
-        this.onlineSwitches = new HashSet<Long>();
-        this.offlineLinks = new HashSet<DPIDandPortPair>();
-        this.onlineLinks = new HashSet<DPIDandPortPair>();
-        this.offlinePorts = new HashSet<DPIDandPort>();
-        this.onlinePorts = new HashSet<DPIDandPort>();
+        this.elements = new HashSet<Object>();
         this.bootState = false;
         this.virtualNetwork = this.createNetwork();
     }
@@ -93,21 +91,48 @@ public class OVXNetworkManager {
     }
 
     public Integer getSwitchCount() {
-        return this.offlineSwitches.size() + this.onlineSwitches.size();
+        return this.switchCount;
     }
 
     public Integer getLinkCount() {
-        return this.offlineLinks.size() + this.onlineLinks.size();
+        return this.linkCount;
     }
 
     public Integer getPortCount() {
-        return this.offlinePorts.size() + this.onlinePorts.size();
+        return this.portCount;
     }
 
     public boolean getStatus() {
         return this.bootState;
     }
 
+    /**
+     * Checks if the virtual network could not be recreated.
+     *
+     * @return true if booting failed
+     */
+    public boolean isFailed() {
+        return this.failed;
+    }
+
+    /**
+     * Gets the number of physical elements the virtual network uses.
+     *
+     * @return the number of switches, links and ports
+     */
+    public int getSize() {
+        return this.elements.size();
+    }
+
+    /**
+     * Gets the number of physical elements still offline.
+     *
+     * @return the number of missing elements
+     */
+    public int getMissing() {
+        return this.missing.get();
+    }
+
     /**
      * Create the OVX network based on persistent storage.
      *
@@ -131,6 +156,11 @@ public class OVXNetworkManager {
                     this.tenantId);
             return null;
         }
+        final Number packetInBuffers = (Number) this.vnet
+                .get(TenantHandler.PACKET_IN_BUFFERS);
+        if (packetInBuffers != null) {
+            virtualNetwork.setPacketInBuffers(packetInBuffers.intValue());
+        }
         virtualNetwork.register();
         return virtualNetwork;
     }
@@ -140,9 +170,14 @@ public class OVXNetworkManager {
      * the virtual network is spawned only after the switch is online.
      *
      * @param dpid the switch DPID
+     * @return true if the switch was not registered yet
      */
-    public void registerSwitch(final Long dpid) {
-        this.offlineSwitches.add(dpid);
+    public boolean registerSwitch(final Long dpid) {
+        if (this.register(dpid)) {
+            this.switchCount++;
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -150,9 +185,14 @@ public class OVXNetworkManager {
      * only after the link is online.
      *
      * @param dpp the link as a pair of DPID and port number
+     * @return true if the link was not registered yet
      */
-    public void registerLink(final DPIDandPortPair dpp) {
-        this.offlineLinks.add(dpp);
+    public boolean registerLink(final DPIDandPortPair dpp) {
+        if (this.register(dpp)) {
+            this.linkCount++;
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -160,100 +200,73 @@ public class OVXNetworkManager {
      * only after the port is online.
      *
      * @param port the port given as DPID and port number
+     * @return true if the port was not registered yet
      */
-    public void registerPort(final DPIDandPort port) {
-        this.offlinePorts.add(port);
+    public boolean registerPort(final DPIDandPort port) {
+        if (this.register(port)) {
+            this.portCount++;
+            return true;
+        }
+        return false;
     }
 
-    /**
-     * Changes switch from offline to online state. Creates and starts virtual
-     * network if all links and switches are online.
-     *
-     * @param dpid the switch DPID.
-     */
-    public synchronized void setSwitch(final Long dpid) {
-        this.offlineSwitches.remove(dpid);
-        this.onlineSwitches.add(dpid);
-        if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                && this.offlinePorts.isEmpty()) {
-            this.createElements();
+    private boolean register(final Object element) {
+        if (this.elements.add(element)) {
+            this.missing.incrementAndGet();
+            return true;
         }
+        return false;
     }
 
     /**
-     * Change. switch from online to offline state.
+     * Counts a required element coming online.
      *
-     * @param dpid unique datapath id
+     * @return true if it was the last offline element
      */
-    public synchronized void unsetSwitch(final Long dpid) {
-        this.offlineSwitches.add(dpid);
-        this.onlineSwitches.remove(dpid);
+    boolean elementUp() {
+        return this.missing.decrementAndGet() == 0;
     }
 
     /**
-     * Change link from offline to single direction state, or from single
-     * direction to online. Create and start virtual network if all links and
-     * switches are online.
-     *
-     * @param dpp physical link given as pair of DPID and port
+     * Counts a required element going offline.
      */
-    public synchronized void setLink(final DPIDandPortPair dpp) {
-        // Link might have been set already, so check first if it's still
-        // offline
-        if (this.offlineLinks.contains(dpp)) {
-            this.offlineLinks.remove(dpp);
-            this.onlineLinks.add(dpp);
-            if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                    && this.offlinePorts.isEmpty()) {
-                this.createElements();
-            }
-        }
+    void elementDown() {
+        this.missing.incrementAndGet();
     }
 
     /**
-     * Changes link from online to offline state.
+     * Marks the virtual network as queued for boot.
      *
-     * @param dpp physical link given as pair of DPID and port
+     * @return false if it is already queued, booted or failed
      */
-    public synchronized void unsetLink(final DPIDandPortPair dpp) {
-        if (this.onlineLinks.contains(dpp)) {
-            this.onlineLinks.remove(dpp);
-            this.offlineLinks.add(dpp);
-        }
+    boolean schedule() {
+        return !this.bootState && !this.failed
+                && this.scheduled.compareAndSet(false, true);
     }
 
     /**
-     * Changes link from offline to single direction state, or from single
-     * direction to online. Create and start virtual network if all links and
-     * switches are online.
+     * Creates and starts the virtual network if all its elements are
+     * still online.
      *
-     * @param port
-     *            Unique link
+     * @return true if the virtual network was booted
      */
-    public synchronized void setPort(final DPIDandPort port) {
-        // Port might have been set already, so check first if it's still
-        // offline
-        if (this.offlinePorts.contains(port)) {
-            this.offlinePorts.remove(port);
-            this.onlinePorts.add(port);
-            if (this.offlineSwitches.isEmpty() && this.offlineLinks.isEmpty()
-                    && this.offlinePorts.isEmpty()) {
-                this.createElements();
-            }
+    synchronized boolean boot() {
+        this.scheduled.set(false);
+        if (this.bootState || this.failed || this.missing.get() != 0) {
+            return false;
         }
-    }
-
-    /**
-     * Changes link from online to offline state.
-     *
-     * @param port
-     *            Unique link
-     */
-    public synchronized void unsetPort(final DPIDandPort port) {
-        if (this.onlinePorts.contains(port)) {
-            this.onlinePorts.remove(port);
-            this.offlinePorts.add(port);
+        if (this.virtualNetwork == null) {
+            this.failed = true;
+            return false;
         }
+        try {
+            this.createElements();
+        } catch (RuntimeException e) {
+            OVXNetworkManager.log.error("Failed to boot virtual network {}: {}",
+                    this.tenantId, e.getMessage());
+            this.failed = true;
+        }
+        return this.bootState;
     }
 
     /**
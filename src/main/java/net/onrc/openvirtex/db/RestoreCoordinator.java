@@ -0,0 +1,299 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Boots the virtual networks read from the database as the physical
+ * switches, links and ports they use come online.
+ * <p>
+ * Each physical element keeps the list of network managers waiting for it,
+ * and each manager counts the elements it still misses. An element coming
+ * online decrements the counters of its managers, and a manager whose
+ * counter drops to zero is queued for boot on a small pool of restore
+ * threads, off the thread that discovered the element. Queued networks
+ * boot smallest first, so as many tenants as possible become active early.
+ */
+final class RestoreCoordinator {
+
+    private static Logger log = LogManager.getLogger(RestoreCoordinator.class
+            .getName());
+
+    /**
+     * Maximum number of waiting virtual networks listed in the status.
+     */
+    private static final int MAX_LISTED = 32;
+
+    // Smallest virtual network first, then lowest tenant ID
+    private static final Comparator<OVXNetworkManager> ORDER =
+            new Comparator<OVXNetworkManager>() {
+                @Override
+                public int compare(OVXNetworkManager a, OVXNetworkManager b) {
+                    int c = Integer.compare(a.getSize(), b.getSize());
+                    return c != 0 ? c : a.getTenantId().compareTo(
+                            b.getTenantId());
+                }
+            };
+
+    // Physical elements (dpid, dpid and port, or pair of those) waited for
+    private final ConcurrentHashMap<Object, Element> elements =
+            new ConcurrentHashMap<Object, Element>();
+    private final List<OVXNetworkManager> managers =
+            new CopyOnWriteArrayList<OVXNetworkManager>();
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger booting = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile long startTime;
+    private volatile long doneTime;
+
+    /**
+     * Creates a coordinator booting networks on the given number of
+     * threads.
+     *
+     * @param threads the number of restore threads
+     */
+    RestoreCoordinator(int threads) {
+        final AtomicInteger n = new AtomicInteger();
+        threads = Math.max(threads, 1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 30,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "RestoreWorker-"
+                                + n.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Adds a virtual network manager to the restore.
+     *
+     * @param mngr the virtual network manager
+     */
+    void add(OVXNetworkManager mngr) {
+        this.managers.add(mngr);
+    }
+
+    /**
+     * Registers a physical element the virtual network needs before it
+     * can boot. Each element is registered once per manager.
+     *
+     * @param mngr the virtual network manager
+     * @param element the dpid, port or link
+     */
+    void register(OVXNetworkManager mngr, Object element) {
+        Element e = this.elements.get(element);
+        if (e == null) {
+            Element prev = this.elements.putIfAbsent(element, new Element());
+            e = prev != null ? prev : this.elements.get(element);
+        }
+        e.waiters.add(mngr);
+    }
+
+    /**
+     * Starts the restore once all virtual networks are read, booting the
+     * ones that do not wait for any element.
+     */
+    void start() {
+        this.startTime = System.nanoTime();
+        log.info("Restoring {} virtual networks waiting for {} physical elements",
+                this.managers.size(), this.elements.size());
+        for (OVXNetworkManager mngr : this.managers) {
+            if (mngr.getMissing() == 0) {
+                this.schedule(mngr);
+            }
+        }
+        this.checkDone();
+    }
+
+    /**
+     * Marks a physical element online, and queues the virtual networks it
+     * completes for boot.
+     *
+     * @param element the dpid, port or link
+     */
+    void up(Object element) {
+        Element e = this.elements.get(element);
+        if (e == null || !e.online.compareAndSet(false, true)) {
+            return;
+        }
+        for (OVXNetworkManager mngr : e.waiters) {
+            if (mngr.elementUp()) {
+                this.schedule(mngr);
+            }
+        }
+    }
+
+    /**
+     * Marks a physical element offline.
+     *
+     * @param element the dpid, port or link
+     */
+    void down(Object element) {
+        Element e = this.elements.get(element);
+        if (e == null || !e.online.compareAndSet(true, false)) {
+            return;
+        }
+        for (OVXNetworkManager mngr : e.waiters) {
+            mngr.elementDown();
+        }
+    }
+
+    /**
+     * Stops the restore threads.
+     */
+    void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private void schedule(OVXNetworkManager mngr) {
+        if (mngr.schedule()) {
+            this.queued.incrementAndGet();
+            this.executor.execute(new BootTask(mngr));
+        }
+    }
+
+    private void checkDone() {
+        if (this.doneTime == 0 && !this.managers.isEmpty()
+                && this.active.get() + this.failed.get() == this.managers.size()) {
+            synchronized (this) {
+                if (this.doneTime != 0) {
+                    return;
+                }
+                this.doneTime = System.nanoTime();
+            }
+            log.info("Restored {} of {} virtual networks in {} ms",
+                    this.active.get(), this.managers.size(),
+                    (this.doneTime - this.startTime) / 1000000);
+            // Nothing waits for physical elements anymore
+            this.elements.clear();
+        }
+    }
+
+    /**
+     * Gets the restore progress.
+     *
+     * @return the number of virtual networks restored, active, waiting,
+     *         queued, booting and failed, the elapsed time and the time
+     *         it took to activate all of them, in milliseconds, and the
+     *         elements still missing per waiting tenant
+     */
+    Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        int total = this.managers.size();
+        int queued = this.queued.get();
+        int booting = this.booting.get();
+        int active = this.active.get();
+        int failed = this.failed.get();
+        status.put("total", total);
+        status.put("active", active);
+        status.put("waiting", Math.max(total - active - failed - queued
+                - booting, 0));
+        status.put("queued", queued);
+        status.put("booting", booting);
+        status.put("failed", failed);
+        long start = this.startTime;
+        long done = this.doneTime;
+        status.put("elapsedMillis", start == 0 ? 0 : ((done != 0 ? done
+                : System.nanoTime()) - start) / 1000000);
+        status.put("allActiveMillis", done == 0 ? -1 : (done - start) / 1000000);
+        Map<Integer, Integer> missing = new LinkedHashMap<Integer, Integer>();
+        List<OVXNetworkManager> waiting = new ArrayList<OVXNetworkManager>();
+        for (OVXNetworkManager mngr : this.managers) {
+            if (!mngr.getStatus() && !mngr.isFailed() && mngr.getMissing() > 0) {
+                waiting.add(mngr);
+            }
+        }
+        Collections.sort(waiting, ORDER);
+        for (OVXNetworkManager mngr : waiting) {
+            if (missing.size() == MAX_LISTED) {
+                break;
+            }
+            missing.put(mngr.getTenantId(), mngr.getMissing());
+        }
+        status.put("missing", missing);
+        return status;
+    }
+
+    /**
+     * Physical element and the managers waiting for it.
+     */
+    private static final class Element {
+        private final AtomicBoolean online = new AtomicBoolean();
+        private final List<OVXNetworkManager> waiters =
+                new CopyOnWriteArrayList<OVXNetworkManager>();
+    }
+
+    /**
+     * Boots a virtual network. Tasks are run in ORDER.
+     */
+    private final class BootTask implements Runnable, Comparable<BootTask> {
+        private final OVXNetworkManager mngr;
+
+        private BootTask(OVXNetworkManager mngr) {
+            this.mngr = mngr;
+        }
+
+        @Override
+        public int compareTo(BootTask other) {
+            return ORDER.compare(this.mngr, other.mngr);
+        }
+
+        @Override
+        public void run() {
+            RestoreCoordinator.this.queued.decrementAndGet();
+            RestoreCoordinator.this.booting.incrementAndGet();
+            try {
+                if (this.mngr.boot()) {
+                    RestoreCoordinator.this.active.incrementAndGet();
+                } else if (this.mngr.isFailed()) {
+                    RestoreCoordinator.this.failed.incrementAndGet();
+                }
+            } finally {
+                RestoreCoordinator.this.booting.decrementAndGet();
+            }
+            RestoreCoordinator.this.checkDone();
+        }
+    }
+}
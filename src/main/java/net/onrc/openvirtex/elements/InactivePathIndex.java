@@ -0,0 +1,138 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+
+/**
+ * Reverse index from physical links to the virtual links or big switch
+ * routes that hold an inactive path crossing them.
+ * <p>
+ * Owners register the physical links of all their inactive paths at once,
+ * so that a restored physical link only has to be offered to the owners
+ * that can actually revert over it. The priorities of the paths are kept
+ * by the owners themselves. Physical links are compared by their ports,
+ * so entries outlive the removal of a link and are found again when an
+ * equal link is rediscovered.
+ *
+ * @param <T> the type of the owners, i.e., virtual links or routes
+ */
+class InactivePathIndex<T> {
+
+    // Physical link to the owners with an inactive path over it
+    private final Map<PhysicalLink, Set<T>> owners;
+    // Owner to the physical links it was indexed with
+    private final Map<T, Set<PhysicalLink>> links;
+
+    /**
+     * Creates an empty index.
+     */
+    InactivePathIndex() {
+        this.owners = new HashMap<PhysicalLink, Set<T>>();
+        this.links = new HashMap<T, Set<PhysicalLink>>();
+    }
+
+    /**
+     * Indexes the owner under the physical links of the given paths,
+     * replacing whatever it was previously indexed with.
+     *
+     * @param owner the virtual link or route
+     * @param paths the inactive paths of the owner
+     */
+    synchronized void update(T owner,
+                             Collection<? extends Collection<PhysicalLink>> paths) {
+        final Set<PhysicalLink> current = new HashSet<PhysicalLink>();
+        for (Collection<PhysicalLink> path : paths) {
+            current.addAll(path);
+        }
+        final Set<PhysicalLink> previous = current.isEmpty() ? this.links
+                .remove(owner) : this.links.put(owner, current);
+        if (previous != null) {
+            for (PhysicalLink link : previous) {
+                if (!current.contains(link)) {
+                    this.unindex(link, owner);
+                }
+            }
+        }
+        for (PhysicalLink link : current) {
+            if (previous == null || !previous.contains(link)) {
+                Set<T> set = this.owners.get(link);
+                if (set == null) {
+                    set = new LinkedHashSet<T>();
+                    this.owners.put(link, set);
+                }
+                set.add(owner);
+            }
+        }
+    }
+
+    /**
+     * Removes the owner from the index.
+     *
+     * @param owner the virtual link or route
+     */
+    synchronized void remove(T owner) {
+        final Set<PhysicalLink> previous = this.links.remove(owner);
+        if (previous == null) {
+            return;
+        }
+        for (PhysicalLink link : previous) {
+            this.unindex(link, owner);
+        }
+    }
+
+    /**
+     * Gets the owners with an inactive path over the given physical link.
+     *
+     * @param link the physical link
+     * @return a snapshot of the owners, empty if there are none
+     */
+    synchronized List<T> get(PhysicalLink link) {
+        final Set<T> set = this.owners.get(link);
+        if (set == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<T>(set);
+    }
+
+    /**
+     * Removes the owner from the set indexed under the physical link,
+     * dropping the set once it is empty.
+     *
+     * @param link the physical link
+     * @param owner the virtual link or route
+     */
+    private void unindex(PhysicalLink link, T owner) {
+        final Set<T> set = this.owners.get(link);
+        if (set != null && set.remove(owner) && set.isEmpty()) {
+            this.owners.remove(link);
+        }
+    }
+}
@@ -19,10 +19,12 @@
  */
 package net.onrc.openvirtex.elements;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.onrc.openvirtex.elements.address.IPTranslationTable;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
@@ -120,6 +122,27 @@ public interface Mappable {
     public OVXIPAddress getVirtualIP(PhysicalIPAddress ip)
             throws AddressMappingException;
 
+    /**
+     * Gets the physical IP address mapped to the given virtual IP address in
+     * the virtual network identified by the tenant ID, without allocating.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the physical IP address as an unsigned value, or
+     *         {@link IPTranslationTable#NONE} if there is no mapping
+     */
+    public long lookupPhysicalIP(int tenantId, int virtualIP);
+
+    /**
+     * Gets the virtual IP address mapped to the given physical IP address,
+     * without allocating.
+     *
+     * @param physicalIP the physical IP address
+     * @return the virtual IP address as an unsigned value, or
+     *         {@link IPTranslationTable#NONE} if there is no mapping
+     */
+    public long lookupVirtualIP(int physicalIP);
+
     /**
      * Get the virtualSwitch which has been specified by the physicalSwitch and
      * tenantId.
@@ -268,6 +291,59 @@ public interface Mappable {
      */
     public void removeRoute(SwitchRoute route);
 
+    /**
+     * Indexes the inactive paths of a virtual link, i.e., the paths it
+     * switched away from after a physical link failure, replacing the
+     * previously indexed ones.
+     *
+     * @param virtualLink the virtual link
+     * @param paths the inactive paths as lists of physical links
+     */
+    public void setInactivePaths(OVXLink virtualLink,
+                                 Collection<? extends Collection<PhysicalLink>> paths);
+
+    /**
+     * Indexes the inactive paths of a switch route, replacing the
+     * previously indexed ones.
+     *
+     * @param route the switch route
+     * @param paths the inactive paths as lists of physical links
+     */
+    public void setInactivePaths(SwitchRoute route,
+                                 Collection<? extends Collection<PhysicalLink>> paths);
+
+    /**
+     * Removes the inactive paths of a virtual link from the index.
+     *
+     * @param virtualLink the virtual link
+     */
+    public void removeInactivePaths(OVXLink virtualLink);
+
+    /**
+     * Removes the inactive paths of a switch route from the index.
+     *
+     * @param route the switch route
+     */
+    public void removeInactivePaths(SwitchRoute route);
+
+    /**
+     * Gets the virtual links with an inactive path over the given
+     * physical link.
+     *
+     * @param physicalLink the physical link
+     * @return the virtual links, empty if there are none
+     */
+    public List<OVXLink> getInactiveLinks(PhysicalLink physicalLink);
+
+    /**
+     * Gets the switch routes with an inactive path over the given
+     * physical link.
+     *
+     * @param physicalLink the physical link
+     * @return the switch routes, empty if there are none
+     */
+    public List<SwitchRoute> getInactiveRoutes(PhysicalLink physicalLink);
+
     /**
      * Removes a PhysicalLink from a Mappable, including mappings to OVXLinks
      * and SwitchRoutes.
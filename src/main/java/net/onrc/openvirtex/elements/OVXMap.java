@@ -23,14 +23,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.onrc.openvirtex.elements.address.IPTranslationTable;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
@@ -67,7 +68,10 @@ public class OVXMap implements Mappable {
     private ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>> routetoPhyLinkMap;
     private ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>> phyLinktoRouteMap;
     private ConcurrentHashMap<Integer, OVXNetwork> networkMap;
-    private RadixTree<OVXIPAddress> physicalIPMap;
+    private InactivePathIndex<OVXLink> inactiveLinkIndex;
+    private InactivePathIndex<SwitchRoute> inactiveRouteIndex;
+    private IPTranslationTable ipTable;
+    // string view of the virtual IPs, only used by the API
     private RadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>> virtualIPMap;
     private RadixTree<Integer> macMap;
 
@@ -82,8 +86,9 @@ public class OVXMap implements Mappable {
         this.routetoPhyLinkMap = new ConcurrentHashMap<SwitchRoute, ArrayList<PhysicalLink>>();
         this.phyLinktoRouteMap = new ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, Set<SwitchRoute>>>();
         this.networkMap = new ConcurrentHashMap<Integer, OVXNetwork>();
-        this.physicalIPMap = new ConcurrentRadixTree<OVXIPAddress>(
-                new DefaultCharArrayNodeFactory());
+        this.inactiveLinkIndex = new InactivePathIndex<OVXLink>();
+        this.inactiveRouteIndex = new InactivePathIndex<SwitchRoute>();
+        this.ipTable = new IPTranslationTable();
         this.virtualIPMap = new ConcurrentRadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>>(
                 new DefaultCharArrayNodeFactory());
         this.macMap = new ConcurrentRadixTree<Integer>(
@@ -97,6 +102,10 @@ public class OVXMap implements Mappable {
      * @return mapInstance Return the OVXMap object instance
      */
     public static OVXMap getInstance() {
+        final OVXMap map = OVXMap.mapInstance.get();
+        if (map != null) {
+            return map;
+        }
         OVXMap.mapInstance.compareAndSet(null, new OVXMap());
         return OVXMap.mapInstance.get();
     }
@@ -184,7 +193,9 @@ public class OVXMap implements Mappable {
     /**
      * This is the generic function which takes as arguments the
      * PhysicalIPAddress and the OVXIPAddress. This will add the value into both
-     * the physical to virtual map and in the other direction.
+     * the physical to virtual map and in the other direction. Lookups go
+     * through the primitive translation table; the virtual IP tree is only
+     * kept for {@link #getAllKeys()}.
      *
      * @param physicalIP
      *            Refers to the PhysicalIPAddress which is created using the
@@ -195,25 +206,11 @@ public class OVXMap implements Mappable {
     @Override
     public void addIP(final PhysicalIPAddress physicalIP,
                       final OVXIPAddress virtualIP) {
-        this.addPhysicalIP(physicalIP, virtualIP);
+        this.ipTable.put(virtualIP.getTenantId(), virtualIP.getIp(),
+                physicalIP.getIp());
         this.addVirtualIP(virtualIP, physicalIP);
     }
 
-    /**
-     * This function will create a map indexed on the key PhysicalIPAddress with
-     * value OVXIPAddress.
-     *
-     * @param physicalIP
-     *            refers to the PhysicalIPAddress which is created using the
-     *            tenant id and virtualIP
-     * @param virtualIP
-     *            the IP address used within the VirtualNetwork
-     */
-    private void addPhysicalIP(final PhysicalIPAddress physicalIP,
-                               final OVXIPAddress virtualIP) {
-        this.physicalIPMap.put(physicalIP.toString(), virtualIP);
-    }
-
     /**
      * Creates a map indexed on the key OVXIPAddress with
      * value a ConcurrentHashMap mapping the tenant id to the PhysicalIPAddress.
@@ -247,11 +244,17 @@ public class OVXMap implements Mappable {
      */
     private void addPhysicalSwitch(final PhysicalSwitch physicalSwitch,
                                    final OVXSwitch virtualSwitch) {
+        // virtual networks sharing the switch may be booting in parallel
         ConcurrentHashMap<Integer, OVXSwitch> switchMap = this.physicalSwitchMap
                 .get(physicalSwitch);
         if (switchMap == null) {
-            switchMap = new ConcurrentHashMap<Integer, OVXSwitch>();
-            this.physicalSwitchMap.put(physicalSwitch, switchMap);
+            final ConcurrentHashMap<Integer, OVXSwitch> created =
+                    new ConcurrentHashMap<Integer, OVXSwitch>();
+            switchMap = this.physicalSwitchMap.putIfAbsent(physicalSwitch,
+                    created);
+            if (switchMap == null) {
+                switchMap = created;
+            }
         }
         switchMap.put(virtualSwitch.getTenantId(), virtualSwitch);
     }
@@ -266,16 +269,24 @@ public class OVXMap implements Mappable {
      */
     private void addPhysicalLink(final PhysicalLink physicalLink,
                                  final OVXLink virtualLink) {
+        // virtual networks sharing the link may be booting in parallel
         ConcurrentHashMap<Integer, List<OVXLink>> linkMap = this.physicalLinkMap
                 .get(physicalLink);
         if (linkMap == null) {
-            linkMap = new ConcurrentHashMap<Integer, List<OVXLink>>();
-            this.physicalLinkMap.put(physicalLink, linkMap);
+            final ConcurrentHashMap<Integer, List<OVXLink>> created =
+                    new ConcurrentHashMap<Integer, List<OVXLink>>();
+            linkMap = this.physicalLinkMap.putIfAbsent(physicalLink, created);
+            if (linkMap == null) {
+                linkMap = created;
+            }
         }
         List<OVXLink> linkList = linkMap.get(virtualLink.getTenantId());
         if (linkList == null) {
-            linkList = new ArrayList<OVXLink>();
-            linkMap.put(virtualLink.getTenantId(), linkList);
+            final List<OVXLink> created = new CopyOnWriteArrayList<OVXLink>();
+            linkList = linkMap.putIfAbsent(virtualLink.getTenantId(), created);
+            if (linkList == null) {
+                linkList = created;
+            }
         }
         linkList.add(virtualLink);
     }
@@ -378,16 +389,25 @@ public class OVXMap implements Mappable {
      * @param route the route
      */
     private void addLinktoRoute(PhysicalLink link, SwitchRoute route) {
+        // virtual networks sharing the link may be booting in parallel
         ConcurrentHashMap<Integer, Set<SwitchRoute>> rmap = this.phyLinktoRouteMap
                 .get(link);
         if (rmap == null) {
-            rmap = new ConcurrentHashMap<Integer, Set<SwitchRoute>>();
-            this.phyLinktoRouteMap.put(link, rmap);
+            final ConcurrentHashMap<Integer, Set<SwitchRoute>> created =
+                    new ConcurrentHashMap<Integer, Set<SwitchRoute>>();
+            rmap = this.phyLinktoRouteMap.putIfAbsent(link, created);
+            if (rmap == null) {
+                rmap = created;
+            }
         }
         Set<SwitchRoute> rlist = rmap.get(route.getTenantId());
         if (rlist == null) {
-            rlist = new HashSet<SwitchRoute>();
-            rmap.put(route.getTenantId(), rlist);
+            final Set<SwitchRoute> created = Collections.newSetFromMap(
+                    new ConcurrentHashMap<SwitchRoute, Boolean>());
+            rlist = rmap.putIfAbsent(route.getTenantId(), created);
+            if (rlist == null) {
+                rlist = created;
+            }
         }
         rlist.add(route);
     }
@@ -397,27 +417,31 @@ public class OVXMap implements Mappable {
     @Override
     public PhysicalIPAddress getPhysicalIP(final OVXIPAddress ip,
                                            final Integer tenantId) throws AddressMappingException {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(ip.toString());
-        if (ips == null) {
+        final long pip = this.ipTable.getPhysicalIP(tenantId, ip.getIp());
+        if (pip == IPTranslationTable.NONE) {
             throw new AddressMappingException(ip, PhysicalIPAddress.class);
         }
-        PhysicalIPAddress pip = ips.get(tenantId);
-        if (pip == null) {
-            throw new AddressMappingException(tenantId, PhysicalIPAddress.class);
-        }
-        return pip;
+        return new PhysicalIPAddress((int) pip);
     }
 
     @Override
     public OVXIPAddress getVirtualIP(final PhysicalIPAddress ip)
             throws AddressMappingException {
-        OVXIPAddress vip = this.physicalIPMap
-                .getValueForExactKey(ip.toString());
-        if (vip == null) {
+        final long vip = this.ipTable.getVirtualIP(ip.getIp());
+        if (vip == IPTranslationTable.NONE) {
             throw new AddressMappingException(ip, OVXIPAddress.class);
         }
-        return vip;
+        return new OVXIPAddress(this.ipTable.getTenantId(ip.getIp()), (int) vip);
+    }
+
+    @Override
+    public long lookupPhysicalIP(final int tenantId, final int virtualIP) {
+        return this.ipTable.getPhysicalIP(tenantId, virtualIP);
+    }
+
+    @Override
+    public long lookupVirtualIP(final int physicalIP) {
+        return this.ipTable.getVirtualIP(physicalIP);
     }
 
     /**
@@ -595,6 +619,8 @@ public class OVXMap implements Mappable {
         this.removePhysicalLink(rmap, this.routetoPhyLinkMap, physicalLink);
         this.physicalLinkMap.remove(physicalLink);
         this.phyLinktoRouteMap.remove(physicalLink);
+        // inactive path entries stay until their owners update them, so
+        // that an equal link rediscovered later still reverts them
     }
 
     /**
@@ -638,18 +664,11 @@ public class OVXMap implements Mappable {
 
     @Override
     public void removeVirtualIPs(int tenantId) {
-        ArrayList<String> physicalIPs = new ArrayList<String>();
         for (ConcurrentHashMap<Integer, PhysicalIPAddress> map : virtualIPMap
                 .getValuesForKeysStartingWith("")) {
-            if (map.containsKey(tenantId)) {
-                physicalIPs.add(map.get(tenantId).toString());
-                map.remove(tenantId);
-            }
-        }
-
-        for (String physicalIP : physicalIPs) {
-            physicalIPMap.remove(physicalIP);
+            map.remove(tenantId);
         }
+        this.ipTable.removeTenant(tenantId);
     }
 
     /**
@@ -724,6 +743,38 @@ public class OVXMap implements Mappable {
         }
     }
 
+    @Override
+    public void setInactivePaths(OVXLink virtualLink,
+                                 Collection<? extends Collection<PhysicalLink>> paths) {
+        this.inactiveLinkIndex.update(virtualLink, paths);
+    }
+
+    @Override
+    public void setInactivePaths(SwitchRoute route,
+                                 Collection<? extends Collection<PhysicalLink>> paths) {
+        this.inactiveRouteIndex.update(route, paths);
+    }
+
+    @Override
+    public void removeInactivePaths(OVXLink virtualLink) {
+        this.inactiveLinkIndex.remove(virtualLink);
+    }
+
+    @Override
+    public void removeInactivePaths(SwitchRoute route) {
+        this.inactiveRouteIndex.remove(route);
+    }
+
+    @Override
+    public List<OVXLink> getInactiveLinks(PhysicalLink physicalLink) {
+        return this.inactiveLinkIndex.get(physicalLink);
+    }
+
+    @Override
+    public List<SwitchRoute> getInactiveRoutes(PhysicalLink physicalLink) {
+        return this.inactiveRouteIndex.get(physicalLink);
+    }
+
     @Override
     public void removePhysicalSwitch(PhysicalSwitch physicalSwitch) {
         Map<Integer, OVXSwitch> switches = this.physicalSwitchMap
@@ -762,14 +813,13 @@ public class OVXMap implements Mappable {
      * @return true if the mapping exists, false otherwise
      */
     public boolean hasPhysicalIP(OVXIPAddress vip, Integer tenantId) {
-        final ConcurrentHashMap<Integer, PhysicalIPAddress> ips = this.virtualIPMap
-                .getValueForExactKey(vip.toString());
-        return (ips != null) && (ips.get(tenantId) != null);
+        return this.ipTable.getPhysicalIP(tenantId, vip.getIp())
+                != IPTranslationTable.NONE;
     }
 
     @Override
     public boolean hasVirtualIP(PhysicalIPAddress ip) {
-        return this.physicalIPMap.getValueForExactKey(ip.toString()) != null;
+        return this.ipTable.getVirtualIP(ip.getIp()) != IPTranslationTable.NONE;
     }
 
     /**
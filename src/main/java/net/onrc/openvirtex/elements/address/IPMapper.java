@@ -22,7 +22,7 @@ package net.onrc.openvirtex.elements.address;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.messages.MatchRewrite;
 import net.onrc.openvirtex.messages.actions.OVXActionSetNwSrc;
 import net.onrc.openvirtex.messages.actions.OVXActionSetNwDst;
 import org.apache.logging.log4j.LogManager;
@@ -32,7 +32,6 @@ import org.apache.logging.log4j.Logger;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
-import net.onrc.openvirtex.exceptions.AddressMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
@@ -58,25 +57,42 @@ public final class IPMapper {
     private IPMapper() {
     }
 
-    public static Integer getPhysicalIp(Integer tenantId, Integer virtualIP) {
+    /**
+     * Gets the physical IP address the given virtual IP address of the given
+     * tenant is translated to, allocating one on first use. Lookups of
+     * existing mappings take no lock.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the physical IP address, or 0 if none could be allocated
+     */
+    public static int getPhysicalIp(final int tenantId, final int virtualIP) {
+        final long pip = OVXMap.getInstance().lookupPhysicalIP(tenantId,
+                virtualIP);
+        if (pip != IPTranslationTable.NONE) {
+            return (int) pip;
+        }
+        return addPhysicalIp(tenantId, virtualIP);
+    }
 
+    /*
+     * Single writer path: allocating under the lock keeps two threads from
+     * mapping the same virtual IP to two physical IPs.
+     */
+    private static synchronized int addPhysicalIp(final int tenantId,
+                                                  final int virtualIP) {
         final Mappable map = OVXMap.getInstance();
+        final long existing = map.lookupPhysicalIP(tenantId, virtualIP);
+        if (existing != IPTranslationTable.NONE) {
+            return (int) existing;
+        }
         final OVXIPAddress vip = new OVXIPAddress(tenantId, virtualIP);
         try {
-            PhysicalIPAddress pip;
-            if (map.hasPhysicalIP(vip, tenantId)) {
-                pip = map.getPhysicalIP(vip, tenantId);
-
-                log.debug("tenantId[" + tenantId + "] has " + vip.toString()
-                + " -> " + pip.toString());
-
-            } else {
-                pip = new PhysicalIPAddress(map.getVirtualNetwork(tenantId)
-                        .nextIP());
-                log.info("Adding IP mapping {} -> {} for tenant {}", vip, pip,
-                        tenantId);
-                map.addIP(pip, vip);
-            }
+            final PhysicalIPAddress pip = new PhysicalIPAddress(map
+                    .getVirtualNetwork(tenantId).nextIP());
+            log.info("Adding IP mapping {} -> {} for tenant {}", vip, pip,
+                    tenantId);
+            map.addIP(pip, vip);
             return pip.getIp();
         } catch (IndexOutOfBoundException e) {
             log.error(
@@ -84,35 +100,37 @@ public final class IPMapper {
                     vip, tenantId);
         } catch (NetworkMappingException e) {
             log.error(e);
-        } catch (AddressMappingException e) {
-            log.error("Inconsistency in Physical-Virtual mapping : {}", e);
         }
         return 0;
     }
 
-    public static synchronized Match rewriteMatch(final Integer tenantId, final Match match) {
-        Match temp = match.createBuilder().build();
-
-        if(match.get(MatchField.IPV4_SRC) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_SRC,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_SRC).getInt())))
-                            .build());
-        }
+    public static Match rewriteMatch(final Integer tenantId, final Match match) {
+        final MatchRewrite rewrite = new MatchRewrite(match);
+        IPMapper.rewriteMatch(tenantId, rewrite);
+        return rewrite.build();
+    }
 
-        if(match.get(MatchField.IPV4_DST) != null)
-        {
-            temp = OVXMessageUtil.updateMatch(temp,
-                    temp.createBuilder()
-                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
-                            .setExact(MatchField.IPV4_DST,
-                                    IPv4Address.of(getPhysicalIp(tenantId, match.get(MatchField.IPV4_DST).getInt())))
-                    .build());
+    /**
+     * Rewrites the virtual IP addresses of a match to the physical IP
+     * addresses they are translated to, allocating them on first use.
+     *
+     * @param tenantId the tenant ID
+     * @param match the match being rewritten
+     */
+    public static void rewriteMatch(final Integer tenantId,
+                                    final MatchRewrite match) {
+        final IPv4Address src = match.get(MatchField.IPV4_SRC);
+        final IPv4Address dst = match.get(MatchField.IPV4_DST);
+        if (src != null) {
+            match.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_SRC, IPv4Address.of(
+                            getPhysicalIp(tenantId, src.getInt())));
+        }
+        if (dst != null) {
+            match.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_DST, IPv4Address.of(
+                            getPhysicalIp(tenantId, dst.getInt())));
         }
-        return temp;
     }
 
 
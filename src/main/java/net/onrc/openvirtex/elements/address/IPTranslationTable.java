@@ -0,0 +1,271 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.address;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bidirectional translation between (tenant ID, virtual IP) and physical
+ * IP addresses, keyed by primitives.
+ * <p>
+ * Both directions are open addressing hash tables. Lookups take no lock
+ * and allocate nothing; writers are serialized on the table, and grow or
+ * shrink it by publishing a rebuilt copy. A reader may briefly miss an
+ * entry being added, which callers resolve on their synchronized
+ * allocation path.
+ */
+public final class IPTranslationTable {
+
+    /**
+     * Returned by lookups when no mapping exists.
+     */
+    public static final long NONE = -1L;
+
+    private static final long MASK = 0xffffffffL;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // (tenant ID, virtual IP) to physical IP
+    private volatile Table virtualToPhysical;
+    // physical IP to (tenant ID, virtual IP)
+    private volatile Table physicalToVirtual;
+
+    /**
+     * Creates an empty table.
+     */
+    public IPTranslationTable() {
+        this.virtualToPhysical = new Table(INITIAL_CAPACITY);
+        this.physicalToVirtual = new Table(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Gets the physical IP address the given virtual IP address of the
+     * given tenant is mapped to.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @return the physical IP address as an unsigned value, or
+     *         {@link #NONE} if there is no mapping
+     */
+    public long getPhysicalIP(final int tenantId, final int virtualIP) {
+        return this.virtualToPhysical.get(key(tenantId, virtualIP));
+    }
+
+    /**
+     * Gets the virtual IP address the given physical IP address is mapped
+     * to.
+     *
+     * @param physicalIP the physical IP address
+     * @return the virtual IP address as an unsigned value, or
+     *         {@link #NONE} if there is no mapping
+     */
+    public long getVirtualIP(final int physicalIP) {
+        final long value = this.physicalToVirtual.get(physicalIP & MASK);
+        return value == NONE ? NONE : value & MASK;
+    }
+
+    /**
+     * Gets the tenant owning the virtual IP address the given physical IP
+     * address is mapped to.
+     *
+     * @param physicalIP the physical IP address
+     * @return the tenant ID, or -1 if there is no mapping
+     */
+    public int getTenantId(final int physicalIP) {
+        final long value = this.physicalToVirtual.get(physicalIP & MASK);
+        return value == NONE ? -1 : (int) (value >>> 32);
+    }
+
+    /**
+     * Maps the given virtual IP address of the given tenant to the given
+     * physical IP address, in both directions. Existing mappings of either
+     * address are overwritten, and their entries in the other direction
+     * removed.
+     *
+     * @param tenantId the tenant ID
+     * @param virtualIP the virtual IP address
+     * @param physicalIP the physical IP address
+     */
+    public synchronized void put(final int tenantId, final int virtualIP,
+                                 final int physicalIP) {
+        final long key = key(tenantId, virtualIP);
+        final long physical = physicalIP & MASK;
+        Table v2p = this.virtualToPhysical;
+        Table p2v = this.physicalToVirtual;
+        final long oldPhysical = v2p.get(key);
+        if (oldPhysical != NONE && oldPhysical != physical) {
+            p2v = p2v.remove(oldPhysical);
+        }
+        final long oldKey = p2v.get(physical);
+        if (oldKey != NONE && oldKey != key) {
+            v2p = v2p.remove(oldKey);
+        }
+        this.virtualToPhysical = v2p.put(key, physical);
+        this.physicalToVirtual = p2v.put(physical, key);
+    }
+
+    /**
+     * Removes all mappings of the given tenant.
+     *
+     * @param tenantId the tenant ID
+     */
+    public synchronized void removeTenant(final int tenantId) {
+        this.virtualToPhysical = this.virtualToPhysical.rebuild(tenantId, true);
+        this.physicalToVirtual = this.physicalToVirtual.rebuild(tenantId, false);
+    }
+
+    /**
+     * Gets the number of virtual to physical mappings.
+     *
+     * @return the number of mappings
+     */
+    public synchronized int size() {
+        return this.virtualToPhysical.size;
+    }
+
+    private static long key(final int tenantId, final int virtualIP) {
+        return (long) tenantId << 32 | virtualIP & MASK;
+    }
+
+    /**
+     * Open addressing long to long hash table with linear probing, kept at
+     * most half full. Values are written before their key, and keys are
+     * written and read with volatile semantics, so a reader that finds a
+     * key also sees its value.
+     */
+    private static final class Table {
+        // no tenant or physical IP maps to this key
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private final AtomicLongArray keys;
+        private final long[] values;
+        private final int mask;
+        // only accessed by writers
+        private int size;
+
+        private Table(final int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                this.keys.lazySet(i, EMPTY);
+            }
+            this.values = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private long get(final long key) {
+            int i = hash(key) & this.mask;
+            while (true) {
+                final long k = this.keys.get(i);
+                if (k == key) {
+                    return this.values[i];
+                }
+                if (k == EMPTY) {
+                    return NONE;
+                }
+                i = (i + 1) & this.mask;
+            }
+        }
+
+        /**
+         * @return this table, or a larger copy if it had to grow
+         */
+        private Table put(final long key, final long value) {
+            Table table = this;
+            if ((this.size + 1) * 2 > this.values.length) {
+                table = new Table(this.values.length * 2);
+                table.copy(this, false, 0, false);
+            }
+            table.insert(key, value);
+            return table;
+        }
+
+        /**
+         * Builds a copy of this table without the given key. Entries are
+         * not removed in place, since probing readers could miss the
+         * entries moved to fill the gap.
+         */
+        private Table remove(final long key) {
+            final Table table = new Table(this.values.length);
+            for (int i = 0; i < this.values.length; i++) {
+                final long k = this.keys.get(i);
+                if (k != EMPTY && k != key) {
+                    table.insert(k, this.values[i]);
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Builds a copy of this table without the entries of the given
+         * tenant, found in the keys or the values.
+         */
+        private Table rebuild(final int tenantId, final boolean inKeys) {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < this.size * 2) {
+                capacity *= 2;
+            }
+            final Table table = new Table(capacity);
+            table.copy(this, true, tenantId, inKeys);
+            return table;
+        }
+
+        private void copy(final Table from, final boolean skip,
+                          final int tenantId, final boolean inKeys) {
+            for (int i = 0; i < from.values.length; i++) {
+                final long k = from.keys.get(i);
+                if (k == EMPTY) {
+                    continue;
+                }
+                final long tagged = inKeys ? k : from.values[i];
+                if (skip && (int) (tagged >>> 32) == tenantId) {
+                    continue;
+                }
+                this.insert(k, from.values[i]);
+            }
+        }
+
+        private void insert(final long key, final long value) {
+            int i = hash(key) & this.mask;
+            while (true) {
+                final long k = this.keys.get(i);
+                if (k == key) {
+                    this.values[i] = value;
+                    // republish so readers see the new value
+                    this.keys.set(i, key);
+                    return;
+                }
+                if (k == EMPTY) {
+                    this.values[i] = value;
+                    this.keys.set(i, key);
+                    this.size++;
+                    return;
+                }
+                i = (i + 1) & this.mask;
+            }
+        }
+
+        private static int hash(final long key) {
+            long h = key;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpDscp;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+import org.projectfloodlight.openflow.types.VlanPcp;
+
+/**
+ * Match of a flow entry reduced to the fields {@link OVXFlowEntry#compare}
+ * looks at, for comparisons that neither allocate nor go through the
+ * generic field accessors of the match.
+ * <p>
+ * The field values are packed into five words, with a mask word per value
+ * word covering the bits of the fields present in the match, and a bitmap
+ * of the present fields in the order of {@link OVXFlowTableIndex#FIELDS}.
+ * Two matches disagree on a field they both carry if the XOR of their value
+ * words has a bit set under both masks.
+ */
+public final class CompiledMatch {
+
+    /* value word layouts:
+     * w0: ETH_DST (48) | ETH_TYPE (16)
+     * w1: ETH_SRC (48) | VLAN_VID (16)
+     * w2: IPV4_DST (32) | IPV4_SRC (32)
+     * w3: IN_PORT (32) | TCP_DST (16) | TCP_SRC (16)
+     * w4: VLAN_PCP (8) | IP_PROTO (8) | IP_DSCP (8)
+     */
+    private static final long MAC = 0xffffffffffffL;
+    private static final long LOW_16 = 0xffffL;
+    private static final long LOW_32 = 0xffffffffL;
+    private static final long LOW_8 = 0xffL;
+
+    private final Match match;
+    private final int present;
+    // final, as instances are shared through the unsynchronized cache of
+    // OVXFlowMod
+    private final long w0, w1, w2, w3, w4;
+    private final long m0, m1, m2, m3, m4;
+
+    /**
+     * Compiles the given match.
+     *
+     * @param match the match
+     */
+    public CompiledMatch(Match match) {
+        this.match = match;
+        int bits = 0;
+        long w0 = 0, w1 = 0, w2 = 0, w3 = 0, w4 = 0;
+        long m0 = 0, m1 = 0, m2 = 0, m3 = 0, m4 = 0;
+        final OFPort inPort = match.get(MatchField.IN_PORT);
+        if (inPort != null) {
+            bits |= 1 << 0;
+            w3 |= inPort.getPortNumber() & LOW_32;
+            m3 |= LOW_32;
+        }
+        final MacAddress ethDst = match.get(MatchField.ETH_DST);
+        if (ethDst != null) {
+            bits |= 1 << 1;
+            w0 |= ethDst.getLong() & MAC;
+            m0 |= MAC;
+        }
+        final MacAddress ethSrc = match.get(MatchField.ETH_SRC);
+        if (ethSrc != null) {
+            bits |= 1 << 2;
+            w1 |= ethSrc.getLong() & MAC;
+            m1 |= MAC;
+        }
+        final EthType ethType = match.get(MatchField.ETH_TYPE);
+        if (ethType != null) {
+            bits |= 1 << 3;
+            w0 |= (ethType.getValue() & LOW_16) << 48;
+            m0 |= LOW_16 << 48;
+        }
+        final OFVlanVidMatch vlanVid = match.get(MatchField.VLAN_VID);
+        if (vlanVid != null) {
+            bits |= 1 << 4;
+            w1 |= (vlanVid.getRawVid() & LOW_16) << 48;
+            m1 |= LOW_16 << 48;
+        }
+        final VlanPcp vlanPcp = match.get(MatchField.VLAN_PCP);
+        if (vlanPcp != null) {
+            bits |= 1 << 5;
+            w4 |= vlanPcp.getValue() & LOW_8;
+            m4 |= LOW_8;
+        }
+        final IpProtocol ipProto = match.get(MatchField.IP_PROTO);
+        if (ipProto != null) {
+            bits |= 1 << 6;
+            w4 |= (ipProto.getIpProtocolNumber() & LOW_8) << 8;
+            m4 |= LOW_8 << 8;
+        }
+        final IpDscp ipDscp = match.get(MatchField.IP_DSCP);
+        if (ipDscp != null) {
+            bits |= 1 << 7;
+            w4 |= (ipDscp.getDscpValue() & LOW_8) << 16;
+            m4 |= LOW_8 << 16;
+        }
+        final IPv4Address ipv4Dst = match.get(MatchField.IPV4_DST);
+        if (ipv4Dst != null) {
+            bits |= 1 << 8;
+            w2 |= ipv4Dst.getInt() & LOW_32;
+            m2 |= LOW_32;
+        }
+        final IPv4Address ipv4Src = match.get(MatchField.IPV4_SRC);
+        if (ipv4Src != null) {
+            bits |= 1 << 9;
+            w2 |= (ipv4Src.getInt() & LOW_32) << 32;
+            m2 |= LOW_32 << 32;
+        }
+        final TransportPort tcpDst = match.get(MatchField.TCP_DST);
+        if (tcpDst != null) {
+            bits |= 1 << 10;
+            w3 |= (tcpDst.getPort() & LOW_16) << 32;
+            m3 |= LOW_16 << 32;
+        }
+        final TransportPort tcpSrc = match.get(MatchField.TCP_SRC);
+        if (tcpSrc != null) {
+            bits |= 1 << 11;
+            w3 |= (tcpSrc.getPort() & LOW_16) << 48;
+            m3 |= LOW_16 << 48;
+        }
+        this.present = bits;
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+        this.m0 = m0;
+        this.m1 = m1;
+        this.m2 = m2;
+        this.m3 = m3;
+        this.m4 = m4;
+    }
+
+    /**
+     * Gets the match this was compiled from.
+     *
+     * @return the match
+     */
+    public Match getMatch() {
+        return this.match;
+    }
+
+    /**
+     * Compares the match of this entry against the match of another one,
+     * with the same outcome as {@link OVXFlowEntry#compare(Match, boolean)}.
+     *
+     * @param other the match to compare this one against
+     * @param strict whether FlowMod from which the other match came was
+     *            strict or not
+     * @return the relation of this match to the other one, one of
+     *         the constants of {@link OVXFlowEntry}
+     */
+    public int compare(CompiledMatch other, boolean strict) {
+        if ((((this.w0 ^ other.w0) & this.m0 & other.m0)
+                | ((this.w1 ^ other.w1) & this.m1 & other.m1)
+                | ((this.w2 ^ other.w2) & this.m2 & other.m2)
+                | ((this.w3 ^ other.w3) & this.m3 & other.m3)
+                | ((this.w4 ^ other.w4) & this.m4 & other.m4)) != 0) {
+            return OVXFlowEntry.DISJOINT;
+        }
+        // matches that differ in the fields above cannot be equal
+        if (this.present == other.present && this.match.equals(other.match)) {
+            return OVXFlowEntry.EQUAL;
+        }
+        if (Integer.bitCount(this.present & ~other.present) > Integer
+                .bitCount(other.present & ~this.present)) {
+            return strict ? OVXFlowEntry.SUBSET : OVXFlowEntry.EQUAL;
+        }
+        return OVXFlowEntry.SUPERSET;
+    }
+}
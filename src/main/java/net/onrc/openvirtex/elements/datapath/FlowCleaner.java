@@ -0,0 +1,375 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.projectfloodlight.openflow.protocol.OFAggregateStatsReply;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Removes the flow entries of a tenant from a physical switch, either all
+ * of them or only those using a given port.
+ * <p>
+ * Tenant flow entries carry the tenant ID in the upper 32 bits of their
+ * cookie. On OpenFlow 1.3 switches they are removed with cookie masked
+ * deletes, without looking at the flow table; a cookie masked aggregate
+ * statistics request with the same match precedes each delete to count
+ * the entries it removes. OpenFlow 1.0 has no cookie mask, so the flow
+ * table is dumped first and the tenant's entries are deleted one by one,
+ * in batches. Either way a barrier follows the deletes, and its reply
+ * marks the end of the cleanup.
+ * <p>
+ * Cleanup requests use XIDs with the high bit set and the next two clear,
+ * which are never handed out by the {@link XidTranslator}.
+ */
+public class FlowCleaner {
+
+    private static final Logger log = LogManager.getLogger(FlowCleaner.class
+            .getName());
+
+    // deletes written to the channel at once
+    static final int DELETE_BATCH = 256;
+    // cleanups not completed in this time are dropped
+    static final long CLEANUP_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private static final long TENANT_COOKIE_MASK = 0xffffffff00000000L;
+    private static final int CLEANUP_XID = 0x80000000;
+    private static final int CLEANUP_XID_MASK = 0x1fffffff;
+
+    private static final ConcurrentMap<Integer, TenantStats> STATS =
+            new ConcurrentHashMap<Integer, TenantStats>();
+
+    private final PhysicalSwitch sw;
+    private final OFFactory factory;
+    private final AtomicInteger nextXid = new AtomicInteger();
+    private final ConcurrentMap<Integer, Cleanup> pending =
+            new ConcurrentHashMap<Integer, Cleanup>();
+
+    /**
+     * Creates the flow cleaner of a physical switch.
+     *
+     * @param sw the physical switch
+     */
+    public FlowCleaner(final PhysicalSwitch sw) {
+        this.sw = sw;
+        this.factory = OFFactories.getFactory(sw.getOfVersion());
+    }
+
+    /**
+     * Removes the flow entries of a tenant. If a port is given, only the
+     * entries matching on it as input port or outputting to it are removed.
+     *
+     * @param tenantId the tenant ID
+     * @param port the physical port number, or 0 or
+     *            {@link OFPort#ANY} for all entries of the tenant
+     */
+    public void cleanUpTenant(final int tenantId, final short port) {
+        this.expire();
+        final Cleanup cleanup = new Cleanup(tenantId, port);
+        final int xid = CLEANUP_XID | (this.nextXid.getAndIncrement()
+                & CLEANUP_XID_MASK);
+        this.pending.put(xid, cleanup);
+        getStats(tenantId).started.incrementAndGet();
+
+        final List<OFMessage> msgs = new ArrayList<OFMessage>();
+        if (this.factory.getVersion() == OFVersion.OF_10) {
+            msgs.add(this.factory.buildFlowStatsRequest()
+                    .setXid(xid)
+                    .setMatch(this.factory.matchWildcardAll())
+                    .setOutPort(OFPort.ANY)
+                    .setTableId(TableId.ALL)
+                    .build());
+        } else {
+            final U64 cookie = U64.of((long) tenantId << 32);
+            final List<Match> matches = new ArrayList<Match>(2);
+            final List<OFPort> outPorts = new ArrayList<OFPort>(2);
+            matches.add(this.factory.matchWildcardAll());
+            outPorts.add(cleanup.outPort());
+            if (cleanup.isPort()) {
+                matches.add(this.factory.buildMatch()
+                        .setExact(MatchField.IN_PORT, cleanup.outPort())
+                        .build());
+                outPorts.add(OFPort.ANY);
+            }
+            // transit entries of links and routes are installed without
+            // SEND_FLOW_REM, so count the entries before deleting them; an
+            // entry both matching and outputting to the port counts twice
+            for (int i = 0; i < matches.size(); i++) {
+                msgs.add(this.factory.buildAggregateStatsRequest()
+                        .setXid(xid)
+                        .setCookie(cookie)
+                        .setCookieMask(U64.of(TENANT_COOKIE_MASK))
+                        .setTableId(TableId.ALL)
+                        .setMatch(matches.get(i))
+                        .setOutPort(outPorts.get(i))
+                        .build());
+            }
+            for (int i = 0; i < matches.size(); i++) {
+                msgs.add(this.factory.buildFlowDelete()
+                        .setCookie(cookie)
+                        .setCookieMask(U64.of(TENANT_COOKIE_MASK))
+                        .setTableId(TableId.ALL)
+                        .setMatch(matches.get(i))
+                        .setOutPort(outPorts.get(i))
+                        .build());
+            }
+            cleanup.deletes = matches.size();
+            msgs.add(this.factory.buildBarrierRequest().setXid(xid).build());
+        }
+        this.sw.sendMsgs(msgs);
+    }
+
+    /**
+     * Handles a flow stats reply to a flow table dump requested by an
+     * OpenFlow 1.0 cleanup, deleting the tenant's entries it lists. The
+     * barrier is sent with the last part of the reply.
+     *
+     * @param reply the flow stats reply
+     * @return true if the reply answered a cleanup
+     */
+    public boolean flowStatsReply(final OFFlowStatsReply reply) {
+        final int xid = (int) reply.getXid();
+        final Cleanup cleanup = this.pending.get(xid);
+        if (cleanup == null) {
+            return false;
+        }
+        final List<OFMessage> msgs = new ArrayList<OFMessage>(DELETE_BATCH);
+        for (OFFlowStatsEntry stat : reply.getEntries()) {
+            if ((int) (stat.getCookie().getValue() >> 32) != cleanup.tenantId) {
+                continue;
+            }
+            cleanup.entries.incrementAndGet();
+            if (cleanup.isPort()) {
+                this.addDelete(msgs, stat, cleanup.outPort());
+                if (stat.getMatch().get(MatchField.IN_PORT)
+                        .getShortPortNumber() == cleanup.port) {
+                    this.addDelete(msgs, stat, OFPort.ANY);
+                }
+            } else {
+                this.addDelete(msgs, stat, OFPort.ANY);
+            }
+            if (msgs.size() >= DELETE_BATCH) {
+                cleanup.deletes += msgs.size();
+                this.sw.sendMsgs(new ArrayList<OFMessage>(msgs));
+                msgs.clear();
+            }
+        }
+        cleanup.deletes += msgs.size();
+        if (!reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)) {
+            msgs.add(this.factory.buildBarrierRequest().setXid(xid).build());
+        }
+        if (!msgs.isEmpty()) {
+            this.sw.sendMsgs(msgs);
+        }
+        return true;
+    }
+
+    /**
+     * Handles a barrier reply, completing the cleanup it confirms.
+     *
+     * @param xid the XID of the barrier reply
+     * @return true if the barrier was sent by a cleanup
+     */
+    public boolean barrierReply(final int xid) {
+        final Cleanup cleanup = this.pending.remove(xid);
+        if (cleanup == null) {
+            return false;
+        }
+        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                - cleanup.start);
+        getStats(cleanup.tenantId).completed(cleanup, micros);
+        log.info("Cleaned up {} flow entries of tenant {} port {} on {} "
+                + "with {} deletes in {} us", cleanup.entries.get(),
+                cleanup.tenantId, cleanup.port, this.sw.getSwitchName(),
+                cleanup.deletes, micros);
+        return true;
+    }
+
+    /**
+     * Handles an aggregate stats reply to an OpenFlow 1.3 cleanup, counting
+     * the entries its delete is about to remove. The switch answers before
+     * it applies the delete that follows the request.
+     *
+     * @param reply the aggregate stats reply
+     * @return true if the reply answered a cleanup
+     */
+    public boolean aggregateStatsReply(final OFAggregateStatsReply reply) {
+        final Cleanup cleanup = this.pending.get((int) reply.getXid());
+        if (cleanup == null) {
+            return false;
+        }
+        cleanup.entries.addAndGet((int) reply.getFlowCount());
+        return true;
+    }
+
+    /**
+     * Gets the number of cleanups waiting for their barrier reply.
+     *
+     * @return the number of pending cleanups
+     */
+    public int getPending() {
+        return this.pending.size();
+    }
+
+    /**
+     * Gets the cleanup counters of each tenant, summed over all switches:
+     * cleanups started, completed and timed out, flow entries removed,
+     * deletes sent, and the total, maximum and last cleanup time in
+     * microseconds.
+     *
+     * @return the counters by name, per tenant ID
+     */
+    public static Map<Integer, Map<String, Long>> getTenantStats() {
+        final Map<Integer, Map<String, Long>> stats =
+                new HashMap<Integer, Map<String, Long>>();
+        for (Map.Entry<Integer, TenantStats> e : STATS.entrySet()) {
+            stats.put(e.getKey(), e.getValue().toMap());
+        }
+        return stats;
+    }
+
+    private void addDelete(final List<OFMessage> msgs,
+                           final OFFlowStatsEntry stat, final OFPort outPort) {
+        msgs.add(this.factory.buildFlowDeleteStrict()
+                .setMatch(stat.getMatch())
+                .setPriority(stat.getPriority())
+                .setOutPort(outPort)
+                .build());
+    }
+
+    /*
+     * Drops the cleanups whose barrier reply never came, e.g. because the
+     * switch did not answer the flow table dump.
+     */
+    private void expire() {
+        final long now = System.nanoTime();
+        final Iterator<Cleanup> it = this.pending.values().iterator();
+        while (it.hasNext()) {
+            final Cleanup cleanup = it.next();
+            if (now - cleanup.start > CLEANUP_TIMEOUT) {
+                it.remove();
+                getStats(cleanup.tenantId).timedOut.incrementAndGet();
+                log.warn("Cleanup of tenant {} port {} on {} timed out",
+                        cleanup.tenantId, cleanup.port,
+                        this.sw.getSwitchName());
+            }
+        }
+    }
+
+    private static TenantStats getStats(final int tenantId) {
+        TenantStats stats = STATS.get(tenantId);
+        if (stats == null) {
+            final TenantStats created = new TenantStats();
+            stats = STATS.putIfAbsent(tenantId, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * A cleanup in progress.
+     */
+    private static final class Cleanup {
+        private final int tenantId;
+        private final short port;
+        private final long start = System.nanoTime();
+        private final AtomicInteger entries = new AtomicInteger();
+        // only updated by the thread reading from the switch
+        private volatile int deletes;
+
+        private Cleanup(final int tenantId, final short port) {
+            this.tenantId = tenantId;
+            this.port = port;
+        }
+
+        private boolean isPort() {
+            return this.port != 0 && this.port != OFPort.ANY.getShortPortNumber();
+        }
+
+        private OFPort outPort() {
+            return this.isPort() ? OFPort.of(this.port & 0xffff) : OFPort.ANY;
+        }
+    }
+
+    /**
+     * Cleanup counters of a tenant.
+     */
+    private static final class TenantStats {
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong deletes = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+        private final AtomicLong lastMicros = new AtomicLong();
+
+        private void completed(final Cleanup cleanup, final long micros) {
+            this.completed.incrementAndGet();
+            this.entries.addAndGet(cleanup.entries.get());
+            this.deletes.addAndGet(cleanup.deletes);
+            this.totalMicros.addAndGet(micros);
+            this.lastMicros.set(micros);
+            long max;
+            while ((max = this.maxMicros.get()) < micros
+                    && !this.maxMicros.compareAndSet(max, micros)) {
+                continue;
+            }
+        }
+
+        private Map<String, Long> toMap() {
+            final Map<String, Long> map = new HashMap<String, Long>();
+            map.put("started", this.started.get());
+            map.put("completed", this.completed.get());
+            map.put("timedOut", this.timedOut.get());
+            map.put("entries", this.entries.get());
+            map.put("deletes", this.deletes.get());
+            map.put("totalMicros", this.totalMicros.get());
+            map.put("maxMicros", this.maxMicros.get());
+            map.put("lastMicros", this.lastMicros.get());
+            return map;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import java.util.Collection;
 import net.onrc.openvirtex.exceptions.MappingException;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+
 /**
  * Base interface for the flow table.
  */
@@ -46,6 +48,16 @@ public interface FlowTable {
      */
     public OVXFlowMod getFlowMod(Long cookie) throws MappingException;
 
+    /**
+     * Fetches the OpenFlow message of a FlowMod based on cookie, without
+     * copying the FlowMod. The message is immutable, so it is safe to read
+     * while the table changes.
+     *
+     * @param cookie the cookie
+     * @return the flow mod message, or null if there is none
+     */
+    public OFFlowMod getOFFlowMod(long cookie);
+
     /**
      * Checks if a FlowMod with given cookie exists in the FlowTable.
      *
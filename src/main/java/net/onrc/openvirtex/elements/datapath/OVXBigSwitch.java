@@ -19,6 +19,7 @@
  */
 package net.onrc.openvirtex.elements.datapath;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +28,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
@@ -59,6 +61,8 @@ public class OVXBigSwitch extends OVXSwitch {
     private final BitSetIndex routeCounter;
     // The calculated routes
     private final ConcurrentHashMap<OVXPort, ConcurrentHashMap<OVXPort, SwitchRoute>> routeMap;
+    // Time taken by the last boot to compute the routes, in milliseconds
+    private volatile long routeBootTime;
 
     public OVXBigSwitch(final long switchId, final int tenantId) {
         super(switchId, tenantId);
@@ -198,6 +202,8 @@ public class OVXBigSwitch extends OVXSwitch {
          * switches.
          */
         if (this.alg.getRoutingType() != RoutingType.NONE) {
+            final long start = System.nanoTime();
+            final int computed = this.alg.getRoutable().computeRoutes(this);
             for (final OVXPort srcPort : this.portMap.values()) {
                 for (final OVXPort dstPort : this.portMap.values()) {
                     if (srcPort.getPortNumber() != dstPort.getPortNumber()
@@ -207,6 +213,12 @@ public class OVXBigSwitch extends OVXSwitch {
                     }
                 }
             }
+            this.routeBootTime = TimeUnit.NANOSECONDS.toMillis(System
+                    .nanoTime() - start);
+            log.info(
+                    "Computed {} routes for big-switch {} in virtual network {} in {} ms, {} routes in total",
+                    computed, this.switchName, this.tenantId,
+                    this.routeBootTime, this.getRouteCount());
         }
         return super.boot();
     }
@@ -228,6 +240,7 @@ public class OVXBigSwitch extends OVXSwitch {
                 if (route.getRouteId() == routeId.intValue()) {
                     this.routeCounter.releaseIndex(routeId);
                     this.map.removeRoute(route);
+                    this.map.removeInactivePaths(route);
                     // This operation has to be done twice for both directions.
                     // Set result to false if the route doesn't exist.
                     // TODO: clean up source ports if their mapping becomes
@@ -256,9 +269,11 @@ public class OVXBigSwitch extends OVXSwitch {
             for (final SwitchRoute route : portmap.values()) {
                 this.routeCounter.releaseIndex(route.getRouteId());
                 this.map.removeRoute(route);
+                this.map.removeInactivePaths(route);
             }
             itr.remove();
         }
+        this.routeCounter.close();
         super.unregister();
     }
 
@@ -409,6 +424,104 @@ public class OVXBigSwitch extends OVXSwitch {
                 routeId);
     }
 
+    /**
+     * Creates the route between the given ports and its reverse, without
+     * adding them to the route map. The first path of each list is the
+     * primary one, the others are backups of decreasing priority.
+     *
+     * @param ingress
+     *            the ingress port
+     * @param egress
+     *            the egress port
+     * @param paths
+     *            the paths from ingress to egress
+     * @param revpaths
+     *            the paths from egress to ingress, in the same order
+     * @param priority
+     *            priority value of the primary paths
+     * @return the route and its reverse
+     * @throws IndexOutOfBoundException
+     *             if insufficient space to store new route
+     * @see #addRoutes(List)
+     */
+    public List<SwitchRoute> createRoutes(final OVXPort ingress,
+                                          final OVXPort egress, final List<List<PhysicalLink>> paths,
+                                          final List<List<PhysicalLink>> revpaths, final byte priority)
+            throws IndexOutOfBoundException {
+        final int routeId = this.routeCounter.getNewIndex();
+        final SwitchRoute rtEntry = new SwitchRoute(this, ingress, egress,
+                routeId, priority);
+        final SwitchRoute revRtEntry = new SwitchRoute(this, egress, ingress,
+                routeId, priority);
+        this.map.addRoute(rtEntry, paths.get(0));
+        this.map.addRoute(revRtEntry, revpaths.get(0));
+        for (int i = 1; i < paths.size(); i++) {
+            rtEntry.addBackupRoute((byte) (U8.f(priority) - i), paths.get(i));
+            revRtEntry.addBackupRoute((byte) (U8.f(priority) - i),
+                    revpaths.get(i));
+        }
+        log.debug(
+                "Add route for big-switch {} between ports ({},{}) with priority: {}, paths: {} and reverse paths: {}",
+                this.switchName, ingress.getPortNumber(),
+                egress.getPortNumber(), U8.f(priority), paths, revpaths);
+        final List<SwitchRoute> routes = new ArrayList<SwitchRoute>(2);
+        routes.add(rtEntry);
+        routes.add(revRtEntry);
+        return routes;
+    }
+
+    /**
+     * Adds routes created by {@link #createRoutes} to the route map, one
+     * ingress port at a time.
+     *
+     * @param routes
+     *            the routes
+     */
+    public void addRoutes(final List<SwitchRoute> routes) {
+        final Map<OVXPort, Map<OVXPort, SwitchRoute>> byIngress = new HashMap<OVXPort, Map<OVXPort, SwitchRoute>>();
+        for (final SwitchRoute route : routes) {
+            Map<OVXPort, SwitchRoute> rtmap = byIngress.get(route.getSrcPort());
+            if (rtmap == null) {
+                rtmap = new HashMap<OVXPort, SwitchRoute>();
+                byIngress.put(route.getSrcPort(), rtmap);
+            }
+            rtmap.put(route.getDstPort(), route);
+        }
+        for (final Entry<OVXPort, Map<OVXPort, SwitchRoute>> entry : byIngress
+                .entrySet()) {
+            final ConcurrentHashMap<OVXPort, SwitchRoute> rtmap = this.routeMap
+                    .putIfAbsent(entry.getKey(),
+                            new ConcurrentHashMap<OVXPort, SwitchRoute>(
+                                    entry.getValue()));
+            if (rtmap != null) {
+                rtmap.putAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the number of routes of this big switch, in both directions.
+     *
+     * @return the number of routes
+     */
+    public int getRouteCount() {
+        int count = 0;
+        for (ConcurrentHashMap<OVXPort, SwitchRoute> portMap : this.routeMap
+                .values()) {
+            count += portMap.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the time the last boot took to compute the routes.
+     *
+     * @return the time in milliseconds
+     */
+    public long getRouteBootTime() {
+        return this.routeBootTime;
+    }
+
     private void addToRouteMap(final OVXPort in, final OVXPort out,
                                final SwitchRoute entry) {
 
@@ -0,0 +1,198 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Output port index over the entries of an {@link OVXFlowTable}.
+ * <p>
+ * Entries are indexed by each port they output to, and, if they match on an
+ * input port, by each (input port, output port) pair. This gives virtual
+ * links and big switch routes the entries that cross them without walking
+ * the table when they switch over to a new path.
+ */
+class OVXFlowPortIndex {
+
+    // Output port to cookies of the entries outputting to it
+    private final Map<Short, Set<Long>> outPorts;
+    // (input port, output port) pair to cookies of the entries forwarding
+    // between them
+    private final Map<Integer, Set<Long>> portPairs;
+    // Cookie to the output ports the entry was indexed with
+    private final Map<Long, short[]> keys;
+    // Cookie to the input port the entry matches on
+    private final Map<Long, Short> inPorts;
+
+    /**
+     * Creates an empty index.
+     */
+    OVXFlowPortIndex() {
+        this.outPorts = new HashMap<Short, Set<Long>>();
+        this.portPairs = new HashMap<Integer, Set<Long>>();
+        this.keys = new HashMap<Long, short[]>();
+        this.inPorts = new HashMap<Long, Short>();
+    }
+
+    /**
+     * Indexes the given flow mod under the given cookie, replacing
+     * whatever was previously indexed under that cookie.
+     *
+     * @param cookie the physical cookie
+     * @param fm the flow mod
+     */
+    synchronized void add(long cookie, OVXFlowMod fm) {
+        this.remove(cookie);
+        final short[] ports = getOutPorts(fm);
+        if (ports.length == 0) {
+            return;
+        }
+        this.keys.put(cookie, ports);
+        final OFPort in = fm.getFlowMod().getMatch().get(MatchField.IN_PORT);
+        if (in != null) {
+            this.inPorts.put(cookie, in.getShortPortNumber());
+        }
+        for (short out : ports) {
+            add(this.outPorts, out, cookie);
+            if (in != null) {
+                add(this.portPairs, pair(in.getShortPortNumber(), out), cookie);
+            }
+        }
+    }
+
+    /**
+     * Removes the entry indexed under the given cookie, if any.
+     *
+     * @param cookie the physical cookie
+     */
+    synchronized void remove(long cookie) {
+        final short[] ports = this.keys.remove(cookie);
+        if (ports == null) {
+            return;
+        }
+        final Short in = this.inPorts.remove(cookie);
+        for (short out : ports) {
+            remove(this.outPorts, out, cookie);
+            if (in != null) {
+                remove(this.portPairs, pair(in, out), cookie);
+            }
+        }
+    }
+
+    /**
+     * Clears the index.
+     */
+    synchronized void clear() {
+        this.outPorts.clear();
+        this.portPairs.clear();
+        this.keys.clear();
+        this.inPorts.clear();
+    }
+
+    /**
+     * Gets the cookies of the entries that output to the given port.
+     *
+     * @param outPort the output port
+     * @return the cookies
+     */
+    synchronized List<Long> getByOutPort(short outPort) {
+        return copy(this.outPorts.get(outPort));
+    }
+
+    /**
+     * Gets the cookies of the entries that match on the given input port and
+     * output to the given output port.
+     *
+     * @param inPort the input port
+     * @param outPort the output port
+     * @return the cookies
+     */
+    synchronized List<Long> getByPorts(short inPort, short outPort) {
+        return copy(this.portPairs.get(pair(inPort, outPort)));
+    }
+
+    /*
+     * Gets the distinct ports the output actions of the flow mod send to.
+     */
+    private static short[] getOutPorts(OVXFlowMod fm) {
+        final List<OFAction> actions = fm.getFlowMod().getActions();
+        short[] ports = new short[actions.size()];
+        int n = 0;
+        outer:
+        for (OFAction act : actions) {
+            if (!(act instanceof OFActionOutput)) {
+                continue;
+            }
+            final short port = ((OFActionOutput) act).getPort()
+                    .getShortPortNumber();
+            for (int i = 0; i < n; i++) {
+                if (ports[i] == port) {
+                    continue outer;
+                }
+            }
+            ports[n++] = port;
+        }
+        if (n < ports.length) {
+            final short[] ret = new short[n];
+            System.arraycopy(ports, 0, ret, 0, n);
+            ports = ret;
+        }
+        return ports;
+    }
+
+    private static int pair(short inPort, short outPort) {
+        return (inPort & 0xffff) << 16 | outPort & 0xffff;
+    }
+
+    private static <K> void add(Map<K, Set<Long>> map, K key, long cookie) {
+        Set<Long> cookies = map.get(key);
+        if (cookies == null) {
+            cookies = new LinkedHashSet<Long>();
+            map.put(key, cookies);
+        }
+        cookies.add(cookie);
+    }
+
+    private static <K> void remove(Map<K, Set<Long>> map, K key, long cookie) {
+        final Set<Long> cookies = map.get(key);
+        if (cookies != null && cookies.remove(cookie) && cookies.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    private static List<Long> copy(Set<Long> cookies) {
+        if (cookies == null) {
+            return new ArrayList<Long>(0);
+        }
+        return new ArrayList<Long>(cookies);
+    }
+}
@@ -23,15 +23,21 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.util.MessageTracer;
+import net.onrc.openvirtex.util.MessageTracer.Event;
+import net.onrc.openvirtex.util.OVXFlowManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 
 import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import org.projectfloodlight.openflow.protocol.*;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U32;
@@ -50,6 +56,12 @@ public class OVXFlowTable implements FlowTable {
     protected ConcurrentHashMap<Long, OVXFlowMod> flowmodMap;
     // Reverse map of FlowMod hashcode to cookie
     protected ConcurrentHashMap<Integer, Long> cookieMap;
+    // Match-space index of flowmodMap, null if the table is scanned
+    protected OVXFlowTableIndex index;
+    // Output port index of flowmodMap
+    protected OVXFlowPortIndex portIndex;
+    // Flow IDs of the entries whose FlowMods cross a virtual link
+    protected ConcurrentHashMap<Long, Integer> flowIds;
 
     /**
      * Temporary solution that should be replaced by something that doesn't
@@ -77,8 +89,22 @@ public class OVXFlowTable implements FlowTable {
      * @param vsw the virtual switch
      */
     public OVXFlowTable(OVXSwitch vsw) {
+        this(vsw, OpenVirteXController.getInstance().getUseFlowTableIndex());
+    }
+
+    /**
+     * Instantiates a new flow table associated to the given
+     * virtual switch, either indexed or scanned on each FlowMod.
+     *
+     * @param vsw the virtual switch
+     * @param indexed true to index the entries by match, false to scan them
+     */
+    public OVXFlowTable(OVXSwitch vsw, boolean indexed) {
+        this.index = indexed ? new OVXFlowTableIndex() : null;
+        this.portIndex = new OVXFlowPortIndex();
         this.flowmodMap = new ConcurrentHashMap<Long, OVXFlowMod>();
         this.cookieMap = new ConcurrentHashMap<Integer, Long>();
+        this.flowIds = new ConcurrentHashMap<Long, Integer>();
         this.cookieCounter = new AtomicInteger(1);
         this.freeList = new LinkedList<Long>();
         this.vswitch = vsw;
@@ -106,21 +132,15 @@ public class OVXFlowTable implements FlowTable {
      * @return if the FlowMod needs to be sent south during devirtualization.
      */
     public boolean handleFlowMods(OVXFlowMod fm) {
-        this.log.debug("handleFlowMods");
-
         switch (fm.getFlowMod().getCommand()) {
             case ADD:
-                this.log.debug("ADD");
                 return doFlowModAdd(fm);
             case MODIFY:
             case MODIFY_STRICT:
-                this.log.debug("MODIFY");
                 return doFlowModModify(fm);
             case DELETE:
-                this.log.debug("DELETE");
                 return doFlowModDelete(fm, false);
             case DELETE_STRICT:
-                this.log.debug("DELETE_STRICT");
                 return doFlowModDelete(fm, true);
             default:
                 return false;
@@ -157,19 +177,31 @@ public class OVXFlowTable implements FlowTable {
                 }
                 this.flowmodMap.clear();
                 this.cookieMap.clear();
+                if (this.index != null) {
+                    this.index.clear();
+                }
+                this.portIndex.clear();
+                for (Long cookie : this.flowIds.keySet()) {
+                    this.releaseFlowId(cookie);
+                }
                 return false;
             } else {
-                // remove matching flow entries, and let FlowMod be sent down((OFFlowMod)fm.getOFMessage()).getMatch()
-                Iterator<Map.Entry<Long, OVXFlowMod>> itr = this.flowmodMap
-                        .entrySet().iterator();
+                // remove matching flow entries, and let FlowMod be sent down
+                Match match = fm.getFlowMod().getMatch();
+                CompiledMatch compiled = fm.getCompiledMatch();
                 OVXFlowEntry fe = new OVXFlowEntry();
-                while (itr.hasNext()) {
-                    Map.Entry<Long, OVXFlowMod> entry = itr.next();
-                    fe.setOVXFlowMod(entry.getValue());
-                    int overlap = fe.compare(fm.getFlowMod().getMatch(), strict);
+                for (Long cookie : this.getCandidates(match, strict)) {
+                    OVXFlowMod entry = this.flowmodMap.get(cookie);
+                    if (entry == null) {
+                        continue;
+                    }
+                    fe.setOVXFlowMod(entry);
+                    int overlap = fe.compare(compiled, strict);
                     if (overlap == OVXFlowEntry.EQUAL) {
-                        this.cookieMap.remove(entry.getValue().hashCode());
-                        itr.remove();
+                        this.removeEntry(cookie);
+                        MessageTracer.trace(Event.FLOW_DELETE,
+                                this.vswitch.getTenantId(), cookie,
+                                entry.getFlowMod().getPriority());
                     }
                 }
                 return true;
@@ -190,7 +222,6 @@ public class OVXFlowTable implements FlowTable {
      * @return true if FlowMod should be written south
      */
     private boolean doFlowModAdd(OVXFlowMod fm) {
-        this.log.debug("doFlowModAdd");
         //this.log.info(fm.getOFMessage().toString());
 
 
@@ -198,10 +229,11 @@ public class OVXFlowTable implements FlowTable {
             //System.out.println(" OFPFF_CHECK_OVERLAP");
 
             OVXFlowEntry fe = new OVXFlowEntry();
-            for (OVXFlowMod fmod : this.flowmodMap.values()) {
+            CompiledMatch compiled = fm.getCompiledMatch();
+            for (OVXFlowMod fmod : this.getOverlapCandidates(fm)) {
 
                 fe.setOVXFlowMod(fmod);
-                int res = fe.compare(fm.getFlowMod().getMatch(), false);
+                int res = fe.compare(compiled, false);
 
                 //System.out.println("------------------------");
                 //System.out.println(res);
@@ -232,32 +264,28 @@ public class OVXFlowTable implements FlowTable {
      * @return true if FlowMod should be written South
      */
     private boolean doFlowModModify(OVXFlowMod fm) {
-        log.debug("doFlowModModify");
-
         OVXFlowEntry fe = new OVXFlowEntry();
+        CompiledMatch compiled = fm.getCompiledMatch();
         int res;
-        for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-            fe.setOVXFlowMod(fmod.getValue());
-
-            log.debug(" FlowEntry [" + U32.of(fe.getOVXFlowMod().hashCode()).toString() + "]");
-
-            log.debug("OVXFlowMod [" + U32.of(fm.hashCode()).toString() + "]");
+        for (Long c : this.getCandidates(fm.getFlowMod().getMatch(), true)) {
+            OVXFlowMod entry = this.flowmodMap.get(c);
+            if (entry == null) {
+                continue;
+            }
+            fe.setOVXFlowMod(entry);
 
-            res = fe.compare(fm.getFlowMod().getMatch(), true);
+            res = fe.compare(compiled, true);
             //System.out.println("res = " + res);
 
             //replace table entry that strictly matches with given FlowMod.
             if (res == OVXFlowEntry.EQUAL) {
                 //System.out.println("res == OVXFlowEntry2.EQUAL");
 
-                long c = fmod.getKey();
                 //System.out.println("replacing equivalent FlowEntry [cookie={}]");
                 //log.info("replacing equivalent FlowEntry Cookie={}", U64.of(c).toString());
                 OVXFlowMod old = this.flowmodMap.get(c);
-
-                if(old!=null)
-                    log.debug("remove old FlowMod [" + U32.of(old.hashCode()).toString() +"]");
-
+                MessageTracer.trace(Event.FLOW_REPLACE,
+                        this.vswitch.getTenantId(), c, c);
                 this.cookieMap.remove(old.hashCode());
                 this.addFlowMod(fm, c);
                 // return cookie to pool and use the previous cookie
@@ -271,7 +299,6 @@ public class OVXFlowTable implements FlowTable {
         //System.out.println("Cookie = " + this.getCookie());
 
         long newc = this.getCookie();
-        log.debug("make a new [cookie={}]", U64.of(newc).toString());
 
         this.addFlowMod(fm.clone(), newc);
         return true;
@@ -293,6 +320,12 @@ public class OVXFlowTable implements FlowTable {
         return fm.clone();
     }
 
+    @Override
+    public OFFlowMod getOFFlowMod(long cookie) {
+        OVXFlowMod fm = this.flowmodMap.get(cookie);
+        return fm == null ? null : fm.getFlowMod();
+    }
+
     /**
      * Checks if the cookie is present in the flow table.
      *
@@ -324,21 +357,20 @@ public class OVXFlowTable implements FlowTable {
         if (cflag) {
             long cookie = this.getCookie();
             OVXFlowEntry fe = new OVXFlowEntry();
+            CompiledMatch compiled = flowmod.getCompiledMatch();
             int res;
-            for (Map.Entry<Long, OVXFlowMod> fmod : this.flowmodMap.entrySet()) {
-                fe.setOVXFlowMod(fmod.getValue());
-                res = fe.compare(flowmod.getFlowMod().getMatch(), true);
+            for (Long c : this.getCandidates(flowmod.getFlowMod().getMatch(), true)) {
+                OVXFlowMod entry = this.flowmodMap.get(c);
+                if (entry == null) {
+                    continue;
+                }
+                fe.setOVXFlowMod(entry);
+                res = fe.compare(compiled, true);
                 // replace table entry that strictly matches with given FlowMod.
                 if (res == OVXFlowEntry.EQUAL) {
-                    long c = fmod.getKey();
-                    log.info(
-                            "replacing equivalent FlowEntry with new [cookie={}->{}]",
-                            U64.of(c).toString(),
-                            U64.of(cookie).toString());
-                    OVXFlowMod old = this.flowmodMap.get(c);
-                    this.cookieMap.remove(old.hashCode());
-                    this.flowmodMap.remove(c);
-                    this.addFlowMod(flowmod, cookie);
+                    MessageTracer.trace(Event.FLOW_REPLACE,
+                            this.vswitch.getTenantId(), c, cookie);
+                    this.moveEntry(c, cookie, flowmod);
                     // return cookie to pool and use the previous cookie
                     return cookie;
                 }
@@ -348,10 +380,6 @@ public class OVXFlowTable implements FlowTable {
         if (cookie == null) {
             cookie = this.getCookie();
         }
-        log.debug("getCookie Cookie = " + U64.of(cookie).toString());
-        log.debug("HashCode = " + U32.of(flowmod.hashCode()).toString());
-        log.debug(flowmod.getFlowMod().toString());
-
         return cookie;
     }
 
@@ -363,15 +391,55 @@ public class OVXFlowTable implements FlowTable {
      * @return the cookie
      */
     public long addFlowMod(final OVXFlowMod flowmod, long cookie) {
-        log.debug("addFlowMod Cookie = " + U64.of(cookie).toString());
-        log.debug("HashCode = " + U32.of(flowmod.getFlowMod().hashCode()).toString());
-        log.debug(flowmod.getFlowMod().toString());
+        MessageTracer.trace(Event.FLOW_ADD, this.vswitch.getTenantId(), cookie,
+                flowmod.getFlowMod().getPriority());
 
+        // compile the match now rather than on the first comparison
+        flowmod.getCompiledMatch();
         this.flowmodMap.put(cookie, flowmod);
         this.cookieMap.put(flowmod.hashCode(), cookie);
+        if (this.index != null) {
+            this.index.add(cookie, flowmod);
+        }
+        this.portIndex.add(cookie, flowmod);
         return cookie;
     }
 
+    /**
+     * Moves the entry stored under the given cookie to a new cookie, as
+     * {@link #getCookie(OVXFlowMod, Boolean)} does for an entry found by
+     * match, but without comparing the entry against the table.
+     *
+     * @param cookie the cookie of the entry
+     * @return the new cookie, a fresh one if there is no such entry
+     */
+    public long renewCookie(final long cookie) {
+        final long newc = this.getCookie();
+        final OVXFlowMod entry = this.flowmodMap.get(cookie);
+        if (entry != null) {
+            MessageTracer.trace(Event.FLOW_REPLACE,
+                    this.vswitch.getTenantId(), cookie, newc);
+            this.moveEntry(cookie, newc, entry);
+        }
+        return newc;
+    }
+
+    /*
+     * Stores the given FlowMod under a new cookie in place of the entry
+     * stored under the old one. The reference on the flow ID of the old
+     * entry moves along, as the physical FlowMods tagged with it stay
+     * installed.
+     */
+    private void moveEntry(final long cookie, final long newc,
+                           final OVXFlowMod flowmod) {
+        final Integer flowId = this.flowIds.remove(cookie);
+        this.removeEntry(cookie);
+        this.addFlowMod(flowmod, newc);
+        if (flowId != null) {
+            this.flowIds.put(newc, flowId);
+        }
+    }
+
     /**
      * Deletes the flow mod associated with the given cookie.
      *
@@ -388,12 +456,171 @@ public class OVXFlowTable implements FlowTable {
                 this.freeList.remove();
                 this.freeList.add(cookie);
             }
-            OVXFlowMod ret = this.flowmodMap.remove(cookie);
-            if (ret != null) {
-                this.cookieMap.remove(ret.hashCode());
+            return this.removeEntry(cookie);
+        }
+    }
+
+    /*
+     * Removes the entry stored under the given cookie from the table and
+     * its indexes, dropping its flow ID.
+     */
+    private OVXFlowMod removeEntry(final long cookie) {
+        final OVXFlowMod ret = this.flowmodMap.remove(cookie);
+        if (ret != null) {
+            this.cookieMap.remove(ret.hashCode());
+            if (this.index != null) {
+                this.index.remove(cookie);
+            }
+            this.portIndex.remove(cookie);
+            this.releaseFlowId(cookie);
+        }
+        return ret;
+    }
+
+    /**
+     * Records that the physical FlowMods of the entry stored under the
+     * given cookie are tagged with the given flow ID. The flow ID stays in
+     * use until the entry is removed from the table, and the physical
+     * FlowMods have expired.
+     *
+     * @param cookie the cookie
+     * @param flowId the flow ID
+     */
+    public void setFlowId(final long cookie, final int flowId) {
+        final OVXFlowMod entry = this.flowmodMap.get(cookie);
+        if (entry == null) {
+            return;
+        }
+        final Integer old = this.flowIds.put(cookie, flowId);
+        if (old != null && old == flowId) {
+            return;
+        }
+        try {
+            final OVXFlowManager manager = this.vswitch.getMap()
+                    .getVirtualNetwork(this.vswitch.getTenantId())
+                    .getFlowManager();
+            manager.retain(flowId, getLifetime(entry.getFlowMod()));
+            if (old != null) {
+                manager.release(old);
+            }
+        } catch (NetworkMappingException e) {
+            log.warn("Could not retain flowId {}: {}", flowId, e);
+        }
+    }
+
+    /*
+     * Gets the time in seconds the physical FlowMods of an entry stay
+     * installed once no packet hits them, 0 if they do not expire.
+     */
+    private static int getLifetime(final OFFlowMod fm) {
+        final int idle = fm.getIdleTimeout();
+        final int hard = fm.getHardTimeout();
+        if (idle > 0 && hard > 0) {
+            return Math.min(idle, hard);
+        }
+        return Math.max(idle, hard);
+    }
+
+    /*
+     * Drops the reference the entry stored under the given cookie held on
+     * its flow ID, if any.
+     */
+    private void releaseFlowId(final long cookie) {
+        final Integer flowId = this.flowIds.remove(cookie);
+        if (flowId == null) {
+            return;
+        }
+        try {
+            this.vswitch.getMap().getVirtualNetwork(this.vswitch.getTenantId())
+                    .getFlowManager().release(flowId);
+        } catch (NetworkMappingException e) {
+            log.warn("Could not release flowId {}: {}", flowId, e);
+        }
+    }
+
+    /**
+     * Gets the cookies of the entries that have to be compared with the
+     * given match. Without an index, these are all the entries of the table.
+     *
+     * @param match the match
+     * @param strict true if the comparison is strict
+     * @return the cookies of the candidate entries
+     */
+    private Collection<Long> getCandidates(Match match, boolean strict) {
+        if (this.index == null) {
+            return this.flowmodMap.keySet();
+        } else if (strict) {
+            return this.index.getStrictCandidates(match);
+        } else {
+            return this.index.getCandidates(match);
+        }
+    }
+
+    /**
+     * Gets the entries an overlap check of the given FlowMod has to
+     * compare against. Without an index, these are all the entries of the
+     * table.
+     *
+     * @param fm the flow mod
+     * @return the candidate entries
+     */
+    private Collection<OVXFlowMod> getOverlapCandidates(OVXFlowMod fm) {
+        if (this.index == null) {
+            return this.flowmodMap.values();
+        }
+        List<OVXFlowMod> ret = new ArrayList<OVXFlowMod>();
+        for (Long cookie : this.index.getOverlapCandidates(
+                fm.getFlowMod().getMatch(), fm.getFlowMod().getPriority())) {
+            OVXFlowMod entry = this.flowmodMap.get(cookie);
+            if (entry != null) {
+                ret.add(entry);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the entries that output to the given port, by cookie. The
+     * entries are not copied.
+     *
+     * @param outPort the output port
+     * @return the entries
+     */
+    public Map<Long, OVXFlowMod> getFlowModsByOutPort(final short outPort) {
+        return this.getFlowMods(this.portIndex.getByOutPort(outPort));
+    }
+
+    /**
+     * Gets the entries that match on the given input port and output to the
+     * given output port, by cookie. The entries are not copied.
+     *
+     * @param inPort the input port
+     * @param outPort the output port
+     * @return the entries
+     */
+    public Map<Long, OVXFlowMod> getFlowModsByPorts(final short inPort,
+                                                   final short outPort) {
+        return this.getFlowMods(this.portIndex.getByPorts(inPort, outPort));
+    }
+
+    private Map<Long, OVXFlowMod> getFlowMods(final List<Long> cookies) {
+        final Map<Long, OVXFlowMod> ret = new LinkedHashMap<Long, OVXFlowMod>();
+        for (Long cookie : cookies) {
+            final OVXFlowMod entry = this.flowmodMap.get(cookie);
+            if (entry != null) {
+                ret.put(cookie, entry);
             }
-            return ret;
         }
+        return ret;
+    }
+
+    /**
+     * Checks if the entries of this table are indexed by match.
+     *
+     * @return true if indexed, false if scanned
+     */
+    public boolean isIndexed() {
+        return this.index != null;
     }
 
     /**
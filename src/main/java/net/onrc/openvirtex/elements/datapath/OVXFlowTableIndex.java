@@ -0,0 +1,376 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+
+/**
+ * Match-space index over the entries of an {@link OVXFlowTable}.
+ * <p>
+ * Entries are hashed by their full match for strict lookups, and grouped
+ * per priority into tuple-space buckets, i.e., by the set of fields
+ * {@link OVXFlowEntry#compare} looks at. Within a tuple, entries are hashed
+ * by the values of those fields, and indexed per field value. The index only
+ * narrows down the entries a FlowMod has to be compared with; the final
+ * decision is still taken by {@link OVXFlowEntry#compare}, so the table
+ * behaves exactly as with a full scan.
+ */
+class OVXFlowTableIndex {
+
+    /* fields considered by OVXFlowEntry.compare(), in the same order */
+    static final MatchField<?>[] FIELDS = {MatchField.IN_PORT,
+            MatchField.ETH_DST, MatchField.ETH_SRC, MatchField.ETH_TYPE,
+            MatchField.VLAN_VID, MatchField.VLAN_PCP, MatchField.IP_PROTO,
+            MatchField.IP_DSCP, MatchField.IPV4_DST, MatchField.IPV4_SRC,
+            MatchField.TCP_DST, MatchField.TCP_SRC};
+
+    // Full match to cookies of the entries carrying it
+    private final Map<Match, Set<Long>> exact;
+    // Priority to tuple mask to tuple
+    private final Map<Integer, Map<Integer, Tuple>> tuples;
+    // Cookie to the key the entry was indexed with
+    private final Map<Long, Key> keys;
+
+    /**
+     * Creates an empty index.
+     */
+    OVXFlowTableIndex() {
+        this.exact = new HashMap<Match, Set<Long>>();
+        this.tuples = new HashMap<Integer, Map<Integer, Tuple>>();
+        this.keys = new HashMap<Long, Key>();
+    }
+
+    /**
+     * Indexes the given flow mod under the given cookie, replacing
+     * whatever was previously indexed under that cookie.
+     *
+     * @param cookie the physical cookie
+     * @param fm the flow mod
+     */
+    synchronized void add(long cookie, OVXFlowMod fm) {
+        this.remove(cookie);
+        final Key key = new Key(fm.getFlowMod().getMatch(),
+                fm.getFlowMod().getPriority());
+        this.keys.put(cookie, key);
+
+        Set<Long> cookies = this.exact.get(key.match);
+        if (cookies == null) {
+            cookies = new LinkedHashSet<Long>();
+            this.exact.put(key.match, cookies);
+        }
+        cookies.add(cookie);
+
+        Map<Integer, Tuple> masks = this.tuples.get(key.priority);
+        if (masks == null) {
+            masks = new HashMap<Integer, Tuple>();
+            this.tuples.put(key.priority, masks);
+        }
+        Tuple tuple = masks.get(key.mask);
+        if (tuple == null) {
+            tuple = new Tuple(key.mask);
+            masks.put(key.mask, tuple);
+        }
+        tuple.add(key, cookie);
+    }
+
+    /**
+     * Removes the entry indexed under the given cookie, if any.
+     *
+     * @param cookie the physical cookie
+     */
+    synchronized void remove(long cookie) {
+        final Key key = this.keys.remove(cookie);
+        if (key == null) {
+            return;
+        }
+        final Set<Long> cookies = this.exact.get(key.match);
+        if (cookies != null && cookies.remove(cookie) && cookies.isEmpty()) {
+            this.exact.remove(key.match);
+        }
+        final Map<Integer, Tuple> masks = this.tuples.get(key.priority);
+        if (masks == null) {
+            return;
+        }
+        final Tuple tuple = masks.get(key.mask);
+        if (tuple != null && tuple.remove(key, cookie)) {
+            masks.remove(key.mask);
+            if (masks.isEmpty()) {
+                this.tuples.remove(key.priority);
+            }
+        }
+    }
+
+    /**
+     * Clears the index.
+     */
+    synchronized void clear() {
+        this.exact.clear();
+        this.tuples.clear();
+        this.keys.clear();
+    }
+
+    /**
+     * Gets the cookies of the entries a strict comparison against the given
+     * match can find EQUAL.
+     *
+     * @param match the match
+     * @return the candidate cookies
+     */
+    synchronized List<Long> getStrictCandidates(Match match) {
+        final Set<Long> cookies = this.exact.get(match);
+        if (cookies == null) {
+            return new ArrayList<Long>(0);
+        }
+        return new ArrayList<Long>(cookies);
+    }
+
+    /**
+     * Gets the cookies of the entries a non-strict comparison against the
+     * given match can find EQUAL. These are the entries with an identical
+     * match, plus the ones of the tuples that are more specific than the match
+     * and agree with it on the fields they have in common.
+     *
+     * @param match the match
+     * @return the candidate cookies
+     */
+    synchronized List<Long> getCandidates(Match match) {
+        final Key key = new Key(match, 0);
+        final Set<Long> ret = new LinkedHashSet<Long>();
+        final Set<Long> cookies = this.exact.get(match);
+        if (cookies != null) {
+            ret.addAll(cookies);
+        }
+        for (Map<Integer, Tuple> masks : this.tuples.values()) {
+            for (Tuple tuple : masks.values()) {
+                if (Integer.bitCount(tuple.mask & ~key.mask) <= Integer
+                        .bitCount(key.mask & ~tuple.mask)) {
+                    continue;
+                }
+                tuple.collect(key, ret);
+            }
+        }
+        return new ArrayList<Long>(ret);
+    }
+
+    /**
+     * Gets the cookies of the entries with the given priority that are not
+     * disjoint from the given match, i.e., the ones an overlap check has to
+     * look at.
+     *
+     * @param match the match
+     * @param priority the priority
+     * @return the candidate cookies
+     */
+    synchronized List<Long> getOverlapCandidates(Match match, int priority) {
+        final Map<Integer, Tuple> masks = this.tuples.get(priority);
+        if (masks == null) {
+            return new ArrayList<Long>(0);
+        }
+        final Key key = new Key(match, priority);
+        final Set<Long> ret = new LinkedHashSet<Long>();
+        for (Tuple tuple : masks.values()) {
+            tuple.collect(key, ret);
+        }
+        return new ArrayList<Long>(ret);
+    }
+
+    /**
+     * Entries sharing the same set of compared fields. Entries are hashed by
+     * the values of these fields, and each field value points back to the
+     * buckets holding it so partially specified lookups stay narrow.
+     */
+    private static final class Tuple {
+        private final int mask;
+        private final Map<List<Object>, Set<Long>> buckets;
+        private final Map<Object, Set<List<Object>>>[] byField;
+
+        private Tuple(int mask) {
+            this.mask = mask;
+            this.buckets = new HashMap<List<Object>, Set<Long>>();
+            // no generic array creation
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            final Map<Object, Set<List<Object>>>[] maps = new Map[FIELDS.length];
+            this.byField = maps;
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    this.byField[i] = new HashMap<Object, Set<List<Object>>>();
+                }
+            }
+        }
+
+        private void add(Key key, long cookie) {
+            Set<Long> cookies = this.buckets.get(key.values);
+            if (cookies == null) {
+                cookies = new LinkedHashSet<Long>();
+                this.buckets.put(key.values, cookies);
+                for (int i = 0; i < FIELDS.length; i++) {
+                    if (this.byField[i] == null) {
+                        continue;
+                    }
+                    Set<List<Object>> values = this.byField[i]
+                            .get(key.fields[i]);
+                    if (values == null) {
+                        values = new HashSet<List<Object>>();
+                        this.byField[i].put(key.fields[i], values);
+                    }
+                    values.add(key.values);
+                }
+            }
+            cookies.add(cookie);
+        }
+
+        /**
+         * @return true if the tuple became empty
+         */
+        private boolean remove(Key key, long cookie) {
+            final Set<Long> cookies = this.buckets.get(key.values);
+            if (cookies == null || !cookies.remove(cookie)
+                    || !cookies.isEmpty()) {
+                return false;
+            }
+            this.buckets.remove(key.values);
+            for (int i = 0; i < FIELDS.length; i++) {
+                if (this.byField[i] == null) {
+                    continue;
+                }
+                final Set<List<Object>> values = this.byField[i]
+                        .get(key.fields[i]);
+                if (values != null && values.remove(key.values)
+                        && values.isEmpty()) {
+                    this.byField[i].remove(key.fields[i]);
+                }
+            }
+            return this.buckets.isEmpty();
+        }
+
+        /**
+         * Adds to ret the cookies of the buckets whose values agree with the
+         * given key on the fields both have.
+         */
+        private void collect(Key key, Set<Long> ret) {
+            final int common = this.mask & key.mask;
+            if (common == this.mask) {
+                // all fields of the tuple are set in the key: one bucket
+                final Set<Long> cookies = this.buckets.get(key.project(common));
+                if (cookies != null) {
+                    ret.addAll(cookies);
+                }
+                return;
+            }
+            Collection<List<Object>> values = this.buckets.keySet();
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((common & (1 << i)) == 0) {
+                    continue;
+                }
+                final Set<List<Object>> narrowed = this.byField[i]
+                        .get(key.fields[i]);
+                if (narrowed == null) {
+                    return;
+                }
+                if (narrowed.size() < values.size()) {
+                    values = narrowed;
+                }
+            }
+            for (List<Object> value : values) {
+                if (key.agrees(value, this.mask, common)) {
+                    ret.addAll(this.buckets.get(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Normalized view of a match: the fields compared by the flow table as a
+     * presence mask, and their values in {@link #FIELDS} order.
+     */
+    private static final class Key {
+        private final Match match;
+        private final int priority;
+        private final int mask;
+        private final List<Object> values;
+        private final Object[] fields;
+
+        private Key(Match match, int priority) {
+            this.match = match;
+            this.priority = priority;
+            this.fields = new Object[FIELDS.length];
+            final List<Object> vals = new ArrayList<Object>(FIELDS.length);
+            int m = 0;
+            for (int i = 0; i < FIELDS.length; i++) {
+                final Object value = match.get(FIELDS[i]);
+                if (value != null) {
+                    m |= 1 << i;
+                    this.fields[i] = value;
+                    vals.add(value);
+                }
+            }
+            this.mask = m;
+            this.values = vals;
+        }
+
+        /**
+         * Projects the values of this key on the given mask, which must be a
+         * subset of the mask of this key.
+         */
+        private List<Object> project(int m) {
+            final Object[] ret = new Object[Integer.bitCount(m)];
+            int j = 0;
+            for (int i = 0; i < FIELDS.length; i++) {
+                if ((m & (1 << i)) != 0) {
+                    ret[j++] = this.fields[i];
+                }
+            }
+            return Arrays.asList(ret);
+        }
+
+        /**
+         * Checks if the given tuple values agree with this key on all
+         * fields of the common mask.
+         */
+        private boolean agrees(List<Object> other, int otherMask, int common) {
+            int j = 0;
+            for (int i = 0; i < FIELDS.length; i++) {
+                final int bit = 1 << i;
+                if ((otherMask & bit) == 0) {
+                    continue;
+                }
+                if ((common & bit) != 0
+                        && !this.fields[i].equals(other.get(j))) {
+                    return false;
+                }
+                j++;
+            }
+            return true;
+        }
+    }
+}
@@ -37,7 +37,6 @@ import net.onrc.openvirtex.exceptions.*;
 import net.onrc.openvirtex.messages.Devirtualizable;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessage;
-import net.onrc.openvirtex.messages.OVXPacketIn;
 import net.onrc.openvirtex.util.BitSetIndex;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 
@@ -50,8 +49,8 @@ import org.projectfloodlight.openflow.exceptions.OFParseError;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
 
 /**
  * The base virtual switch.
@@ -66,7 +65,6 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
      * TODO: should this be made specific per type of virtual switch?
      */
     public static final String DPDESCSTRING = "Virtual Switch";
-    protected static int bufferDimension = 4096;
     protected Integer tenantId = 0;
     // default in spec is 128
     protected Short missSendLen = 128;
@@ -75,9 +73,8 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
     protected OVXSwitchCapabilities capabilities;
     // The backoff counter for this switch when unconnected
     private AtomicInteger backOffCounter = null;
-    protected LRULinkedHashMap<Integer, OVXPacketIn> bufferMap;
-
-    private AtomicInteger bufferId = null;
+    // PacketIns sent to the controller, by buffer ID
+    private volatile PacketInBuffer packetInBuffer;
     private final BitSetIndex portCounter;
     protected FlowTable flowTable;
     // Used to save which channel the message came in on
@@ -105,12 +102,11 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         this.capabilities = new OVXSwitchCapabilities();
         this.backOffCounter = new AtomicInteger();
         this.resetBackOff();
-        this.bufferMap = new LRULinkedHashMap<Integer, OVXPacketIn>(
-                OVXSwitch.bufferDimension);
+        this.packetInBuffer = new PacketInBuffer(OpenVirteXController
+                .getInstance().getPacketInBuffers());
         this.portCounter = new BitSetIndex(IndexType.PORT_ID);
-        this.bufferId = new AtomicInteger(1);
         this.flowTable = new OVXFlowTable(this);
-        this.roleMan = new RoleManager();
+        this.roleMan = new RoleManager(tenantId);
         this.channelMux = new XidTranslator<Channel>();
     }
 
@@ -297,6 +293,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
 
         this.map.removeVirtualSwitch(this);
         this.tearDown();
+        this.portCounter.close();
     }
 
     private void cleanUpFlowMods(boolean isOk) {
@@ -404,7 +401,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         ofReply = ofFactory.buildFeaturesReply()
                 .setDatapathId(DatapathId.of(this.switchId))
                 .setPorts(portList)
-                .setNBuffers(OVXSwitch.bufferDimension)
+                .setNBuffers(this.packetInBuffer.getCapacity())
                 .setNTables((short) 1)
                 .setCapabilities(this.capabilities.getOVXSwitchCapabilitiesVer10())
                 .setActions(actionTypeSet)
@@ -417,7 +414,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
     public void generateFeaturesReplyVer13() {
         final OFFeaturesReply ofReply = ofFactory.buildFeaturesReply()
                 .setDatapathId(DatapathId.of(this.switchId))
-                .setNBuffers(OVXSwitch.bufferDimension)
+                .setNBuffers(this.packetInBuffer.getCapacity())
                 .setNTables((short) 1)
                 .setCapabilities(this.capabilities.getOVXSwitchCapabilitiesVer13())
                 .setXid(0)
@@ -487,27 +484,43 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
     }
 
     /**
-     * Adds a packet_in to the buffer map and returns a unique buffer ID.
+     * Buffers the frame of a packet_in sent to the controller.
      *
-     * @param pktIn the packet_in
+     * @param data the frame
+     * @param bufferId the buffer ID on the physical switch
      * @return the buffer ID
      */
-    public synchronized int addToBufferMap(final OVXPacketIn pktIn) {
-        // TODO: this isn't thread safe... fix it
-        this.bufferId.compareAndSet(OVXSwitch.bufferDimension, 0);
-        this.bufferMap.put(this.bufferId.get(), new OVXPacketIn(pktIn));
-        return this.bufferId.getAndIncrement();
+    public int addToBuffer(final byte[] data, final OFBufferId bufferId) {
+        return this.packetInBuffer.add(data, bufferId);
     }
 
     /**
-     * Gets a packet_in from a given buffer ID.
+     * Gets a buffered packet_in from a given buffer ID.
      *
      * @param bufId the buffer ID
-     * @return packet_in packet
+     * @return the buffered packet_in, or null if there is none
+     */
+    public PacketInBuffer.Entry getFromBuffer(final int bufId) {
+        return this.packetInBuffer.get(bufId);
+    }
+
+    /**
+     * Replaces the packet_in buffer with an empty one of the given
+     * capacity. Buffer IDs already sent to the controller are forgotten.
+     *
+     * @param capacity the number of buffers
      */
-    public OVXPacketIn getFromBufferMap(final Integer bufId) {
+    public void setPacketInBuffers(final int capacity) {
+        this.packetInBuffer = new PacketInBuffer(capacity);
+    }
 
-        return this.bufferMap.get(bufId);
+    /**
+     * Gets the packet_in buffer.
+     *
+     * @return the buffer
+     */
+    public PacketInBuffer getPacketInBuffer() {
+        return this.packetInBuffer;
     }
 
     /**
@@ -592,7 +605,8 @@ public abstract class OVXSwitch extends Switch<OVXPort> implements Persistable {
         //msg.setXid(channelMux.translate(msg.getXid(), channel));
         msg.setOFMessage(
                 msg.getOFMessage().createBuilder()
-                        .setXid(channelMux.translate((int)msg.getOFMessage().getXid(), channel))
+                        .setXid(channelMux.translate((int)msg.getOFMessage().getXid(), channel,
+                                msg.getOFMessage().getType()))
                         .build()
         );
 
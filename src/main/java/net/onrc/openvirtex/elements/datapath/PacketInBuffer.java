@@ -0,0 +1,178 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.projectfloodlight.openflow.types.OFBufferId;
+
+/**
+ * Fixed capacity ring of the PacketIns a virtual switch sent to its
+ * controller, which PacketOuts and FlowMods refer to by buffer ID.
+ * <p>
+ * Buffer IDs are sequence numbers: the low bits select the slot and the
+ * high bits count the laps around the ring, so that an ID whose slot has
+ * been reused since is reported as stale instead of resolving to another
+ * packet. Slots keep a reference to the frame of the original PacketIn,
+ * nothing is copied. Adding and looking up take no lock.
+ */
+public class PacketInBuffer {
+
+    /**
+     * Largest number of slots of a buffer.
+     */
+    public static final int MAX_CAPACITY = 1 << 24;
+
+    // IDs stay positive, clear of OFBufferId.NO_BUFFER
+    private static final int ID_MASK = 0x7fffffff;
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicInteger nextId;
+    private final AtomicLong buffered;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong stale;
+
+    /**
+     * Creates a buffer holding at least the given number of PacketIns.
+     *
+     * @param capacity the capacity, rounded up to a power of two and
+     *            capped at {@link #MAX_CAPACITY}
+     */
+    public PacketInBuffer(final int capacity) {
+        int size = 1;
+        while (size < capacity && size < PacketInBuffer.MAX_CAPACITY) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<Entry>(size);
+        this.mask = size - 1;
+        this.nextId = new AtomicInteger();
+        this.buffered = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.stale = new AtomicLong();
+    }
+
+    /**
+     * Gets the number of PacketIns the buffer holds.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return this.slots.length();
+    }
+
+    /**
+     * Stores a PacketIn, replacing the one stored a lap earlier in the
+     * same slot.
+     *
+     * @param data the frame, kept by reference
+     * @param bufferId the buffer ID of the frame on the physical switch
+     * @return the buffer ID the controller refers to the PacketIn by
+     */
+    public int add(final byte[] data, final OFBufferId bufferId) {
+        final int id = this.nextId.getAndIncrement() & PacketInBuffer.ID_MASK;
+        this.slots.set(id & this.mask, new Entry(id, data, bufferId));
+        this.buffered.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Gets a buffered PacketIn.
+     *
+     * @param id the buffer ID returned by {@link #add(byte[], OFBufferId)}
+     * @return the PacketIn, or null if the ID is unknown or its slot has
+     *         been reused
+     */
+    public Entry get(final int id) {
+        if (id == OFBufferId.NO_BUFFER.getInt()) {
+            return null;
+        }
+        final Entry entry = this.slots.get(id & this.mask);
+        if (entry != null && entry.id == id) {
+            this.hits.incrementAndGet();
+            return entry;
+        }
+        // stale if the slot was reused by a later lap, within half the
+        // ID space
+        if (entry != null && id >= 0
+                && ((entry.id - id) & PacketInBuffer.ID_MASK) < 1 << 30) {
+            this.stale.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the buffer counters: capacity, PacketIns buffered, and lookups
+     * that found their PacketIn, found nothing, or found its slot reused.
+     *
+     * @return the counters, by name
+     */
+    public Map<String, Long> getStats() {
+        final Map<String, Long> stats = new HashMap<String, Long>();
+        stats.put("capacity", (long) this.getCapacity());
+        stats.put("buffered", this.buffered.get());
+        stats.put("hits", this.hits.get());
+        stats.put("misses", this.misses.get());
+        stats.put("stale", this.stale.get());
+        return stats;
+    }
+
+    /**
+     * A buffered PacketIn.
+     */
+    public static final class Entry {
+        private final int id;
+        private final byte[] data;
+        private final OFBufferId bufferId;
+
+        private Entry(final int id, final byte[] data,
+                      final OFBufferId bufferId) {
+            this.id = id;
+            this.data = data;
+            this.bufferId = bufferId;
+        }
+
+        /**
+         * Gets the frame of the PacketIn. Not a copy, do not modify.
+         *
+         * @return the frame
+         */
+        public byte[] getData() {
+            return this.data;
+        }
+
+        /**
+         * Gets the buffer ID of the frame on the physical switch.
+         *
+         * @return the physical buffer ID, possibly NO_BUFFER
+         */
+        public OFBufferId getBufferId() {
+            return this.bufferId;
+        }
+    }
+}
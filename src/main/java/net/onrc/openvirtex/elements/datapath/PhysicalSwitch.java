@@ -26,16 +26,14 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore.TenantFlowStats;
 import net.onrc.openvirtex.elements.datapath.statistics.StatisticsManager;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 
-import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXMessage;
-import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.Virtualizable;
-import net.onrc.openvirtex.messages.statistics.OVXFlowStatsReply;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.channel.Channel;
@@ -51,13 +49,13 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         // The Xid mapper
     private final XidTranslator<OVXSwitch> translator;
     private StatisticsManager statsMan = null;
+    private final FlowCleaner flowCleaner;
 
     private AtomicReference<Map<Short, OFPortStatsEntry>> portStats;
 
     //private AtomicReference<Map<Short, OVXPortStatisticsReply>> portStats;
     //private AtomicReference<Map<Integer, List<OVXFlowStatisticsReply>>> flowStats;
 
-    private AtomicReference<Map<Integer, List<OFFlowStatsEntry>>> flowStats;
 
     class DeregAction implements Runnable {
 
@@ -100,11 +98,11 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         super(switchId);
         this.translator = new XidTranslator<OVXSwitch>();
         this.portStats = new AtomicReference<Map<Short, OFPortStatsEntry>>();
-        this.flowStats = new AtomicReference<Map<Integer, List<OFFlowStatsEntry>>>();
 
         this.setOfVersion(ofv);
 
         this.statsMan = new StatisticsManager(this);
+        this.flowCleaner = new FlowCleaner(this);
     }
 
     /**
@@ -287,6 +285,17 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         }
     }
 
+    /**
+     * Writes several messages to the switch at once.
+     *
+     * @param msgs the messages
+     */
+    public void sendMsgs(final List<OFMessage> msgs) {
+        if ((this.channel.isOpen()) && (this.isConnected)) {
+            this.channel.write(msgs);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -323,7 +332,8 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     }
 
     public int translate(final OVXMessage ofm, final OVXSwitch sw) {
-        return this.translator.translate((int)ofm.getOFMessage().getXid(), sw);
+        return this.translator.translate((int)ofm.getOFMessage().getXid(), sw,
+                ofm.getOFMessage().getType());
     }
 
     public XidPair<OVXSwitch> untranslate(final OVXMessage ofm) {
@@ -338,18 +348,15 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         this.portStats.set(stats);
     }
 
-    public void setFlowStatistics(
-            Map<Integer, List<OFFlowStatsEntry>> stats) {
-        this.flowStats.set(stats);
-
-    }
-
-    public List<OFFlowStatsEntry> getFlowStats(int tid) {
-        Map<Integer, List<OFFlowStatsEntry>> stats = this.flowStats.get();
-        if (stats != null && stats.containsKey(tid)) {
-            return Collections.unmodifiableList(stats.get(tid));
-        }
-        return null;
+    /**
+     * Gets the flow statistics of a tenant on this switch, from the last
+     * poll of the tenant.
+     *
+     * @param tid the tenant ID
+     * @return the flow statistics, or null if the tenant has no entries
+     */
+    public TenantFlowStats getFlowStats(int tid) {
+        return this.statsMan.getFlowStats().get(tid);
     }
 
     public OFPortStatsEntry getPortStat(short portNumber) {
@@ -360,49 +367,33 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return null;
     }
 
+    /**
+     * Removes the flow entries of a tenant from this switch.
+     *
+     * @param tenantId the tenant ID
+     * @param port the port whose entries are removed, or 0 for all entries
+     * @see FlowCleaner#cleanUpTenant(int, short)
+     */
     public void cleanUpTenant(Integer tenantId, Short port) {
-        this.statsMan.cleanUpTenant(tenantId, port);
-    }
-
-    public void removeFlowMods(OVXStatisticsReply msg) {
-        OFFlowStatsReply ofStatsReply = (OFFlowStatsReply)msg.getOFMessage();
-
-        int tid = (int)ofStatsReply.getXid() >> 16;
-        short port = (short) (ofStatsReply.getXid() & 0xFFFF);
-
-        for (OFFlowStatsEntry stat : ofStatsReply.getEntries()) {
-            //OVXFlowStatisticsReply2 reply = (OVXFlowStatisticsReply2) stat;
-
-            OVXFlowStatsReply reply = new OVXFlowStatsReply(msg.getOFMessage(), stat);
-
-            if (tid != this.getTidFromCookie(stat.getCookie().getValue())) {
-                continue;
-            }
-
-            if (port != 0) {
-                sendDeleteFlowMod(reply, port);
-                if (stat.getMatch().get(MatchField.IN_PORT).getShortPortNumber() == port) {
-                    sendDeleteFlowMod(reply, OFPort.ANY.getShortPortNumber());
-                }
-            } else {
-                sendDeleteFlowMod(reply, OFPort.ANY.getShortPortNumber());
-            }
-        }
+        this.flowCleaner.cleanUpTenant(tenantId, port);
     }
 
-    private void sendDeleteFlowMod(OVXFlowStatsReply reply, short port) {
-        //log.info("sendDeleteFlowMod");
-        OFFlowDeleteStrict ofFlowDeleteStrict = ofFactory.buildFlowDeleteStrict()
-                .setMatch(reply.getOFFlowStatsEntry().getMatch())
-                .setOutPort(OFPort.of(port))
-                .build();
-        OVXFlowMod dFm = new OVXFlowMod(ofFlowDeleteStrict);
-
-        this.sendMsg(dFm, this);
+    /**
+     * Gets the flow cleaner of this switch.
+     *
+     * @return the flow cleaner
+     */
+    public FlowCleaner getFlowCleaner() {
+        return this.flowCleaner;
     }
 
-    private int getTidFromCookie(long cookie) {
-        return (int) (cookie >> 32);
+    /**
+     * Gets the statistics manager polling this switch.
+     *
+     * @return the statistics manager
+     */
+    public StatisticsManager getStatisticsManager() {
+        return this.statsMan;
     }
 
     @Override
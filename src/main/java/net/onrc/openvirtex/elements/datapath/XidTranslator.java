@@ -19,48 +19,229 @@
  */
 package net.onrc.openvirtex.elements.datapath;
 
-import org.projectfloodlight.openflow.util.LRULinkedHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+
+import org.projectfloodlight.openflow.protocol.OFType;
 
 /**
+ * Maps the XIDs of requests forwarded to a switch to their original XID
+ * and sender, so that replies can be sent back to it.
+ * <p>
+ * Translated XIDs are allocated sequentially and stored in the slot they
+ * hash to, so lookups take no lock and box nothing. An entry stays until
+ * its slot is reused, and its slot is not reused before the entry expires,
+ * after a time that depends on the type of the request. When all the
+ * slots probed for a new XID hold live entries, the last one probed is
+ * evicted and counted.
+ * <p>
  * Based on Flowvisor XidTranslator by capveg.
+ *
+ * @param <T> generic sender type
  */
 public class XidTranslator<T> {
 
     static final int MIN_XID = 256;
-    static final int INIT_SIZE = 1 << 10;
-    static final int MAX_SIZE = 1 << 14; // must be larger than the max lifetime
-                                         // of an XID * rate of
-                                         // mesgs/sec
-    int nextID;
-    LRULinkedHashMap<Integer, XidPair<T>> xidMap;
+    // slots probed for a free one before evicting a live entry
+    static final int MAX_PROBES = 8;
+
+    static final long ECHO_LIFETIME = TimeUnit.SECONDS.toNanos(5);
+    static final long BARRIER_LIFETIME = TimeUnit.SECONDS.toNanos(30);
+    static final long STATS_LIFETIME = TimeUnit.SECONDS.toNanos(30);
+    static final long DEFAULT_LIFETIME = TimeUnit.SECONDS.toNanos(60);
 
+    private static final AtomicLong TOTAL_TRANSLATED = new AtomicLong();
+    private static final AtomicLong TOTAL_EVICTED = new AtomicLong();
+    private static final AtomicLong TOTAL_UNMATCHED = new AtomicLong();
+    private static final AtomicLong TOTAL_LATE = new AtomicLong();
 
+    private final AtomicInteger nextID;
+    private final AtomicReferenceArray<Slot<T>> slots;
+    private final int mask;
+    private final AtomicLong evicted;
+    private final AtomicLong unmatched;
+    private final AtomicLong late;
+
+    /**
+     * Creates a translator with the capacity set on the command line.
+     */
     public XidTranslator() {
-        this.nextID = XidTranslator.MIN_XID;
-        this.xidMap = new LRULinkedHashMap<Integer, XidPair<T>>(
-                XidTranslator.INIT_SIZE, XidTranslator.MAX_SIZE);
+        this(OpenVirteXController.getInstance().getXidCapacity());
+    }
+
+    /**
+     * Creates a translator holding at least the given number of XIDs.
+     *
+     * @param capacity the capacity, rounded up to a power of two
+     */
+    public XidTranslator(final int capacity) {
+        int size = XidTranslator.MAX_PROBES;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.nextID = new AtomicInteger(XidTranslator.MIN_XID);
+        this.slots = new AtomicReferenceArray<Slot<T>>(size);
+        this.mask = size - 1;
+        this.evicted = new AtomicLong();
+        this.unmatched = new AtomicLong();
+        this.late = new AtomicLong();
     }
 
     /**
      * Recovers the source of the message transaction by Xid.
      *
-     * @param xid
-     * @return
+     * @param xid the translated XID
+     * @return the original XID and sender, or null if unknown
      */
     public XidPair<T> untranslate(final int xid) {
-        return this.xidMap.get(Integer.valueOf(xid));
+        final Slot<T> slot = this.slots.get(xid & this.mask);
+        if (slot == null || slot.xid != xid) {
+            this.unmatched.incrementAndGet();
+            XidTranslator.TOTAL_UNMATCHED.incrementAndGet();
+            return null;
+        }
+        if (slot.expires - System.nanoTime() < 0) {
+            // expired, but not reused yet
+            this.late.incrementAndGet();
+            XidTranslator.TOTAL_LATE.incrementAndGet();
+        }
+        return slot.pair;
     }
 
     /**
+     * Allocates a new XID for a request of unknown type.
+     *
+     * @param xid the original XID
+     * @param sw the sender
      * @return the new Xid for the message.
      */
     public int translate(final int xid, final T sw) {
-        final int ret = this.nextID++;
-        if (this.nextID < XidTranslator.MIN_XID) {
-            this.nextID = XidTranslator.MIN_XID;
+        return this.translate(xid, sw, null);
+    }
+
+    /**
+     * Allocates a new XID for a request, kept for as long as replies to
+     * this type of request are expected.
+     *
+     * @param xid the original XID
+     * @param sw the sender
+     * @param type the request type, or null if unknown
+     * @return the new Xid for the message.
+     */
+    public int translate(final int xid, final T sw, final OFType type) {
+        final long now = System.nanoTime();
+        final Slot<T> slot = new Slot<T>(xid, sw, now + lifetime(type));
+        int probes = 0;
+        while (true) {
+            final int id = this.nextID();
+            final int i = id & this.mask;
+            final Slot<T> old = this.slots.get(i);
+            if (old != null && old.expires - now > 0
+                    && ++probes < XidTranslator.MAX_PROBES) {
+                continue;
+            }
+            slot.xid = id;
+            if (!this.slots.compareAndSet(i, old, slot)) {
+                continue;
+            }
+            if (old != null && old.expires - now > 0) {
+                this.evicted.incrementAndGet();
+                XidTranslator.TOTAL_EVICTED.incrementAndGet();
+            }
+            XidTranslator.TOTAL_TRANSLATED.incrementAndGet();
+            return id;
+        }
+    }
+
+    /**
+     * Gets the number of live entries that were overwritten before their
+     * replies arrived.
+     *
+     * @return the number of evicted entries
+     */
+    public long getEvicted() {
+        return this.evicted.get();
+    }
+
+    /**
+     * Gets the number of replies whose XID could not be untranslated.
+     *
+     * @return the number of unmatched replies
+     */
+    public long getUnmatched() {
+        return this.unmatched.get();
+    }
+
+    /**
+     * Gets the number of replies untranslated after their entry expired.
+     *
+     * @return the number of late replies
+     */
+    public long getLate() {
+        return this.late.get();
+    }
+
+    /**
+     * Gets the counters summed over all translators.
+     *
+     * @return the counters, by name
+     */
+    public static Map<String, Long> getStats() {
+        final Map<String, Long> stats = new HashMap<String, Long>();
+        stats.put("translated", XidTranslator.TOTAL_TRANSLATED.get());
+        stats.put("evicted", XidTranslator.TOTAL_EVICTED.get());
+        stats.put("unmatched", XidTranslator.TOTAL_UNMATCHED.get());
+        stats.put("late", XidTranslator.TOTAL_LATE.get());
+        return stats;
+    }
+
+    /*
+     * Gets the next XID, skipping the reserved ones when the counter wraps
+     * around.
+     */
+    private int nextID() {
+        while (true) {
+            final int id = this.nextID.getAndIncrement() & Integer.MAX_VALUE;
+            if (id >= XidTranslator.MIN_XID) {
+                return id;
+            }
+        }
+    }
+
+    private static long lifetime(final OFType type) {
+        if (type == null) {
+            return XidTranslator.DEFAULT_LIFETIME;
+        }
+        switch (type) {
+            case ECHO_REQUEST:
+                return XidTranslator.ECHO_LIFETIME;
+            case BARRIER_REQUEST:
+                return XidTranslator.BARRIER_LIFETIME;
+            case STATS_REQUEST:
+                return XidTranslator.STATS_LIFETIME;
+            default:
+                return XidTranslator.DEFAULT_LIFETIME;
+        }
+    }
+
+    /**
+     * Translated XID, published once set.
+     */
+    private static final class Slot<T> {
+        private int xid;
+        private final XidPair<T> pair;
+        private final long expires;
+
+        private Slot(final int xid, final T sw, final long expires) {
+            this.pair = new XidPair<T>(xid, sw);
+            this.expires = expires;
         }
-        this.xidMap.put(Integer.valueOf(ret), new XidPair<T>(xid, sw));
-        return ret;
     }
 
 }
@@ -19,11 +19,14 @@
  */
 package net.onrc.openvirtex.elements.datapath.role;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.onrc.openvirtex.exceptions.UnknownRoleException;
 
@@ -33,13 +36,28 @@ import org.jboss.netty.channel.Channel;
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 
+/**
+ * Keeps the role of each controller connected to a virtual switch, and
+ * decides which messages a controller may send and receive.
+ * <p>
+ * The roles are kept in an immutable snapshot of two arrays, indexed by the
+ * slot of each controller channel, and replaced as a whole on every change.
+ * A controller keeps its slot while connected, and slots freed by
+ * disconnected controllers are reused, so the arrays stay as small as the
+ * number of controllers. Checking a message is a single volatile read of
+ * the snapshot and a scan of a few array elements; changes are serialized
+ * and bump the generation of the snapshot.
+ */
 public class RoleManager {
 
     private static Logger log = LogManager.getLogger(RoleManager.class
             .getName());
-    private HashMap<Channel, Role> state;
-    private final AtomicReference<HashMap<Channel, Role>> currentState;
-    private Channel currentMaster;
+
+    private static final ConcurrentMap<Integer, TenantStats> STATS =
+            new ConcurrentHashMap<Integer, TenantStats>();
+
+    private final TenantStats stats;
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
     public enum Role {
         EQUAL,
@@ -80,75 +98,79 @@ public class RoleManager {
 
     };*/
 
-    public RoleManager() {
-        this.state = new HashMap<Channel, Role>();
-        this.currentState = new AtomicReference<HashMap<Channel, Role>>(state);
-    }
-    private HashMap<Channel, Role> getState() {
-        return new HashMap<>(this.currentState.get());
-    }
-
-    private void setState() {
-        this.currentState.set(this.state);
+    /**
+     * Creates the role manager of a virtual switch.
+     *
+     * @param tenantId the tenant ID of the switch
+     */
+    public RoleManager(final int tenantId) {
+        this.stats = getStats(tenantId);
     }
 
     public synchronized void addController(Channel chan) {
         if (chan == null) {
             return;
         }
-        this.state = getState();
-        this.state.put(chan, Role.EQUAL);
-        setState();
+        final Snapshot s = this.snapshot;
+        int slot = s.slot(chan);
+        if (slot < 0) {
+            slot = s.freeSlot();
+        }
+        final Channel[] channels = s.copyChannels(slot + 1);
+        final Role[] roles = s.copyRoles(slot + 1);
+        channels[slot] = chan;
+        roles[slot] = Role.EQUAL;
+        this.publish(channels, roles, s.master == slot ? -1 : s.master);
+        this.stats.added.incrementAndGet();
     }
 
     public synchronized void setRole(Channel channel, Role role)
             throws IllegalArgumentException, UnknownRoleException {
-        if (!this.currentState.get().containsKey(channel)) {
+        final Snapshot s = this.snapshot;
+        final int slot = s.slot(channel);
+        if (slot < 0) {
             throw new IllegalArgumentException("Unknown controller "
                     + channel.getRemoteAddress());
         }
-        this.state = getState();
         log.info("Setting controller {} to role {}",
                 channel.getRemoteAddress(), role);
+        final Channel[] channels = s.channels;
+        final Role[] roles = s.copyRoles(s.roles.length);
+        int master = s.master;
         switch (role) {
             case MASTER:
-                if (channel == currentMaster) {
-                    this.state.put(channel, Role.MASTER);
-                    break;
+                if (master >= 0 && master != slot) {
+                    roles[master] = Role.SLAVE;
                 }
-                this.state.put(currentMaster, Role.SLAVE);
-                this.state.put(channel, Role.MASTER);
-                this.currentMaster = channel;
+                roles[slot] = Role.MASTER;
+                master = slot;
                 break;
             case SLAVE:
-                if (channel == currentMaster) {
-                    this.state.put(channel, Role.SLAVE);
-                    currentMaster = null;
-                    break;
-                }
-                this.state.put(channel, Role.SLAVE);
-                break;
             case EQUAL:
-                if (channel == currentMaster) {
-                    this.state.put(channel, Role.EQUAL);
-                    this.currentMaster = null;
-                    break;
+                roles[slot] = role;
+                if (master == slot) {
+                    master = -1;
                 }
-                this.state.put(channel, Role.EQUAL);
                 break;
             case NOCHANGE:
                 // do nothing
-                break;
+                return;
             default:
                 throw new UnknownRoleException("Unkown role : " + role);
 
         }
-        setState();
-
+        if (master == s.master && roles[slot] == s.roles[slot]) {
+            return;
+        }
+        if (master != s.master) {
+            this.stats.masterChanges.incrementAndGet();
+        }
+        this.stats.roleChanges.incrementAndGet();
+        this.publish(channels, roles, master);
     }
 
     public boolean canSend(Channel channel, OFMessage m) {
-        Role r = this.currentState.get().get(channel);
+        Role r = this.snapshot.role(channel);
         if (r == Role.MASTER || r == Role.EQUAL) {
             return true;
         }
@@ -159,19 +181,18 @@ public class RoleManager {
             case STATS_REQUEST:
                 return true;
             default:
+                this.stats.denied.incrementAndGet();
                 return false;
         }
     }
 
     public boolean canReceive(Channel channel, OFMessage m) {
-        Role r = this.currentState.get().get(channel);
-//        log.info(r.toString());
+        return canReceive(this.snapshot.role(channel), m);
+    }
 
+    private static boolean canReceive(Role r, OFMessage m) {
         if (r == Role.MASTER || r == Role.EQUAL) {
-//            log.info("r == Role.MASTER || r == Role.EQUAL");
             return true;
-        }else{
-//            log.info(" not r == Role.MASTER || r == Role.EQUAL");
         }
 
         switch (m.getType()) {
@@ -186,12 +207,20 @@ public class RoleManager {
     }
 
     public Role getRole(Channel channel) {
-        return this.currentState.get().get(channel);
+        return this.snapshot.role(channel);
+    }
+
+    /**
+     * Gets the generation of the roles, bumped on every change.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return this.snapshot.generation;
     }
 
-    private void checkAndSend(Channel c, OFMessage m) {
-//        log.info("checkAndSend");
-        if (canReceive(c, m)) {
+    private static void checkAndSend(Channel c, Role r, OFMessage m) {
+        if (canReceive(r, m)) {
             if (c != null && c.isOpen()) {
                 c.write(Collections.singletonList(m));
             }
@@ -200,41 +229,177 @@ public class RoleManager {
     }
 
     public void sendMsg(OFMessage msg, Channel c) {
-//        log.info("sendMsg");
-
+        final Snapshot s = this.snapshot;
         if (c != null) {
-            checkAndSend(c, msg);
+            checkAndSend(c, s.role(c), msg);
         } else {
-            final Map<Channel, Role> readOnly = Collections
-                    .unmodifiableMap(this.currentState.get());
-            for (Channel chan : readOnly.keySet()) {
-                if (chan == null) {
-                    continue;
+            for (int i = 0; i < s.channels.length; i++) {
+                if (s.channels[i] != null) {
+                    checkAndSend(s.channels[i], s.roles[i], msg);
                 }
-                checkAndSend(chan, msg);
             }
         }
     }
 
     public synchronized void removeChannel(Channel channel) {
-        this.state = getState();
-        this.state.remove(channel);
-        setState();
+        final Snapshot s = this.snapshot;
+        final int slot = s.slot(channel);
+        if (slot < 0) {
+            return;
+        }
+        final Channel[] channels = s.copyChannels(s.channels.length);
+        final Role[] roles = s.copyRoles(s.roles.length);
+        channels[slot] = null;
+        roles[slot] = null;
+        if (s.master == slot) {
+            this.stats.masterChanges.incrementAndGet();
+        }
+        this.publish(channels, roles, s.master == slot ? -1 : s.master);
+        this.stats.removed.incrementAndGet();
     }
 
     public synchronized void shutDown() {
-        this.state = getState();
-        for (Channel c : state.keySet()) {
+        for (Channel c : this.snapshot.channels) {
             if (c != null && c.isConnected()) {
                 c.close();
             }
         }
-        state.clear();
-        setState();
+        this.publish(new Channel[0], new Role[0], -1);
+    }
+
+    /**
+     * Gets the role counters of each tenant, summed over its virtual
+     * switches: controllers added and removed, role and master changes, and
+     * messages denied because of the role of their sender.
+     *
+     * @return the counters by name, per tenant ID
+     */
+    public static Map<Integer, Map<String, Long>> getTenantStats() {
+        final Map<Integer, Map<String, Long>> stats =
+                new HashMap<Integer, Map<String, Long>>();
+        for (Map.Entry<Integer, TenantStats> e : STATS.entrySet()) {
+            stats.put(e.getKey(), e.getValue().toMap());
+        }
+        return stats;
+    }
+
+    /**
+     * Drops the role counters of a tenant whose virtual network is
+     * unregistered, so that a tenant reusing its ID starts from zero.
+     *
+     * @param tenantId the tenant ID
+     */
+    public static void removeTenant(final int tenantId) {
+        STATS.remove(tenantId);
+    }
+
+    private void publish(final Channel[] channels, final Role[] roles,
+                         final int master) {
+        int length = channels.length;
+        while (length > 0 && channels[length - 1] == null) {
+            length--;
+        }
+        final Channel[] c = length == channels.length ? channels
+                : Arrays.copyOf(channels, length);
+        final Role[] r = length == roles.length ? roles
+                : Arrays.copyOf(roles, length);
+        this.snapshot = new Snapshot(c, r, master,
+                this.snapshot.generation + 1);
+    }
+
+    private static TenantStats getStats(final int tenantId) {
+        TenantStats stats = STATS.get(tenantId);
+        if (stats == null) {
+            final TenantStats created = new TenantStats();
+            stats = STATS.putIfAbsent(tenantId, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
     }
 
     @Override
     public String toString() {
-        return this.currentState.get().toString();
+        final Snapshot s = this.snapshot;
+        final Map<Channel, Role> roles = new LinkedHashMap<Channel, Role>();
+        for (int i = 0; i < s.channels.length; i++) {
+            if (s.channels[i] != null) {
+                roles.put(s.channels[i], s.roles[i]);
+            }
+        }
+        return roles.toString();
+    }
+
+    /**
+     * Immutable roles of the controllers, by slot. Free slots hold null.
+     */
+    private static final class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new Channel[0],
+                new Role[0], -1, 0);
+
+        private final Channel[] channels;
+        private final Role[] roles;
+        private final int master;
+        private final long generation;
+
+        private Snapshot(final Channel[] channels, final Role[] roles,
+                         final int master, final long generation) {
+            this.channels = channels;
+            this.roles = roles;
+            this.master = master;
+            this.generation = generation;
+        }
+
+        private int slot(final Channel channel) {
+            final Channel[] c = this.channels;
+            for (int i = 0; i < c.length; i++) {
+                if (c[i] == channel) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Role role(final Channel channel) {
+            final int slot = this.slot(channel);
+            return slot < 0 ? null : this.roles[slot];
+        }
+
+        private int freeSlot() {
+            final int slot = this.slot(null);
+            return slot < 0 ? this.channels.length : slot;
+        }
+
+        private Channel[] copyChannels(final int length) {
+            return Arrays.copyOf(this.channels,
+                    Math.max(length, this.channels.length));
+        }
+
+        private Role[] copyRoles(final int length) {
+            return Arrays.copyOf(this.roles,
+                    Math.max(length, this.roles.length));
+        }
+    }
+
+    /**
+     * Role counters of a tenant.
+     */
+    private static final class TenantStats {
+        private final AtomicLong added = new AtomicLong();
+        private final AtomicLong removed = new AtomicLong();
+        private final AtomicLong roleChanges = new AtomicLong();
+        private final AtomicLong masterChanges = new AtomicLong();
+        private final AtomicLong denied = new AtomicLong();
+
+        private Map<String, Long> toMap() {
+            final Map<String, Long> map = new HashMap<String, Long>();
+            map.put("controllersAdded", this.added.get());
+            map.put("controllersRemoved", this.removed.get());
+            map.put("roleChanges", this.roleChanges.get());
+            map.put("masterChanges", this.masterChanges.get());
+            map.put("denied", this.denied.get());
+            return map;
+        }
     }
 }
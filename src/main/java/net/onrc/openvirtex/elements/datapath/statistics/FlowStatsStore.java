@@ -0,0 +1,311 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.elements.datapath.statistics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.projectfloodlight.openflow.protocol.OFFlowMod;
+import org.projectfloodlight.openflow.protocol.OFFlowStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Flow statistics of a physical switch, indexed by tenant and cookie.
+ * <p>
+ * Each tenant has an immutable snapshot of its flow entries, replaced as a
+ * whole when a poll of that tenant completes, so the entries of the other
+ * tenants are left untouched. A snapshot carries a version, taken from a
+ * counter of the store that is bumped only when the entries or their
+ * counters changed, and the time it was polled, from which its staleness
+ * is derived. Readers never lock: they get the current snapshot and keep
+ * using it while newer ones are published.
+ */
+public class FlowStatsStore {
+
+    private final ConcurrentMap<Integer, TenantFlowStats> tenants =
+            new ConcurrentHashMap<Integer, TenantFlowStats>();
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Gets the flow statistics of a tenant.
+     *
+     * @param tenantId the tenant ID
+     * @return the last snapshot of the tenant, or null if it has no entries
+     *         on the switch
+     */
+    public TenantFlowStats get(final int tenantId) {
+        return this.tenants.get(tenantId);
+    }
+
+    /**
+     * Gets the tenants having flow statistics in this store.
+     *
+     * @return the tenant IDs
+     */
+    public Set<Integer> getTenants() {
+        return Collections.unmodifiableSet(this.tenants.keySet());
+    }
+
+    /**
+     * Gets the version of the last change to this store.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * Publishes the entries of a tenant returned by a completed poll. A
+     * tenant without entries is dropped from the store.
+     *
+     * @param tenantId the tenant ID
+     * @param polled the entries by cookie
+     * @param now the time of the poll, in milliseconds
+     * @return true if the entries or their counters changed
+     */
+    boolean publish(final int tenantId,
+                    final Map<Long, List<OFFlowStatsEntry>> polled,
+                    final long now) {
+        final TenantFlowStats old = this.tenants.get(tenantId);
+        if (polled.isEmpty()) {
+            if (old == null) {
+                return false;
+            }
+            this.tenants.remove(tenantId, old);
+            this.version.incrementAndGet();
+            return true;
+        }
+        final Map<Long, Entry> entries = new HashMap<Long, Entry>(
+                polled.size() * 4 / 3 + 1);
+        boolean changed = old == null || old.entries.size() != polled.size();
+        long packets = 0;
+        long bytes = 0;
+        for (Map.Entry<Long, List<OFFlowStatsEntry>> e : polled.entrySet()) {
+            final Entry entry = new Entry(e.getValue());
+            entries.put(e.getKey(), entry);
+            packets += entry.packets;
+            bytes += entry.bytes;
+            if (!changed) {
+                final Entry prev = old.entries.get(e.getKey());
+                changed = prev == null
+                        || prev.stats.size() != entry.stats.size()
+                        || prev.packets != entry.packets
+                        || prev.bytes != entry.bytes;
+            }
+        }
+        final long v = changed ? this.version.incrementAndGet()
+                : old.version;
+        this.tenants.put(tenantId, new TenantFlowStats(v, now,
+                Collections.unmodifiableMap(entries), packets, bytes));
+        return changed;
+    }
+
+    /**
+     * Drops the tenants not refreshed since the given time, e.g. those
+     * missing from a full dump of the flow table.
+     *
+     * @param before the time, in milliseconds
+     */
+    void retain(final long before) {
+        for (Map.Entry<Integer, TenantFlowStats> e : this.tenants.entrySet()) {
+            if (e.getValue().updated < before
+                    && this.tenants.remove(e.getKey(), e.getValue())) {
+                this.version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Immutable flow statistics of a tenant on a switch.
+     */
+    public static final class TenantFlowStats {
+        private final long version;
+        private final long updated;
+        private final Map<Long, Entry> entries;
+        private final long packets;
+        private final long bytes;
+
+        private TenantFlowStats(final long version, final long updated,
+                                final Map<Long, Entry> entries,
+                                final long packets, final long bytes) {
+            this.version = version;
+            this.updated = updated;
+            this.entries = entries;
+            this.packets = packets;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gets the version of the store when the entries last changed.
+         *
+         * @return the version
+         */
+        public long getVersion() {
+            return this.version;
+        }
+
+        /**
+         * Gets the time of the poll the entries come from.
+         *
+         * @return the time in milliseconds
+         */
+        public long getUpdated() {
+            return this.updated;
+        }
+
+        /**
+         * Gets the entries, by physical cookie.
+         *
+         * @return the unmodifiable entries
+         */
+        public Map<Long, Entry> getEntries() {
+            return this.entries;
+        }
+
+        /**
+         * Gets the number of flow cookies, i.e., of virtual flow mods
+         * with entries on the switch.
+         *
+         * @return the flow count
+         */
+        public int getFlowCount() {
+            return this.entries.size();
+        }
+
+        /**
+         * Gets the packet count summed over all entries.
+         *
+         * @return the packet count
+         */
+        public long getPacketCount() {
+            return this.packets;
+        }
+
+        /**
+         * Gets the byte count summed over all entries.
+         *
+         * @return the byte count
+         */
+        public long getByteCount() {
+            return this.bytes;
+        }
+    }
+
+    /**
+     * Statistics of the physical flow entries sharing a cookie, e.g. those
+     * of a flow mod wildcarding the in port, installed once per virtual
+     * port. The entry as seen by the tenant is built on first use and kept
+     * as long as the virtual flow mod it was built from stays the same.
+     */
+    public static final class Entry {
+        private final List<OFFlowStatsEntry> stats;
+        private final long packets;
+        private final long bytes;
+        private volatile Virtual virtual;
+
+        private Entry(final List<OFFlowStatsEntry> stats) {
+            this.stats = Collections.unmodifiableList(stats);
+            long p = 0;
+            long b = 0;
+            for (OFFlowStatsEntry stat : stats) {
+                p += stat.getPacketCount().getValue();
+                b += stat.getByteCount().getValue();
+            }
+            this.packets = p;
+            this.bytes = b;
+        }
+
+        /**
+         * Gets the statistics as reported by the physical switch.
+         *
+         * @return the unmodifiable physical flow stats entries
+         */
+        public List<OFFlowStatsEntry> getStats() {
+            return this.stats;
+        }
+
+        /**
+         * Gets the packet count summed over the physical entries.
+         *
+         * @return the packet count
+         */
+        public long getPacketCount() {
+            return this.packets;
+        }
+
+        /**
+         * Gets the byte count summed over the physical entries.
+         *
+         * @return the byte count
+         */
+        public long getByteCount() {
+            return this.bytes;
+        }
+
+        /**
+         * Gets the statistics with the cookie, match and actions of the
+         * virtual flow mod the entry was installed for, and the counters
+         * summed over the physical entries.
+         *
+         * @param fm the virtual flow mod
+         * @param version the OpenFlow version of the tenant
+         * @return the virtual flow stats entry
+         */
+        public OFFlowStatsEntry virtualize(final OFFlowMod fm,
+                                           final OFVersion version) {
+            final Virtual v = this.virtual;
+            if (v != null && v.source == fm) {
+                return v.entry;
+            }
+            final OFFlowStatsEntry.Builder builder = this.stats.get(0)
+                    .createBuilder()
+                    .setCookie(fm.getCookie())
+                    .setMatch(fm.getMatch())
+                    .setPacketCount(U64.of(this.packets))
+                    .setByteCount(U64.of(this.bytes));
+            if (version == OFVersion.OF_10) {
+                builder.setActions(fm.getActions());
+            } else {
+                builder.setInstructions(fm.getInstructions());
+            }
+            final OFFlowStatsEntry entry = builder.build();
+            this.virtual = new Virtual(fm, entry);
+            return entry;
+        }
+    }
+
+    private static final class Virtual {
+        private final OFFlowMod source;
+        private final OFFlowStatsEntry entry;
+
+        private Virtual(final OFFlowMod source, final OFFlowStatsEntry entry) {
+            this.source = source;
+            this.entry = entry;
+        }
+    }
+}
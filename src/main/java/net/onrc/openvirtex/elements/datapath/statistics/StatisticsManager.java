@@ -19,10 +19,22 @@
  */
 package net.onrc.openvirtex.elements.datapath.statistics;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 
@@ -36,23 +48,73 @@ import org.jboss.netty.util.HashedWheelTimer;
 import org.jboss.netty.util.Timeout;
 import org.jboss.netty.util.TimerTask;
 import org.projectfloodlight.openflow.protocol.*;
-import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.TableId;
+import org.projectfloodlight.openflow.types.U64;
 
 
+/**
+ * Polls the port and flow statistics of a physical switch.
+ * <p>
+ * Flow statistics are kept in a {@link FlowStatsStore}, one snapshot per
+ * tenant. OpenFlow 1.3 switches are polled with one cookie masked request
+ * per tenant having entries on the switch or a virtual switch mapped to it,
+ * so each reply only carries the entries of its tenant and replaces only
+ * that tenant's snapshot. Every {@link #FULL_POLL_ROUNDS} rounds the whole
+ * flow table is dumped instead, to find the tenants whose entries got on
+ * the switch otherwise, e.g. along a virtual link. OpenFlow 1.0 has no
+ * cookie mask, so those switches are always dumped whole.
+ * <p>
+ * The first poll of each switch is delayed by an offset derived from its
+ * DPID and spread over the refresh interval, so that the switches are not
+ * all polled at the same time.
+ * <p>
+ * Flow statistics requests use XIDs with the high bit set, the next one
+ * clear and the one after set, which are used neither by the
+ * {@link net.onrc.openvirtex.elements.datapath.XidTranslator} nor by the
+ * flow cleaner and route installer.
+ */
 public class StatisticsManager implements TimerTask, OVXSendMsg {
 
+    // rounds between full dumps of OpenFlow 1.3 flow tables
+    static final int FULL_POLL_ROUNDS = 10;
+
+    private static final long TENANT_COOKIE_MASK = 0xffffffff00000000L;
+    private static final int POLL_XID = 0xa0000000;
+    private static final int POLL_XID_MASK = 0x1fffffff;
+    private static final int ALL_TENANTS = -1;
+
     private HashedWheelTimer timer = null;
     private PhysicalSwitch sw;
 
     Logger log = LogManager.getLogger(StatisticsManager.class.getName());
 
     private Integer refreshInterval = 30;
-    private boolean stopTimer = false;
+    private volatile boolean stopTimer = false;
+    private volatile Timeout timeout;
 
     OFFactory ofFactory;
 
+    private final FlowStatsStore flowStats = new FlowStatsStore();
+    private final ConcurrentMap<Integer, Poll> pending =
+            new ConcurrentHashMap<Integer, Poll>();
+    private final AtomicInteger nextXid = new AtomicInteger();
+    // only used by the timer thread
+    private long round;
+    private long stagger;
+
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong fullPolls = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong replyMicros = new AtomicLong();
+    private final AtomicLong lastPollMicros = new AtomicLong();
+    private final AtomicLong maxPollMicros = new AtomicLong();
+
     public StatisticsManager(PhysicalSwitch sw) {
         /*
          * Get the timer from the PhysicalNetwork class.
@@ -67,31 +129,69 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
 
     @Override
     public void run(Timeout timeout) throws Exception {
-        log.info("Collecting stats for {}", this.sw.getSwitchName());
+        log.debug("Collecting stats for {}", this.sw.getSwitchName());
         sendPortStatistics();
-        sendFlowStatistics(0, (short) 0);
+        sendFlowStatistics();
 
         if (!this.stopTimer) {
-            log.info("Scheduling stats collection in {} seconds for {}",
+            log.debug("Scheduling stats collection in {} seconds for {}",
                     this.refreshInterval, this.sw.getSwitchName());
-            timeout.getTimer().newTimeout(this, refreshInterval,
-                    TimeUnit.SECONDS);
+            this.timeout = timeout.getTimer().newTimeout(this,
+                    refreshInterval, TimeUnit.SECONDS);
         }
     }
 
-    private void sendFlowStatistics(int tid, short port) {
-        int xid = (tid << 16) | port;
+    private void sendFlowStatistics() {
+        this.expire();
+        final long now = System.currentTimeMillis();
+        final List<OFMessage> msgs = new ArrayList<OFMessage>();
+        if (this.ofFactory.getVersion() == OFVersion.OF_10
+                || this.round++ % FULL_POLL_ROUNDS == 0) {
+            msgs.add(this.request(new Poll(ALL_TENANTS, now)));
+            this.fullPolls.incrementAndGet();
+        } else {
+            for (Integer tid : this.getPolledTenants()) {
+                msgs.add(this.request(new Poll(tid, now)));
+            }
+        }
+        this.rounds.incrementAndGet();
+        if (!msgs.isEmpty()) {
+            this.requests.addAndGet(msgs.size());
+            this.sw.sendMsgs(msgs);
+        }
+    }
 
-        OFFlowStatsRequest ofFlowStatsRequest = this.ofFactory.buildFlowStatsRequest()
+    private OFFlowStatsRequest request(final Poll poll) {
+        final int xid = POLL_XID | (this.nextXid.getAndIncrement()
+                & POLL_XID_MASK);
+        this.pending.put(xid, poll);
+        final OFFlowStatsRequest.Builder builder = this.ofFactory
+                .buildFlowStatsRequest()
                 .setXid(xid)
                 .setMatch(this.ofFactory.matchWildcardAll())
                 .setOutPort(OFPort.ANY)
-                .setTableId(TableId.ALL)
-                .build();
-
-        OVXStatisticsRequest req = new OVXStatisticsRequest(ofFlowStatsRequest);
+                .setTableId(TableId.ALL);
+        if (poll.tenantId != ALL_TENANTS) {
+            builder.setCookie(U64.of((long) poll.tenantId << 32))
+                    .setCookieMask(U64.of(TENANT_COOKIE_MASK));
+        }
+        return builder.build();
+    }
 
-        sendMsg(req, this);
+    /*
+     * Gets the tenants known to have entries on the switch, and those
+     * mapping a virtual switch to it.
+     */
+    private Set<Integer> getPolledTenants() {
+        final Set<Integer> tenants = new HashSet<Integer>(
+                this.flowStats.getTenants());
+        final OVXMap map = OVXMap.getInstance();
+        for (Integer tid : map.listVirtualNetworks().keySet()) {
+            if (map.hasVirtualSwitch(this.sw, tid)) {
+                tenants.add(tid);
+            }
+        }
+        return tenants;
     }
 
     private void sendPortStatistics() {
@@ -105,20 +205,194 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         sendMsg(req, this);
     }
 
+    /**
+     * Handles a flow statistics reply to a poll of this manager. The
+     * entries are staged until the last part of the reply, then published
+     * to the store.
+     *
+     * @param reply the flow statistics reply
+     * @return true if the reply answers a poll, false otherwise
+     */
+    public boolean flowStatsReply(final OFFlowStatsReply reply) {
+        final int xid = (int) reply.getXid();
+        final Poll poll = this.pending.get(xid);
+        if (poll == null) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        final List<OFFlowStatsEntry> stats = reply.getEntries();
+        for (OFFlowStatsEntry stat : stats) {
+            final long cookie = stat.getCookie().getValue();
+            final int tid = (int) (cookie >> 32);
+            if (poll.tenantId == ALL_TENANTS || poll.tenantId == tid) {
+                poll.stage(tid, cookie, stat);
+            }
+        }
+        this.replies.incrementAndGet();
+        this.entries.addAndGet(stats.size());
+        if (!reply.getFlags().contains(OFStatsReplyFlags.REPLY_MORE)
+                && this.pending.remove(xid) != null) {
+            this.complete(poll);
+        }
+        this.replyMicros.addAndGet(TimeUnit.NANOSECONDS.toMicros(
+                System.nanoTime() - start));
+        return true;
+    }
+
+    private void complete(final Poll poll) {
+        int changed = 0;
+        if (poll.tenantId == ALL_TENANTS) {
+            for (Map.Entry<Integer, Map<Long, List<OFFlowStatsEntry>>> e : poll.staged
+                    .entrySet()) {
+                if (this.flowStats.publish(e.getKey(), e.getValue(), poll.sent)) {
+                    changed++;
+                }
+            }
+            this.flowStats.retain(poll.sent);
+        } else {
+            Map<Long, List<OFFlowStatsEntry>> staged = poll.staged
+                    .get(poll.tenantId);
+            if (staged == null) {
+                staged = new HashMap<Long, List<OFFlowStatsEntry>>();
+            }
+            if (this.flowStats.publish(poll.tenantId, staged, poll.sent)) {
+                changed++;
+            }
+        }
+        this.completed.incrementAndGet();
+        this.changes.addAndGet(changed);
+        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                - poll.start);
+        this.lastPollMicros.set(micros);
+        long max;
+        while ((max = this.maxPollMicros.get()) < micros
+                && !this.maxPollMicros.compareAndSet(max, micros)) {
+            continue;
+        }
+    }
+
+    /*
+     * Drops the polls not answered within two refresh intervals.
+     */
+    private void expire() {
+        final long limit = System.nanoTime()
+                - TimeUnit.SECONDS.toNanos(2L * this.refreshInterval);
+        final Iterator<Poll> it = this.pending.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().start < limit) {
+                it.remove();
+                this.timedOut.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Gets the flow statistics of this switch.
+     *
+     * @return the flow statistics store
+     */
+    public FlowStatsStore getFlowStats() {
+        return this.flowStats;
+    }
+
+    /**
+     * Gets the polling counters of this switch: rounds, requests sent,
+     * full dumps, reply parts and entries received, polls completed and
+     * timed out, tenant snapshots changed, the time spent handling replies
+     * and the last and maximum poll round trip in microseconds, and the
+     * age of the tenant snapshots in milliseconds.
+     *
+     * @return the counters by name
+     */
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("rounds", this.rounds.get());
+        stats.put("requests", this.requests.get());
+        stats.put("fullPolls", this.fullPolls.get());
+        stats.put("replies", this.replies.get());
+        stats.put("entries", this.entries.get());
+        stats.put("completed", this.completed.get());
+        stats.put("timedOut", this.timedOut.get());
+        stats.put("pending", this.pending.size());
+        stats.put("changes", this.changes.get());
+        stats.put("replyMicros", this.replyMicros.get());
+        stats.put("lastPollMicros", this.lastPollMicros.get());
+        stats.put("maxPollMicros", this.maxPollMicros.get());
+        stats.put("staggerMillis", this.stagger);
+        stats.put("version", this.flowStats.getVersion());
+
+        final long now = System.currentTimeMillis();
+        long total = 0;
+        long max = 0;
+        int tenants = 0;
+        for (Integer tid : this.flowStats.getTenants()) {
+            final FlowStatsStore.TenantFlowStats ts = this.flowStats.get(tid);
+            if (ts != null) {
+                final long age = now - ts.getUpdated();
+                total += age;
+                max = Math.max(max, age);
+                tenants++;
+            }
+        }
+        stats.put("tenants", tenants);
+        stats.put("maxAgeMillis", max);
+        stats.put("avgAgeMillis", tenants == 0 ? 0 : total / tenants);
+        return stats;
+    }
+
+    /**
+     * Gets the polling counters of all physical switches, and their totals.
+     *
+     * @return the counters per switch name, and the totals
+     * @see #getStats()
+     */
+    public static Map<String, Object> getPollStats() {
+        final Map<String, Object> switches = new HashMap<String, Object>();
+        long requests = 0;
+        long entries = 0;
+        long replyMicros = 0;
+        long maxAge = 0;
+        for (PhysicalSwitch psw : PhysicalNetwork.getInstance().getSwitches()) {
+            final Map<String, Object> stats = psw.getStatisticsManager()
+                    .getStats();
+            switches.put(psw.getSwitchName(), stats);
+            requests += (Long) stats.get("requests");
+            entries += (Long) stats.get("entries");
+            replyMicros += (Long) stats.get("replyMicros");
+            maxAge = Math.max(maxAge, (Long) stats.get("maxAgeMillis"));
+        }
+        final Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("switches", switches);
+        stats.put("requests", requests);
+        stats.put("entries", entries);
+        stats.put("replyMicros", replyMicros);
+        stats.put("maxAgeMillis", maxAge);
+        return stats;
+    }
+
     public void start() {
 
         /*
-         * Initially start polling quickly. Then drop down to configured value
+         * Initially start polling quickly, staggered over the refresh
+         * interval. Then drop down to configured value
          */
-        log.info("Starting Stats collection thread for {}",
-                this.sw.getSwitchName());
-        timer.newTimeout(this, 1, TimeUnit.SECONDS);
+        final long h = this.sw.getSwitchId() * 0x9e3779b97f4a7c15L;
+        this.stagger = (h >>> 1) % Math.max(1,
+                TimeUnit.SECONDS.toMillis(this.refreshInterval));
+        log.info("Starting Stats collection thread for {} in {} ms",
+                this.sw.getSwitchName(), 1000 + this.stagger);
+        this.timeout = timer.newTimeout(this, 1000 + this.stagger,
+                TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
         log.info("Stopping Stats collection thread for {}",
                 this.sw.getSwitchName());
         this.stopTimer = true;
+        final Timeout t = this.timeout;
+        if (t != null) {
+            t.cancel();
+        }
     }
 
     @Override
@@ -131,8 +405,37 @@ public class StatisticsManager implements TimerTask, OVXSendMsg {
         return "Statistics Manager (" + sw.getName() + ")";
     }
 
-    public void cleanUpTenant(Integer tenantId, short port) {
-        sendFlowStatistics(tenantId, port);
-    }
+    /**
+     * A flow statistics poll waiting for the last part of its reply.
+     */
+    private static final class Poll {
+        private final int tenantId;
+        private final long sent;
+        private final long start = System.nanoTime();
+        // only used by the thread reading from the switch
+        private final Map<Integer, Map<Long, List<OFFlowStatsEntry>>> staged =
+                new HashMap<Integer, Map<Long, List<OFFlowStatsEntry>>>();
+
+        private Poll(final int tenantId, final long sent) {
+            this.tenantId = tenantId;
+            this.sent = sent;
+        }
 
+        private void stage(final int tid, final long cookie,
+                           final OFFlowStatsEntry stat) {
+            Map<Long, List<OFFlowStatsEntry>> entries = this.staged.get(tid);
+            if (entries == null) {
+                entries = new HashMap<Long, List<OFFlowStatsEntry>>();
+                this.staged.put(tid, entries);
+            }
+            // a flow mod wildcarding the in port is installed once per
+            // virtual port, so several entries may share a cookie
+            List<OFFlowStatsEntry> stats = entries.get(cookie);
+            if (stats == null) {
+                stats = new ArrayList<OFFlowStatsEntry>(1);
+                entries.put(cookie, stats);
+            }
+            stats.add(stat);
+        }
+    }
 }
@@ -20,7 +20,6 @@
 package net.onrc.openvirtex.elements.link;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,10 +41,13 @@ import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.PortMappingException;
+import net.onrc.openvirtex.messages.MatchRewrite;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 
+import net.onrc.openvirtex.routing.RouteInstaller;
 import net.onrc.openvirtex.routing.RoutingAlgorithms;
 import net.onrc.openvirtex.routing.RoutingAlgorithms.RoutingType;
+import net.onrc.openvirtex.util.OVXFlowManager;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -55,6 +57,7 @@ import com.google.gson.annotations.SerializedName;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 
@@ -231,6 +234,7 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             DBManager.getInstance().remove(this);
             this.tearDown();
             map.removeVirtualLink(this);
+            map.removeInactivePaths(this);
             map.getVirtualNetwork(this.tenantId).removeLink(this);
         } catch (NetworkMappingException e) {
             log.warn(
@@ -262,47 +266,43 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
 
         this.setPriority(priority);
 
-        Collection<OVXFlowMod> flows = this.getSrcSwitch().getFlowTable().getFlowTable();
-        for (OVXFlowMod fe : flows) {
-            for (OFAction act : fe.getFlowMod().getActions()) {
-                if (act.getType() == OFActionType.OUTPUT) {
-
-                    OFActionOutput temp_act = (OFActionOutput)act;
-
-                    if (temp_act.getPort().getShortPortNumber() == this.getSrcPort().getPortNumber()) {
-                        try {
-                            Integer flowId;
-
-                            flowId = this.map
-                                    .getVirtualNetwork(this.tenantId)
-                                    .getFlowManager()
-                                    .storeFlowValues(
-                                            fe.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            fe.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes());
-
-                            OVXFlowMod fm = fe.clone();
-
-
-                            fm.setOFMessage(fm.getFlowMod().createBuilder()
-                                    .setCookie(U64.of(((OVXFlowTable) this.getSrcPort().getParentSwitch()
-                                            .getFlowTable()).getCookie(fe, true)))
-                                    .build()
-                            );
-
-                            this.generateLinkFMs(fm, flowId);
-
-                        } catch (IndexOutOfBoundException e) {
-                            log.error(
-                                    "Too many hosts to generate the flow pairs in this virtual network {}. "
-                                            + "Dropping flow-mod {} ",
-                                    this.getTenantId(), fe);
-                        } catch (NetworkMappingException e) {
-                            log.warn("{}: skipping processing of OFAction", e);
-                            return;
-                        }
-                    }
+        // reinstall the entries crossing the link in a single install
+        final OVXFlowTable table = (OVXFlowTable) this.getSrcSwitch()
+                .getFlowTable();
+        final Map<Long, OVXFlowMod> flows = table.getFlowModsByOutPort(
+                this.getSrcPort().getPortNumber());
+        RouteInstaller.beginInstall();
+        try {
+            final OVXFlowManager flowManager = this.map
+                    .getVirtualNetwork(this.tenantId).getFlowManager();
+            for (Map.Entry<Long, OVXFlowMod> e : flows.entrySet()) {
+                final OVXFlowMod fe = e.getValue();
+                try {
+                    Integer flowId = flowManager.storeFlowValues(
+                            fe.getFlowMod().getMatch().get(MatchField.ETH_SRC).getLong(),
+                            fe.getFlowMod().getMatch().get(MatchField.ETH_DST).getLong());
+
+                    final long cookie = table.renewCookie(e.getKey());
+                    // the entry keeps the flow ID in use until it is removed
+                    table.setFlowId(cookie, flowId);
+
+                    OVXFlowMod fm = fe.clone();
+                    fm.setOFMessage(fm.getFlowMod().createBuilder()
+                            .setCookie(U64.of(cookie))
+                            .build()
+                    );
+                    this.generateLinkFMs(fm, flowId);
+                } catch (IndexOutOfBoundException ex) {
+                    log.error(
+                            "Too many hosts to generate the flow pairs in this virtual network {}. "
+                                    + "Dropping flow-mod {} ",
+                            this.getTenantId(), fe);
                 }
             }
+        } catch (NetworkMappingException e) {
+            log.warn("{}: skipping processing of OFAction", e);
+        } finally {
+            RouteInstaller.endInstall();
         }
     }
 
@@ -364,27 +364,20 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
          */
         final OVXLinkUtils lUtils = new OVXLinkUtils(this.tenantId, this.linkId, flowId);
 
-        fm.modifyMatch(
-                lUtils.rewriteMatch(fm.getFlowMod().getMatch())
-        );
+        final MatchRewrite rewrite = new MatchRewrite(fm.getFlowMod().getMatch());
+        lUtils.rewriteMatch(rewrite);
+
+        if (rewrite.get(MatchField.ETH_TYPE) == EthType.IPv4) {
+            IPMapper.rewriteMatch(this.tenantId, rewrite);
+        }
 
         long cookie = tenantId;
 
-        fm.setOFMessage(fm.getFlowMod().createBuilder()
+        // the flow mods of all hops are built from these in one go
+        final Match match = rewrite.build();
+        final OFFlowMod.Builder builder = fm.getFlowMod().createBuilder()
                 .setCookie(U64.of(cookie << 32))
-                .build()
-        );
-
-        //fm.setCookie(cookie << 32);
-
-        if (fm.getFlowMod().getMatch().get(MatchField.ETH_TYPE) == EthType.IPv4) {
-            fm.modifyMatch(
-                    IPMapper.rewriteMatch(
-                            this.tenantId,
-                            fm.getFlowMod().getMatch()
-                    )
-            );
-        }
+                .setBufferId(OFBufferId.NO_BUFFER);
 
         /*
          * Get the list of physical links mapped to this virtual link, in
@@ -393,11 +386,6 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
         PhysicalPort inPort = null;
         PhysicalPort outPort = null;
 
-        fm.setOFMessage(fm.getFlowMod().createBuilder()
-                .setBufferId(OFBufferId.NO_BUFFER)
-                .build()
-        );
-
         List<PhysicalLink> plinks = new LinkedList<PhysicalLink>();
         try {
             final OVXLink link = this.map.getVirtualNetwork(this.tenantId)
@@ -418,12 +406,6 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             if (outPort != null) {
                 inPort = phyLink.getSrcPort();
 
-                fm.modifyMatch(fm.getFlowMod().getMatch().createBuilder()
-                        .setExact(MatchField.IN_PORT,
-                                OFPort.of(inPort.getPortNumber()))
-                        .build()
-                );
-
                 ArrayList<OFAction> actionList = new ArrayList<OFAction>();
 
                 OFActionOutput actionOutput =
@@ -435,13 +417,16 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
 
                 actionList.add(actionOutput);
 
-                fm.setOFMessage(fm.getFlowMod().createBuilder()
+                fm.setOFMessage(builder
+                        .setMatch(match.createBuilder()
+                                .setExact(MatchField.IN_PORT,
+                                        OFPort.of(inPort.getPortNumber()))
+                                .build())
                         .setActions(actionList)
                         .build()
                 );
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                RouteInstaller.sendHop(phyLink.getSrcPort().getParentSwitch(), fm);
                 this.log.debug(
                         "Sending virtual link intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getSwitchName(),
@@ -449,13 +434,6 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
             }
             outPort = phyLink.getDstPort();
         }
-        // TODO: With POX we need to put a timeout between this flows and the
-        // first flow mod. Check how to solve.
-        try {
-            Thread.sleep(5);
-        } catch (final InterruptedException e) {
-            log.warn("Timeout interrupted; might be a problem if you are running POX.");
-        }
     }
 
     /**
@@ -475,6 +453,7 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                         map.getPhysicalLinks(this));
                 Collections.copy(unusableLinks, map.getPhysicalLinks(this));
                 this.unusableLinks.put(this.getPriority(), unusableLinks);
+                map.setInactivePaths(this, this.unusableLinks.values());
             } catch (LinkMappingException e) {
                 log.warn("No physical Links mapped to OVXLink? : {}", e);
                 return false;
@@ -520,12 +499,14 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
                         log.warn(
                                 "No physical Links mapped to SwitchRoute? : {}",
                                 e);
+                        map.setInactivePaths(this, this.unusableLinks.values());
                         return false;
                     }
                 }
                 it.remove();
             }
         }
+        map.setInactivePaths(this, this.unusableLinks.values());
         return true;
     }
 }
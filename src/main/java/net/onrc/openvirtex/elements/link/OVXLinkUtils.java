@@ -28,7 +28,7 @@ import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 
 
-import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.messages.MatchRewrite;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFFactories;
@@ -257,21 +257,28 @@ public class OVXLinkUtils {
      *            the OpenFlow match
      */
     public Match rewriteMatch(final Match match) {
+        final MatchRewrite rewrite = new MatchRewrite(match);
+        this.rewriteMatch(rewrite);
+        return rewrite.build();
+    }
+
+    /**
+     * Rewrites the fields of the given match being rewritten according to
+     * the current instance.
+     *
+     * @param match
+     *            the match being rewritten
+     */
+    public void rewriteMatch(final MatchRewrite match) {
         final OVXLinkField linkField = OpenVirteXController.getInstance()
                 .getOvxLinkField();
         if (linkField == OVXLinkField.MAC_ADDRESS) {
-            return OVXMessageUtil.updateMatch(match,
-                    match.createBuilder()
-                            .setExact(MatchField.ETH_SRC, this.getSrcMac())
-                            .setExact(MatchField.ETH_DST, this.getDstMac())
-                            .build());
+            match.setExact(MatchField.ETH_SRC, this.getSrcMac())
+                    .setExact(MatchField.ETH_DST, this.getDstMac());
         } else if (linkField == OVXLinkField.VLAN) {
-            return OVXMessageUtil.updateMatch(match,
-                    match.createBuilder()
-                            .setExact(MatchField.VLAN_VID, OFVlanVidMatch.ofRawVid(this.getVlan()))
-                            .build());
+            match.setExact(MatchField.VLAN_VID,
+                    OFVlanVidMatch.ofRawVid(this.getVlan()));
         }
-        return match;
     }
 
     /**
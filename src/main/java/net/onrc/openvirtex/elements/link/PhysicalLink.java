@@ -29,6 +29,7 @@ import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.routing.PathReverter;
 
 /**
  * The Class PhysicalLink.
@@ -65,6 +66,7 @@ public class PhysicalLink extends Link<PhysicalPort, PhysicalSwitch> implements
     @Override
     public void unregister() {
         this.getSrcSwitch().getMap().removePhysicalLink(this);
+        PathReverter.remove(this);
         srcPort.setOutLink(null);
         dstPort.setInLink(null);
     }
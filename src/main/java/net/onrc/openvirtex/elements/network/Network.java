@@ -26,6 +26,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.datapath.Switch;
@@ -55,6 +56,9 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
 
     private static Logger log = LogManager.getLogger(Network.class.getName());
 
+    // Source of topology versions, shared so that no two versions are equal
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
     @SerializedName("switches")
     @Expose
     protected final Set<T1> switchSet;
@@ -64,6 +68,8 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
     protected final Map<Long, T1> dpidMap;
     protected final Map<T2, T2> neighborPortMap;
     protected final Map<T1, HashSet<T1>> neighborMap;
+    // Version of the topology, renewed on every change
+    private volatile long version;
 
     /**
      * Instantiates the network.
@@ -74,6 +80,14 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         this.dpidMap = new HashMap<Long, T1>();
         this.neighborPortMap = new HashMap<T2, T2>();
         this.neighborMap = new HashMap<T1, HashSet<T1>>();
+        this.version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Records a change to the topology by giving it a new version.
+     */
+    protected void topologyChanged() {
+        this.version = VERSIONS.incrementAndGet();
     }
 
     // Protected methods to update topology (only allowed from subclasses)
@@ -98,6 +112,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         neighbours.add(dstSwitch);
         this.neighborPortMap
                 .put((T2) link.getSrcPort(), (T2) link.getDstPort());
+        this.topologyChanged();
     }
 
     /**
@@ -118,6 +133,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
         neighbours.remove(dstSwitch);
         this.neighborPortMap.remove(link.getSrcPort());
+        this.topologyChanged();
         return true;
     }
 
@@ -130,6 +146,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
         if (this.switchSet.add(sw)) {
             this.dpidMap.put(sw.getSwitchId(), sw);
             this.neighborMap.put(sw, new HashSet<T1>());
+            this.topologyChanged();
         }
     }
 
@@ -163,7 +180,7 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
                     neighbourIter.remove();
                 }
             }
-
+            this.topologyChanged();
             return true;
         }
         return false;
@@ -171,6 +188,17 @@ public abstract class Network<T1 extends Switch, T2 extends Port, T3 extends Lin
 
     // Public methods to query topology information
 
+    /**
+     * Gets the version of the topology. The version changes whenever
+     * switches, links, ports or hosts are added to or removed from the
+     * network, and is never shared with another network.
+     *
+     * @return the topology version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
     /**
      * Returns neighbor switches of given switch.
      *
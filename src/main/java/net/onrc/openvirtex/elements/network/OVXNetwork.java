@@ -29,6 +29,7 @@ import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.Persistable;
 import net.onrc.openvirtex.elements.address.IPAddress;
 import net.onrc.openvirtex.elements.datapath.*;
+import net.onrc.openvirtex.elements.datapath.role.RoleManager;
 import net.onrc.openvirtex.elements.host.Host;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
@@ -82,6 +83,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     private final BitSetIndex hostCounter;
     private final Map<OVXPort, Host> hostMap;
     private final OVXFlowManager flowManager;
+    private int packetInBuffers;
 
     /**
      * Instantiates a virtual network. Only use if you have reserved the tenantId
@@ -109,6 +111,8 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         this.hostCounter = new BitSetIndex(IndexType.HOST_ID);
         this.hostMap = new HashMap<OVXPort, Host>();
         this.flowManager = new OVXFlowManager(this.tenantId, this.hostMap.values());
+        this.packetInBuffers = OpenVirteXController.getInstance()
+                .getPacketInBuffers();
     }
 
     /**
@@ -191,6 +195,20 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         return flowManager;
     }
 
+    public int getPacketInBuffers() {
+        return this.packetInBuffers;
+    }
+
+    /**
+     * Sets the number of PacketIns buffered by each virtual switch created
+     * from now on.
+     *
+     * @param packetInBuffers the number of buffers
+     */
+    public void setPacketInBuffers(final int packetInBuffers) {
+        this.packetInBuffers = packetInBuffers;
+    }
+
     public void register() {
         OVXMap.getInstance().addNetwork(this);
         DBManager.getInstance().createDoc(this);
@@ -204,6 +222,20 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         return Collections.unmodifiableCollection(this.hostMap.values());
     }
 
+    /**
+     * Sets the virtual IP address the given host was seen with, changing
+     * the topology version only if the address is new.
+     *
+     * @param host the host
+     * @param ip the virtual IP address
+     */
+    public void learnHostIP(final Host host, final int ip) {
+        if (host.getIp() == null || host.getIp().getIp() != ip) {
+            host.setIPAddress(ip);
+            this.topologyChanged();
+        }
+    }
+
     public Host getHost(final OVXPort port) {
         return this.hostMap.get(port);
     }
@@ -230,6 +262,12 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         OVXMap.getInstance().removeVirtualIPs(this.tenantId);
         OVXMap.getInstance().removeNetwork(this);
         OpenVirteXController.getTenantCounter().releaseIndex(this.tenantId);
+        this.dpidCounter.close();
+        this.linkCounter.close();
+        this.ipCounter.close();
+        this.hostCounter.close();
+        this.flowManager.close();
+        RoleManager.removeTenant(this.tenantId);
     }
 
     public void stop() {
@@ -267,6 +305,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         } else {
             virtualSwitch = new OVXBigSwitch(switchId, this.tenantId);
         }
+        virtualSwitch.setPacketInBuffers(this.packetInBuffers);
         // Add switch to topology and register it in the map
         this.addSwitch(virtualSwitch);
 
@@ -316,6 +355,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
             ovxPort = new OVXPort(this.tenantId, physicalPort, true, vportNumber[0]);
         }
         ovxPort.register();
+        this.topologyChanged();
 
         return ovxPort;
     }
@@ -358,6 +398,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         OVXMap.getInstance().addMAC(mac, this.tenantId);
         final Host host = new Host(mac, port, hostId);
         this.hostMap.put(port, host);
+        this.topologyChanged();
         host.register();
 
         return host;
@@ -546,6 +587,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
     public synchronized void removePort(final long ovxDpid, final short ovxPort) {
         OVXPort port = this.getSwitch(ovxDpid).getPort(ovxPort);
         port.unregister();
+        this.topologyChanged();
     }
 
     public synchronized void disconnectHost(final int hostId) {
@@ -743,6 +785,7 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
         dbObject.put(TenantHandler.CTRLURLS, this.controllerUrls);
         dbObject.put(TenantHandler.NETADD, this.network.getIp());
         dbObject.put(TenantHandler.NETMASK, this.mask);
+        dbObject.put(TenantHandler.PACKET_IN_BUFFERS, this.packetInBuffers);
         return dbObject;
     }
 
@@ -752,16 +795,21 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> implements
 
     @Override
     public boolean removeLink(final OVXLink virtualLink) {
-        return this.linkSet.remove(virtualLink);
+        final boolean removed = this.linkSet.remove(virtualLink);
+        this.topologyChanged();
+        return removed;
     }
 
     @Override
     public boolean removeSwitch(final OVXSwitch ovxSwitch) {
-        return this.switchSet.remove(ovxSwitch);
+        final boolean removed = this.switchSet.remove(ovxSwitch);
+        this.topologyChanged();
+        return removed;
     }
 
     public void removeHost(final Host host) {
         this.hostMap.remove(host.getPort());
+        this.topologyChanged();
     }
 
     public void addControllers(ArrayList<String> ctrlUrls) {
@@ -32,6 +32,7 @@ import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.linkdiscovery.SwitchDiscoveryManager;
 
 import net.onrc.openvirtex.messages.OVXMessage;
+import net.onrc.openvirtex.routing.PhysicalGraph;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jboss.netty.util.HashedWheelTimer;
@@ -53,6 +54,7 @@ public final class PhysicalNetwork extends
     private static PhysicalNetwork instance;
     private ArrayList<Uplink> uplinkList;
     private final ConcurrentHashMap<Long, SwitchDiscoveryManager> discoveryManager;
+    private final PhysicalGraph graph;
     private static HashedWheelTimer timer;
     private static Logger log = LogManager.getLogger(PhysicalNetwork.class.getName());
 
@@ -60,6 +62,7 @@ public final class PhysicalNetwork extends
         PhysicalNetwork.log.info("Starting network discovery...");
         // PhysicalNetwork.timer = new HashedWheelTimer();
         this.discoveryManager = new ConcurrentHashMap<Long, SwitchDiscoveryManager>();
+        this.graph = new PhysicalGraph();
     }
 
     public static PhysicalNetwork getInstance() {
@@ -90,6 +93,16 @@ public final class PhysicalNetwork extends
         this.uplinkList = uplinkList;
     }
 
+    /**
+     * Gets the routing graph of the physical topology, kept in sync with
+     * the links of this network.
+     *
+     * @return the physical graph
+     */
+    public PhysicalGraph getGraph() {
+        return this.graph;
+    }
+
     /**
      * Add physical switch to topology and make it discoverable.
      *
@@ -98,8 +111,12 @@ public final class PhysicalNetwork extends
     @Override
     public synchronized void addSwitch(final PhysicalSwitch sw) {
         super.addSwitch(sw);
-        this.discoveryManager.put(sw.getSwitchId(), new SwitchDiscoveryManager(
-                sw, OpenVirteXController.getInstance().getUseBDDP()));
+        final SwitchDiscoveryManager old = this.discoveryManager.put(
+                sw.getSwitchId(), new SwitchDiscoveryManager(sw,
+                        OpenVirteXController.getInstance().getUseBDDP()));
+        if (old != null) {
+            old.stop();
+        }
         DBManager.getInstance().addSwitch(sw.getSwitchId());
     }
 
@@ -116,6 +133,7 @@ public final class PhysicalNetwork extends
             removePort(sdm, port);
         }
         if (sdm != null) {
+            sdm.stop();
             this.discoveryManager.remove(sw.getSwitchId());
         }
         return super.removeSwitch(sw);
@@ -136,6 +154,7 @@ public final class PhysicalNetwork extends
             }
         }
         DBManager.getInstance().addPort(port.toDPIDandPort());
+        this.topologyChanged();
     }
 
     /**
@@ -161,6 +180,7 @@ public final class PhysicalNetwork extends
         if (dst != null) {
             this.removeLink(port, dst);
         }
+        this.topologyChanged();
     }
 
     /**
@@ -176,6 +196,7 @@ public final class PhysicalNetwork extends
             final PhysicalLink link = new PhysicalLink(srcPort, dstPort);
             OVXMap.getInstance().knownLink(link);
             super.addLink(link);
+            this.graph.addLink(link);
             log.info("Adding physical link between {}/{} and {}/{}", link
                     .getSrcSwitch().getSwitchName(), link.getSrcPort()
                     .getPortNumber(), link.getDstSwitch().getSwitchName(), link
@@ -205,6 +226,7 @@ public final class PhysicalNetwork extends
                             dstPort.getPortNumber()));
             DBManager.getInstance().delLink(dpp);
             super.removeLink(link);
+            this.graph.removeLink(link);
             log.info("Removing physical link between {}/{} and {}/{}", link
                     .getSrcSwitch().getSwitchName(), link.getSrcPort()
                     .getPortNumber(), link.getDstSwitch().getSwitchName(), link
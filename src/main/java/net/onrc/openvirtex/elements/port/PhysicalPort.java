@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.onrc.openvirtex.api.service.handlers.TenantHandler;
 import net.onrc.openvirtex.db.DBManager;
@@ -33,6 +34,8 @@ import net.onrc.openvirtex.messages.OVXPortStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFPortReason;
+import org.projectfloodlight.openflow.protocol.OFPortState;
 
 /**
  * A physical port maintains the mapping of all virtual ports that are mapped to
@@ -43,7 +46,7 @@ public class PhysicalPort extends Port<PhysicalSwitch, PhysicalLink> {
     Logger log = LogManager.getLogger(PhysicalPort.class.getName());
 
 
-    private final Map<Integer, HashMap<Integer, OVXPort>> ovxPortMap;
+    private final ConcurrentHashMap<Integer, Map<Integer, OVXPort>> ovxPortMap;
 
     /**
      * Instantiates a physical port based on an OpenFlow physical port.
@@ -53,7 +56,7 @@ public class PhysicalPort extends Port<PhysicalSwitch, PhysicalLink> {
      */
     private PhysicalPort(final OFPortDesc port) {
         super(port);
-        this.ovxPortMap = new HashMap<Integer, HashMap<Integer, OVXPort>>();
+        this.ovxPortMap = new ConcurrentHashMap<Integer, Map<Integer, OVXPort>>();
     }
 
     /**
@@ -106,21 +109,26 @@ public class PhysicalPort extends Port<PhysicalSwitch, PhysicalLink> {
      *            the virtual port
      */
     public void setOVXPort(final OVXPort ovxPort) {
-        if (this.ovxPortMap.get(ovxPort.getTenantId()) != null) {
+        // virtual networks may be booting in parallel
+        Map<Integer, OVXPort> portMap = this.ovxPortMap.get(ovxPort
+                .getTenantId());
+        if (portMap == null) {
+            final Map<Integer, OVXPort> created = new ConcurrentHashMap<Integer, OVXPort>();
             if (ovxPort.getLink() != null) {
-                this.ovxPortMap.get(ovxPort.getTenantId()).put(
-                        ovxPort.getLink().getInLink().getLinkId(), ovxPort);
+                created.put(ovxPort.getLink().getOutLink().getLinkId(), ovxPort);
             } else {
-                this.ovxPortMap.get(ovxPort.getTenantId()).put(0, ovxPort);
+                created.put(0, ovxPort);
             }
-        } else {
-            final HashMap<Integer, OVXPort> portMap = new HashMap<Integer, OVXPort>();
-            if (ovxPort.getLink() != null) {
-                portMap.put(ovxPort.getLink().getOutLink().getLinkId(), ovxPort);
-            } else {
-                portMap.put(0, ovxPort);
+            portMap = this.ovxPortMap.putIfAbsent(ovxPort.getTenantId(),
+                    created);
+            if (portMap == null) {
+                return;
             }
-            this.ovxPortMap.put(ovxPort.getTenantId(), portMap);
+        }
+        if (ovxPort.getLink() != null) {
+            portMap.put(ovxPort.getLink().getInLink().getLinkId(), ovxPort);
+        } else {
+            portMap.put(0, ovxPort);
         }
     }
 
@@ -203,19 +211,22 @@ public class PhysicalPort extends Port<PhysicalSwitch, PhysicalLink> {
      *            the port status
      */
     public void applyPortStatus(OVXPortStatus portstat) {
-        /*if (!portstat.isReason(OFPortReason.OFPPR_MODIFY)) {
+        if (portstat.getPortStatus().getReason() != OFPortReason.MODIFY) {
             return;
         }
-        OFPhysicalPort psport = portstat.getDesc();
-        this.portNumber = psport.getPortNumber();
-        this.hardwareAddress = psport.getHardwareAddress();
-        this.name = psport.getName();
+        OFPortDesc psport = portstat.getPortStatus().getDesc();
         this.config = psport.getConfig();
         this.state = psport.getState();
-        this.currentFeatures = psport.getCurrentFeatures();
-        this.advertisedFeatures = psport.getAdvertisedFeatures();
-        this.supportedFeatures = psport.getSupportedFeatures();
-        this.peerFeatures = psport.getPeerFeatures();*/
+        this.peerFeatures = psport.getPeer();
+    }
+
+    /**
+     * Checks if the last port status of this port reported its link down.
+     *
+     * @return true if the link is down, false otherwise
+     */
+    public boolean isLinkDown() {
+        return this.state.contains(OFPortState.LINK_DOWN);
     }
 
     /**
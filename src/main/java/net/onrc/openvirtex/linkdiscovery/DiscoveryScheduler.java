@@ -0,0 +1,144 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.linkdiscovery;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Drives the discovery probes of all physical switches from a single timer.
+ * The probe interval is split in slots, and each switch discovery manager
+ * is assigned to the least loaded slot, so that probes are spread evenly
+ * over the interval instead of being sent all at once.
+ */
+public final class DiscoveryScheduler implements TimerTask {
+
+    private static final Logger log = LogManager.getLogger(
+            DiscoveryScheduler.class.getName());
+
+    // number of slots the probe interval is split in
+    static final int SLOTS = 10;
+
+    private static DiscoveryScheduler instance;
+
+    private final long probeRate;
+    private final long tick;
+    private final Set<SwitchDiscoveryManager>[] slots;
+    private int next;
+    private boolean started;
+
+    private DiscoveryScheduler(final long probeRate) {
+        this.probeRate = probeRate;
+        this.tick = Math.max(1, probeRate / SLOTS);
+        // no generic array creation
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Set<SwitchDiscoveryManager>[] sets = new Set[SLOTS];
+        this.slots = sets;
+        for (int i = 0; i < SLOTS; i++) {
+            this.slots[i] = new CopyOnWriteArraySet<SwitchDiscoveryManager>();
+        }
+    }
+
+    /**
+     * Gets the discovery scheduler, probing at the configured rate.
+     *
+     * @return the discovery scheduler
+     */
+    public static synchronized DiscoveryScheduler getInstance() {
+        if (DiscoveryScheduler.instance == null) {
+            DiscoveryScheduler.instance = new DiscoveryScheduler(
+                    OpenVirteXController.getInstance().getProbeRate());
+        }
+        return DiscoveryScheduler.instance;
+    }
+
+    /**
+     * Gets the interval between two probes of a port.
+     *
+     * @return the probe rate in milliseconds
+     */
+    public long getProbeRate() {
+        return this.probeRate;
+    }
+
+    /**
+     * Starts probing for a switch, in the slot with the fewest switches.
+     *
+     * @param sdm the switch discovery manager
+     */
+    public synchronized void register(final SwitchDiscoveryManager sdm) {
+        int slot = 0;
+        for (int i = 1; i < SLOTS; i++) {
+            if (this.slots[i].size() < this.slots[slot].size()) {
+                slot = i;
+            }
+        }
+        this.slots[slot].add(sdm);
+        if (!this.started) {
+            this.started = true;
+            PhysicalNetwork.getTimer().newTimeout(this, this.tick,
+                    TimeUnit.MILLISECONDS);
+            log.debug("Started discovery scheduler, probing every {} ms",
+                    this.probeRate);
+        }
+    }
+
+    /**
+     * Stops probing for a switch.
+     *
+     * @param sdm the switch discovery manager
+     */
+    public void unregister(final SwitchDiscoveryManager sdm) {
+        for (Set<SwitchDiscoveryManager> slot : this.slots) {
+            if (slot.remove(sdm)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Probes from the switches of the next slot.
+     *
+     * @param t timeout
+     */
+    @Override
+    public void run(final Timeout t) {
+        final int slot = this.next;
+        this.next = (slot + 1) % SLOTS;
+        for (SwitchDiscoveryManager sdm : this.slots[slot]) {
+            try {
+                sdm.probe();
+            } catch (RuntimeException e) {
+                log.warn("Discovery probe failed for {}: {}", sdm.getName(), e);
+            }
+        }
+        PhysicalNetwork.getTimer().newTimeout(this, this.tick,
+                TimeUnit.MILLISECONDS);
+    }
+}
@@ -19,29 +19,27 @@
  */
 package net.onrc.openvirtex.linkdiscovery;
 
-import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.datapath.DPIDandPort;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.Switch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
-import net.onrc.openvirtex.exceptions.PortMappingException;
 import net.onrc.openvirtex.messages.OVXMessage;
 import net.onrc.openvirtex.packet.Ethernet;
 import net.onrc.openvirtex.packet.OVXLLDP;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jboss.netty.util.Timeout;
-import org.jboss.netty.util.TimerTask;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
-import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
-import org.projectfloodlight.openflow.protocol.action.OFActions;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -50,70 +48,72 @@ import org.projectfloodlight.openflow.types.OFPort;
 /**
  * Run discovery process from a physical switch. Ports are initially labeled as
  * slow ports. When an LLDP is successfully received, label the remote port as
- * fast. Every probeRate milliseconds, loop over all fast ports and send an
- * LLDP, send an LLDP for a single slow port. Based on FlowVisor topology
- * discovery implementation.
+ * fast. Every probe interval, as driven by the {@link DiscoveryScheduler},
+ * loop over all fast ports and send an LLDP, send an LLDP for a single slow
+ * port. Based on FlowVisor topology discovery implementation.
+ * <p>
+ * The LLDP (and BDDP) frames are serialized once per switch, and the probe
+ * packet_out of each port is built once from them when the port is added.
+ * All probes of an interval are written to the switch at once. Fast ports
+ * whose probes keep being acknowledged are probed less and less often, up
+ * to the configured backoff factor; an unacknowledged probe brings the port
+ * back to the full probe rate.
  *
  * TODO: add 'fast discovery' mode: drop LLDPs in destination switch but listen
  * for flow_removed messages
  */
-public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, TimerTask {
+public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg {
+
+    // offset of the source MAC address in an Ethernet frame
+    private static final int SRC_MAC_OFFSET = 6;
+    // acknowledged probes after which probing of a link is slowed down
+    static final int STABLE_PROBES = 4;
 
     private final PhysicalSwitch sw;
-    // send 1 probe every probeRate milliseconds
-    private final long probeRate;
-    private final Set<Short> slowPorts;
-    private final Set<Short> fastPorts;
-    // number of unacknowledged probes per port
-    private final Map<Short, AtomicInteger> portProbeCount;
     // number of probes to send before link is removed
-    private static final short MAX_PROBE_COUNT = 3;
-    private Iterator<Short> slowIterator;
-//    private final OVXMessageFactory ovxMessageFactory = OVXMessageFactory.getInstance();
+    private final int maxProbeCount;
+    // maximum number of intervals between two probes of a stable link
+    private final int maxBackoff;
+    private final Map<Short, Probe> slowPorts;
+    private final Map<Short, Probe> fastPorts;
+    private Iterator<Probe> slowIterator;
     private Logger log = LogManager.getLogger(SwitchDiscoveryManager.class.getName());
-    private OVXLLDP lldpPacket;
-    private Ethernet ethPacket;
-    private Ethernet bddpEth;
     private final boolean useBDDP;
+    // LLDP and BDDP frames of this switch, for port 0
+    private byte[] lldpTemplate;
+    private byte[] bddpTemplate;
 
     OFFactory factory;
 
     /**
-     * Instantiates discovery manager for the given physical switch. Creates a
-     * generic LLDP packet that will be customized for the port it is sent out on.
-     * Starts the the timer for the discovery process.
+     * Instantiates discovery manager for the given physical switch, and
+     * registers it with the discovery scheduler.
      *
      * @param sw the physical switch
      * @param useBDDP flag to also use BDDP for discovery
      */
     public SwitchDiscoveryManager(final PhysicalSwitch sw, Boolean... useBDDP) {
         this.sw = sw;
-        this.probeRate = 1000;
-        this.slowPorts = Collections.synchronizedSet(new HashSet<Short>());
-        this.fastPorts = Collections.synchronizedSet(new HashSet<Short>());
-        this.portProbeCount = new HashMap<Short, AtomicInteger>();
-        this.lldpPacket = new OVXLLDP();
-        this.lldpPacket.setSwitch(this.sw);
-        this.ethPacket = new Ethernet();
-        this.ethPacket.setEtherType(Ethernet.TYPE_LLDP);
-        this.ethPacket.setDestinationMACAddress(OVXLLDP.LLDP_NICIRA);
-        this.ethPacket.setPayload(this.lldpPacket);
-        this.ethPacket.setPad(true);
+        this.maxProbeCount = OpenVirteXController.getInstance().getProbeTimeout();
+        this.maxBackoff = Math.max(1, OpenVirteXController.getInstance()
+                .getProbeBackoff());
+        this.slowPorts = new LinkedHashMap<Short, Probe>();
+        this.fastPorts = new LinkedHashMap<Short, Probe>();
         this.useBDDP = useBDDP.length > 0 ? useBDDP[0] : false;
         if (this.useBDDP) {
-            this.bddpEth = new Ethernet();
-            this.bddpEth.setPayload(this.lldpPacket);
-            this.bddpEth.setEtherType(Ethernet.TYPE_BSN);
-            this.bddpEth.setDestinationMACAddress(OVXLLDP.BDDP_MULTICAST);
-            this.bddpEth.setPad(true);
             log.info("Using BDDP to discover network");
         }
-        PhysicalNetwork.getTimer().newTimeout(this, this.probeRate,
-                TimeUnit.MILLISECONDS);
+        this.factory = OFFactories.getFactory(this.sw.getOfVersion());
+        DiscoveryScheduler.getInstance().register(this);
         this.log.debug("Started discovery manager for switch {}",
                 sw.getSwitchId());
+    }
 
-        this.factory = OFFactories.getFactory(this.sw.getOfVersion());
+    /**
+     * Stops the discovery process of this switch.
+     */
+    public void stop() {
+        DiscoveryScheduler.getInstance().unregister(this);
     }
 
     /**
@@ -125,22 +125,15 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, Tim
     public void addPort(final PhysicalPort port) {
         // Ignore ports that are not on this switch
         if (port.getParentSwitch().equals(this.sw)) {
+            final Probe probe;
             synchronized (this) {
-                OFPacketOut pkt;
-                try {
-                    pkt = this.createLLDPPacketOut(port);
-                    this.sendMsg(new OVXMessage(pkt), this);
-                    if (useBDDP) {
-                        OFPacketOut bpkt = this.createBDDPPacketOut(port);
-                        this.sendMsg(new OVXMessage(bpkt), this);
-                    }
-                } catch (PortMappingException e) {
-                    log.warn(e.getMessage());
-                    return;
-                }
-                this.slowPorts.add(port.getPortNumber());
-                this.slowIterator = this.slowPorts.iterator();
+                probe = this.createProbe(port);
+                this.slowPorts.put(port.getPortNumber(), probe);
+                this.slowIterator = null;
             }
+            final List<OFMessage> msgs = new ArrayList<OFMessage>(2);
+            probe.addTo(msgs);
+            this.sw.sendMsgs(msgs);
         }
     }
 
@@ -154,15 +147,9 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, Tim
         if (port.getParentSwitch().equals(this.sw)) {
             short portnum = port.getPortNumber();
             synchronized (this) {
-                if (this.slowPorts.contains(portnum)) {
-                    this.slowPorts.remove(portnum);
-                    this.slowIterator = this.slowPorts.iterator();
-
-                } else if (this.fastPorts.contains(portnum)) {
-                    this.fastPorts.remove(portnum);
-                    this.portProbeCount.remove(portnum);
-                    // no iterator to update
-                } else {
+                if (this.slowPorts.remove(portnum) != null) {
+                    this.slowIterator = null;
+                } else if (this.fastPorts.remove(portnum) == null) {
                     this.log.warn(
                             "tried to dynamically remove non-existing port {}",
                             portnum);
@@ -173,8 +160,9 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, Tim
 
     /**
      * Method called by remote port to acknowledge receipt of LLDP sent by
-     * this port. If slow port, updates label to fast. If fast port, decrements
-     * number of unacknowledged probes.
+     * this port. If slow port, updates label to fast. If fast port, clears
+     * the number of unacknowledged probes, and slows probing down once the
+     * link has been stable for a while.
      *
      * @param port the port
      */
@@ -182,99 +170,91 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, Tim
         if (port.getParentSwitch().equals(this.sw)) {
             final short portNumber = port.getPortNumber();
             synchronized (this) {
-                if (this.slowPorts.contains(portNumber)) {
+                Probe probe = this.slowPorts.remove(portNumber);
+                if (probe != null) {
                     this.log.debug("Setting slow port to fast: {}:{}", port
                             .getParentSwitch().getSwitchId(), portNumber);
-                    this.slowPorts.remove(portNumber);
-                    this.slowIterator = this.slowPorts.iterator();
-                    this.fastPorts.add(portNumber);
-                    this.portProbeCount.put(portNumber, new AtomicInteger(0));
-                } else {
-                    if (this.fastPorts.contains(portNumber)) {
-                        this.portProbeCount.get(portNumber).decrementAndGet();
-                    } else {
-                        this.log.debug(
-                                "Got ackProbe for non-existing port: {}",
-                                portNumber);
+                    this.slowIterator = null;
+                    probe.reset();
+                    this.fastPorts.put(portNumber, probe);
+                    return;
+                }
+                probe = this.fastPorts.get(portNumber);
+                if (probe == null) {
+                    this.log.debug(
+                            "Got ackProbe for non-existing port: {}",
+                            portNumber);
+                    return;
+                }
+                if (probe.unacked > 0) {
+                    probe.unacked = 0;
+                    if (++probe.stable >= STABLE_PROBES
+                            && probe.backoff < this.maxBackoff) {
+                        probe.backoff = Math.min(probe.backoff * 2,
+                                this.maxBackoff);
+                        probe.stable = 0;
                     }
                 }
             }
         }
     }
 
-    /**
-     * Creates packet_out LLDP for specified output port.
-     *
-     * @param port the port
-     * @return Packet_out message with LLDP data
-     * @throws PortMappingException
+    /*
+     * Builds the probe packet_outs of a port, from the frames of this switch
+     * serialized on the first call.
      */
-    private OFPacketOut createLLDPPacketOut(final PhysicalPort port)
-            throws PortMappingException {
-        if (port == null) {
-            throw new PortMappingException(
-                    "Cannot send LLDP associated with a nonexistent port");
+    private Probe createProbe(final PhysicalPort port) {
+        if (this.lldpTemplate == null) {
+            final OVXLLDP lldp = new OVXLLDP();
+            lldp.setSwitch(this.sw);
+            lldp.setPort(port);
+            final Ethernet eth = new Ethernet();
+            eth.setEtherType(Ethernet.TYPE_LLDP);
+            eth.setDestinationMACAddress(OVXLLDP.LLDP_NICIRA);
+            eth.setSourceMACAddress(new byte[6]);
+            eth.setPayload(lldp);
+            eth.setPad(true);
+            this.lldpTemplate = eth.serialize();
+            if (this.useBDDP) {
+                eth.setEtherType(Ethernet.TYPE_BSN);
+                eth.setDestinationMACAddress(OVXLLDP.BDDP_MULTICAST);
+                this.bddpTemplate = eth.serialize();
+            }
         }
-
-        ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-        OFActions actions = this.factory.actions();
-
-        OFActionOutput output = actions.buildOutput()
-                .setMaxLen(0xffff)
-                .setPort(OFPort.of(port.getPortNumber()))
-                .build();
-        actionList.add(output);
-
-        this.lldpPacket.setPort(port);
-        this.ethPacket.setSourceMACAddress(port.getOfPort().getHwAddr().getBytes());
-
-        final byte[] lldp = this.ethPacket.serialize();
-        final OFPacketOut packetOut = this.factory.buildPacketOut()
-                .setBufferId(OFBufferId.NO_BUFFER)
-                .setActions(actionList)
-                .setData(lldp)
-                .build();
-
-        return packetOut;
+        return new Probe(port.getPortNumber(),
+                this.createPacketOut(this.lldpTemplate, port),
+                this.bddpTemplate == null ? null
+                        : this.createPacketOut(this.bddpTemplate, port));
     }
 
     /**
-     * Creates packet_out LLDP for specified output port.
+     * Creates probe packet_out for specified output port, from a frame of
+     * this switch.
      *
+     * @param template the LLDP or BDDP frame
      * @param port the port
      * @return Packet_out message with LLDP data
-     * @throws PortMappingException
      */
-    private OFPacketOut createBDDPPacketOut(final PhysicalPort port)
-            throws PortMappingException {
-        if (port == null) {
-            throw new PortMappingException(
-                    "Cannot send LLDP associated with a nonexistent port");
-        }
-
-        ArrayList<OFAction> actionList = new ArrayList<OFAction>();
-        OFActions actions = this.factory.actions();
-
-        OFActionOutput output = actions.buildOutput()
+    private OFPacketOut createPacketOut(final byte[] template,
+                                        final PhysicalPort port) {
+        final byte[] frame = template.clone();
+        System.arraycopy(port.getOfPort().getHwAddr().getBytes(), 0, frame,
+                SRC_MAC_OFFSET, 6);
+        OVXLLDP.setPort(frame, port.getPortNumber());
+
+        final List<OFAction> actionList = new ArrayList<OFAction>(1);
+        actionList.add(this.factory.actions().buildOutput()
                 .setMaxLen(0xffff)
                 .setPort(OFPort.of(port.getPortNumber()))
-                .build();
-        actionList.add(output);
+                .build());
 
-        this.lldpPacket.setPort(port);
-        this.ethPacket.setSourceMACAddress(port.getOfPort().getHwAddr().getBytes());
-
-        final byte[] bddp = this.bddpEth.serialize();
-        final OFPacketOut packetOut = this.factory.buildPacketOut()
+        return this.factory.buildPacketOut()
                 .setBufferId(OFBufferId.NO_BUFFER)
                 .setActions(actionList)
-                .setData(bddp)
+                .setData(frame)
                 .build();
-
-        return packetOut;
     }
 
-
     @Override
     public void sendMsg(final OVXMessage msg, final OVXSendMsg from) {
         this.sw.sendMsg(msg, this);
@@ -321,74 +301,106 @@ public class SwitchDiscoveryManager implements LLDPEventHandler, OVXSendMsg, Tim
     }
 
     /**
-     * Execute this method every t milliseconds. Loops over all ports
-     * labeled as fast and sends out an LLDP. Send out an LLDP on a single slow
-     * port.
-     *
-     * @param t timeout
-     * @throws Exception
+     * Called by the discovery scheduler once per probe interval. Loops over
+     * all ports labeled as fast and due for a probe and sends out an LLDP,
+     * removing the links whose probes went unacknowledged too many times.
+     * Sends out an LLDP on a single slow port. All probes are written to
+     * the switch at once.
      */
-    @Override
-    public void run(final Timeout t) {
+    void probe() {
+        final List<OFMessage> msgs = new ArrayList<OFMessage>();
+        List<Short> expired = null;
         synchronized (this) {
-            final Iterator<Short> fastIterator = this.fastPorts.iterator();
+            final Iterator<Probe> fastIterator = this.fastPorts.values()
+                    .iterator();
             while (fastIterator.hasNext()) {
-                final Short portNumber = fastIterator.next();
-                final int probeCount = this.portProbeCount.get(portNumber)
-                        .getAndIncrement();
-                if (probeCount < SwitchDiscoveryManager.MAX_PROBE_COUNT) {
-                    try {
-                        OFPacketOut pkt = this.createLLDPPacketOut(this.sw
-                                .getPort(portNumber));
-                        this.sendMsg(new OVXMessage(pkt), this);
-                        if (useBDDP) {
-                            OFPacketOut bpkt = this.createBDDPPacketOut(this.sw.getPort(portNumber));
-                            this.sendMsg(new OVXMessage(bpkt), this);
-                        }
-                    } catch (PortMappingException e) {
-                        log.warn(e.getMessage());
-                    }
+                final Probe probe = fastIterator.next();
+                if (probe.unacked > 0) {
+                    // missed an ack, back to the full probe rate
+                    probe.backoff = 1;
+                    probe.stable = 0;
+                    probe.skip = 0;
+                } else if (probe.skip > 0) {
+                    probe.skip--;
+                    continue;
+                }
+                if (probe.unacked < this.maxProbeCount) {
+                    probe.unacked++;
+                    probe.skip = probe.backoff - 1;
+                    probe.addTo(msgs);
                 } else {
                     // Update fast and slow ports
                     fastIterator.remove();
-                    this.slowPorts.add(portNumber);
-                    this.slowIterator = this.slowPorts.iterator();
-                    this.portProbeCount.remove(portNumber);
-
-                    // Remove link from topology
-                    final PhysicalPort srcPort = this.sw.getPort(portNumber);
-                    final PhysicalPort dstPort = PhysicalNetwork.getInstance()
-                            .getNeighborPort(srcPort);
-                    PhysicalNetwork.getInstance().removeLink(srcPort, dstPort);
+                    probe.reset();
+                    this.slowPorts.put(probe.port, probe);
+                    this.slowIterator = null;
+                    if (expired == null) {
+                        expired = new ArrayList<Short>();
+                    }
+                    expired.add(probe.port);
                 }
             }
 
             // send a probe for the next slow port
-            if (this.slowPorts.size() > 0) {
-                if (!this.slowIterator.hasNext()) {
-                    this.slowIterator = this.slowPorts.iterator();
-                }
-                if (this.slowIterator.hasNext()) {
-                    final short portNumber = this.slowIterator.next();
-                    try {
-                        OFPacketOut pkt = this.createLLDPPacketOut(this.sw
-                                .getPort(portNumber));
-                        this.sendMsg(new OVXMessage(pkt), this);
-                        if (useBDDP) {
-                            OFPacketOut bpkt = this.createBDDPPacketOut(this.sw
-                                    .getPort(portNumber));
-                            this.sendMsg(new OVXMessage(bpkt), this);
-                        }
-                    } catch (PortMappingException e) {
-                        log.warn(e.getMessage());
-                    }
+            if (!this.slowPorts.isEmpty()) {
+                if (this.slowIterator == null || !this.slowIterator.hasNext()) {
+                    this.slowIterator = this.slowPorts.values().iterator();
                 }
+                this.slowIterator.next().addTo(msgs);
+            }
+        }
+
+        if (!msgs.isEmpty()) {
+            this.sw.sendMsgs(msgs);
+        }
+
+        if (expired != null) {
+            // Remove links from topology
+            for (Short portNumber : expired) {
+                final PhysicalPort srcPort = this.sw.getPort(portNumber);
+                final PhysicalPort dstPort = PhysicalNetwork.getInstance()
+                        .getNeighborPort(srcPort);
+                PhysicalNetwork.getInstance().removeLink(srcPort, dstPort);
             }
         }
+    }
 
-        // reschedule timer
-        PhysicalNetwork.getTimer().newTimeout(this, this.probeRate,
-                TimeUnit.MILLISECONDS);
+    /**
+     * Probe state of a port.
+     */
+    private static final class Probe {
+        private final short port;
+        private final OFPacketOut lldp;
+        private final OFPacketOut bddp;
+        // number of unacknowledged probes
+        private int unacked;
+        // acknowledged probes since the last backoff change
+        private int stable;
+        // probe intervals between two probes
+        private int backoff = 1;
+        // probe intervals left before the next probe
+        private int skip;
+
+        private Probe(final short port, final OFPacketOut lldp,
+                      final OFPacketOut bddp) {
+            this.port = port;
+            this.lldp = lldp;
+            this.bddp = bddp;
+        }
+
+        private void reset() {
+            this.unacked = 0;
+            this.stable = 0;
+            this.backoff = 1;
+            this.skip = 0;
+        }
+
+        private void addTo(final List<OFMessage> msgs) {
+            msgs.add(this.lldp);
+            if (this.bddp != null) {
+                msgs.add(this.bddp);
+            }
+        }
     }
 
 }
@@ -0,0 +1,107 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.messages;
+
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFValueType;
+
+/**
+ * Collects the field rewrites applied to a match while a message is
+ * virtualized or devirtualized, and builds the rewritten match once.
+ * <p>
+ * The result is the same as chaining {@link OVXMessageUtil#updateMatch}
+ * calls: for OpenFlow 1.3 matches, the first rewrite turns the fields
+ * already in the match into exact ones. Reads reflect the pending
+ * rewrites.
+ */
+public final class MatchRewrite {
+
+    private final Match match;
+    private Match.Builder builder;
+
+    /**
+     * Starts rewriting the given match.
+     *
+     * @param match the original match
+     */
+    public MatchRewrite(final Match match) {
+        this.match = match;
+    }
+
+    /**
+     * Gets the value of a field, including pending rewrites.
+     *
+     * @param field the match field
+     * @return the value, null if the field is not set
+     */
+    public <F extends OFValueType<F>> F get(final MatchField<F> field) {
+        // builders do not read through to the match they were created from
+        final F value = this.builder == null ? null : this.builder.get(field);
+        return value == null ? this.match.get(field) : value;
+    }
+
+    /**
+     * Rewrites a field to an exact value.
+     *
+     * @param field the match field
+     * @param value the value
+     * @return this rewrite
+     */
+    public <F extends OFValueType<F>> MatchRewrite setExact(
+            final MatchField<F> field, final F value) {
+        if (this.builder == null) {
+            this.builder = this.match.createBuilder();
+            if (this.match.getVersion() != OFVersion.OF_10) {
+                for (MatchField<?> mf : this.match.getMatchFields()) {
+                    setExact(this.builder, mf, this.match);
+                }
+            }
+        }
+        this.builder.setExact(field, value);
+        return this;
+    }
+
+    /**
+     * Checks if any field was rewritten.
+     *
+     * @return true if the match was rewritten
+     */
+    public boolean isModified() {
+        return this.builder != null;
+    }
+
+    /**
+     * Builds the rewritten match.
+     *
+     * @return the rewritten match, or the original one if nothing was
+     *         rewritten
+     */
+    public Match build() {
+        return this.builder == null ? this.match : this.builder.build();
+    }
+
+    private static <F extends OFValueType<F>> void setExact(
+            final Match.Builder builder, final MatchField<F> field,
+            final Match match) {
+        builder.setExact(field, match.get(field));
+    }
+}
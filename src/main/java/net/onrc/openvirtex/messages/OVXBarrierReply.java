@@ -20,6 +20,7 @@
 package net.onrc.openvirtex.messages;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.routing.RouteInstaller;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.OFBarrierReply;
@@ -27,7 +28,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXBarrierReply extends OVXMessage implements Virtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXBarrierReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXBarrierReply.class.getName());
 
     public OVXBarrierReply(OFMessage msg) {
 
@@ -40,7 +41,11 @@ public class OVXBarrierReply extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-       // this.log.info("virtualize");
+       // log.info("virtualize");
+        final int xid = (int) this.getBarrierReply().getXid();
+        if (!sw.getFlowCleaner().barrierReply(xid)) {
+            RouteInstaller.barrierReply(sw, xid);
+        }
 
     }
 }
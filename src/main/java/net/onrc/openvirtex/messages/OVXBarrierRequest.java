@@ -27,7 +27,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXBarrierRequest extends OVXMessage implements Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXBarrierRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXBarrierRequest.class.getName());
 
     public OVXBarrierRequest(OFMessage msg) {
         super(msg);
@@ -41,7 +41,7 @@ public class OVXBarrierRequest extends OVXMessage implements Devirtualizable {
 
     @Override
     public void devirtualize(final OVXSwitch sw) {
-        //this.log.info("devirtualize");
+        //log.info("devirtualize");
 
     }
 }
@@ -28,7 +28,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXEchoReply extends OVXMessage implements Virtualizable, Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXEchoReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXEchoReply.class.getName());
 
     public OVXEchoReply(OFMessage msg) {
 
@@ -42,7 +42,7 @@ public class OVXEchoReply extends OVXMessage implements Virtualizable, Devirtual
     @Override
     public void devirtualize(final OVXSwitch sw) {
         // TODO: Log error, we should never receive this message here
-        //this.log.info("devirtualize");
+        //log.info("devirtualize");
 
         return;
 
@@ -51,7 +51,7 @@ public class OVXEchoReply extends OVXMessage implements Virtualizable, Devirtual
     @Override
     public void virtualize(final PhysicalSwitch sw) {
         // TODO: Log error, we should never receive this message here
-        //this.log.info("virtualize");
+        //log.info("virtualize");
         return;
 
     }
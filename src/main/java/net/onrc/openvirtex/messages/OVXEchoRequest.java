@@ -30,7 +30,7 @@ import java.util.Arrays;
 
 public class OVXEchoRequest extends OVXMessage implements Virtualizable, Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXEchoRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXEchoRequest.class.getName());
 
     public OVXEchoRequest(OFMessage msg) {
 
@@ -46,7 +46,7 @@ public class OVXEchoRequest extends OVXMessage implements Virtualizable, Devirtu
     @Override
     public void devirtualize(final OVXSwitch sw) {
         // TODO: Log error, we should never receive this message here
-        //this.log.info("devirtualize");
+        //log.info("devirtualize");
         return;
 
     }
@@ -54,7 +54,7 @@ public class OVXEchoRequest extends OVXMessage implements Virtualizable, Devirtu
     @Override
     public void virtualize(final PhysicalSwitch sw) {
         // TODO: Log error, we should never receive this message here
-        //this.log.info("virtualize");
+        //log.info("virtualize");
         return;
 
     }
@@ -27,7 +27,7 @@ import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.errormsg.*;
 
 public class OVXError extends OVXMessage implements Virtualizable, Devirtualizable {
-    private final Logger log = LogManager.getLogger(OVXError.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXError.class.getName());
 
     public OVXError(OFMessage msg) {
         super(msg);
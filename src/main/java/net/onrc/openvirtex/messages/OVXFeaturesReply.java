@@ -26,7 +26,7 @@ import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXFeaturesReply extends OVXMessage implements Virtualizable {
-    private final Logger log = LogManager.getLogger(OVXFeaturesReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFeaturesReply.class.getName());
 
     public OVXFeaturesReply(OFMessage msg) {
 
@@ -41,7 +41,7 @@ public class OVXFeaturesReply extends OVXMessage implements Virtualizable {
     public void virtualize(final PhysicalSwitch sw) {
         // TODO: Log error, we should never receive this message here
 
-        //this.log.info("virtualize");
+        //log.info("virtualize");
         return;
     }
 
@@ -27,7 +27,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXFeaturesRequest extends OVXMessage implements Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXFeaturesRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFeaturesRequest.class.getName());
 
     public OVXFeaturesRequest(OFMessage msg) {
 
@@ -41,7 +41,7 @@ public class OVXFeaturesRequest extends OVXMessage implements Devirtualizable {
     @Override
     public void devirtualize(final OVXSwitch sw) {
         // TODO: Log error, we should never receive this message here
-        //this.log.info("devirtualize");
+        //log.info("devirtualize");
         return;
     }
 }
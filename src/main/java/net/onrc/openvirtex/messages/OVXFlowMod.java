@@ -22,15 +22,19 @@ package net.onrc.openvirtex.messages;
 import java.util.*;
 
 import net.onrc.openvirtex.elements.address.IPMapper;
+import net.onrc.openvirtex.elements.datapath.CompiledMatch;
 import net.onrc.openvirtex.elements.datapath.FlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PacketInBuffer;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.OVXLinkUtils;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.*;
 import net.onrc.openvirtex.messages.actions.*;
 import net.onrc.openvirtex.protocol.OVXMatch;
+import net.onrc.openvirtex.routing.RouteInstaller;
 import net.onrc.openvirtex.util.OVXUtil;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
@@ -44,12 +48,14 @@ import org.projectfloodlight.openflow.types.*;
 
 public class OVXFlowMod extends OVXMessage implements Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXFlowMod.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFlowMod.class.getName());
 
     private OVXSwitch sw = null;
     private final List<OFAction> approvedActions = new LinkedList<OFAction>();
 
     private long ovxCookie = -1;
+    // compiled form of the match, rebuilt when the match is replaced
+    private CompiledMatch compiledMatch;
 
     public OVXFlowMod(OFMessage msg) {
         super(msg);
@@ -59,13 +65,29 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
         return (OFFlowMod)this.getOFMessage();
     }
 
+    /**
+     * Gets the match of this FlowMod compiled for comparisons, compiling it
+     * on first use and again whenever the match changes.
+     *
+     * @return the compiled match
+     */
+    public CompiledMatch getCompiledMatch() {
+        final Match match = this.getFlowMod().getMatch();
+        CompiledMatch ret = this.compiledMatch;
+        if (ret == null || ret.getMatch() != match) {
+            ret = new CompiledMatch(match);
+            this.compiledMatch = ret;
+        }
+        return ret;
+    }
+
     @Override
     public void devirtualize(final OVXSwitch sw) {
-        //this.log.info("devirtualize");
-        //this.log.info("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-        //this.log.info(this.getFlowMod().toString());
-        //this.log.info("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
-        //this.log.info(this.getOFMessage().toString());
+        //log.info("devirtualize");
+        //log.info("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+        //log.info(this.getFlowMod().toString());
+        //log.info("!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!");
+        //log.info(this.getOFMessage().toString());
 
 
 
@@ -74,13 +96,24 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
             return;
         }
 
+        // hold the ingress flow mod back until the rest of its path is in
+        RouteInstaller.beginInstall();
+        try {
+            this.install(sw);
+        } finally {
+            RouteInstaller.endInstall();
+        }
+    }
+
+    private void install(final OVXSwitch sw) {
         this.sw = sw;
         FlowTable ft = this.sw.getFlowTable();
 
         int bufferId = OFBufferId.NO_BUFFER.getInt();
-        if (sw.getFromBufferMap(this.getFlowMod().getBufferId().getInt()) != null) {
-            bufferId = ((OFPacketIn)sw.getFromBufferMap(this.getFlowMod().getBufferId().getInt()).getOFMessage())
-                    .getBufferId().getInt();
+        final PacketInBuffer.Entry buffered = sw.getFromBuffer(this.getFlowMod()
+                .getBufferId().getInt());
+        if (buffered != null) {
+            bufferId = buffered.getBufferId().getInt();
         }
         //OFMatch에서 inport의 기본값은 0으로 설정되기 때문, 그러나 OpenFlowj에서는 MatchField가 존재하지 않으면
         //필드 자체가 없기 때문에 inport값을 알 수 없다.
@@ -88,7 +121,7 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
         //거기엔 in_port 정보가 없다 추후 이부분의 루틴 구현해야함
 
         /*if(!((OFFlowMod)this.getOFMessage()).getMatch().isExact(MatchField.IN_PORT)) {
-            this.log.info("No IN_PORT in MatchField");
+            log.info("No IN_PORT in MatchField");
             return;
         }*/
 
@@ -110,11 +143,6 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
 
         ovxMatch.setCookie(ovxCookie);
 
-        this.setOFMessage(this.getFlowMod().createBuilder()
-                .setCookie(U64.of(ovxMatch.getCookie()))
-                .build()
-        );
-
         for (final OFAction act : this.getFlowMod().getActions()) {
             try {
                 OVXAction action2 = OVXActionUtil.wrappingOVXAction(act);
@@ -122,48 +150,81 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                 ((VirtualizableAction) action2).virtualize(sw, this.approvedActions, ovxMatch);
 
             } catch (final ActionVirtualizationDenied e) {
-                this.log.debug("Action {} could not be virtualized; error: {}",
+                log.debug("Action {} could not be virtualized; error: {}",
                         act, e.getMessage());
                 ft.deleteFlowMod(ovxCookie);
                 sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
                 return;
             } catch (final DroppedMessageException e) {
-                this.log.debug("Dropping ovxFlowMod {} {}", this.getOFMessage().toString(), e);
+                log.debug("Dropping ovxFlowMod {} {}", this.getOFMessage(), e);
                 ft.deleteFlowMod(ovxCookie);
                 // TODO perhaps send error message to controller
                 return;
             } catch (final NullPointerException e) {
-                this.log.debug("Action {} could not be supported", act);
+                log.debug("Action {} could not be supported", act);
                 return;
             }
         }
 
         final OVXPort ovxInPort = sw.getPort(inport);
 
-        this.setOFMessage(this.getFlowMod().createBuilder()
-                .setBufferId(OFBufferId.of(bufferId))
-                .build()
-        );
+        // the flow mod as sent by the controller, each physical flow mod is
+        // built from it in one go
+        final OFFlowMod virtual = this.getFlowMod();
+        final OFBufferId physicalBufferId = OFBufferId.of(bufferId);
 
         if (ovxInPort == null) {
-            if(this.getFlowMod().getMatch().isFullyWildcarded(MatchField.IN_PORT)) {
+            if(virtual.getMatch().isFullyWildcarded(MatchField.IN_PORT)) {
 
                 for (OVXPort iport : sw.getPorts().values()) {
-                    prepAndSendSouth(iport, pflag);
+                    prepAndSendSouth(virtual, iport, physicalBufferId, pflag);
                 }
             } else {
-                this.log.error(
+                log.error(
                         "Unknown virtual port id {}; dropping ovxFlowMod {}",
                         inport, this);
                 sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.EPERM, this), sw);
                 return;
             }
         } else {
-            prepAndSendSouth(ovxInPort, pflag);
+            prepAndSendSouth(virtual, ovxInPort, physicalBufferId, pflag);
+            if (pflag && buffered != null
+                    && buffered.getBufferId().equals(OFBufferId.NO_BUFFER)) {
+                this.sendBufferedPacket(ovxInPort, buffered);
+            }
         }
 
     }
 
+    /*
+     * The switch did not buffer the packet the flow mod applies to, so
+     * send it back through the flow table right after the flow mod. Only
+     * done for edge ports: the frame of a packet received on a virtual link
+     * was rewritten to virtual addresses, and would not match the physical
+     * flow mod, which matches on the link fields and physical IPs.
+     */
+    private void sendBufferedPacket(final OVXPort inPort,
+                                    final PacketInBuffer.Entry buffered) {
+        if (!inPort.isActive() || !inPort.isEdge()) {
+            return;
+        }
+        final PhysicalSwitch psw = inPort.getPhysicalPort().getParentSwitch();
+        final OFFactory ofFactory = OFFactories.getFactory(psw.getOfVersion());
+        final OFPacketOut ofPacketOut = ofFactory.buildPacketOut()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setInPort(OFPort.of(inPort.getPhysicalPortNumber()))
+                .setActions(Collections.<OFAction>singletonList(
+                        ofFactory.actions().buildOutput()
+                                .setPort(OFPort.TABLE)
+                                .setMaxLen(0xffff)
+                                .build()))
+                .setData(buffered.getData())
+                .build();
+        if (!RouteInstaller.hold(psw, ofPacketOut)) {
+            psw.sendMsg(new OVXMessage(ofPacketOut), psw);
+        }
+    }
+
     public void modifyMatch(Match match)
     {
         this.setOFMessage(this.getFlowMod().createBuilder()
@@ -172,7 +233,18 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
         );
     }
 
-    private void prepAndSendSouth(OVXPort inPort, boolean pflag) {
+    /**
+     * Rewrites the virtual flow mod for the given input port and sends it
+     * south. The match, XID, cookie, buffer ID and actions are collected
+     * first and the physical flow mod is built once.
+     *
+     * @param virtual the flow mod as sent by the controller
+     * @param inPort the virtual input port
+     * @param bufferId the physical buffer ID
+     * @param pflag true if the flow mod should be sent
+     */
+    private void prepAndSendSouth(final OFFlowMod virtual, final OVXPort inPort,
+                                  final OFBufferId bufferId, boolean pflag) {
         if (!inPort.isActive()) {
             log.warn("Virtual network {}: port {} on switch {} is down.",
                     sw.getTenantId(), inPort.getPortNumber(),
@@ -180,34 +252,30 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
             return;
         }
 
-        this.modifyMatch(
-                OVXMessageUtil.updateMatch(
-                        this.getFlowMod().getMatch(),
-                        this.getFlowMod().getMatch().createBuilder()
-                                .setExact(MatchField.IN_PORT, OFPort.of(inPort.getPhysicalPortNumber()))
-                                .build()
-                )
-        );
+        // the XID is translated from the one the controller sent
+        this.setOFMessage(virtual);
+        final int xid = sw.translate(this, inPort);
+
+        final MatchRewrite match = new MatchRewrite(virtual.getMatch());
+        match.setExact(MatchField.IN_PORT,
+                OFPort.of(inPort.getPhysicalPortNumber()));
+        List<OFAction> actions = this.approvedActions;
 
-        OVXMessageUtil.translateXid(this, inPort);
         try {
             if (inPort.isEdge()) {
-                this.prependRewriteActions();
+                // copied, the approved actions are shared by all in ports
+                actions = new LinkedList<OFAction>(this.approvedActions);
+                this.prependRewriteActions(match, actions);
             } else {
 
-                this.modifyMatch(
-                        IPMapper.rewriteMatch(
-                                sw.getTenantId(),
-                                this.getFlowMod().getMatch()
-                        )
-                );
+                IPMapper.rewriteMatch(sw.getTenantId(), match);
 
                 // TODO: Verify why we have two send points... and if this is
                 // the right place for the match rewriting
                 if (inPort != null
                         && inPort.isLink()
-                        && this.getFlowMod().getMatch().get(MatchField.ETH_DST) != null
-                        && this.getFlowMod().getMatch().get(MatchField.ETH_SRC) != null
+                        && match.get(MatchField.ETH_DST) != null
+                        && match.get(MatchField.ETH_SRC) != null
                 ) {
                     // rewrite the OFMatch with the values of the link
                     OVXPort dstPort = sw.getMap()
@@ -221,25 +289,21 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                     if (inPort != null && link != null) {
                         try {
 
-                            Integer flowId = sw.getMap()
+                            int flowId = sw.getMap()
                                     .getVirtualNetwork(sw.getTenantId())
                                     .getFlowManager()
                                     .getFlowId(
-                                            this.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            this.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
+                                            match.get(MatchField.ETH_SRC).getLong(),
+                                            match.get(MatchField.ETH_DST).getLong()
                                     );
+                            ((OVXFlowTable) sw.getFlowTable()).setFlowId(
+                                    this.ovxCookie, flowId);
 
 
                             OVXLinkUtils lUtils = new OVXLinkUtils(
                                     sw.getTenantId(), link.getLinkId(), flowId);
 
-                            this.log.debug("before " + this.getFlowMod().getMatch().toString());
-
-                            this.modifyMatch(
-                                    lUtils.rewriteMatch(this.getFlowMod().getMatch())
-                            );
-
-                            this.log.debug("after " + this.getFlowMod().getMatch().toString());
+                            lUtils.rewriteMatch(match);
                         } catch (IndexOutOfBoundException e) {
                             log.error(
                                     "Too many host to generate the flow pairs in this virtual network {}. "
@@ -260,75 +324,89 @@ public class OVXFlowMod extends OVXMessage implements Devirtualizable {
                     this.sw.getTenantId(), this);
         }
 
-        this.setOFMessage(this.getFlowMod().createBuilder()
-                .setActions(this.approvedActions)
+        if (pflag) {
+            // shared with the copy kept in the virtual flow table
+            if(!virtual.getFlags().contains(OFFlowModFlags.SEND_FLOW_REM))
+                virtual.getFlags().add(OFFlowModFlags.SEND_FLOW_REM);
+        }
+
+        this.setOFMessage(virtual.createBuilder()
+                .setXid(xid)
+                .setCookie(U64.of(this.ovxCookie))
+                .setBufferId(bufferId)
+                .setMatch(match.build())
+                .setActions(actions)
                 .build()
         );
 
         if (pflag) {
-
-            if(!this.getFlowMod().getFlags().contains(OFFlowModFlags.SEND_FLOW_REM))
-                this.getFlowMod().getFlags().add(OFFlowModFlags.SEND_FLOW_REM);
-
-            sw.sendSouth(this, inPort);
+            if (!RouteInstaller.hold(inPort.getPhysicalPort().getParentSwitch(),
+                    this.getOFMessage())) {
+                sw.sendSouth(this, inPort);
+            }
         }
     }
 
-    private void prependRewriteActions() {
+    private void prependRewriteActions(final MatchRewrite match,
+                                       final List<OFAction> actions) {
         if(this.getOFMessage().getVersion() == OFVersion.OF_10)
-            prependRewriteActionsVer10();
+            prependRewriteActionsVer10(match, actions);
         else
-            prependRewriteActionsVer13();
+            prependRewriteActionsVer13(match, actions);
 
     }
 
-    private void prependRewriteActionsVer13() {
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_SRC) != null) {
+    private void prependRewriteActionsVer13(final MatchRewrite match,
+                                            final List<OFAction> actions) {
+        if(match.get(MatchField.IPV4_SRC) != null) {
             OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
                     .setField(this.factory.oxms().ipv4Src(IPv4Address.of(
                             IPMapper.getPhysicalIp(
                                     sw.getTenantId(),
-                                    this.getFlowMod().getMatch().get(MatchField.IPV4_SRC).getInt()))))
+                                    match.get(MatchField.IPV4_SRC).getInt()))))
                     .build();
-            this.approvedActions.add(0, ofActionSetField);
+            actions.add(0, ofActionSetField);
         }
 
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_DST) != null) {
+        if(match.get(MatchField.IPV4_DST) != null) {
             OFActionSetField ofActionSetField = this.factory.actions().buildSetField()
                     .setField(this.factory.oxms().ipv4Dst(IPv4Address.of(
                             IPMapper.getPhysicalIp(
                                     sw.getTenantId(),
-                                    this.getFlowMod().getMatch().get(MatchField.IPV4_DST).getInt()))))
+                                    match.get(MatchField.IPV4_DST).getInt()))))
                     .build();
-            this.approvedActions.add(0, ofActionSetField);
+            actions.add(0, ofActionSetField);
         }
     }
 
-    private void prependRewriteActionsVer10() {
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_SRC) != null) {
+    private void prependRewriteActionsVer10(final MatchRewrite match,
+                                            final List<OFAction> actions) {
+        if(match.get(MatchField.IPV4_SRC) != null) {
             OFAction action = this.factory.actions().buildSetNwSrc()
                             .setNwAddr(IPv4Address.of(
                                     IPMapper.getPhysicalIp(
                                             sw.getTenantId(),
-                                            this.getFlowMod().getMatch().get(MatchField.IPV4_SRC).getInt())))
+                                            match.get(MatchField.IPV4_SRC).getInt())))
                             .build();
 
-            this.approvedActions.add(0, action);
+            actions.add(0, action);
         }
 
-        if(this.getFlowMod().getMatch().get(MatchField.IPV4_DST) != null) {
+        if(match.get(MatchField.IPV4_DST) != null) {
             OFAction action = this.factory.actions().buildSetNwDst()
                             .setNwAddr(IPv4Address.of(
                                     IPMapper.getPhysicalIp(sw.getTenantId(),
-                                            this.getFlowMod().getMatch().get(MatchField.IPV4_DST).getInt())))
+                                            match.get(MatchField.IPV4_DST).getInt())))
                             .build();
 
-            this.approvedActions.add(0, action);
+            actions.add(0, action);
         }
     }
 
     public OVXFlowMod clone() {
         OVXFlowMod flowMod = new OVXFlowMod(this.getOFMessage().createBuilder().build());
+        // the copy shares the match, and so its compiled form
+        flowMod.compiledMatch = this.compiledMatch;
         return flowMod;
     }
 
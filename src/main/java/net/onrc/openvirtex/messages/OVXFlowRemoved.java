@@ -31,7 +31,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 
 public class OVXFlowRemoved extends OVXMessage implements Virtualizable {
 
-    Logger log = LogManager.getLogger(OVXFlowRemoved.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFlowRemoved.class.getName());
 
     public OVXFlowRemoved(OFMessage msg) {
 
@@ -44,7 +44,7 @@ public class OVXFlowRemoved extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-        //this.log.info("virtualize");
+        //log.info("virtualize");
 
         long thisCookie = this.getFlowRemoved().getCookie().getValue();
 
@@ -22,11 +22,12 @@ package net.onrc.openvirtex.messages;
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.address.IPMapper;
+import net.onrc.openvirtex.elements.address.IPTranslationTable;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.XidPair;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.LinkedList;
 
@@ -41,6 +42,8 @@ import net.onrc.openvirtex.exceptions.AddressMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.packet.*;
+import net.onrc.openvirtex.util.MessageTracer;
+import net.onrc.openvirtex.util.MessageTracer.Event;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.*;
@@ -51,10 +54,25 @@ import org.projectfloodlight.openflow.util.HexString;
 
 public class OVXPacketIn extends OVXMessage implements Virtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXPacketIn.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXPacketIn.class.getName());
+    private static final ThreadLocal<PacketContext> context =
+            new ThreadLocal<PacketContext>() {
+                @Override
+                protected PacketContext initialValue() {
+                    return new PacketContext();
+                }
+            };
     private PhysicalPort port = null;
     private OVXPort ovxPort = null;
     private Integer tenantId = null;
+    // rewrites collected while virtualizing, built into the message once
+    // it is sent to the controller
+    private OFPacketIn.Builder rewrite = null;
+    private MatchRewrite matchRewrite = null;
+    // builders do not read through to their message, so the rewritten
+    // frame and OpenFlow 1.0 input port are kept here as well
+    private byte[] data = null;
+    private OFPort inPort = null;
 
     public OVXPacketIn(final OVXPacketIn pktIn) {
 
@@ -116,29 +134,106 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         }
     }
 
+    /**
+     * Gets the builder collecting the rewrites of this PacketIn, starting
+     * one on first use.
+     *
+     * @return the builder
+     */
+    private OFPacketIn.Builder rewrite() {
+        if (this.rewrite == null) {
+            this.rewrite = this.getPacketIn().createBuilder();
+        }
+        return this.rewrite;
+    }
+
+    /**
+     * Gets the rewrite of the match of this PacketIn, starting one on first
+     * use. Only used by OpenFlow 1.3 PacketIns.
+     *
+     * @return the match rewrite
+     */
+    private MatchRewrite matchRewrite() {
+        if (this.matchRewrite == null) {
+            this.matchRewrite = new MatchRewrite(this.getPacketIn().getMatch());
+        }
+        return this.matchRewrite;
+    }
+
+    /**
+     * Rewrites the input port, like {@link #setInport(short)} does, but
+     * without building the message.
+     *
+     * @param inport the input port
+     */
+    private void rewriteInport(short inport) {
+        if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
+            this.inPort = OFPort.of(inport);
+            this.rewrite().setInPort(this.inPort);
+        }else{
+            this.matchRewrite().setExact(MatchField.IN_PORT, OFPort.of(inport));
+        }
+    }
+
+    /**
+     * Rewrites the frame without building the message.
+     *
+     * @param data the frame
+     */
+    private void rewriteData(final byte[] data) {
+        this.data = data;
+        this.rewrite().setData(data);
+    }
+
+    /**
+     * Gets the frame, including a pending rewrite.
+     *
+     * @return the frame
+     */
+    private byte[] getData() {
+        return this.data == null ? this.getPacketIn().getData() : this.data;
+    }
+
+    /**
+     * Builds the message with the collected rewrites.
+     */
+    private void applyRewrite() {
+        if (this.matchRewrite != null && this.matchRewrite.isModified()) {
+            this.rewrite().setMatch(this.matchRewrite.build());
+        }
+        if (this.rewrite != null) {
+            this.setOFMessage(this.rewrite.build());
+        }
+        this.rewrite = null;
+        this.matchRewrite = null;
+        this.data = null;
+        this.inPort = null;
+    }
+
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-        //this.log.info("virtualize");
-        //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
+        //log.info("virtualize");
+        //log.info(HexString.toHexString(this.getPacketIn().getData()));
+
+        // The frame is decoded once; the match, the tenant lookup and the
+        // rewrites below all read from and write to this context.
+        final PacketContext ctx = OVXPacketIn.context.get()
+                .parse(this.getPacketIn().getData());
 
         //OF_1.3일 경우 PACKET_IN으로 오는 데이터에 Ethernet Trailer가 붙어서 오는데 이 패킷을 OVX가
         // ONOS로 전송하면 ONOS는 그부분을 실제 데이터로 인식하여 UDP의 length로 포함되어 PACKET_OUT으로 내려보낸다.
         // 그러나 checksum은 그대로 이기 때문에 Destination에서 Receive를 하지 못하는 문제가 생긴다.
         // 이것을 해결하고자 Data에서 Trailer를 삭제하는 루틴을 구현한것
-        Ethernet eth2 = new Ethernet();
-        eth2.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
-
-        if(eth2.getPayload() instanceof IPv4) {
-            IPv4 ip = (IPv4)eth2.getPayload();
-            if (ip.isTruncated()) {
-                ByteBuffer bb = ByteBuffer.wrap(this.getPacketIn().getData());
-                byte[] temp = new byte[bb.limit()-ip.getTrimLength()];
-                bb.get(temp, 0, temp.length);
-                this.setOFMessage(this.getPacketIn().createBuilder().setData(temp).build());
-            }
+        if (ctx.isModified()) {
+            this.rewriteData(ctx.getData());
         }
 
-        OVXSwitch vSwitch = OVXMessageUtil.untranslateXid(this, sw);
+        OVXSwitch vSwitch = null;
+        final XidPair<OVXSwitch> pair = sw.untranslate(this);
+        if (pair != null) {
+            this.rewrite().setXid(pair.getXid());
+            vSwitch = pair.getSwitch();
+        }
 
         /*
          * Fetching port from the physical switch
@@ -154,27 +249,18 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 inport = 0;
         }
 
-        this.log.debug("inport = " + inport);
-
         port = sw.getPort(inport);
 
         Mappable map = sw.getMap();
 
-        Match match = OVXMessageUtil.loadFromPacket(
-                this.getPacketIn().getData(),
-                inport,
-                sw.getOfVersion());
-
-        this.log.debug(match.toString());
+        Match match = ctx.getMatch(inport, sw.getOfVersion());
 
         if (this.port.isEdge()) {
-            this.tenantId = this.fetchTenantId(match, map, true);
+            this.tenantId = this.fetchTenantId(ctx, map, true);
 
             if (this.tenantId == null) {
-                this.log.debug(
-                        "PacketIn {} does not belong to any virtual network; "
-                                + "dropping and installing a temporary drop rule",
-                        this);
+                MessageTracer.trace(Event.PACKET_IN_DROP, 0,
+                        sw.getSwitchId(), inport & 0xffff);
                 this.installDropRule(sw, match);
                 return;
             }
@@ -185,42 +271,35 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
             vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
             this.ovxPort = this.port.getOVXPort(this.tenantId, 0);
             this.sendPkt(vSwitch, match, sw);
-            this.learnHostIP(match, map);
-            this.learnAddresses(match);
-            this.log.debug("Edge PacketIn {} sent to virtual network {}", this.getOFMessage().toString(),
-                    this.tenantId);
+            this.learnHostIP(ctx, map);
+            this.learnAddresses(ctx);
+            MessageTracer.trace(Event.PACKET_IN_EDGE, this.tenantId,
+                    sw.getSwitchId(), inport & 0xffff);
             return;
         }
 
-        if (match.get(MatchField.ETH_TYPE) == EthType.IPv4
-                || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
+        if (ctx.isIPv4() || ctx.isArp()) {
 
-            PhysicalIPAddress srcIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_SRC).getInt()
-            );
+            final int srcIP = ctx.getNwSrc();
 
-            PhysicalIPAddress dstIP = new PhysicalIPAddress(
-                    match.get(MatchField.IPV4_DST).getInt()
-            );
+            final int dstIP = ctx.getNwDst();
 
-            Ethernet eth = new Ethernet();
-            eth.deserialize(this.getPacketIn().getData(), 0, this.getPacketIn().getData().length);
-
-            OVXLinkUtils lUtils = new OVXLinkUtils(eth.getSourceMAC(),
-                    eth.getDestinationMAC());
+            OVXLinkUtils lUtils = new OVXLinkUtils(
+                    MacAddress.of(ctx.getDlSrc()),
+                    MacAddress.of(ctx.getDlDst()));
 
             if (lUtils.isValid()) {
                 OVXPort srcPort = port.getOVXPort(lUtils.getTenantId(),
                         lUtils.getLinkId());
 
                 if (srcPort == null) {
-                    this.log.debug(
-                            "Virtual Src Port Unknown: {}, port {} with this match {}; dropping packet",
-                            sw.getName(), match.get(MatchField.IN_PORT).getShortPortNumber(), match);
+                    MessageTracer.trace(Event.PACKET_IN_UNKNOWN_PORT,
+                            lUtils.getTenantId(), sw.getSwitchId(),
+                            inport & 0xffff);
                     return;
                 }
 
-                this.setInport(srcPort.getPortNumber());
+                this.rewriteInport(srcPort.getPortNumber());
 
                 OVXLink link;
                 try {
@@ -239,22 +318,29 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 // TODO: Need to check that the values in linkId and flowId
                 // don't exceed their space
                 if (linkField == OVXLinkField.MAC_ADDRESS) {
+                    LinkedList<MacAddress> macList;
                     try {
-                        LinkedList<MacAddress> macList = sw.getMap()
+                        macList = sw.getMap()
                                 .getVirtualNetwork(this.ovxPort.getTenantId())
                                 .getFlowManager()
                                 .getFlowValues(lUtils.getFlowId());
-                        eth.setSourceMACAddress(macList.get(0).getBytes())
-                                .setDestinationMACAddress(macList.get(1).getBytes());
-                        match = OVXMessageUtil.updateMatch(match, match.createBuilder()
-                                .setExact(MatchField.ETH_SRC, eth.getSourceMAC())
-                                .setExact(MatchField.ETH_DST, eth.getDestinationMAC())
-                                .build()
-                        );
-
                     } catch (NetworkMappingException e) {
                         log.warn(e);
+                        macList = new LinkedList<MacAddress>();
                     }
+                    if (macList.isEmpty()) {
+                        // tagged by a stale physical FlowMod, the flow ID was
+                        // released; the frame still carries the link fields
+                        log.debug("Unknown flowId {} on virtual link {}; "
+                                + "dropping PacketIn", lUtils.getFlowId(),
+                                link.getLinkId());
+                        MessageTracer.trace(Event.PACKET_IN_DROP,
+                                lUtils.getTenantId(), sw.getSwitchId(),
+                                inport & 0xffff);
+                        return;
+                    }
+                    ctx.setDlSrc(macList.get(0).getLong());
+                    ctx.setDlDst(macList.get(1).getLong());
                 } else if (linkField == OVXLinkField.VLAN) {
                     // TODO
                     log.warn("VLAN virtual links not yet implemented.");
@@ -262,78 +348,69 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
                 }
             }
 
-            if (match.get(MatchField.ETH_TYPE) == EthType.ARP) {
+            if (ctx.isArp()) {
                 // ARP packet
-                final ARP arp = (ARP) eth.getPayload();
-                this.tenantId = this.fetchTenantId(match, map, true);
+                this.tenantId = this.fetchTenantId(ctx, map, true);
 
-                try {
-                    if (map.hasVirtualIP(srcIP)) {
-                        arp.setSenderProtocolAddress(map.getVirtualIP(srcIP)
-                                .getIp());
-                    }
-                    if (map.hasVirtualIP(dstIP)) {
-                        arp.setTargetProtocolAddress(map.getVirtualIP(dstIP)
-                                .getIp());
-                    }
-                } catch (AddressMappingException e) {
-                    log.warn("Inconsistency in OVXMap? : {}", e);
+                final long vSrcIP = map.lookupVirtualIP(srcIP);
+                if (vSrcIP != IPTranslationTable.NONE) {
+                    ctx.setNwSrc((int) vSrcIP);
                 }
-            }else if (match.get(MatchField.ETH_TYPE) == EthType.IPv4) {
-                try {
-                    final IPv4 ip = (IPv4) eth.getPayload();
-                    ip.setDestinationAddress(map.getVirtualIP(dstIP).getIp());
-                    ip.setSourceAddress(map.getVirtualIP(srcIP).getIp());
+                final long vDstIP = map.lookupVirtualIP(dstIP);
+                if (vDstIP != IPTranslationTable.NONE) {
+                    ctx.setNwDst((int) vDstIP);
+                }
+            } else {
+                final long vDstIP = map.lookupVirtualIP(dstIP);
+                final long vSrcIP = map.lookupVirtualIP(srcIP);
+                if (vDstIP != IPTranslationTable.NONE
+                        && vSrcIP != IPTranslationTable.NONE) {
+                    ctx.setNwDst((int) vDstIP);
+                    ctx.setNwSrc((int) vSrcIP);
                     // TODO: Incorporate below into fetchTenantId
                     if (this.tenantId == null) {
-                        this.tenantId = dstIP.getTenantId();
+                        this.tenantId = new PhysicalIPAddress(dstIP).getTenantId();
                     }
-                } catch (AddressMappingException e) {
-                    log.warn("Could not rewrite IP fields : {}", e);
+                } else {
+                    log.warn("Could not rewrite IP fields : {} -> {} not mapped",
+                            IPv4Address.of(srcIP), IPv4Address.of(dstIP));
                 }
-            } else {
-                this.log.info("{} handling not yet implemented; dropping",
-                        match.get(MatchField.ETH_TYPE).toString());
-                this.installDropRule(sw, match);
-                return;
             }
 
-            this.setOFMessage(this.getPacketIn().createBuilder()
-                    .setData(eth.serialize())
-                    .build()
-            );
+            if (ctx.isModified()) {
+                this.rewriteData(ctx.getData());
+            }
 
             vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
             this.sendPkt(vSwitch, match, sw);
-            this.log.info("IPv4 PacketIn {} sent to virtual network {}", this,
-                    this.tenantId);
+            MessageTracer.trace(Event.PACKET_IN_LINK,
+                    this.tenantId == null ? 0 : this.tenantId,
+                    sw.getSwitchId(), inport & 0xffff);
             return;
         }
 
-        this.tenantId = this.fetchTenantId(match, map, true);
+        this.tenantId = this.fetchTenantId(ctx, map, true);
         if (this.tenantId == null) {
-            this.log.debug(
-                    "PacketIn {} does not belong to any virtual network; "
-                            + "dropping and installing a temporary drop rule",
-                    this);
+            MessageTracer.trace(Event.PACKET_IN_DROP, 0, sw.getSwitchId(),
+                    inport & 0xffff);
             this.installDropRule(sw, match);
             return;
         }
         vSwitch = this.fetchOVXSwitch(sw, vSwitch, map);
 
         this.sendPkt(vSwitch, match, sw);
-        this.log.info("Layer2 PacketIn {} sent to virtual network {}", this.getOFMessage(),
-                this.tenantId);
+        MessageTracer.trace(Event.PACKET_IN_L2, this.tenantId,
+                sw.getSwitchId(), inport & 0xffff);
     }
 
-    private void learnHostIP(Match match, Mappable map) {
-        if(match.get(MatchField.IPV4_SRC) != null) {
+    private void learnHostIP(PacketContext ctx, Mappable map) {
+        if(ctx.isIPv4()) {
             try {
                 OVXNetwork vnet = map.getVirtualNetwork(this.tenantId);
                 Host host = vnet.getHost(ovxPort);
                 if (host != null) {
-                    host.setIPAddress(match.get(MatchField.IPV4_SRC).getInt());
+                    vnet.learnHostIP(host, ctx.getNwSrc());
                 } else {
                     log.warn("Host not found on virtual port {}", ovxPort);
                 }
@@ -350,24 +427,24 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
     private void sendPkt(final OVXSwitch vSwitch, final Match match,
                          final PhysicalSwitch sw) {
         if (vSwitch == null || !vSwitch.isActive()) {
-            this.log.warn(
+            log.warn(
                     "Controller for virtual network {} has not yet connected "
                             + "or is down", this.tenantId);
             this.installDropRule(sw, match);
             return;
         }
 
-        this.setOFMessage(this.getPacketIn().createBuilder()
-                .setBufferId(OFBufferId.of(vSwitch.addToBufferMap(this)))
-                .build()
-        );
+        this.rewrite().setBufferId(OFBufferId.of(vSwitch.addToBuffer(
+                this.getData(), this.getPacketIn().getBufferId())));
 
         short inport;
         if(this.getOFMessage().getVersion() == OFVersion.OF_10) {
-            inport = this.getPacketIn().getInPort().getShortPortNumber();
+            inport = (this.inPort == null ? this.getPacketIn().getInPort()
+                    : this.inPort).getShortPortNumber();
         }else{
-            if(this.getPacketIn().getMatch().get(MatchField.IN_PORT) != null)
-                inport = this.getPacketIn().getMatch().get(MatchField.IN_PORT).getShortPortNumber();
+            final OFPort in = this.matchRewrite().get(MatchField.IN_PORT);
+            if(in != null)
+                inport = in.getShortPortNumber();
             else
                 inport = 0;
         }
@@ -375,24 +452,23 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         if (this.port != null && this.ovxPort != null
                 && this.ovxPort.isActive()) {
 
-            //this.log.info("before-----------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
+            //log.info("before-----------------------------------------------------");
+            //log.info(HexString.toHexString(this.getPacketIn().getData()));
 
-            this.setInport(this.ovxPort.getPortNumber());
+            this.rewriteInport(this.ovxPort.getPortNumber());
 
-            if((this.getPacketIn().getData() != null)
+            if((this.getData() != null)
                 && (vSwitch.getMissSendLen() != OVXSetConfig.MSL_FULL)) {
 
-                this.setOFMessage(this.getPacketIn().createBuilder()
-                        .setData(Arrays.copyOf(
-                                this.getPacketIn().getData(),
-                                U16.f(vSwitch.getMissSendLen())))
-                        .build()
-                );
+                this.rewriteData(Arrays.copyOf(
+                        this.getData(),
+                        U16.f(vSwitch.getMissSendLen())));
             }
 
-            //this.log.info("after------------------------------------------------------");
-            //this.log.info(HexString.toHexString(this.getPacketIn().getData()));
+            this.applyRewrite();
+
+            //log.info("after------------------------------------------------------");
+            //log.info(HexString.toHexString(this.getPacketIn().getData()));
 
             vSwitch.sendMsg(this, sw);
         }else if (this.port == null) {
@@ -407,16 +483,10 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
 
 
 
-    private void learnAddresses(final Match match) {
-        if(match.get(MatchField.ETH_TYPE) == EthType.IPv4
-            || match.get(MatchField.ETH_TYPE) == EthType.ARP) {
-            if(match.get(MatchField.IPV4_SRC) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_SRC).getInt());
-            }
-
-            if(match.get(MatchField.IPV4_DST) != null) {
-                IPMapper.getPhysicalIp(this.tenantId, match.get(MatchField.IPV4_DST).getInt());
-            }
+    private void learnAddresses(final PacketContext ctx) {
+        if(ctx.isIPv4()) {
+            IPMapper.getPhysicalIp(this.tenantId, ctx.getNwSrc());
+            IPMapper.getPhysicalIp(this.tenantId, ctx.getNwDst());
         }
     }
 
@@ -432,9 +502,9 @@ public class OVXPacketIn extends OVXMessage implements Virtualizable {
         sw.sendMsg(fm, sw);
     }
 
-    private Integer fetchTenantId(final Match match, final Mappable map,
+    private Integer fetchTenantId(final PacketContext ctx, final Mappable map,
                                   final boolean useMAC) {
-        MacAddress mac = match.get(MatchField.ETH_SRC);
+        MacAddress mac = MacAddress.of(ctx.getDlSrc());
         if (useMAC && map.hasMAC(mac)) {
             try {
                 return map.getMAC(mac);
@@ -21,6 +21,7 @@ package net.onrc.openvirtex.messages;
 
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PacketInBuffer;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
@@ -44,7 +45,7 @@ import java.util.List;
 
 public class OVXPacketOut extends OVXMessage implements Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXPacketOut.class
+    private static final Logger log = LogManager.getLogger(OVXPacketOut.class
             .getName());
     private Match match = null;
     private final List<OFAction> approvedActions = new LinkedList<OFAction>();
@@ -85,17 +86,21 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
 
     @Override
     public void devirtualize(final OVXSwitch sw) throws OFParseError {
-        this.log.debug("devirtualize");
-        //this.log.info(HexString.toHexString(this.getPacketOut().getData()));
+        log.debug("devirtualize");
+        //log.info(HexString.toHexString(this.getPacketOut().getData()));
 
         OVXPort inport = sw.getPort(this.getPacketOut().getInPort().getShortPortNumber());
 
         OVXMatch ovxMatch = null;
 
+        // the rewrites are collected here and the physical PacketOut built
+        // once
+        final OFPacketOut.Builder builder = this.getPacketOut().createBuilder();
+
         if (this.getPacketOut().getBufferId() == OFBufferId.NO_BUFFER) {
 
             if (this.getPacketOut().getData().length <= 14) {
-                this.log.error("PacketOut has no buffer or data {}; dropping",
+                log.error("PacketOut has no buffer or data {}; dropping",
                         this);
                 sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFBadRequestCode.BAD_LEN, this), sw);
                 return;
@@ -107,42 +112,33 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
                     sw.getOfVersion()
             );
 
-            this.log.debug("Data Length = " + this.getPacketOut().getData().length);
-            this.log.debug(this.match.toString());
-
             ovxMatch = new OVXMatch(this.match);
             ovxMatch.setPktData(this.getPacketOut().getData());
         } else {
 
-            final OVXPacketIn cause = sw.getFromBufferMap(this.getPacketOut().getBufferId().getInt());
+            final PacketInBuffer.Entry cause = sw.getFromBuffer(this.getPacketOut().getBufferId().getInt());
 
             if (cause == null) {
-                this.log.error(
+                log.error(
                         "Unknown buffer id {} for virtual switch {}; dropping",
                         this.getPacketOut().getBufferId().getInt(), sw);
                 return;
             }
 
             this.match = OVXMessageUtil.loadFromPacket(
-                    cause.getPacketIn().getData(),
+                    cause.getData(),
                     this.getPacketOut().getInPort().getShortPortNumber(),
                     sw.getOfVersion()
             );
 
-            this.setOFMessage(this.getPacketOut().createBuilder()
-                    .setBufferId(cause.getPacketIn().getBufferId())
-                    .build()
-            );
+            builder.setBufferId(cause.getBufferId());
 
             ovxMatch = new OVXMatch(this.match);
-            ovxMatch.setPktData(cause.getPacketIn().getData());
+            ovxMatch.setPktData(cause.getData());
 
-            if (cause.getPacketIn().getBufferId() == OFBufferId.NO_BUFFER) {
+            if (cause.getBufferId() == OFBufferId.NO_BUFFER) {
 
-                this.setOFMessage(this.getPacketOut().createBuilder()
-                        .setData(cause.getPacketIn().getData())
-                        .build()
-                );
+                builder.setData(cause.getData());
             }
         }
 
@@ -153,40 +149,37 @@ public class OVXPacketOut extends OVXMessage implements Devirtualizable {
                 ((VirtualizableAction) action2).virtualize(sw, this.approvedActions, ovxMatch);
 
             } catch (final ActionVirtualizationDenied e) {
-                this.log.warn("Action {} could not be virtualized; error: {}",
+                log.warn("Action {} could not be virtualized; error: {}",
                         act, e.getMessage());
                 sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
                 return;
             } catch (final DroppedMessageException e) {
-                this.log.debug("Dropping packetOut {}", this);
+                log.debug("Dropping packetOut {}", this);
                 return;
             } catch (final NullPointerException e) {
-                this.log.debug("Action {} could not be supported", act);
+                log.debug("Action {} could not be supported", act);
                 return;
             }
         }
 
-        if (U16.f(this.getPacketOut().getInPort().getShortPortNumber()) <
+        OFPort inPort = this.getPacketOut().getInPort();
+        if (U16.f(inPort.getShortPortNumber()) <
                 U16.f(OFPort.MAX.getShortPortNumber())) {
-            this.setOFMessage(this.getPacketOut().createBuilder()
-                    .setInPort(OFPort.of(inport.getPhysicalPortNumber()))
-                    .build()
-            );
+            inPort = OFPort.of(inport.getPhysicalPortNumber());
+            builder.setInPort(inPort);
         }
 
         this.prependRewriteActions(sw);
 
-        this.setOFMessage(this.getPacketOut().createBuilder()
-                .setActions(this.approvedActions)
-                .build()
-        );
+        builder.setActions(this.approvedActions);
 
-        if (U16.f(this.getPacketOut().getInPort().getShortPortNumber()) <
+        if (U16.f(inPort.getShortPortNumber()) <
                 U16.f(OFPort.MAX.getShortPortNumber())) {
-            OVXMessageUtil.translateXid(this, inport);
+            builder.setXid(inport.getParentSwitch().translate(this, inport));
         }
-        this.log.debug("Sending packet-out to sw {}: {}", sw.getName(), this);
-        //this.log.info(HexString.toHexString(this.getPacketOut().getData()));
+        this.setOFMessage(builder.build());
+        log.debug("Sending packet-out to sw {}: {}", sw.getName(), this);
+        //log.info(HexString.toHexString(this.getPacketOut().getData()));
         sw.sendSouth(this, inport);
     }
 
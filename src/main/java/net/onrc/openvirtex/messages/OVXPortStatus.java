@@ -26,18 +26,16 @@ import java.util.Map;
 import java.util.Set;
 
 import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
-import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
-import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.port.LinkPair;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.routing.PathReverter;
 import net.onrc.openvirtex.routing.SwitchRoute;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -45,7 +43,7 @@ import org.projectfloodlight.openflow.protocol.*;
 
 public class OVXPortStatus extends OVXMessage implements Virtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXPortStatus.class);
+    private static final Logger log = LogManager.getLogger(OVXPortStatus.class);
 
     public OVXPortStatus(OFMessage msg){
         super(msg);
@@ -55,7 +53,7 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-       // this.log.info("virtualize");
+       // log.info("virtualize");
 
 
         Mappable map = sw.getMap();
@@ -67,7 +65,17 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
 
         log.info("Received {} from switch {}", this.getOFMessage().toString(),
                 sw.getSwitchId());
+        final boolean wasDown = p.isLinkDown();
+        p.applyPortStatus(this);
         LinkPair<PhysicalLink> pair = p.getLink();
+        if ((pair != null) && (pair.exists())) {
+            /* revert vLinks/routes with inactive paths over the phyLink,
+             * only when the link actually came back up. */
+            PhysicalLink plink = pair.getOutLink();
+            if (wasDown && !isState(OFPortState.LINK_DOWN)) {
+                PathReverter.linkUp(plink);
+            }
+        }
         try {
             Set<Integer> vnets = map.listVirtualNetworks().keySet();
             for (Integer tenantId : vnets) {
@@ -156,25 +164,6 @@ public class OVXPortStatus extends OVXMessage implements Virtualizable {
             NetworkMappingException {
         PhysicalLink plink = pair.getOutLink();
 
-        if (!isState(OFPortState.LINK_DOWN)
-                && !plink.getSrcPort().getOfPort().getState().contains(OFPortState.LINK_DOWN)) {
-
-            OVXNetwork net = map.getVirtualNetwork(tid);
-            for (OVXLink link : net.getLinks()) {
-                link.tryRevert(plink);
-            }
-            for (OVXSwitch ovxSw : net.getSwitches()) {
-                if (ovxSw instanceof OVXBigSwitch) {
-                    for (Map<OVXPort, SwitchRoute> routeMap : ((OVXBigSwitch) ovxSw)
-                            .getRouteMap().values()) {
-                        for (SwitchRoute route : routeMap.values()) {
-                            route.tryRevert(plink);
-                        }
-                    }
-                }
-            }
-        }
-
         if (map.hasOVXLinks(plink, tid)) {
             List<OVXLink> vlinks = map.getVirtualLinks(plink, tid);
             for (OVXLink vlink : vlinks) {
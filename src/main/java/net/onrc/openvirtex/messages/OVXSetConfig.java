@@ -26,7 +26,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFSetConfig;
 
 public class OVXSetConfig extends OVXMessage implements Devirtualizable {
-    private final Logger log = LogManager.getLogger(OVXSetConfig.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXSetConfig.class.getName());
 
     public static final short MSL_FULL = (short) 0xffff;
     public static final short MSL_DEFAULT = (short) 0x0080;
@@ -41,10 +41,10 @@ public class OVXSetConfig extends OVXMessage implements Devirtualizable {
 
     @Override
     public void devirtualize(final OVXSwitch sw) {
-        //this.log.info("devirtualize");
+        //log.info("devirtualize");
 
         sw.setMissSendLen((short)this.getSetConfig().getMissSendLen());
-        this.log.info("Setting miss send length to {} for OVXSwitch {}",
+        log.info("Setting miss send length to {} for OVXSwitch {}",
                 (short)this.getSetConfig().getMissSendLen(), sw.getSwitchName());
     }
 }
@@ -27,7 +27,7 @@ import org.projectfloodlight.openflow.protocol.*;
 
 public class OVXStatisticsReply extends OVXMessage implements Virtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXStatisticsReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXStatisticsReply.class.getName());
 
     //OFStatsReply ofStatsReply;
     private OVXStatistics statistics;
@@ -37,7 +37,7 @@ public class OVXStatisticsReply extends OVXMessage implements Virtualizable {
 
         OFStatsReply ofStatsReply = (OFStatsReply)msg;
 
-        //this.log.info(msg.toString());
+        //log.info(msg.toString());
 
         switch(ofStatsReply.getStatsType())
         {
@@ -76,7 +76,7 @@ public class OVXStatisticsReply extends OVXMessage implements Virtualizable {
                 this.statistics = ovxMeterStatsReply;
                 break;
             default:
-                this.log.info("Not supporting StatsType " + ofStatsReply.getStatsType());
+                log.info("Not supporting StatsType " + ofStatsReply.getStatsType());
                 this.statistics = null;
                 break;
         }
@@ -95,20 +95,18 @@ DESC FLOW AGGREGATE TABLE PORT QUEUE VENDOR
 
     @Override
     public void virtualize(final PhysicalSwitch sw) {
-        //this.log.info("virtualize ");
-        //this.log.info(this.getOFMessage().toString());
+        //log.info("virtualize ");
+        //log.info(this.getOFMessage().toString());
 
         try {
 
             if (this.getStatistics() != null) {
                 VirtualizableStatistic stat = (VirtualizableStatistic)this.getStatistics();
                 stat.virtualizeStatistic(sw, this);
-            } else if (this.getStatistics().getType() == OFStatsType.FLOW) {
-                sw.setFlowStatistics(null);
             }
 
         } catch (final ClassCastException e) {
-            this.log.error("Statistic received is not virtualizable {}", this);
+            log.error("Statistic received is not virtualizable {}", this);
         }
     }
 
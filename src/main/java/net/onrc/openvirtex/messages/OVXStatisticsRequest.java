@@ -27,7 +27,7 @@ import org.projectfloodlight.openflow.protocol.*;
 
 public class OVXStatisticsRequest extends OVXMessage implements Devirtualizable {
 
-    private final Logger log = LogManager.getLogger(OVXStatisticsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXStatisticsRequest.class.getName());
 
     private OVXStatistics statistics;
 
@@ -82,7 +82,7 @@ public class OVXStatisticsRequest extends OVXMessage implements Devirtualizable
                 this.statistics = ovxGroupDescStatsRequest;
                 break;
             default:
-                this.log.info("Not supporting StatsType " + ofStatsRequest.getStatsType());
+                log.info("Not supporting StatsType " + ofStatsRequest.getStatsType());
                 this.statistics = null;
                 break;
         }
@@ -99,15 +99,15 @@ public class OVXStatisticsRequest extends OVXMessage implements Devirtualizable
 
     @Override
     public void devirtualize(final OVXSwitch sw) {
-        //this.log.info("devirtualize");
-        //this.log.info(this.getOFMessage().toString());
+        //log.info("devirtualize");
+        //log.info(this.getOFMessage().toString());
         try {
             final OVXStatistics stat = this.getStatistics();
             if(stat != null)
                 ((DevirtualizableStatistic) stat).devirtualizeStatistic(sw, this);
 
         } catch (final ClassCastException e) {
-            this.log.error("Statistic received is not devirtualizable {}",
+            log.error("Statistic received is not devirtualizable {}",
                     this);
         }
 
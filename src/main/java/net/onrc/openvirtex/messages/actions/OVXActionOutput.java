@@ -22,6 +22,7 @@ package net.onrc.openvirtex.messages.actions;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.IPMapper;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.OVXLinkUtils;
@@ -53,7 +54,7 @@ import java.util.List;
 import java.util.Map;
 
 public class OVXActionOutput extends OVXAction implements VirtualizableAction {
-    Logger log = LogManager.getLogger(OVXActionOutput.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXActionOutput.class.getName());
 
     private OFActionOutput ofActionOutput;
 
@@ -66,7 +67,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
     public void virtualize(OVXSwitch sw, List<OFAction> approvedActions, OVXMatch match)
             throws ActionVirtualizationDenied, DroppedMessageException {
         OFFactory ofFactory = OFFactories.getFactory(sw.getOfVersion());
-        //this.log.info("virtualize");
+        //log.info("virtualize");
 
         //final OVXPort2 inPort = sw.getPort(match.getMatch().get(MatchField.IN_PORT).getShortPortNumber());
 
@@ -117,7 +118,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
 
             for (final OVXPort outPort : outPortList) {
                 Integer linkId = 0;
-                Integer flowId = 0;
+                int flowId = 0;
 
                 if (sw instanceof OVXBigSwitch
                         && inPort.getPhysicalPort().getParentSwitch()
@@ -126,7 +127,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                     final OVXBigSwitch bigSwitch = (OVXBigSwitch) outPort.getParentSwitch();
                     final SwitchRoute route = bigSwitch.getRoute(inPort, outPort);
                     if (route == null) {
-                        this.log.error(
+                        log.error(
                                 "Cannot retrieve the bigswitch internal route between ports {} {}, dropping message",
                                 inPort, outPort);
                         throw new DroppedMessageException(
@@ -144,8 +145,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             try {
                                 flowId = vnet.getFlowManager()
                                         .getFlowId(
-                                                match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                                match.getMatch().get(MatchField.ETH_DST).getBytes()
+                                                match.getMatch().get(MatchField.ETH_SRC).getLong(),
+                                                match.getMatch().get(MatchField.ETH_DST).getLong()
                                         );
                                 OVXLinkUtils lUtils = new OVXLinkUtils(
                                         sw.getTenantId(), link.getLinkId(), flowId);
@@ -160,7 +161,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                                 throw new DroppedMessageException();
                             }
                         } else {
-                            this.log.error(
+                            log.error(
                                     "Cannot retrieve the virtual link between ports {} {}, dropping message",
                                     dstPort, inPort);
                             return;
@@ -212,8 +213,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             linkId = link.getLinkId();
                             try {
                                 flowId = vnet.getFlowManager().storeFlowValues(
-                                        match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                        match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                        match.getMatch().get(MatchField.ETH_SRC).getLong(),
+                                        match.getMatch().get(MatchField.ETH_DST).getLong());
                                 link.generateLinkFMs(fm.clone(), flowId);
                                 approvedActions.addAll(new OVXLinkUtils(sw.getTenantId(), linkId, flowId)
                                         .setLinkFields(sw.getOfVersion()));
@@ -245,8 +246,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             if (link != null) {
                                 try {
                                     flowId = vnet.getFlowManager().getFlowId(
-                                            match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                            match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                            match.getMatch().get(MatchField.ETH_SRC).getLong(),
+                                            match.getMatch().get(MatchField.ETH_DST).getLong());
                                     OVXLinkUtils lUtils = new OVXLinkUtils(
                                             sw.getTenantId(), link.getLinkId(),
                                             flowId);
@@ -290,7 +291,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             } else {
                                 // TODO: substitute all the return with
                                 // exceptions
-                                this.log.error(
+                                log.error(
                                         "Cannot retrieve the virtual link between ports {} {}, dropping message",
                                         dstPort, inPort);
                                 return;
@@ -300,8 +301,8 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             linkId = link.getLinkId();
                             try {
                                 flowId = vnet.getFlowManager().storeFlowValues(
-                                        match.getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                        match.getMatch().get(MatchField.ETH_DST).getBytes());
+                                        match.getMatch().get(MatchField.ETH_SRC).getLong(),
+                                        match.getMatch().get(MatchField.ETH_DST).getLong());
                                 link.generateLinkFMs(fm.clone(), flowId);
                                 approvedActions.addAll(new OVXLinkUtils(sw
                                         .getTenantId(), linkId, flowId)
@@ -330,6 +331,11 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                         );
                     }
                 }
+                if (flowId != 0) {
+                    // the entry keeps the flow ID in use until it is removed
+                    ((OVXFlowTable) sw.getFlowTable()).setFlowId(
+                            match.getCookie(), flowId);
+                }
             }
         }else if (match.isPacketOut()) {
             boolean throwException = true;
@@ -344,7 +350,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                             new OVXPacketIn(match.getPktData(),
                                     dstPort.getPortNumber(), sw.getOfVersion()), sw);
 
-                    this.log.debug(
+                    log.debug(
                             "Generate a packetIn from OVX Port {}/{}, physicalPort {}/{}",
                             dstPort.getParentSwitch().getSwitchName(),
                             dstPort.getPortNumber(), dstPort.getPhysicalPort()
@@ -367,7 +373,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
                                 new OVXPacketOut(match.getPktData(),
                                         OFPort.ANY.getShortPortNumber(),
                                         dstPort.getPortNumber(), sw.getOfVersion()), sw);
-                        this.log.debug("PacketOut for a bigSwitch port, "
+                        log.debug("PacketOut for a bigSwitch port, "
                                         + "generate a packet from Physical Port {}/{}",
                                 dstPort.getParentSwitch().getSwitchName(),
                                 dstPort.getPortNumber());
@@ -389,7 +395,7 @@ public class OVXActionOutput extends OVXAction implements VirtualizableAction {
 
                     approvedActions.add(tempAction);
 
-                    this.log.debug(
+                    log.debug(
                             "Physical ports are on the same physical switch, rewrite only outPort to {}",
                             outPort.getPhysicalPortNumber());
                 }
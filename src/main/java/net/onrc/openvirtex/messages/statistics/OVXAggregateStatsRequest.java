@@ -23,6 +23,8 @@ import net.onrc.openvirtex.elements.datapath.FlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore.TenantFlowStats;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
@@ -39,7 +41,7 @@ import org.projectfloodlight.openflow.types.U64;
 import java.util.*;
 
 public class OVXAggregateStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    private Logger log = LogManager.getLogger(OVXAggregateStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXAggregateStatsRequest.class.getName());
 
     protected OFAggregateStatsRequest ofAggregateStatsRequest;
     protected Match match;
@@ -81,30 +83,32 @@ public class OVXAggregateStatsRequest extends OVXStatistics implements Devirtual
 
         if(matchFields.size() == 0 && this.outPort == OFPort.ANY.getPortNumber()) {
             FlowTable ft = sw.getFlowTable();
-            ofAggregateStatsReply= ofAggregateStatsReply.createBuilder()
-                                            .setFlowCount(ft.getFlowTable().size())
-                                            .setByteCount(U64.of(0))
-                                            .setPacketCount(U64.of(0))
-                                            .build();
-
-            for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
-                List<OFFlowStatsEntry> reps = psw.getFlowStats(tid);
-                if (reps != null) {
-                    for (OFFlowStatsEntry s : reps) {
-
-                        if (!uniqueCookies.contains(s.getCookie())) {
-                            ofAggregateStatsReply = ofAggregateStatsReply.createBuilder()
-                                    .setByteCount(U64.of(ofAggregateStatsReply.getByteCount().getValue() +
-                                            s.getByteCount().getValue()))
-                                    .setPacketCount(U64.of(ofAggregateStatsReply.getPacketCount().getValue() +
-                                            s.getPacketCount().getValue()))
-                                    .build();
-
-                            uniqueCookies.add(s.getCookie().getValue());
-                        }
+            List<PhysicalSwitch> psws = getPhysicalSwitches(sw);
+            long packets = 0;
+            long bytes = 0;
+            for (PhysicalSwitch psw : psws) {
+                TenantFlowStats stats = psw.getFlowStats(tid);
+                if (stats == null) {
+                    continue;
+                }
+                if (psws.size() == 1) {
+                    // no entry to share a cookie with, use the totals
+                    packets += stats.getPacketCount();
+                    bytes += stats.getByteCount();
+                    continue;
+                }
+                for (Map.Entry<Long, FlowStatsStore.Entry> e : stats.getEntries().entrySet()) {
+                    if (uniqueCookies.add(e.getKey())) {
+                        packets += e.getValue().getPacketCount();
+                        bytes += e.getValue().getByteCount();
                     }
                 }
             }
+            ofAggregateStatsReply = ofAggregateStatsReply.createBuilder()
+                    .setFlowCount(ft.getFlowTable().size())
+                    .setByteCount(U64.of(bytes))
+                    .setPacketCount(U64.of(packets))
+                    .build();
         }
 
         OVXStatisticsReply reply =
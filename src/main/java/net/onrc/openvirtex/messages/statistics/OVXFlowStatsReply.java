@@ -28,13 +28,9 @@ import org.projectfloodlight.openflow.protocol.OFFlowStatsReply;
 import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFStatsType;
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-
 public class OVXFlowStatsReply extends OVXStatistics implements VirtualizableStatistic {
 
-    Logger log = LogManager.getLogger(OVXFlowStatsReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFlowStatsReply.class.getName());
 
     protected OFFlowStatsReply ofFlowStatsReply;
     protected OFFlowStatsEntry ofFlowStatsEntry;
@@ -65,38 +61,14 @@ public class OVXFlowStatsReply extends OVXStatistics implements VirtualizableSta
 
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw, final OVXStatisticsReply msg) {
-        this.log.debug("virtualizeStatistic");
-        this.log.debug(msg.getOFMessage().toString());
-
-        if (msg.getOFMessage().getXid() != 0) {
-            sw.removeFlowMods(msg);
-            return;
-        }
-
-        HashMap<Integer, List<OFFlowStatsEntry>> stats = new HashMap<Integer, List<OFFlowStatsEntry>>();
+        log.debug("virtualizeStatistic");
+        log.debug("{}", msg.getOFMessage());
 
         OFFlowStatsReply ofFlowStatsReply = (OFFlowStatsReply)msg.getOFMessage();
 
-        for (OFFlowStatsEntry stat : ofFlowStatsReply.getEntries()) {
-             int tid = getTidFromCookie(stat.getCookie().getValue());
-            addToStats(tid, stat, stats);
-        }
-
-        sw.setFlowStatistics(stats);
-    }
-
-    private void addToStats(int tid, OFFlowStatsEntry reply,
-                            HashMap<Integer, List<OFFlowStatsEntry>> stats) {
-        List<OFFlowStatsEntry> statsList = stats.get(tid);
-        if (statsList == null) {
-            statsList = new LinkedList<OFFlowStatsEntry>();
+        if (!sw.getStatisticsManager().flowStatsReply(ofFlowStatsReply)) {
+            sw.getFlowCleaner().flowStatsReply(ofFlowStatsReply);
         }
-        statsList.add(reply);
-        stats.put(tid, statsList);
-    }
-
-    private int getTidFromCookie(long cookie) {
-        return (int) (cookie >> 32);
     }
 
     @Override
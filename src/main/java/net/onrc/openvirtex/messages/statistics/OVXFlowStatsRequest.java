@@ -23,9 +23,9 @@ import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
-import net.onrc.openvirtex.exceptions.MappingException;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore;
+import net.onrc.openvirtex.elements.datapath.statistics.FlowStatsStore.TenantFlowStats;
 import net.onrc.openvirtex.exceptions.SwitchMappingException;
-import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 import org.apache.logging.log4j.LogManager;
@@ -35,12 +35,14 @@ import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.TableId;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class OVXFlowStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    Logger log = LogManager.getLogger(OVXFlowStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXFlowStatsRequest.class.getName());
 
     protected OFFlowStatsRequest ofFlowStatsRequest;
     protected OFPort outPort;
@@ -58,53 +60,30 @@ public class OVXFlowStatsRequest extends OVXStatistics implements Devirtualizabl
 
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw, final OVXStatisticsRequest msg) {
-//        this.log.info("devirtualizeStatistic");
+//        log.info("devirtualizeStatistic");
 
-        List<OFFlowStatsEntry> replies = new LinkedList<OFFlowStatsEntry>();
+        List<OFFlowStatsEntry> replies = new ArrayList<OFFlowStatsEntry>();
         HashSet<Long> uniqueCookies = new HashSet<Long>();
         int tid = sw.getTenantId();
+        OFVersion version = msg.getOFMessage().getVersion();
 
         if (this.outPort.getPortNumber() == OFPort.ANY.getPortNumber()) {
             for (PhysicalSwitch psw : getPhysicalSwitches(sw)) {
-//                this.log.info("getTenantId " + tid);
-                List<OFFlowStatsEntry> reps = psw.getFlowStats(tid);
-                if (reps != null) {
-//                    this.log.info("reps != null");
-
-                    for (OFFlowStatsEntry stat : reps) {
-
-//                        this.log.info(stat.toString());
-
-//                        this.log.info("stat.getCookie() = " + stat.getCookie().toString());
-
-                        if (!uniqueCookies.contains(stat.getCookie().getValue())) {
-                            OVXFlowMod origFM;
-                            try {
-                                origFM = sw.getFlowMod(stat.getCookie().getValue());
-
-                                uniqueCookies.add(stat.getCookie().getValue());
-                            } catch (MappingException e) {
-                                log.warn(
-                                        "FlowMod not found in FlowTable for cookie={}, {}",
-                                        stat.getCookie().toString(),
-                                        stat.toString());
-                                continue;
-                            }
-
-                            stat = stat.createBuilder()
-                                    .setCookie(origFM.getFlowMod().getCookie())
-                                    .setMatch(origFM.getFlowMod().getMatch())
-                                    .build();
-
-                            if(msg.getOFMessage().getVersion() == OFVersion.OF_10)
-                                stat = stat.createBuilder().setActions(origFM.getFlowMod().getActions()).build();
-                            else
-                                stat = stat.createBuilder().setInstructions(origFM.getFlowMod().getInstructions()).build();
-
-
-                            replies.add(stat);
-                        }
+                TenantFlowStats stats = psw.getFlowStats(tid);
+                if (stats == null) {
+                    continue;
+                }
+                for (Map.Entry<Long, FlowStatsStore.Entry> e : stats.getEntries().entrySet()) {
+                    if (!uniqueCookies.add(e.getKey())) {
+                        continue;
+                    }
+                    OFFlowMod origFM = sw.getFlowTable().getOFFlowMod(e.getKey());
+                    if (origFM == null) {
+                        log.warn("FlowMod not found in FlowTable for cookie={}",
+                                e.getKey());
+                        continue;
                     }
+                    replies.add(e.getValue().virtualize(origFM, version));
                 }
             }
 
@@ -30,7 +30,7 @@ import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFStatsType;
 
 public class OVXGroupDescStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    private Logger log = LogManager.getLogger(OVXGroupDescStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXGroupDescStatsRequest.class.getName());
 
     protected OFGroupDescStatsRequest ofGroupDescStatsRequest;
     public OVXGroupDescStatsRequest(OFMessage ofMessage) {
@@ -28,7 +28,7 @@ import org.projectfloodlight.openflow.protocol.*;
 
 public class OVXGroupStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
 
-    private Logger log = LogManager.getLogger(OVXGroupStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXGroupStatsRequest.class.getName());
 
     protected OFGroupStatsRequest ofGroupStatsRequest;
     public OVXGroupStatsRequest(OFMessage ofMessage) {
@@ -27,7 +27,7 @@ import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.*;
 
 public class OVXMeterStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    private Logger log = LogManager.getLogger(OVXMeterStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXMeterStatsRequest.class.getName());
 
     protected OFMeterStatsRequest ofMeterStatsRequest;
     public OVXMeterStatsRequest(OFMessage ofMessage) {
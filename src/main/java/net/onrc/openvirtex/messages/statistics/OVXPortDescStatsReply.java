@@ -32,7 +32,7 @@ import org.projectfloodlight.openflow.protocol.OFStatsType;
 public class OVXPortDescStatsReply extends OVXStatistics implements
         VirtualizableStatistic, DevirtualizableStatistic {
 
-    Logger log = LogManager.getLogger(OVXPortDescStatsReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXPortDescStatsReply.class.getName());
 
     protected OFPortDescStatsReply ofPortDescStatsReply;
 
@@ -48,13 +48,13 @@ public class OVXPortDescStatsReply extends OVXStatistics implements
 
     @Override
     public void devirtualizeStatistic(OVXSwitch sw, OVXStatisticsRequest msg) {
-        this.log.info("devirtualizeStatistic");
+        log.info("devirtualizeStatistic");
 
     }
 
     @Override
     public void virtualizeStatistic(PhysicalSwitch sw, OVXStatisticsReply msg) {
-        this.log.info("virtualizeStatistic");
+        log.info("virtualizeStatistic");
 
     }
 }
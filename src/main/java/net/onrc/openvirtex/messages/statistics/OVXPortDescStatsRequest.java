@@ -31,7 +31,7 @@ import org.projectfloodlight.openflow.protocol.OFStatsType;
  * Created by Administrator on 2016-06-13.
  */
 public class OVXPortDescStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    private Logger log = LogManager.getLogger(OVXAggregateStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXAggregateStatsRequest.class.getName());
 
     protected OFPortDescStatsRequest ofPortDescStatsRequest;
 
@@ -33,7 +33,7 @@ import org.projectfloodlight.openflow.protocol.OFPortStatsReply;
 import org.projectfloodlight.openflow.protocol.OFStatsType;
 
 public class OVXPortStatsReply extends OVXStatistics implements VirtualizableStatistic {
-    Logger log = LogManager.getLogger(OVXPortStatsReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXPortStatsReply.class.getName());
 
     private Map<Short, OFPortStatsEntry> stats = null;
     protected OFPortStatsReply ofPortStatsReply;
@@ -45,7 +45,7 @@ public class OVXPortStatsReply extends OVXStatistics implements VirtualizableSta
 
     @Override
     public void virtualizeStatistic(final PhysicalSwitch sw, final OVXStatisticsReply msg) {
-        //this.log.info("virtualizeStatistic");
+        //log.info("virtualizeStatistic");
 
         stats = new HashMap<Short, OFPortStatsEntry>();
         List<OFPortStatsEntry> statList = ((OFPortStatsReply)msg.getOFMessage()).getEntries();
@@ -32,7 +32,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 public class OVXPortStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
-    Logger log = LogManager.getLogger(OVXPortStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXPortStatsRequest.class.getName());
 
     protected OFPortStatsRequest ofPortStatsRequest;
     protected OFPort portNo;
@@ -46,7 +46,7 @@ public class OVXPortStatsRequest extends OVXStatistics implements Devirtualizabl
 
     @Override
     public void devirtualizeStatistic(final OVXSwitch sw, final OVXStatisticsRequest msg) {
-        //this.log.info("devirtualizeStatistic");
+        //log.info("devirtualizeStatistic");
 
         List<OFPortStatsEntry> replies = new LinkedList<OFPortStatsEntry>();
 
@@ -29,7 +29,7 @@ import org.projectfloodlight.openflow.protocol.OFStatsType;
 
 public class OVXQueueStatsRequest extends OVXStatistics implements DevirtualizableStatistic {
 
-    Logger log = LogManager.getLogger(OVXQueueStatsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXQueueStatsRequest.class.getName());
 
     protected OFQueueStatsRequest ofQueueStatsRequest;
 
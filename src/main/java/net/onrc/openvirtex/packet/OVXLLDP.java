@@ -345,6 +345,18 @@ public class OVXLLDP extends LLDP {
         return true;
     }
 
+    /**
+     * Sets the port of an OVX-generated LLDP packet in place, so that a
+     * packet serialized once can be reused for all ports of a switch.
+     * Packet assumed to have an Ethernet header without VLAN tag.
+     *
+     * @param packet the packet
+     * @param port the port number
+     */
+    public static void setPort(final byte[] packet, final short port) {
+        ByteBuffer.wrap(packet).putShort(PORT_OFFSET, port);
+    }
+
     /**
      * Extracts dpid and port from OVX-generated LLDP packet.
      *
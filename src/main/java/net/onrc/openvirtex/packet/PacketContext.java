@@ -0,0 +1,504 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.packet;
+
+import java.util.Arrays;
+
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.IpDscp;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.OFVlanVidMatch;
+import org.projectfloodlight.openflow.types.TransportPort;
+import org.projectfloodlight.openflow.types.VlanPcp;
+
+/**
+ * Header fields of a frame, decoded once into primitive fields.
+ * <p>
+ * The context walks the Ethernet, ARP or IPv4 and TCP/UDP/ICMP headers of
+ * a frame a single time, trims the Ethernet trailer of IPv4 frames, and
+ * builds the match of the frame on demand. Address rewrites are patched
+ * in place in a private copy of the frame, updating the IPv4 and transport
+ * checksums incrementally, so the frame is neither deserialized into
+ * {@link Ethernet} objects nor copied unless a field actually changes.
+ * <p>
+ * A context can be reused for successive frames through {@link #parse},
+ * but is not thread safe.
+ */
+public class PacketContext {
+
+    private static final short TYPE_VLAN = (short) 0x8100;
+    private static final int ETH_HEADER_LEN = 14;
+    private static final int VLAN_HEADER_LEN = 4;
+    private static final int IPV4_MIN_HEADER_LEN = 20;
+    private static final int ARP_IPV4_LEN = 28;
+
+    private byte[] frame;
+    private int length;
+    // true if frame is a private copy that may be patched in place
+    private boolean owned;
+    private boolean modified;
+
+    private long dlDst;
+    private long dlSrc;
+    private boolean vlan;
+    private short vlanVid;
+    private byte vlanPcp;
+    private short dlType;
+
+    private int l3;
+    private boolean ipv4;
+    private boolean arp;
+    private byte nwTos;
+    private byte nwProto;
+    private int nwSrc;
+    private int nwDst;
+    private boolean firstFragment;
+
+    private int l4;
+    private boolean transport;
+    private int tpSrc;
+    private int tpDst;
+
+    // addresses as received, rewrites do not show in the match
+    private long rxDlDst;
+    private long rxDlSrc;
+    private int rxNwSrc;
+    private int rxNwDst;
+
+    // match of the frame as received, built lazily
+    private Match match;
+    private short matchInPort;
+    private OFVersion matchVersion;
+
+    /**
+     * Decodes the headers of the given frame, dropping whatever was
+     * decoded before. The frame is not modified; if it carries an Ethernet
+     * trailer after an IPv4 packet, the trailer is left out of
+     * {@link #getData()}.
+     *
+     * @param data the frame
+     * @return this context
+     */
+    public PacketContext parse(final byte[] data) {
+        this.frame = data;
+        this.length = data.length;
+        this.owned = false;
+        this.modified = false;
+        this.vlan = false;
+        this.vlanVid = Ethernet.VLAN_UNTAGGED;
+        this.vlanPcp = 0;
+        this.dlType = 0;
+        this.ipv4 = false;
+        this.arp = false;
+        this.nwTos = 0;
+        this.nwProto = 0;
+        this.nwSrc = 0;
+        this.nwDst = 0;
+        this.firstFragment = false;
+        this.transport = false;
+        this.tpSrc = 0;
+        this.tpDst = 0;
+        this.match = null;
+
+        if (this.length < ETH_HEADER_LEN) {
+            this.dlDst = 0;
+            this.dlSrc = 0;
+            this.rxDlDst = 0;
+            this.rxDlSrc = 0;
+            this.rxNwSrc = 0;
+            this.rxNwDst = 0;
+            return this;
+        }
+        this.dlDst = this.getMac(0);
+        this.dlSrc = this.getMac(6);
+        this.rxDlDst = this.dlDst;
+        this.rxDlSrc = this.dlSrc;
+        this.dlType = this.getShort(12);
+        this.l3 = ETH_HEADER_LEN;
+        if (this.dlType == TYPE_VLAN) {
+            if (this.length < ETH_HEADER_LEN + VLAN_HEADER_LEN) {
+                return this;
+            }
+            final short tci = this.getShort(14);
+            this.vlan = true;
+            this.vlanVid = (short) (tci & 0xfff);
+            this.vlanPcp = (byte) ((tci & 0xe000) >> 13);
+            this.dlType = this.getShort(16);
+            this.l3 += VLAN_HEADER_LEN;
+        }
+
+        if (this.dlType == Ethernet.TYPE_IPV4) {
+            this.parseIPv4();
+        } else if (this.dlType == Ethernet.TYPE_ARP) {
+            this.parseArp();
+        }
+        this.rxNwSrc = this.nwSrc;
+        this.rxNwDst = this.nwDst;
+        return this;
+    }
+
+    private void parseIPv4() {
+        this.ipv4 = true;
+        if (this.length < this.l3 + IPV4_MIN_HEADER_LEN) {
+            return;
+        }
+        final int ihl = (this.frame[this.l3] & 0xf) * 4;
+        this.nwTos = (byte) ((this.frame[this.l3 + 1] & 0xfc) >> 2);
+        final int totalLength = this.getShort(this.l3 + 2) & 0xffff;
+        this.firstFragment = (this.getShort(this.l3 + 6) & 0x1fff) == 0;
+        this.nwProto = this.frame[this.l3 + 9];
+        this.nwSrc = this.getInt(this.l3 + 12);
+        this.nwDst = this.getInt(this.l3 + 16);
+
+        // strip the Ethernet trailer, or the controller will take it as
+        // payload and send it back with stale lengths and checksums
+        if (totalLength >= ihl && this.l3 + totalLength < this.length) {
+            this.length = this.l3 + totalLength;
+            this.modified = true;
+        }
+
+        this.l4 = this.l3 + ihl;
+        if ((this.nwProto == IPv4.PROTOCOL_TCP
+                || this.nwProto == IPv4.PROTOCOL_UDP)
+                && this.l4 + 4 <= this.length) {
+            this.transport = true;
+            this.tpSrc = this.getShort(this.l4) & 0xffff;
+            this.tpDst = this.getShort(this.l4 + 2) & 0xffff;
+        }
+    }
+
+    private void parseArp() {
+        this.arp = true;
+        if (this.length < this.l3 + ARP_IPV4_LEN) {
+            return;
+        }
+        // only IPv4 over Ethernet carries 4 byte protocol addresses
+        if (this.getShort(this.l3 + 2) == Ethernet.TYPE_IPV4
+                && this.frame[this.l3 + 5] == 4) {
+            this.nwSrc = this.getInt(this.l3 + 14);
+            this.nwDst = this.getInt(this.l3 + 24);
+        }
+    }
+
+    /**
+     * Gets the match of the frame as it was received on the given port,
+     * i.e., without the rewrites applied so far. The match is built once
+     * per context and port.
+     *
+     * @param inPort the physical or virtual input port
+     * @param version the OpenFlow version of the match
+     * @return the match
+     */
+    public Match getMatch(final short inPort, final OFVersion version) {
+        if (this.match != null && this.matchInPort == inPort
+                && this.matchVersion == version) {
+            return this.match;
+        }
+        final Match.Builder builder = OFFactories.getFactory(version)
+                .buildMatch();
+        builder.setExact(MatchField.IN_PORT, OFPort.of(inPort));
+        if (this.length >= ETH_HEADER_LEN) {
+            builder.setExact(MatchField.ETH_SRC, MacAddress.of(this.rxDlSrc))
+                    .setExact(MatchField.ETH_DST, MacAddress.of(this.rxDlDst));
+        }
+        if (this.vlan) {
+            builder.setExact(MatchField.VLAN_VID,
+                    OFVlanVidMatch.ofRawVid(this.vlanVid))
+                    .setExact(MatchField.VLAN_PCP, VlanPcp.of(this.vlanPcp));
+        }
+        if (this.ipv4 && this.length >= this.l3 + IPV4_MIN_HEADER_LEN) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                    .setExact(MatchField.IPV4_SRC,
+                            IPv4Address.of(this.rxNwSrc))
+                    .setExact(MatchField.IPV4_DST,
+                            IPv4Address.of(this.rxNwDst))
+                    .setExact(MatchField.IP_DSCP, IpDscp.of(this.nwTos));
+            if (this.nwProto == IPv4.PROTOCOL_ICMP) {
+                builder.setExact(MatchField.IP_PROTO, IpProtocol.ICMP);
+            } else if (this.transport && this.nwProto == IPv4.PROTOCOL_TCP) {
+                builder.setExact(MatchField.IP_PROTO, IpProtocol.TCP)
+                        .setExact(MatchField.TCP_SRC,
+                                TransportPort.of(this.tpSrc))
+                        .setExact(MatchField.TCP_DST,
+                                TransportPort.of(this.tpDst));
+            } else if (this.transport) {
+                builder.setExact(MatchField.IP_PROTO, IpProtocol.UDP)
+                        .setExact(MatchField.UDP_SRC,
+                                TransportPort.of(this.tpSrc))
+                        .setExact(MatchField.UDP_DST,
+                                TransportPort.of(this.tpDst));
+            }
+        } else if (this.arp) {
+            builder.setExact(MatchField.ETH_TYPE, EthType.ARP)
+                    .setExact(MatchField.ARP_SPA,
+                            IPv4Address.of(this.rxNwSrc))
+                    .setExact(MatchField.ARP_TPA,
+                            IPv4Address.of(this.rxNwDst));
+        }
+        this.match = builder.build();
+        this.matchInPort = inPort;
+        this.matchVersion = version;
+        return this.match;
+    }
+
+    /**
+     * Gets the frame, trimmed and carrying the rewrites applied so far.
+     * The returned array must not be modified; later rewrites are applied
+     * to a new copy.
+     *
+     * @return the frame
+     */
+    public byte[] getData() {
+        if (this.length != this.frame.length) {
+            this.frame = Arrays.copyOf(this.frame, this.length);
+        }
+        this.owned = false;
+        return this.frame;
+    }
+
+    /**
+     * Checks if the frame has been trimmed or rewritten, i.e., if
+     * {@link #getData()} differs from the parsed frame.
+     *
+     * @return true if the frame changed
+     */
+    public boolean isModified() {
+        return this.modified;
+    }
+
+    public long getDlDst() {
+        return this.dlDst;
+    }
+
+    public long getDlSrc() {
+        return this.dlSrc;
+    }
+
+    public boolean hasVlan() {
+        return this.vlan;
+    }
+
+    public short getVlanVid() {
+        return this.vlanVid;
+    }
+
+    public byte getVlanPcp() {
+        return this.vlanPcp;
+    }
+
+    public short getDlType() {
+        return this.dlType;
+    }
+
+    public boolean isIPv4() {
+        return this.ipv4;
+    }
+
+    public boolean isArp() {
+        return this.arp;
+    }
+
+    public byte getNwProto() {
+        return this.nwProto;
+    }
+
+    /**
+     * Gets the IPv4 source address, or the ARP sender protocol address.
+     *
+     * @return the source address
+     */
+    public int getNwSrc() {
+        return this.nwSrc;
+    }
+
+    /**
+     * Gets the IPv4 destination address, or the ARP target protocol
+     * address.
+     *
+     * @return the destination address
+     */
+    public int getNwDst() {
+        return this.nwDst;
+    }
+
+    public int getTpSrc() {
+        return this.tpSrc;
+    }
+
+    public int getTpDst() {
+        return this.tpDst;
+    }
+
+    /**
+     * Rewrites the source MAC address of the frame.
+     *
+     * @param mac the MAC address
+     */
+    public void setDlSrc(final long mac) {
+        if (mac == this.dlSrc || this.length < ETH_HEADER_LEN) {
+            return;
+        }
+        this.own();
+        this.putMac(6, mac);
+        this.dlSrc = mac;
+    }
+
+    /**
+     * Rewrites the destination MAC address of the frame.
+     *
+     * @param mac the MAC address
+     */
+    public void setDlDst(final long mac) {
+        if (mac == this.dlDst || this.length < ETH_HEADER_LEN) {
+            return;
+        }
+        this.own();
+        this.putMac(0, mac);
+        this.dlDst = mac;
+    }
+
+    /**
+     * Rewrites the IPv4 source address, or the ARP sender protocol address,
+     * of the frame.
+     *
+     * @param ip the address
+     */
+    public void setNwSrc(final int ip) {
+        if (this.setNwAddress(ip, this.nwSrc, 12, 14)) {
+            this.nwSrc = ip;
+        }
+    }
+
+    /**
+     * Rewrites the IPv4 destination address, or the ARP target protocol
+     * address, of the frame.
+     *
+     * @param ip the address
+     */
+    public void setNwDst(final int ip) {
+        if (this.setNwAddress(ip, this.nwDst, 16, 24)) {
+            this.nwDst = ip;
+        }
+    }
+
+    private boolean setNwAddress(final int ip, final int old,
+                                 final int ipv4Offset, final int arpOffset) {
+        if (ip == old) {
+            return false;
+        }
+        if (this.ipv4 && this.length >= this.l3 + IPV4_MIN_HEADER_LEN) {
+            this.own();
+            this.putInt(this.l3 + ipv4Offset, ip);
+            this.adjustChecksum(this.l3 + 10, old, ip, false);
+            // TCP and UDP checksums cover the addresses too
+            if (!this.firstFragment) {
+                return true;
+            }
+            if (this.nwProto == IPv4.PROTOCOL_TCP
+                    && this.l4 + 18 <= this.length) {
+                this.adjustChecksum(this.l4 + 16, old, ip, false);
+            } else if (this.nwProto == IPv4.PROTOCOL_UDP
+                    && this.l4 + 8 <= this.length) {
+                this.adjustChecksum(this.l4 + 6, old, ip, true);
+            }
+            return true;
+        }
+        if (this.arp && this.length >= this.l3 + ARP_IPV4_LEN) {
+            this.own();
+            this.putInt(this.l3 + arpOffset, ip);
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * Incremental checksum update for a 32 bit field changing from old to
+     * now (RFC 1624). A zero UDP checksum means no checksum and is left
+     * alone, and a computed zero is sent as all ones.
+     */
+    private void adjustChecksum(final int pos, final int old, final int now,
+                                final boolean udp) {
+        final int checksum = this.getShort(pos) & 0xffff;
+        if (udp && checksum == 0) {
+            return;
+        }
+        int sum = (~checksum & 0xffff) + (~old >>> 16 & 0xffff)
+                + (~old & 0xffff) + (now >>> 16) + (now & 0xffff);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        int result = ~sum & 0xffff;
+        if (udp && result == 0) {
+            result = 0xffff;
+        }
+        this.frame[pos] = (byte) (result >>> 8);
+        this.frame[pos + 1] = (byte) result;
+    }
+
+    /*
+     * Copies the frame before its first in-place change.
+     */
+    private void own() {
+        if (!this.owned) {
+            this.frame = Arrays.copyOf(this.frame, this.length);
+            this.owned = true;
+        }
+        this.modified = true;
+    }
+
+    private long getMac(final int pos) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = mac << 8 | this.frame[pos + i] & 0xffL;
+        }
+        return mac;
+    }
+
+    private void putMac(final int pos, final long mac) {
+        for (int i = 5; i >= 0; i--) {
+            this.frame[pos + 5 - i] = (byte) (mac >>> i * 8);
+        }
+    }
+
+    private short getShort(final int pos) {
+        return (short) ((this.frame[pos] & 0xff) << 8
+                | this.frame[pos + 1] & 0xff);
+    }
+
+    private int getInt(final int pos) {
+        return (this.frame[pos] & 0xff) << 24
+                | (this.frame[pos + 1] & 0xff) << 16
+                | (this.frame[pos + 2] & 0xff) << 8
+                | this.frame[pos + 3] & 0xff;
+    }
+
+    private void putInt(final int pos, final int value) {
+        this.frame[pos] = (byte) (value >>> 24);
+        this.frame[pos + 1] = (byte) (value >>> 16);
+        this.frame[pos + 2] = (byte) (value >>> 8);
+        this.frame[pos + 3] = (byte) value;
+    }
+}
@@ -54,6 +54,12 @@ public class ManualRoute implements Routable {
         }
     }
 
+    @Override
+    public int computeRoutes(final OVXBigSwitch vSwitch) {
+        // routes are set manually
+        return 0;
+    }
+
     @Override
     public String getName() {
         return "manual";
@@ -0,0 +1,251 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.Mappable;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.LinkPair;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.projectfloodlight.openflow.protocol.OFPortState;
+
+/**
+ * Reverts virtual links and big switch routes to the paths they switched
+ * away from once a physical link on those paths comes back up.
+ * <p>
+ * Only the links and routes indexed by the map with an inactive path over
+ * the restored physical link are touched. Reverts are damped per physical
+ * link: every time a link comes up it gets a penalty which decays with
+ * {@link #HALF_LIFE}. While the penalty is above {@link #SUPPRESS} the
+ * revert is deferred until it has decayed below {@link #REUSE}, so that an
+ * oscillating port does not move the paths over it back and forth.
+ */
+public final class PathReverter {
+
+    private static final Logger log = LogManager.getLogger(PathReverter.class
+            .getName());
+
+    // penalty half life, in ms
+    static final long HALF_LIFE = 15000;
+    // penalty added each time a link comes up
+    static final double PENALTY = 1000;
+    // reverts are suppressed above this penalty...
+    static final double SUPPRESS = 2000;
+    // ...until it decays below this one
+    static final double REUSE = 750;
+    // caps how long a revert can be deferred, four half lives
+    static final double MAX_PENALTY = 16 * REUSE;
+
+    private static final ConcurrentMap<PhysicalLink, Flap> FLAPS =
+            new ConcurrentHashMap<PhysicalLink, Flap>();
+
+    private PathReverter() {
+    }
+
+    /**
+     * Handles a physical link coming back up, reverting the virtual links
+     * and routes with an inactive path over it right away, or once the
+     * link has stopped flapping.
+     *
+     * @param plink the restored physical link
+     */
+    public static void linkUp(final PhysicalLink plink) {
+        Flap flap = FLAPS.get(plink);
+        if (flap == null) {
+            final Flap added = new Flap(plink);
+            flap = FLAPS.putIfAbsent(plink, added);
+            if (flap == null) {
+                flap = added;
+            }
+        }
+        if (flap.up(System.currentTimeMillis())) {
+            revert(plink);
+        }
+    }
+
+    /**
+     * Drops the damping state of an unregistered physical link, cancelling
+     * its deferred revert.
+     *
+     * @param plink the physical link
+     */
+    public static void remove(final PhysicalLink plink) {
+        final Flap flap = FLAPS.remove(plink);
+        if (flap != null) {
+            flap.cancel();
+        }
+    }
+
+    /**
+     * Offers the restored physical link to the virtual links and routes
+     * that have an inactive path over it, installing the resulting path
+     * switches together.
+     *
+     * @param plink the restored physical link
+     */
+    static void revert(final PhysicalLink plink) {
+        final Mappable map = OVXMap.getInstance();
+        final List<OVXLink> links = map.getInactiveLinks(plink);
+        final List<SwitchRoute> routes = map.getInactiveRoutes(plink);
+        if (links.isEmpty() && routes.isEmpty()) {
+            return;
+        }
+        RouteInstaller.beginInstall();
+        try {
+            for (OVXLink link : links) {
+                link.tryRevert(plink);
+            }
+            for (SwitchRoute route : routes) {
+                route.tryRevert(plink);
+            }
+        } finally {
+            RouteInstaller.endInstall();
+        }
+    }
+
+    /**
+     * Checks if the physical link still exists and both its ports are up.
+     *
+     * @param plink the physical link
+     * @return true if the link is up, false otherwise
+     */
+    static boolean isUp(final PhysicalLink plink) {
+        final PhysicalPort src = plink.getSrcPort();
+        final LinkPair<PhysicalLink> pair = src.getLink();
+        return pair != null && pair.exists()
+                && plink.equals(pair.getOutLink())
+                && !src.getOfPort().getState().contains(OFPortState.LINK_DOWN)
+                && !plink.getDstPort().getOfPort().getState()
+                        .contains(OFPortState.LINK_DOWN);
+    }
+
+    /**
+     * Decays a penalty over the given time.
+     *
+     * @param penalty the penalty
+     * @param elapsed the elapsed time, in ms
+     * @return the decayed penalty
+     */
+    static double decay(final double penalty, final long elapsed) {
+        if (elapsed <= 0) {
+            return penalty;
+        }
+        return penalty * Math.pow(0.5, (double) elapsed / HALF_LIFE);
+    }
+
+    /**
+     * Damping state of a physical link.
+     */
+    private static final class Flap implements TimerTask {
+
+        private final PhysicalLink plink;
+        private double penalty = 0;
+        private long updated = 0;
+        private boolean suppressed = false;
+        private Timeout timeout = null;
+
+        Flap(final PhysicalLink plink) {
+            this.plink = plink;
+        }
+
+        /**
+         * Charges the penalty of the link coming up.
+         *
+         * @param now the current time, in ms
+         * @return true if the revert should happen right away, false if it
+         *         was deferred
+         */
+        synchronized boolean up(final long now) {
+            this.penalty = Math.min(MAX_PENALTY,
+                    decay(this.penalty, now - this.updated) + PENALTY);
+            this.updated = now;
+            if (this.penalty > SUPPRESS) {
+                this.suppressed = true;
+            }
+            if (!this.suppressed) {
+                return true;
+            }
+            if (this.timeout == null) {
+                this.schedule();
+                log.info("Physical link {} is flapping, deferring revert",
+                        this.plink);
+            }
+            return false;
+        }
+
+        /**
+         * Schedules the deferred revert for when the penalty will have
+         * decayed below the reuse threshold.
+         */
+        private void schedule() {
+            final long delay = (long) Math.ceil(HALF_LIFE
+                    * Math.log(this.penalty / REUSE) / Math.log(2));
+            this.timeout = PhysicalNetwork.getTimer().newTimeout(this,
+                    Math.max(delay, 1), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Cancels the deferred revert, if any.
+         */
+        synchronized void cancel() {
+            if (this.timeout != null) {
+                this.timeout.cancel();
+                this.timeout = null;
+            }
+        }
+
+        @Override
+        public void run(final Timeout t) {
+            synchronized (this) {
+                if (this.timeout != t) {
+                    // cancelled since it fired
+                    return;
+                }
+                this.timeout = null;
+                final long now = System.currentTimeMillis();
+                this.penalty = decay(this.penalty, now - this.updated);
+                this.updated = now;
+                if (this.penalty >= REUSE) {
+                    // came up again in the meantime
+                    this.schedule();
+                    return;
+                }
+                this.suppressed = false;
+            }
+            if (isUp(this.plink)) {
+                log.info("Physical link {} is stable, reverting paths",
+                        this.plink);
+                revert(this.plink);
+            }
+        }
+    }
+}
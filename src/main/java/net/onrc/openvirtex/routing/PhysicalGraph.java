@@ -0,0 +1,482 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adjacency-indexed view of the physical topology used for route
+ * computation. Switches are numbered densely and each switch keeps the
+ * array of its outgoing links, with their metric, in link order.
+ * <p>
+ * The graph is an immutable snapshot replaced on every link addition or
+ * removal, only copying the adjacency of the switch the link leaves from.
+ * Each snapshot carries the topology version it was built at, and caches
+ * the shortest path trees computed on it, which are thus dropped as soon
+ * as the topology changes.
+ */
+public class PhysicalGraph {
+
+    private static Logger log = LogManager.getLogger(PhysicalGraph.class
+            .getName());
+
+    // link metric used when the link cannot tell, as in Link.getMetric()
+    private static final int DEFAULT_METRIC = 1000;
+
+    // switch DPID to switch number, never reused
+    private final Map<Long, Integer> ids;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Creates an empty graph.
+     */
+    public PhysicalGraph() {
+        this.ids = new ConcurrentHashMap<Long, Integer>();
+        this.snapshot = new Snapshot(0, new Edge[0][]);
+    }
+
+    /**
+     * Gets the version of the topology, incremented on every link change.
+     *
+     * @return the topology version
+     */
+    public long getVersion() {
+        return this.snapshot.version;
+    }
+
+    /**
+     * Adds a link to the graph.
+     *
+     * @param link the physical link
+     */
+    public synchronized void addLink(final PhysicalLink link) {
+        final int src = this.getId(link.getSrcSwitch());
+        final int dst = this.getId(link.getDstSwitch());
+        final Snapshot old = this.snapshot;
+        final Edge[][] adjacency = Arrays.copyOf(old.adjacency,
+                Math.max(old.adjacency.length, Math.max(src, dst) + 1));
+        final Edge[] out = adjacency[src] == null ? new Edge[0]
+                : adjacency[src];
+        final Edge edge = new Edge(dst, metric(link), link);
+        // keep the links sorted, so that ties are broken as they used to
+        int pos = 0;
+        while (pos < out.length && out[pos].link.compareTo(link) <= 0) {
+            if (out[pos].link.equals(link)) {
+                return;
+            }
+            pos++;
+        }
+        final Edge[] updated = new Edge[out.length + 1];
+        System.arraycopy(out, 0, updated, 0, pos);
+        updated[pos] = edge;
+        System.arraycopy(out, pos, updated, pos + 1, out.length - pos);
+        adjacency[src] = updated;
+        this.snapshot = new Snapshot(old.version + 1, adjacency);
+    }
+
+    /**
+     * Removes a link from the graph.
+     *
+     * @param link the physical link
+     */
+    public synchronized void removeLink(final PhysicalLink link) {
+        final Integer src = this.ids.get(link.getSrcSwitch().getSwitchId());
+        final Snapshot old = this.snapshot;
+        if (src == null || src >= old.adjacency.length
+                || old.adjacency[src] == null) {
+            return;
+        }
+        final Edge[] out = old.adjacency[src];
+        for (int i = 0; i < out.length; i++) {
+            if (out[i].link.equals(link)) {
+                final Edge[] updated = new Edge[out.length - 1];
+                System.arraycopy(out, 0, updated, 0, i);
+                System.arraycopy(out, i + 1, updated, i, out.length - i - 1);
+                final Edge[][] adjacency = old.adjacency.clone();
+                adjacency[src] = updated;
+                this.snapshot = new Snapshot(old.version + 1, adjacency);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the tree of the shortest paths from the given switch to all the
+     * others, going through the given switches only. Trees are cached until
+     * the topology changes.
+     *
+     * @param source the source switch
+     * @param domain the switches paths may go through, or null for all
+     * @return the shortest path tree
+     */
+    public Tree getTree(final PhysicalSwitch source,
+                        final Collection<PhysicalSwitch> domain) {
+        final Snapshot snap = this.snapshot;
+        final BitSet allowed = this.toBitSet(domain);
+        final Integer src = this.ids.get(source.getSwitchId());
+        if (src == null) {
+            return new Tree(snap.version, -1, null, null, null);
+        }
+        final TreeKey key = new TreeKey(src, allowed);
+        Tree tree = snap.trees.get(key);
+        if (tree == null) {
+            tree = snap.dijkstra(src, allowed,
+                    Collections.<PhysicalLink>emptySet());
+            final Tree cached = snap.trees.putIfAbsent(key, tree);
+            if (cached != null) {
+                tree = cached;
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Computes the shortest path between two switches going through the
+     * given switches only, and avoiding the given links. Paths that avoid no
+     * link are taken from the cached trees.
+     *
+     * @param src the source switch
+     * @param dst the destination switch
+     * @param domain the switches the path may go through, or null for all
+     * @param excluded the links the path may not use
+     * @return the path, empty if both switches are the same, or null if there
+     *         is none
+     */
+    public LinkedList<PhysicalLink> getPath(final PhysicalSwitch src,
+                                            final PhysicalSwitch dst,
+                                            final Collection<PhysicalSwitch> domain,
+                                            final Collection<PhysicalLink> excluded) {
+        if (src.equals(dst)) {
+            return new LinkedList<PhysicalLink>();
+        }
+        if (excluded == null || excluded.isEmpty()) {
+            return this.getTree(src, domain).getPath(dst);
+        }
+        final Snapshot snap = this.snapshot;
+        final Integer srcId = this.ids.get(src.getSwitchId());
+        if (srcId == null) {
+            return null;
+        }
+        return snap.dijkstra(srcId, this.toBitSet(domain), excluded)
+                .getPath(dst);
+    }
+
+    /**
+     * Gets the link between two ports.
+     *
+     * @param srcPort the source port
+     * @param dstPort the destination port
+     * @return the link, or null if there is none
+     */
+    public PhysicalLink getLink(final PhysicalPort srcPort,
+                                final PhysicalPort dstPort) {
+        final Integer src = this.ids.get(srcPort.getParentSwitch()
+                .getSwitchId());
+        final Snapshot snap = this.snapshot;
+        if (src == null || src >= snap.adjacency.length
+                || snap.adjacency[src] == null) {
+            return null;
+        }
+        for (final Edge edge : snap.adjacency[src]) {
+            if (edge.link.getSrcPort().equals(srcPort)
+                    && edge.link.getDstPort().equals(dstPort)) {
+                return edge.link;
+            }
+        }
+        return null;
+    }
+
+    private int getId(final PhysicalSwitch sw) {
+        Integer id = this.ids.get(sw.getSwitchId());
+        if (id == null) {
+            id = this.ids.size();
+            this.ids.put(sw.getSwitchId(), id);
+        }
+        return id;
+    }
+
+    private BitSet toBitSet(final Collection<PhysicalSwitch> domain) {
+        if (domain == null) {
+            return null;
+        }
+        final BitSet allowed = new BitSet(this.ids.size());
+        for (PhysicalSwitch sw : domain) {
+            final Integer id = this.ids.get(sw.getSwitchId());
+            if (id != null) {
+                allowed.set(id);
+            }
+        }
+        return allowed;
+    }
+
+    private static int metric(final PhysicalLink link) {
+        try {
+            return link.getMetric();
+        } catch (ArithmeticException e) {
+            // ports without a known speed
+            log.warn("No metric for link {}, assuming {}", link,
+                    PhysicalGraph.DEFAULT_METRIC);
+            return PhysicalGraph.DEFAULT_METRIC;
+        }
+    }
+
+    /**
+     * Shortest path tree rooted at a switch, computed on a given topology
+     * version.
+     */
+    public final class Tree {
+        private final long version;
+        private final int source;
+        private final int[] distance;
+        private final int[] parent;
+        private final PhysicalLink[] via;
+
+        private Tree(final long version, final int source,
+                     final int[] distance, final int[] parent,
+                     final PhysicalLink[] via) {
+            this.version = version;
+            this.source = source;
+            this.distance = distance;
+            this.parent = parent;
+            this.via = via;
+        }
+
+        /**
+         * Gets the topology version this tree was computed on.
+         *
+         * @return the topology version
+         */
+        public long getVersion() {
+            return this.version;
+        }
+
+        /**
+         * Gets the sum of the link metrics along the shortest path to the
+         * given switch.
+         *
+         * @param dst the destination switch
+         * @return the distance, or Integer.MAX_VALUE if it is unreachable
+         */
+        public int getDistance(final PhysicalSwitch dst) {
+            final int id = this.indexOf(dst);
+            return id < 0 ? Integer.MAX_VALUE : this.distance[id];
+        }
+
+        /**
+         * Gets the shortest path to the given switch.
+         *
+         * @param dst the destination switch
+         * @return the path, empty if it is the root of the tree, or null if
+         *         it is unreachable
+         */
+        public LinkedList<PhysicalLink> getPath(final PhysicalSwitch dst) {
+            final int id = this.indexOf(dst);
+            if (id < 0 || this.distance[id] == Integer.MAX_VALUE) {
+                return null;
+            }
+            final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
+            for (int step = id; step != this.source; step = this.parent[step]) {
+                path.addFirst(this.via[step]);
+            }
+            return path;
+        }
+
+        private int indexOf(final PhysicalSwitch sw) {
+            final Integer id = PhysicalGraph.this.ids.get(sw.getSwitchId());
+            if (this.source < 0 || id == null || id >= this.distance.length) {
+                return -1;
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Link leaving a switch, as seen by the graph.
+     */
+    private static final class Edge {
+        private final int to;
+        private final int metric;
+        private final PhysicalLink link;
+
+        private Edge(final int to, final int metric, final PhysicalLink link) {
+            this.to = to;
+            this.metric = metric;
+            this.link = link;
+        }
+    }
+
+    /**
+     * Identifies a cached tree by its root and the switches it spans.
+     */
+    private static final class TreeKey {
+        private final int source;
+        private final BitSet domain;
+
+        private TreeKey(final int source, final BitSet domain) {
+            this.source = source;
+            this.domain = domain;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.source
+                    + (this.domain == null ? 0 : this.domain.hashCode());
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof TreeKey)) {
+                return false;
+            }
+            final TreeKey other = (TreeKey) obj;
+            return this.source == other.source
+                    && (this.domain == null ? other.domain == null
+                    : this.domain.equals(other.domain));
+        }
+    }
+
+    /**
+     * Immutable adjacency at a given topology version, with the trees
+     * computed on it.
+     */
+    private final class Snapshot {
+        private final long version;
+        private final Edge[][] adjacency;
+        private final ConcurrentHashMap<TreeKey, Tree> trees;
+
+        private Snapshot(final long version, final Edge[][] adjacency) {
+            this.version = version;
+            this.adjacency = adjacency;
+            this.trees = new ConcurrentHashMap<TreeKey, Tree>();
+        }
+
+        /*
+         * Dijkstra over a binary heap of (distance, switch) pairs packed in
+         * longs, so that equal distances are settled in switch order.
+         * Stale heap entries are skipped instead of decreasing keys.
+         */
+        private Tree dijkstra(final int src, final BitSet allowed,
+                              final Collection<PhysicalLink> excluded) {
+            final int n = this.adjacency.length;
+            final int[] distance = new int[Math.max(n, src + 1)];
+            Arrays.fill(distance, Integer.MAX_VALUE);
+            final int[] parent = new int[distance.length];
+            final PhysicalLink[] via = new PhysicalLink[distance.length];
+            final boolean[] settled = new boolean[distance.length];
+            final LongHeap heap = new LongHeap(n + 1);
+            distance[src] = 0;
+            heap.push(src);
+            while (!heap.isEmpty()) {
+                final int node = (int) heap.pop();
+                if (settled[node]) {
+                    continue;
+                }
+                settled[node] = true;
+                final Edge[] out = node < n ? this.adjacency[node] : null;
+                if (out == null) {
+                    continue;
+                }
+                for (final Edge edge : out) {
+                    final int to = edge.to;
+                    if (settled[to] || allowed != null && !allowed.get(to)
+                            || !excluded.isEmpty() && excluded.contains(edge.link)) {
+                        continue;
+                    }
+                    final long d = (long) distance[node] + edge.metric;
+                    if (d < distance[to]) {
+                        distance[to] = (int) d;
+                        parent[to] = node;
+                        via[to] = edge.link;
+                        heap.push(d << 32 | to);
+                    }
+                }
+            }
+            return new Tree(this.version, src, distance, parent, via);
+        }
+    }
+
+    /**
+     * Binary min-heap of longs.
+     */
+    private static final class LongHeap {
+        private long[] heap;
+        private int size;
+
+        private LongHeap(final int capacity) {
+            this.heap = new long[Math.max(capacity, 16)];
+        }
+
+        private boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        private void push(final long value) {
+            if (this.size == this.heap.length) {
+                this.heap = Arrays.copyOf(this.heap, this.size * 2);
+            }
+            int i = this.size++;
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (this.heap[parent] <= value) {
+                    break;
+                }
+                this.heap[i] = this.heap[parent];
+                i = parent;
+            }
+            this.heap[i] = value;
+        }
+
+        private long pop() {
+            final long top = this.heap[0];
+            final long last = this.heap[--this.size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (child + 1 < this.size
+                        && this.heap[child + 1] < this.heap[child]) {
+                    child++;
+                }
+                if (this.heap[child] >= last) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = last;
+            return top;
+        }
+    }
+}
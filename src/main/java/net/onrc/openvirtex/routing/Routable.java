@@ -42,6 +42,15 @@ public interface Routable {
     public SwitchRoute getRoute(OVXBigSwitch vSwitch, OVXPort srcPort,
                                 OVXPort dstPort);
 
+    /**
+     * Computes the routes between all the ports of a big switch at once.
+     *
+     * @param vSwitch
+     *            The virtual big switch
+     * @return the number of routes added
+     */
+    public int computeRoutes(OVXBigSwitch vSwitch);
+
     /**
      * Gets the name of the routing policy.
      *
@@ -0,0 +1,318 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.messages.OVXMessage;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+
+/**
+ * Installs the flow mods of virtual links and big switch routes so that
+ * the ingress flow mod only goes out once the rest of the path is in place.
+ * <p>
+ * While an install is open on the calling thread (see
+ * {@link #beginInstall()}), the flow mods of the intermediate and egress
+ * hops are collected per physical switch, and the ingress flow mod, as
+ * well as any packet released with it, is held back. When the install
+ * ends, each switch gets its batch in a single write followed by a
+ * barrier, and the held back messages are written once all barriers have
+ * been answered, or after a timeout. Without an open install messages are
+ * written right away.
+ * <p>
+ * Barriers use XIDs with the two high bits set, which are never handed out
+ * by the XID translator nor used by the flow cleaner.
+ */
+public final class RouteInstaller {
+
+    private static final Logger log = LogManager.getLogger(RouteInstaller.class
+            .getName());
+
+    // held back messages are released anyway after this time
+    static final long RELEASE_TIMEOUT = 1000;
+
+    private static final int BARRIER_XID = 0xc0000000;
+    private static final int BARRIER_XID_MASK = 0x3fffffff;
+
+    // upper bounds of the install latency histogram buckets, in us
+    private static final long[] BUCKETS = {100, 250, 500, 1000, 2500, 5000,
+        10000, 25000, 50000, 100000, 250000, 500000, 1000000};
+
+    private static final AtomicInteger NEXT_XID = new AtomicInteger();
+    private static final ConcurrentMap<Integer, Barrier> BARRIERS =
+            new ConcurrentHashMap<Integer, Barrier>();
+
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+    private static final AtomicLong INSTALLED = new AtomicLong();
+    private static final AtomicLong TIMED_OUT = new AtomicLong();
+    private static final AtomicLong HOPS = new AtomicLong();
+    private static final AtomicLong TOTAL_MICROS = new AtomicLong();
+    private static final AtomicLongArray LATENCY =
+            new AtomicLongArray(BUCKETS.length + 1);
+
+    private static final ThreadLocal<Install> INSTALL =
+            new ThreadLocal<Install>() {
+                @Override
+                protected Install initialValue() {
+                    return new Install();
+                }
+            };
+
+    private RouteInstaller() {
+    }
+
+    /**
+     * Opens an install on the calling thread. Installs may nest; messages
+     * are written when the outermost one ends.
+     */
+    public static void beginInstall() {
+        INSTALL.get().depth++;
+    }
+
+    /**
+     * Ends the install opened on the calling thread, writing the collected
+     * hop flow mods and barriers, and releasing the held back messages
+     * once the barriers are answered.
+     */
+    public static void endInstall() {
+        final Install install = INSTALL.get();
+        if (--install.depth > 0) {
+            return;
+        }
+        install.depth = 0;
+        if (install.hops.isEmpty()) {
+            // nothing to wait for
+            for (Map.Entry<PhysicalSwitch, List<OFMessage>> e : install.held
+                    .entrySet()) {
+                e.getKey().sendMsgs(e.getValue());
+            }
+            install.held.clear();
+            return;
+        }
+        final Pending pending = new Pending(install.held,
+                install.hops.size());
+        install.held = new LinkedHashMap<PhysicalSwitch, List<OFMessage>>();
+        IN_FLIGHT.incrementAndGet();
+        for (Map.Entry<PhysicalSwitch, List<OFMessage>> e : install.hops
+                .entrySet()) {
+            final PhysicalSwitch psw = e.getKey();
+            final List<OFMessage> batch = e.getValue();
+            HOPS.addAndGet(batch.size());
+            final int xid = BARRIER_XID
+                    | (NEXT_XID.getAndIncrement() & BARRIER_XID_MASK);
+            BARRIERS.put(xid, new Barrier(psw, pending));
+            pending.xids.add(xid);
+            batch.add(OFFactories.getFactory(psw.getOfVersion())
+                    .buildBarrierRequest().setXid(xid).build());
+            psw.sendMsgs(batch);
+        }
+        install.hops.clear();
+        pending.timeout = PhysicalNetwork.getTimer().newTimeout(pending,
+                RELEASE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the flow mod of an intermediate or egress hop of a path,
+     * batching it with the other hops to the same switch if an install is
+     * open.
+     *
+     * @param psw the physical switch
+     * @param msg the flow mod
+     */
+    public static void sendHop(final PhysicalSwitch psw, final OVXMessage msg) {
+        final Install install = INSTALL.get();
+        if (install.depth == 0) {
+            psw.sendMsg(msg, psw);
+            return;
+        }
+        add(install.hops, psw, msg.getOFMessage());
+    }
+
+    /**
+     * Holds back a message until the hops of the open install are in
+     * place. Does nothing if no install is open.
+     *
+     * @param psw the physical switch
+     * @param msg the message
+     * @return true if the message was held back, false if it should be
+     *         written by the caller
+     */
+    public static boolean hold(final PhysicalSwitch psw, final OFMessage msg) {
+        final Install install = INSTALL.get();
+        if (install.depth == 0) {
+            return false;
+        }
+        add(install.held, psw, msg);
+        return true;
+    }
+
+    /**
+     * Handles a barrier reply, releasing the held back messages of an
+     * install once its last barrier has been answered.
+     *
+     * @param psw the physical switch that replied
+     * @param xid the XID of the barrier reply
+     * @return true if the barrier was sent by an install
+     */
+    public static boolean barrierReply(final PhysicalSwitch psw,
+                                       final int xid) {
+        final Barrier barrier = BARRIERS.get(xid);
+        if (barrier == null || barrier.psw != psw
+                || !BARRIERS.remove(xid, barrier)) {
+            return false;
+        }
+        if (barrier.pending.remaining.decrementAndGet() == 0) {
+            barrier.pending.release(false);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the install counters: installs in flight, completed and timed
+     * out, hop flow mods written, the total install time in microseconds,
+     * and a histogram of install times, by bucket upper bound in
+     * microseconds.
+     *
+     * @return the counters, by name
+     */
+    public static Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("inFlight", IN_FLIGHT.get());
+        stats.put("installed", INSTALLED.get());
+        stats.put("timedOut", TIMED_OUT.get());
+        stats.put("hops", HOPS.get());
+        stats.put("totalMicros", TOTAL_MICROS.get());
+        final Map<String, Long> latency = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < BUCKETS.length; i++) {
+            latency.put(String.valueOf(BUCKETS[i]), LATENCY.get(i));
+        }
+        latency.put("inf", LATENCY.get(BUCKETS.length));
+        stats.put("latency", latency);
+        return stats;
+    }
+
+    private static void add(final Map<PhysicalSwitch, List<OFMessage>> msgs,
+                            final PhysicalSwitch psw, final OFMessage msg) {
+        List<OFMessage> list = msgs.get(psw);
+        if (list == null) {
+            list = new ArrayList<OFMessage>();
+            msgs.put(psw, list);
+        }
+        list.add(msg);
+    }
+
+    /**
+     * Per thread install state.
+     */
+    private static final class Install {
+        private int depth;
+        private Map<PhysicalSwitch, List<OFMessage>> hops =
+                new LinkedHashMap<PhysicalSwitch, List<OFMessage>>();
+        private Map<PhysicalSwitch, List<OFMessage>> held =
+                new LinkedHashMap<PhysicalSwitch, List<OFMessage>>();
+    }
+
+    /**
+     * An install waiting for its barrier replies.
+     */
+    private static final class Pending implements TimerTask {
+        private final long start = System.nanoTime();
+        private final Map<PhysicalSwitch, List<OFMessage>> held;
+        private final AtomicInteger remaining;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final List<Integer> xids = new ArrayList<Integer>();
+        private volatile Timeout timeout;
+
+        private Pending(final Map<PhysicalSwitch, List<OFMessage>> held,
+                        final int barriers) {
+            this.held = held;
+            this.remaining = new AtomicInteger(barriers);
+        }
+
+        @Override
+        public void run(final Timeout t) {
+            this.release(true);
+        }
+
+        private void release(final boolean timedOut) {
+            if (!this.released.compareAndSet(false, true)) {
+                return;
+            }
+            final Timeout t = this.timeout;
+            if (t != null && !timedOut) {
+                t.cancel();
+            }
+            if (timedOut) {
+                for (Integer xid : this.xids) {
+                    BARRIERS.remove(xid);
+                }
+                TIMED_OUT.incrementAndGet();
+                log.warn("Barriers of a route install not answered in {} ms;"
+                        + " releasing {} switch(es) anyway", RELEASE_TIMEOUT,
+                        this.held.size());
+            }
+            for (Map.Entry<PhysicalSwitch, List<OFMessage>> e : this.held
+                    .entrySet()) {
+                e.getKey().sendMsgs(e.getValue());
+            }
+            final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                    - this.start);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && micros > BUCKETS[bucket]) {
+                bucket++;
+            }
+            LATENCY.incrementAndGet(bucket);
+            TOTAL_MICROS.addAndGet(micros);
+            INSTALLED.incrementAndGet();
+            IN_FLIGHT.decrementAndGet();
+        }
+    }
+
+    /**
+     * A barrier sent by an install.
+     */
+    private static final class Barrier {
+        private final PhysicalSwitch psw;
+        private final Pending pending;
+
+        private Barrier(final PhysicalSwitch psw, final Pending pending) {
+            this.psw = psw;
+            this.pending = pending;
+        }
+    }
+}
@@ -20,13 +20,16 @@
 package net.onrc.openvirtex.routing;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
@@ -46,8 +49,9 @@ import org.projectfloodlight.openflow.types.U8;
 
 
 /**
- * This class implements the Dijkstra Algorithm to compute the shortest path
- * between two physical switches based on the nominal throughput of the link.
+ * This class computes the shortest path between two physical switches based
+ * on the nominal throughput of the link, using the Dijkstra trees of the
+ * {@link PhysicalGraph} of the physical network.
  */
 public class ShortestPath implements Routable {
 
@@ -58,203 +62,8 @@ public class ShortestPath implements Routable {
     private static Logger log = LogManager.getLogger(ShortestPath.class
             .getName());
 
-    /**
-     * This class stores the info related to a PhysicalSwitch predecessor. In
-     * particular, each predecessor is a PhysicalSwitch, but also the best
-     * PhysicalLink between the switches is stored. This solution allows to
-     * support multiple physical links between two physical switches.
-     */
-    public class Predecessor {
-
-        private final PhysicalSwitch sw;
-        private final PhysicalLink link;
-
-        /**
-         * Instantiates a new predecessor.
-         *
-         * @param sw
-         *            the switch
-         * @param link
-         *            the link
-         */
-        public Predecessor(final PhysicalSwitch sw, final PhysicalLink link) {
-            this.sw = sw;
-            this.link = link;
-        }
-
-        /**
-         * Gets the switch.
-         *
-         * @return the switch
-         */
-        public PhysicalSwitch getSwitch() {
-            return this.sw;
-        }
-
-        /**
-         * Gets the link.
-         *
-         * @return the link
-         */
-        public PhysicalLink getLink() {
-            return this.link;
-        }
-    }
-
-    private List<PhysicalLink> edges;
-    private LinkedHashSet<PhysicalSwitch> settledNodes;
-    private LinkedHashSet<PhysicalSwitch> unSettledNodes;
-    private Map<PhysicalSwitch, Predecessor> predecessors;
-    private Map<PhysicalSwitch, Integer> distance;
-
-    /**
-     * Instantiates a new shortest path. Gets an immutable copy of the physical
-     * links from the physical network and stores it in a local list
-     */
-    public ShortestPath() {
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
-    }
-
-    /**
-     * Compute all the paths between a source switch and all the switches in the
-     * network.
-     *
-     * @param source
-     *            the source switch
-     */
-    public void execute(final PhysicalSwitch source) {
-        /*
-         * TODO: The alg is not optimal because it recomputes all the paths from
-         * the source every time we call computePath. A solution is to store
-         * this info. Evaluate pros/cons
-         */
-        this.settledNodes = new LinkedHashSet<PhysicalSwitch>();
-        this.unSettledNodes = new LinkedHashSet<PhysicalSwitch>();
-        this.distance = new HashMap<PhysicalSwitch, Integer>();
-        this.predecessors = new HashMap<PhysicalSwitch, Predecessor>();
-        this.distance.put(source, 0);
-        this.unSettledNodes.add(source);
-        while (this.unSettledNodes.size() > 0) {
-            final PhysicalSwitch node = this.getMinimum(this.unSettledNodes);
-            this.settledNodes.add(node);
-            this.unSettledNodes.remove(node);
-            this.findMinimalDistances(node);
-        }
-    }
-
-    /**
-     * Find minimal distances from a given node.
-     *
-     * @param node
-     *            the source node
-     */
-    private void findMinimalDistances(final PhysicalSwitch node) {
-        final List<PhysicalSwitch> adjacentNodes = this.getNeighbors(node);
-        for (final PhysicalSwitch target : adjacentNodes) {
-            if (this.getShortestDistance(target) > this
-                    .getShortestDistance(node)
-                    + this.getBestLink(node, target).getMetric()) {
-                final PhysicalLink bestLink = this.getBestLink(node, target);
-                this.distance.put(target, this.getShortestDistance(node)
-                        + bestLink.getMetric());
-                this.predecessors.put(target, new Predecessor(node, bestLink));
-                this.unSettledNodes.add(target);
-            }
-        }
-    }
-
-    /**
-     * Gets the best link between two switches. Uses the link metric to evaluate
-     * the link with the highest throughput (e.g., the lowest metric)
-     *
-     * @param node
-     *            the source node
-     * @param target
-     *            the destination node
-     * @return the best link
-     */
-    private PhysicalLink getBestLink(final PhysicalSwitch node,
-                                     final PhysicalSwitch target) {
-        PhysicalLink bestLink = null;
-        for (final PhysicalLink edge : this.edges) {
-            if (edge.getSrcSwitch().equals(node)
-                    && edge.getDstSwitch().equals(target)) {
-                if (bestLink == null || bestLink.getMetric() > edge.getMetric()) {
-                    bestLink = edge;
-                }
-            }
-        }
-        return bestLink;
-    }
-
-    /**
-     * Gets the unsettled neighboring switches from a given switch.
-     *
-     * @param node
-     *            the node
-     * @return the neighbors list
-     */
-    private List<PhysicalSwitch> getNeighbors(final PhysicalSwitch node) {
-        final List<PhysicalSwitch> neighbors = new ArrayList<PhysicalSwitch>();
-        for (final PhysicalLink edge : this.edges) {
-            if (edge.getSrcSwitch().equals(node)
-                    && !this.isSettled(edge.getDstSwitch())) {
-                neighbors.add(edge.getDstSwitch());
-            }
-        }
-        return neighbors;
-    }
-
-    /**
-     * Return the physical switch that has the shortest distance.
-     *
-     * @param vertices
-     *            list of physical switches
-     * @return the closest switch
-     */
-    private PhysicalSwitch getMinimum(
-            final LinkedHashSet<PhysicalSwitch> vertices) {
-        PhysicalSwitch minimum = null;
-        for (final PhysicalSwitch vertex : vertices) {
-            if (minimum == null) {
-                minimum = vertex;
-            } else {
-                if (this.getShortestDistance(vertex) < this
-                        .getShortestDistance(minimum)) {
-                    minimum = vertex;
-                }
-            }
-        }
-        return minimum;
-    }
-
-    /**
-     * Checks if the physical switch is the settle list.
-     *
-     * @param vertex
-     *            the physical switch
-     * @return true, if is settled
-     */
-    private boolean isSettled(final PhysicalSwitch vertex) {
-        return this.settledNodes.contains(vertex);
-    }
-
-    /**
-     * Gets the shortest distance to the given destination.
-     *
-     * @param destination
-     *            the destination
-     * @return the shortest distance
-     */
-    private int getShortestDistance(final PhysicalSwitch destination) {
-        final Integer d = this.distance.get(destination);
-        if (d == null) {
-            return Integer.MAX_VALUE;
-        } else {
-            return d;
-        }
-    }
+    // computes the paths of big-switch routes, one task per source switch
+    private static final ForkJoinPool pool = new ForkJoinPool();
 
     /**
      * Gets the physical path between two virtual ports.
@@ -285,32 +94,21 @@ public class ShortestPath implements Routable {
      */
     public LinkedList<PhysicalLink> computePath(final PhysicalSwitch srcSw,
                                                 final PhysicalSwitch dstSw) {
-        final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
-        if (srcSw != dstSw) {
-            this.execute(srcSw);
-            PhysicalSwitch step = dstSw;
-            // check if a path exists
-            if (this.predecessors.get(step) == null) {
-                return null;
-            }
-            while (this.predecessors.get(step) != null) {
-                path.add(this.predecessors.get(step).getLink());
-                step = this.predecessors.get(step).getSwitch();
-            }
-            // Put it into the correct order
-            Collections.reverse(path);
-        }
-        return path;
+        return PhysicalNetwork.getInstance().getGraph()
+                .getPath(srcSw, dstSw, null, null);
     }
 
     /**
      * Checks if given path is valid.
      *
+     * @param graph
+     *            the physical graph
      * @param path
      *            the path
      * @return true if path is valid, false otherwise
      */
-    private boolean checkPath(LinkedList<PhysicalLink> path) {
+    private static boolean checkPath(final PhysicalGraph graph,
+                                     final LinkedList<PhysicalLink> path) {
         if (path == null) {
             return false;
         }
@@ -318,14 +116,70 @@ public class ShortestPath implements Routable {
             if (link == null) {
                 return false;
             }
-            if (PhysicalNetwork.getInstance().getLink(link.getDstPort(),
-                    link.getSrcPort()) == null) {
+            if (graph.getLink(link.getDstPort(), link.getSrcPort()) == null) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Computes the primary path between two physical switches of a
+     * big-switch, and the given number of backups. Each backup avoids the
+     * links, in both directions, of the paths before it.
+     *
+     * @param graph
+     *            the physical graph
+     * @param srcSw
+     *            the source switch
+     * @param dstSw
+     *            the destination switch
+     * @param domain
+     *            the physical switches of the big-switch
+     * @param backups
+     *            the number of backups
+     * @return the paths found, primary first, empty if there is no primary
+     */
+    private static List<LinkedList<PhysicalLink>> computePaths(
+            final PhysicalGraph graph, final PhysicalSwitch srcSw,
+            final PhysicalSwitch dstSw, final List<PhysicalSwitch> domain,
+            final int backups) {
+        final List<LinkedList<PhysicalLink>> paths = new ArrayList<LinkedList<PhysicalLink>>();
+        final Set<PhysicalLink> used = new HashSet<PhysicalLink>();
+        for (int i = 0; i <= backups; i++) {
+            final LinkedList<PhysicalLink> path = graph.getPath(srcSw, dstSw,
+                    domain, used);
+            if (!checkPath(graph, path)) {
+                break;
+            }
+            paths.add(path);
+            for (final PhysicalLink link : path) {
+                used.add(link);
+                used.add(graph.getLink(link.getDstPort(), link.getSrcPort()));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Gets the reverse of the given path.
+     *
+     * @param graph
+     *            the physical graph
+     * @param path
+     *            a path whose links all have a reverse link
+     * @return the reverse path
+     */
+    private static LinkedList<PhysicalLink> reverse(final PhysicalGraph graph,
+                                                    final List<PhysicalLink> path) {
+        final LinkedList<PhysicalLink> revpath = new LinkedList<PhysicalLink>();
+        for (final PhysicalLink link : path) {
+            revpath.addFirst(graph.getLink(link.getDstPort(),
+                    link.getSrcPort()));
+        }
+        return revpath;
+    }
+
     /**
      * Gets the route element that represents a path between two virtual ports.
      * If the route has already been computed, return the instance, otherwise
@@ -354,28 +208,13 @@ public class ShortestPath implements Routable {
             }
         }
 
-        // Run Djikstra to compute all the paths (primary and backups)
-        List<PhysicalLink> phyLinkList = new ArrayList<PhysicalLink>(
-                PhysicalNetwork.getInstance().getLinks());
-        Collections.sort(phyLinkList);
-        LinkedList<PhysicalLink> path = new LinkedList<>();
-        LinkedList<PhysicalLink> revpath = new LinkedList<>();
-
-        // Retrieve the list of physical switches from the OVXMap and remove
-        // from the edges
-        // (physical network copy) all the edges that don't have that switches
-        // as src or dst
-        // (remove all the links that go outside the big-switch).
-        this.edges.clear();
+        // Compute the primary path and the backups within the physical
+        // switches of the big-switch (links that go outside of it are not
+        // used).
+        final PhysicalGraph graph = PhysicalNetwork.getInstance().getGraph();
+        final List<PhysicalSwitch> phySwList;
         try {
-            List<PhysicalSwitch> phySwList = OVXMap.getInstance()
-                    .getPhysicalSwitches(vSwitch);
-            for (PhysicalLink edge : phyLinkList) {
-                if (phySwList.contains(edge.getSrcSwitch())
-                        && phySwList.contains(edge.getDstSwitch())) {
-                    this.edges.add(edge);
-                }
-            }
+            phySwList = OVXMap.getInstance().getPhysicalSwitches(vSwitch);
         } catch (SwitchMappingException e1) {
             log.error(
                     "Cannot retrieve the physical switches associated to the virtual big-switch {} in the OVXMap. "
@@ -383,56 +222,154 @@ public class ShortestPath implements Routable {
                     vSwitch.getSwitchName());
             return null;
         }
+        final int backups = U8.f(vSwitch.getAlg().getBackups());
+        final List<LinkedList<PhysicalLink>> paths = computePaths(graph,
+                srcPort.getPhysicalPort().getParentSwitch(), dstPort
+                        .getPhysicalPort().getParentSwitch(), phySwList,
+                backups);
+        if (paths.isEmpty()) {
+            log.warn(
+                    "Unable to compute the PRIMARY path for for big-switch {} "
+                            + "between ports ({},{}) and ({},{}) in virtual network {}."
+                            + "Check that at least on physical link exists between the switches"
+                            + "that belongs to the big-switch",
+                    vSwitch.getSwitchName(), srcPort.getPortNumber(),
+                    dstPort.getPortNumber(), dstPort.getPortNumber(),
+                    srcPort.getPortNumber(), vSwitch.getTenantId());
+            return null;
+        }
+        if (paths.size() <= backups) {
+            log.warn(
+                    "Unable to compute the backup (nr. {}) path for for big-switch {} "
+                            + "between ports ({},{}) and ({},{}) in virtual network {}.",
+                    paths.size(), vSwitch.getSwitchName(),
+                    srcPort.getPortNumber(), dstPort.getPortNumber(),
+                    dstPort.getPortNumber(), srcPort.getPortNumber(),
+                    vSwitch.getTenantId());
+        }
+        for (int i = 0; i < paths.size(); i++) {
+            try {
+                vSwitch.createRoute(srcPort, dstPort, paths.get(i),
+                        reverse(graph, paths.get(i)),
+                        (byte) (U8.f(MAXPRIORITY) - i));
+            } catch (final IndexOutOfBoundException e) {
+                log.error(
+                        "Unable to create the virtual switch route for for big-switch {} "
+                                + "between ports ({},{})  in virtual network {}, too many routes in this virtual switch",
+                        vSwitch.getSwitchName(), srcPort.getPortNumber(),
+                        dstPort.getPortNumber(), vSwitch.getTenantId());
+            }
+        }
+        return routeMap.get(srcPort).get(dstPort);
+    }
 
-        for (Short i = 0; i <= U8.f(vSwitch.getAlg().getBackups()); i++) {
-            // Remove from the physical network the shortest-paths already used.
-            // For the primary path, all the physical network is used
-            this.edges.removeAll(path);
-            this.edges.removeAll(revpath);
-            path.clear();
-            revpath.clear();
-            path = computePath(srcPort, dstPort);
-            if (!checkPath(path)) {
-                if (i == 0) {
-                    log.warn(
-                            "Unable to compute the PRIMARY path for for big-switch {} "
-                                    + "between ports ({},{}) and ({},{}) in virtual network {}."
-                                    + "Check that at least on physical link exists between the switches"
-                                    + "that belongs to the big-switch",
-                            vSwitch.getSwitchName(), srcPort.getPortNumber(),
-                            dstPort.getPortNumber(), dstPort.getPortNumber(),
-                            srcPort.getPortNumber(), vSwitch.getTenantId());
-                    return null;
-                } else {
-                    log.warn(
-                            "Unable to compute the backup (nr. {}) path for for big-switch {} "
-                                    + "between ports ({},{}) and ({},{}) in virtual network {}.",
-                            i, vSwitch.getSwitchName(),
-                            srcPort.getPortNumber(), dstPort.getPortNumber(),
-                            dstPort.getPortNumber(), srcPort.getPortNumber(),
-                            vSwitch.getTenantId());
-                    break;
-                }
-            } else {
-                for (final PhysicalLink link : path) {
-                    final PhysicalLink revhop = PhysicalNetwork.getInstance()
-                            .getLink(link.getDstPort(), link.getSrcPort());
-                    revpath.add(revhop);
+    /**
+     * Computes the routes between all the ports of the big-switch that sit
+     * on different physical switches, and adds them to its route map at
+     * once. Paths only depend on the physical switches of the ports, so
+     * they are computed once per pair of switches, in parallel per source
+     * switch, from the shortest path tree rooted there.
+     *
+     * @param vSwitch
+     *            the virtual big switch
+     * @return the number of routes added
+     */
+    @Override
+    public int computeRoutes(final OVXBigSwitch vSwitch) {
+        final PhysicalGraph graph = PhysicalNetwork.getInstance().getGraph();
+        final List<PhysicalSwitch> phySwList;
+        try {
+            phySwList = OVXMap.getInstance().getPhysicalSwitches(vSwitch);
+        } catch (SwitchMappingException e1) {
+            log.error(
+                    "Cannot retrieve the physical switches associated to the virtual big-switch {} in the OVXMap. "
+                            + "Don't compute route using spf.",
+                    vSwitch.getSwitchName());
+            return 0;
+        }
+        final int backups = U8.f(vSwitch.getAlg().getBackups());
+
+        // The port pairs whose route is missing, in the order routes would
+        // be created one by one, and the switch pairs they need paths for.
+        final List<OVXPort[]> pairs = new ArrayList<OVXPort[]>();
+        final Map<PhysicalSwitch, Set<PhysicalSwitch>> needed = new HashMap<PhysicalSwitch, Set<PhysicalSwitch>>();
+        final List<OVXPort> ports = new ArrayList<OVXPort>(vSwitch.getPorts()
+                .values());
+        for (int i = 0; i < ports.size(); i++) {
+            for (int j = i + 1; j < ports.size(); j++) {
+                final OVXPort srcPort = ports.get(i);
+                final OVXPort dstPort = ports.get(j);
+                final PhysicalSwitch srcSw = srcPort.getPhysicalPort()
+                        .getParentSwitch();
+                final PhysicalSwitch dstSw = dstPort.getPhysicalPort()
+                        .getParentSwitch();
+                if (srcSw == dstSw
+                        || vSwitch.getRouteMap().get(srcPort) != null
+                        && vSwitch.getRouteMap().get(srcPort).get(dstPort) != null) {
+                    continue;
                 }
-                Collections.reverse(revpath);
-                try {
-                    vSwitch.createRoute(srcPort, dstPort, path, revpath,
-                            (byte) (U8.f(MAXPRIORITY) - i));
-                } catch (final IndexOutOfBoundException e) {
-                    log.error(
-                            "Unable to create the virtual switch route for for big-switch {} "
-                                    + "between ports ({},{})  in virtual network {}, too many routes in this virtual switch",
-                            vSwitch.getSwitchName(), srcPort.getPortNumber(),
-                            dstPort.getPortNumber(), vSwitch.getTenantId());
+                pairs.add(new OVXPort[] {srcPort, dstPort});
+                Set<PhysicalSwitch> dsts = needed.get(srcSw);
+                if (dsts == null) {
+                    dsts = new HashSet<PhysicalSwitch>();
+                    needed.put(srcSw, dsts);
                 }
+                dsts.add(dstSw);
             }
         }
-        return routeMap.get(srcPort).get(dstPort);
+
+        // One task per source switch
+        final Map<PhysicalSwitch, ForkJoinTask<Map<PhysicalSwitch, List<LinkedList<PhysicalLink>>>>> tasks =
+                new HashMap<PhysicalSwitch, ForkJoinTask<Map<PhysicalSwitch, List<LinkedList<PhysicalLink>>>>>();
+        for (final Map.Entry<PhysicalSwitch, Set<PhysicalSwitch>> entry : needed
+                .entrySet()) {
+            tasks.put(entry.getKey(), ShortestPath.pool
+                    .submit(new Callable<Map<PhysicalSwitch, List<LinkedList<PhysicalLink>>>>() {
+                        @Override
+                        public Map<PhysicalSwitch, List<LinkedList<PhysicalLink>>> call() {
+                            // primaries all come from the same cached tree
+                            graph.getTree(entry.getKey(), phySwList);
+                            final Map<PhysicalSwitch, List<LinkedList<PhysicalLink>>> ret =
+                                    new HashMap<PhysicalSwitch, List<LinkedList<PhysicalLink>>>();
+                            for (final PhysicalSwitch dstSw : entry.getValue()) {
+                                ret.put(dstSw, computePaths(graph,
+                                        entry.getKey(), dstSw, phySwList,
+                                        backups));
+                            }
+                            return ret;
+                        }
+                    }));
+        }
+
+        final List<SwitchRoute> routes = new ArrayList<SwitchRoute>();
+        for (final OVXPort[] pair : pairs) {
+            final PhysicalSwitch srcSw = pair[0].getPhysicalPort()
+                    .getParentSwitch();
+            final List<LinkedList<PhysicalLink>> paths = tasks.get(srcSw)
+                    .join().get(pair[1].getPhysicalPort().getParentSwitch());
+            if (paths.isEmpty()) {
+                // left to getRoute(), which reports it
+                continue;
+            }
+            final List<List<PhysicalLink>> revpaths = new ArrayList<List<PhysicalLink>>();
+            for (final List<PhysicalLink> path : paths) {
+                revpaths.add(reverse(graph, path));
+            }
+            try {
+                routes.addAll(vSwitch.createRoutes(pair[0], pair[1],
+                        new ArrayList<List<PhysicalLink>>(paths), revpaths,
+                        MAXPRIORITY));
+            } catch (final IndexOutOfBoundException e) {
+                log.error(
+                        "Unable to create the virtual switch route for for big-switch {} "
+                                + "between ports ({},{})  in virtual network {}, too many routes in this virtual switch",
+                        vSwitch.getSwitchName(), pair[0].getPortNumber(),
+                        pair[1].getPortNumber(), vSwitch.getTenantId());
+                break;
+            }
+        }
+        vSwitch.addRoutes(routes);
+        return routes.size();
     }
 
     /*
@@ -448,9 +385,8 @@ public class ShortestPath implements Routable {
     @Override
     public void setLinkPath(OVXLink ovxLink) throws PortMappingException {
         // Run Dijkstra to compute all the paths (primary and backups)
-        this.edges = new ArrayList<PhysicalLink>(PhysicalNetwork.getInstance()
-                .getLinks());
-        Collections.sort(this.edges);
+        final PhysicalGraph graph = PhysicalNetwork.getInstance().getGraph();
+        final Set<PhysicalLink> used = new HashSet<PhysicalLink>();
         LinkedList<PhysicalLink> path = new LinkedList<>();
         PhysicalPort srcPathPort = PhysicalNetwork.getInstance()
                 .getNeighborPort(ovxLink.getSrcPort().getPhysicalPort());
@@ -482,24 +418,24 @@ public class ShortestPath implements Routable {
                     "Virtual link {} embeds to a dual-hop physical link {}. No automatic backups are possible.",
                     ovxLink.getLinkId(), path);
         } else {
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            used.add(PhysicalNetwork.getInstance().getLink(
                     ovxLink.getSrcPort().getPhysicalPort(), srcPathPort));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            used.add(PhysicalNetwork.getInstance().getLink(
                     srcPathPort, ovxLink.getSrcPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            used.add(PhysicalNetwork.getInstance().getLink(
                     dstPathPort, ovxLink.getDstPort().getPhysicalPort()));
-            this.edges.remove(PhysicalNetwork.getInstance().getLink(
+            used.add(PhysicalNetwork.getInstance().getLink(
                     ovxLink.getDstPort().getPhysicalPort(), dstPathPort));
+            used.remove(null);
 
             for (Short i = 0; i <= U8.f(ovxLink.getAlg().getBackups()); i++) {
                 /*
                  * Remove from the physical network the shortest-paths already
                  * used. For the primary path, all the physical network is used
                  */
-                this.edges.removeAll(path);
-                path.clear();
-                path = computePath(srcPathPort.getParentSwitch(),
-                        dstPathPort.getParentSwitch());
+                used.addAll(path);
+                path = graph.getPath(srcPathPort.getParentSwitch(),
+                        dstPathPort.getParentSwitch(), null, used);
                 if (path == null) {
                     if (i == 0) {
                         log.warn(
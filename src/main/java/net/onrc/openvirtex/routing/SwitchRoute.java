@@ -35,6 +35,7 @@ import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.exceptions.LinkMappingException;
 import net.onrc.openvirtex.exceptions.NetworkMappingException;
+import net.onrc.openvirtex.messages.MatchRewrite;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 
 import org.apache.logging.log4j.LogManager;
@@ -42,6 +43,7 @@ import org.apache.logging.log4j.Logger;
 import org.projectfloodlight.openflow.protocol.*;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.*;
 
@@ -250,44 +252,35 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .getSwitchName(), this.getRouteId(), this.getSrcPort()
                         .getPortNumber(), this.getDstPort().getPortNumber(),
                 physicalLinks);
-        Collection<OVXFlowMod> flows = this.getSrcPort().getParentSwitch()
-                .getFlowTable().getFlowTable();
-        for (OVXFlowMod fe : flows) {
-            for (OFAction act : fe.getFlowMod().getActions()) {
-
-                //check MatchField.IN_PORT
-                if(fe.getFlowMod().getMatch().get(MatchField.IN_PORT) != null) {
-
-                    if (act.getType() == OFActionType.OUTPUT
-                            && fe.getFlowMod().getMatch().get(MatchField.IN_PORT).getShortPortNumber()
-                            == this.getSrcPort().getPortNumber()
-                            && ((OFActionOutput) act).getPort().getShortPortNumber()
-                            == this.getDstPort().getPortNumber()) {
-
-                        SwitchRoute.log.info(
-                                "Virtual network {}, switch {}, route {} between ports {}-{}: switch fm {}",
-                                this.getTenantId(), this.getSrcPort()
-                                        .getParentSwitch().getSwitchName(), this
-                                        .getRouteId(), this.getSrcPort()
-                                        .getPortNumber(), this.getDstPort()
-                                        .getPortNumber(), fe);
-                        counter++;
-
-                        OVXFlowMod fm = fe.clone();
-
-                        fe.setOFMessage(fe.getFlowMod().createBuilder()
-                                .setCookie(U64.of(((OVXFlowTable)this.getSrcPort().getParentSwitch().getFlowTable()).getCookie(fe, true)))
-                                .build()
-                        );
-
-                        //fm.setCookie(U64.of(((OVXFlowTable2)this.getSrcPort().getParentSwitch().getFlowTable()).getCookie(fe, true)));
-
-                        this.generateRouteFMs(fm);
-                        this.generateFirstFM(fm);
-
-                    }
-                }
+        // reinstall the entries crossing the route in a single install
+        final OVXFlowTable table = (OVXFlowTable) this.getSrcPort()
+                .getParentSwitch().getFlowTable();
+        final Map<Long, OVXFlowMod> flows = table.getFlowModsByPorts(
+                this.getSrcPort().getPortNumber(),
+                this.getDstPort().getPortNumber());
+        RouteInstaller.beginInstall();
+        try {
+            for (Map.Entry<Long, OVXFlowMod> e : flows.entrySet()) {
+                final OVXFlowMod fe = e.getValue();
+                SwitchRoute.log.debug(
+                        "Virtual network {}, switch {}, route {} between ports {}-{}: switch fm {}",
+                        this.getTenantId(), this.getSrcPort()
+                                .getParentSwitch().getSwitchName(), this
+                                .getRouteId(), this.getSrcPort()
+                                .getPortNumber(), this.getDstPort()
+                                .getPortNumber(), fe);
+                counter++;
+
+                OVXFlowMod fm = fe.clone();
+                fm.setOFMessage(fm.getFlowMod().createBuilder()
+                        .setCookie(U64.of(table.renewCookie(e.getKey())))
+                        .build()
+                );
+                this.generateRouteFMs(fm);
+                this.generateFirstFM(fm);
             }
+        } finally {
+            RouteInstaller.endInstall();
         }
 
         log.info(
@@ -321,9 +314,10 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         .getVirtualNetwork(this.getTenantId())
                         .getFlowManager()
                         .storeFlowValues(
-                                fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
+                                fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getLong(),
+                                fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getLong()
                         );
+                this.retainFlowId(fm, flowId);
                 link.generateLinkFMs(fm.clone(), flowId);
                 outActions.addAll(
                         new OVXLinkUtils(
@@ -342,22 +336,18 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
             }
         }
 
-        if(fm.getFlowMod().getMatch().get(MatchField.ETH_TYPE) == EthType.IPv4) {
-            fm.modifyMatch(
-                    IPMapper.rewriteMatch(
-                            this.getSrcPort().getTenantId(),
-                            fm.getFlowMod().getMatch()
-                    )
-            );
+        final MatchRewrite rewrite = new MatchRewrite(fm.getFlowMod().getMatch());
+        if(rewrite.get(MatchField.ETH_TYPE) == EthType.IPv4) {
+            IPMapper.rewriteMatch(this.getSrcPort().getTenantId(), rewrite);
         }
 
         PhysicalPort inPort = null;
         PhysicalPort outPort = null;
 
-        fm.setOFMessage(fm.getFlowMod().createBuilder()
-                .setBufferId(OFBufferId.NO_BUFFER)
-                .build()
-        );
+        // the flow mods of all hops are built from these in one go
+        final Match match = rewrite.build();
+        final OFFlowMod.Builder builder = fm.getFlowMod().createBuilder()
+                .setBufferId(OFBufferId.NO_BUFFER);
 
         final SwitchRoute route = ((OVXBigSwitch) this.getSrcPort()
                 .getParentSwitch()).getRoute(this.getSrcPort(),
@@ -389,26 +379,20 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
 
                 actionList.add(actionOutput);
 
-                fm.modifyMatch(fm.getFlowMod().getMatch().createBuilder()
-                        .setExact(MatchField.IN_PORT, OFPort.of(inPort.getPortNumber()))
-                        .build());
-
-                fm.setOFMessage(fm.getFlowMod().createBuilder()
+                fm.setOFMessage(builder
+                        .setMatch(match.createBuilder()
+                                .setExact(MatchField.IN_PORT, OFPort.of(inPort.getPortNumber()))
+                                .build())
                         .setActions(actionList)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                RouteInstaller.sendHop(phyLink.getSrcPort().getParentSwitch(), fm);
                 SwitchRoute.log.debug(
                         "Sending big-switch route intermediate fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
 
             } else {
 
-                fm.modifyMatch(fm.getFlowMod().getMatch().createBuilder()
-                        .setExact(MatchField.IN_PORT, OFPort.of(phyLink.getSrcPort().getPortNumber()))
-                        .build());
-
                 OFActionOutput actionOutput = OFFactories.getFactory(fm.getOFMessage().getVersion())
                         .actions().buildOutput()
                         .setPort(OFPort.of(this.getDstPort().getPhysicalPortNumber()))
@@ -417,25 +401,32 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
 
                 outActions.add(actionOutput);
 
-                fm.setOFMessage(fm.getFlowMod().createBuilder()
+                fm.setOFMessage(builder
+                        .setMatch(match.createBuilder()
+                                .setExact(MatchField.IN_PORT, OFPort.of(phyLink.getSrcPort().getPortNumber()))
+                                .build())
                         .setActions(outActions)
                         .build());
 
-                phyLink.getSrcPort().getParentSwitch()
-                        .sendMsg(fm, phyLink.getSrcPort().getParentSwitch());
+                RouteInstaller.sendHop(phyLink.getSrcPort().getParentSwitch(), fm);
                 SwitchRoute.log.debug("Sending big-switch route last fm to sw {}: {}",
                         phyLink.getSrcPort().getParentSwitch().getName(), fm);
             }
             outPort = phyLink.getDstPort();
         }
+    }
 
-        // TODO: With POX we need to put a timeout between this flows and the
-        // first flowMod. Check how to solve
-        try {
-            Thread.sleep(5);
-        } catch (final InterruptedException e1) {
-            SwitchRoute.log.warn("Timeout failed, might be a problem for POX controller: {}", e1);
-        }
+    /**
+     * Records that the physical flow mods of the big switch entry the given
+     * flow mod was made from are tagged with the given flow ID, so that the
+     * entry keeps it in use until it is removed.
+     *
+     * @param fm the virtual flow mod
+     * @param flowId the flow ID
+     */
+    private void retainFlowId(final OVXFlowMod fm, final int flowId) {
+        ((OVXFlowTable) this.getSrcPort().getParentSwitch().getFlowTable())
+                .setFlowId(fm.getFlowMod().getCookie().getValue(), flowId);
     }
 
     /**
@@ -445,10 +436,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
      * @param fm the virtual flow mod
      */
     private void generateFirstFM(OVXFlowMod fm) {
-        fm.setOFMessage(fm.getFlowMod().createBuilder()
-                .setBufferId(OFBufferId.NO_BUFFER)
-                .build()
-        );
+        Match match = fm.getFlowMod().getMatch();
 
         final List<OFAction> approvedActions = new LinkedList<OFAction>();
         if (this.getSrcPort().isLink()) {
@@ -470,8 +458,8 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                             .getVirtualNetwork(this.getTenantId())
                             .getFlowManager()
                             .getFlowId(
-                                    fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getBytes(),
-                                    fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getBytes()
+                                    fm.getFlowMod().getMatch().get(MatchField.ETH_SRC).getLong(),
+                                    fm.getFlowMod().getMatch().get(MatchField.ETH_DST).getLong()
                             );
                 } catch (NetworkMappingException e) {
                     SwitchRoute.log.warn(
@@ -490,9 +478,12 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                             sw.getTenantId(), fm);
                     return;
                 }
+                this.retainFlowId(fm, flowId);
                 OVXLinkUtils lUtils = new OVXLinkUtils(this.getTenantId(), link.getLinkId(), flowId);
-                fm.modifyMatch(lUtils.rewriteMatch(fm.getFlowMod().getMatch()));
-                fm.modifyMatch(IPMapper.rewriteMatch(this.getTenantId(), fm.getFlowMod().getMatch()));
+                final MatchRewrite rewrite = new MatchRewrite(match);
+                lUtils.rewriteMatch(rewrite);
+                IPMapper.rewriteMatch(this.getTenantId(), rewrite);
+                match = rewrite.build();
 
                 approvedActions.addAll(lUtils.unsetLinkFields(false, false, fm.getOFMessage().getVersion()));
             } else {
@@ -507,10 +498,9 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                     this.getTenantId(), fm.getFlowMod().getMatch()));
         }
 
-        fm.modifyMatch(fm.getFlowMod().getMatch().createBuilder()
+        match = match.createBuilder()
                 .setExact(MatchField.IN_PORT, OFPort.of(this.getSrcPort().getPhysicalPortNumber()))
-                .build()
-        );
+                .build();
 
 
 
@@ -534,10 +524,14 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
 
 
         fm.setOFMessage(fm.getFlowMod().createBuilder()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setMatch(match)
                 .setActions(approvedActions)
                 .build());
 
-        this.getSrcSwitch().sendMsg(fm, this.getSrcSwitch());
+        if (!RouteInstaller.hold(this.getSrcSwitch(), fm.getOFMessage())) {
+            this.getSrcSwitch().sendMsg(fm, this.getSrcSwitch());
+        }
         SwitchRoute.log.debug("Sending big-switch route first fm to sw {}: {}", this
                 .getSrcSwitch().getName(), fm);
     }
@@ -552,6 +546,7 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
     @Override
     public void unregister() {
         this.srcPort.getParentSwitch().getMap().removeRoute(this);
+        this.srcPort.getParentSwitch().getMap().removeInactivePaths(this);
     }
 
     @Override
@@ -619,6 +614,8 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                 Collections.copy(unusableLinks,
                         OVXMap.getInstance().getRoute(this));
                 this.unusableRoutes.put(this.getPriority(), unusableLinks);
+                OVXMap.getInstance().setInactivePaths(this,
+                        this.unusableRoutes.values());
             } catch (LinkMappingException e) {
                 log.warn("No physical Links mapped to SwitchRoute? : {}", e);
                 return false;
@@ -689,12 +686,16 @@ public class SwitchRoute extends Link<OVXPort, PhysicalSwitch> implements Persis
                         log.warn(
                                 "No physical Links mapped to SwitchRoute? : {}",
                                 e);
+                        OVXMap.getInstance().setInactivePaths(this,
+                                this.unusableRoutes.values());
                         return false;
                     }
                 }
                 it.remove();
             }
         }
+        OVXMap.getInstance().setInactivePaths(this,
+                this.unusableRoutes.values());
         return true;
     }
 
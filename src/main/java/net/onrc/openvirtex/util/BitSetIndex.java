@@ -19,11 +19,12 @@
  */
 package net.onrc.openvirtex.util;
 
-import java.util.BitSet;
-
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.link.OVXLinkField;
@@ -32,10 +33,40 @@ import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U16;
 
+/**
+ * Allocates indexes in the range [1, max) of an {@link IndexType}, always
+ * handing out the lowest free one.
+ * <p>
+ * Indexes are kept in a two-level bitmap: chunks of 64 words of 64 bits,
+ * each with a summary word whose bits mark the full words of the chunk, so
+ * that a free bit is found in a chunk with two word reads. Chunks are
+ * created as the indexes they hold are first used, and a hint points at
+ * the lowest chunk that may have a free index. Allocation and release only
+ * take a lock when a chunk is created; otherwise words are updated with
+ * compare-and-set.
+ */
 public class BitSetIndex {
-    private static Logger log = LogManager.getLogger(BitSetIndex.class.getName());
-    private BitSet set;
-    private IndexType type;
+
+    private static final int WORD_BITS = 64;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_WORDS = 1 << (CHUNK_SHIFT - 6);
+    private static final long FULL = -1L;
+
+    // indexes in use, allocations and open allocators per index type
+    private static final AtomicLongArray IN_USE =
+            new AtomicLongArray(IndexType.values().length);
+    private static final AtomicLongArray ALLOCATIONS =
+            new AtomicLongArray(IndexType.values().length);
+    private static final AtomicLongArray ALLOCATORS =
+            new AtomicLongArray(IndexType.values().length);
+
+    private final IndexType type;
+    private final int limit;
+    private final AtomicInteger used;
+    private final AtomicBoolean closed;
+    // lowest chunk that may have a free index
+    private final AtomicInteger hint;
+    private volatile AtomicReferenceArray<Chunk> chunks;
 
     public enum IndexType {
         /*
@@ -95,29 +126,43 @@ public class BitSetIndex {
     }
 
     public BitSetIndex(IndexType type) {
-        this.set = new BitSet();
         this.type = type;
+        this.limit = type.getValue();
+        this.used = new AtomicInteger();
+        this.closed = new AtomicBoolean();
+        this.hint = new AtomicInteger();
+        this.chunks = new AtomicReferenceArray<Chunk>(1);
         // Set the first bit to true, in order to start each index from 1
-        this.set.flip(0);
+        this.chunk(0).set(0);
+        BitSetIndex.ALLOCATORS.incrementAndGet(type.ordinal());
     }
 
-    public synchronized Integer getNewIndex() throws IndexOutOfBoundException {
-        Integer index = this.set.nextClearBit(0);
-        try {
-            this.getNewIndex(index);
-        } catch (DuplicateIndexException e) {
-            log.error("Could not reserve new index {}: {}", index, e);
-            // Will never happen as we obtained the next index through
-            // nextClearBit()
+    public Integer getNewIndex() throws IndexOutOfBoundException {
+        for (int c = this.hint.get();; c++) {
+            if ((long) c << CHUNK_SHIFT >= this.limit) {
+                throw new IndexOutOfBoundException("No id available in range [0,"
+                        + this.type.getValue().toString() + "]");
+            }
+            final Chunk chunk = this.chunk(c);
+            final int bit = chunk.allocate();
+            if (bit >= 0) {
+                this.allocated();
+                return (c << CHUNK_SHIFT) | bit;
+            }
+            // move the hint past the full chunk, unless an index was freed
+            // in it meanwhile
+            if (this.hint.compareAndSet(c, c + 1) && !chunk.isFull()) {
+                this.lowerHint(c);
+            }
         }
-        return index;
     }
 
-    public synchronized Integer getNewIndex(Integer index)
+    public Integer getNewIndex(Integer index)
             throws IndexOutOfBoundException, DuplicateIndexException {
-        if (index < type.getValue()) {
-            if (!this.set.get(index)) {
-                this.set.flip(index);
+        if (index >= 0 && index < this.limit) {
+            if (this.chunk(index >>> CHUNK_SHIFT).set(
+                    index & ((1 << CHUNK_SHIFT) - 1))) {
+                this.allocated();
                 return index;
             } else {
                 throw new DuplicateIndexException("Index " + index
@@ -125,50 +170,270 @@ public class BitSetIndex {
             }
         } else {
             throw new IndexOutOfBoundException("No id available in range [0,"
-                    + type.getValue().toString() + "]");
+                    + this.type.getValue().toString() + "]");
         }
     }
 
-    public synchronized Integer getNewMplsLabel(Integer value)
+    public Integer getNewMplsLabel(Integer value)
             throws IndexOutOfBoundException, DuplicateIndexException {
-        if (value < type.getValue()) {
-            if (!this.set.get(value)) {
-                this.set.flip(value);
-                return value;
-            } else {
-                throw new DuplicateIndexException("Lable " + value
-                        + " already used");
-            }
-        } else {
-            throw new IndexOutOfBoundException("No id available in range [0,"
-                    + type.getValue().toString() + "]");
+        try {
+            return this.getNewIndex(value);
+        } catch (DuplicateIndexException e) {
+            throw new DuplicateIndexException("Lable " + value
+                    + " already used");
         }
     }
 
-    public synchronized Integer getNewMplsLabel()
+    public Integer getNewMplsLabel()
             throws IndexOutOfBoundException, DuplicateIndexException {
-        Integer index = this.set.nextClearBit(0);
-        try {
-            this.getNewIndex(index);
-        } catch (DuplicateIndexException e) {
-            log.error("Could not reserve new index {}: {}", index, e);
-            // Will never happen as we obtained the next index through
-            // nextClearBit()
-        }
-        return index;
+        return this.getNewIndex();
     }
 
-    public synchronized boolean releaseIndex(Integer index) {
-        if (this.set.get(index)) {
-            this.set.flip(index);
-            return true;
-        } else {
+    public boolean releaseIndex(Integer index) {
+        // index 0 stays reserved
+        if (index <= 0 || index >= this.limit) {
             return false;
         }
+        final int c = index >>> CHUNK_SHIFT;
+        final AtomicReferenceArray<Chunk> dir = this.chunks;
+        final Chunk chunk = c < dir.length() ? dir.get(c) : null;
+        if (chunk == null || !chunk.clear(index & ((1 << CHUNK_SHIFT) - 1))) {
+            return false;
+        }
+        this.lowerHint(c);
+        if (!this.closed.get()) {
+            this.used.decrementAndGet();
+            BitSetIndex.IN_USE.decrementAndGet(this.type.ordinal());
+        }
+        return true;
     }
 
     public void reset() {
-        this.set.clear();
-        this.set.flip(0);
+        BitSetIndex.IN_USE.addAndGet(this.type.ordinal(),
+                -this.used.getAndSet(0));
+        this.chunks = new AtomicReferenceArray<Chunk>(1);
+        this.hint.set(0);
+        this.chunk(0).set(0);
+    }
+
+    /**
+     * Removes this allocator and the indexes it holds from the usage of its
+     * index type. Called when the element owning the allocator is removed;
+     * indexes released afterwards are no longer counted.
+     */
+    public void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            BitSetIndex.IN_USE.addAndGet(this.type.ordinal(),
+                    -this.used.getAndSet(0));
+            BitSetIndex.ALLOCATORS.decrementAndGet(this.type.ordinal());
+        }
+    }
+
+    /**
+     * Gets the number of indexes this allocator can hand out.
+     *
+     * @return the number of indexes
+     */
+    public int getCapacity() {
+        return this.limit - 1;
+    }
+
+    /**
+     * Gets the share of the indexes of this allocator that are in use.
+     *
+     * @return the utilization, between 0 and 1
+     */
+    public double getUtilization() {
+        return (double) this.used.get() / (this.limit - 1);
+    }
+
+    /**
+     * Gets the number of indexes in use, the number of allocations and the
+     * number of open allocators of each index type, with its maximum index
+     * and the number of indexes all open allocators can hand out.
+     *
+     * @return the usage of each index type, by type name
+     */
+    public static Map<String, Map<String, Long>> getUsage() {
+        final Map<String, Map<String, Long>> usage = new HashMap<String, Map<String, Long>>();
+        for (IndexType type : IndexType.values()) {
+            final Map<String, Long> counters = new HashMap<String, Long>();
+            counters.put("inUse", BitSetIndex.IN_USE.get(type.ordinal()));
+            counters.put("allocations",
+                    BitSetIndex.ALLOCATIONS.get(type.ordinal()));
+            final long allocators = BitSetIndex.ALLOCATORS.get(type.ordinal());
+            counters.put("allocators", allocators);
+            counters.put("max", (long) type.getValue());
+            // inUse sums over all allocators, so compare it to their
+            // combined capacity rather than to the limit of one of them
+            counters.put("capacity", allocators * (type.getValue() - 1));
+            usage.put(type.name(), counters);
+        }
+        return usage;
+    }
+
+    private void allocated() {
+        if (this.closed.get()) {
+            return;
+        }
+        this.used.incrementAndGet();
+        BitSetIndex.IN_USE.incrementAndGet(this.type.ordinal());
+        BitSetIndex.ALLOCATIONS.incrementAndGet(this.type.ordinal());
+    }
+
+    private void lowerHint(final int c) {
+        int h;
+        while ((h = this.hint.get()) > c) {
+            if (this.hint.compareAndSet(h, c)) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Gets the given chunk, creating it if needed.
+     */
+    private Chunk chunk(final int c) {
+        AtomicReferenceArray<Chunk> dir = this.chunks;
+        if (c < dir.length()) {
+            final Chunk chunk = dir.get(c);
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+        synchronized (this) {
+            dir = this.chunks;
+            if (c >= dir.length()) {
+                int length = dir.length();
+                while (length <= c) {
+                    length <<= 1;
+                }
+                final AtomicReferenceArray<Chunk> grown = new AtomicReferenceArray<Chunk>(
+                        length);
+                for (int i = 0; i < dir.length(); i++) {
+                    grown.set(i, dir.get(i));
+                }
+                this.chunks = grown;
+                dir = grown;
+            }
+            Chunk chunk = dir.get(c);
+            if (chunk == null) {
+                chunk = new Chunk((long) c << CHUNK_SHIFT, this.limit);
+                dir.set(c, chunk);
+            }
+            return chunk;
+        }
+    }
+
+    /**
+     * 4096 indexes: 64 words of bits set for used indexes, followed by a
+     * summary word whose bits are set for the full words. A summary bit may
+     * briefly be clear for a full word, never the other way around once
+     * the update that filled or freed the word has completed.
+     */
+    private static final class Chunk {
+        private static final int SUMMARY = CHUNK_WORDS;
+
+        private final AtomicLongArray words;
+
+        private Chunk(final long base, final int limit) {
+            this.words = new AtomicLongArray(CHUNK_WORDS + 1);
+            // indexes past the limit are never handed out
+            for (int bit = (int) Math.max(0, Math.min(limit - base,
+                    CHUNK_WORDS * WORD_BITS)); bit < CHUNK_WORDS * WORD_BITS; bit++) {
+                this.set(bit);
+            }
+        }
+
+        private boolean isFull() {
+            return this.words.get(SUMMARY) == FULL;
+        }
+
+        /**
+         * @return the lowest free bit, now used, or -1 if the chunk is full
+         */
+        private int allocate() {
+            while (true) {
+                final long summary = this.words.get(SUMMARY);
+                if (summary == FULL) {
+                    return -1;
+                }
+                final int w = Long.numberOfTrailingZeros(~summary);
+                final long word = this.words.get(w);
+                if (word == FULL) {
+                    this.markFull(w);
+                    continue;
+                }
+                final int b = Long.numberOfTrailingZeros(~word);
+                final long updated = word | (1L << b);
+                if (this.words.compareAndSet(w, word, updated)) {
+                    if (updated == FULL) {
+                        this.markFull(w);
+                    }
+                    return w * WORD_BITS + b;
+                }
+            }
+        }
+
+        /**
+         * @return true if the bit was free
+         */
+        private boolean set(final int bit) {
+            final int w = bit / WORD_BITS;
+            final long mask = 1L << bit;
+            while (true) {
+                final long word = this.words.get(w);
+                if ((word & mask) != 0) {
+                    return false;
+                }
+                if (this.words.compareAndSet(w, word, word | mask)) {
+                    if ((word | mask) == FULL) {
+                        this.markFull(w);
+                    }
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if the bit was used
+         */
+        private boolean clear(final int bit) {
+            final int w = bit / WORD_BITS;
+            final long mask = 1L << bit;
+            while (true) {
+                final long word = this.words.get(w);
+                if ((word & mask) == 0) {
+                    return false;
+                }
+                if (this.words.compareAndSet(w, word, word & ~mask)) {
+                    this.updateSummary(w, false);
+                    return true;
+                }
+            }
+        }
+
+        /*
+         * Marks the word full, then checks it still is: a concurrent clear
+         * either sees the summary bit and clears it, or is seen here.
+         */
+        private void markFull(final int w) {
+            this.updateSummary(w, true);
+            if (this.words.get(w) != FULL) {
+                this.updateSummary(w, false);
+            }
+        }
+
+        private void updateSummary(final int w, final boolean full) {
+            final long mask = 1L << w;
+            while (true) {
+                final long summary = this.words.get(SUMMARY);
+                final long updated = full ? summary | mask : summary & ~mask;
+                if (summary == updated
+                        || this.words.compareAndSet(SUMMARY, summary, updated)) {
+                    return;
+                }
+            }
+        }
     }
 }
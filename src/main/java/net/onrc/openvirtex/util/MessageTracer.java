@@ -0,0 +1,357 @@
+/*
+ * ******************************************************************************
+ *  Copyright 2019 Korea University & Open Networking Foundation
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *  ******************************************************************************
+ *  Developed by Libera team, Operating Systems Lab of Korea University
+ *  ******************************************************************************
+ */
+package net.onrc.openvirtex.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+/**
+ * Sampled tracing of the message pipeline.
+ * <p>
+ * Call sites hand an {@link Event} and up to two numeric arguments to
+ * {@link #trace(Event, int, long, long)}. While tracing is disabled this is
+ * a single volatile read. While enabled, events are sampled at a rate set
+ * per tenant and per message type, and each sampled event is copied into a
+ * preallocated record of a ring buffer, without allocating. A background
+ * thread formats the records and writes them to the
+ * {@code net.onrc.openvirtex.trace} logger, one key=value line per event,
+ * and sleeps while tracing is disabled. Records overwritten before being written are counted as dropped.
+ * <p>
+ * The sampling rate of an event is the rate of its tenant, or the default
+ * rate if the tenant has none, times the rate of its message type, 1 by
+ * default: a rate of n traces one event in n, and 0 traces none.
+ */
+public final class MessageTracer {
+
+    private static final Logger log = LogManager.getLogger(MessageTracer.class
+            .getName());
+    private static final Logger TRACE_LOG = LogManager
+            .getLogger("net.onrc.openvirtex.trace");
+
+    // records in the ring buffer, a power of two
+    static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+    // pause of the writer thread when the ring buffer is empty
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * Traced events, with the message type they are sampled by and the
+     * names of their arguments.
+     */
+    public enum Event {
+        PACKET_IN_EDGE(OFType.PACKET_IN, "dpid", "port"),
+        PACKET_IN_LINK(OFType.PACKET_IN, "dpid", "port"),
+        PACKET_IN_L2(OFType.PACKET_IN, "dpid", "port"),
+        PACKET_IN_DROP(OFType.PACKET_IN, "dpid", "port"),
+        PACKET_IN_UNKNOWN_PORT(OFType.PACKET_IN, "dpid", "port"),
+        FLOW_ADD(OFType.FLOW_MOD, "cookie", "priority"),
+        FLOW_REPLACE(OFType.FLOW_MOD, "oldCookie", "cookie"),
+        FLOW_DELETE(OFType.FLOW_MOD, "cookie", "priority");
+
+        private final OFType type;
+        private final String arg1;
+        private final String arg2;
+        // datapath IDs and cookies are written in hex
+        private final boolean hex1;
+        private final boolean hex2;
+
+        private Event(final OFType type, final String arg1,
+                      final String arg2) {
+            this.type = type;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.hex1 = !arg1.equals("port") && !arg1.equals("priority");
+            this.hex2 = !arg2.equals("port") && !arg2.equals("priority");
+        }
+    }
+
+    private static final AtomicLong CURSOR = new AtomicLong();
+    private static final AtomicLong WRITTEN = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static volatile Config config;
+    // set before the first config is published, never changed
+    private static Record[] ring;
+    private static Thread writer;
+
+    // settings, kept while tracing is disabled
+    private static boolean enabled;
+    private static int rate = 1;
+    private static final Map<Integer, Integer> TENANT_RATES =
+            new TreeMap<Integer, Integer>();
+    private static final Map<OFType, Integer> TYPE_RATES =
+            new TreeMap<OFType, Integer>();
+
+    private MessageTracer() {
+    }
+
+    /**
+     * Traces an event if it is sampled.
+     *
+     * @param event the event
+     * @param tenantId the tenant ID, or 0 if unknown
+     * @param arg1 the first argument
+     * @param arg2 the second argument
+     */
+    public static void trace(final Event event, final int tenantId,
+                             final long arg1, final long arg2) {
+        final Config c = config;
+        if (c == null) {
+            return;
+        }
+        final int r = c.rate(tenantId, event.type);
+        if (r == 0 || (r > 1 && ThreadLocalRandom.current().nextInt(r) != 0)) {
+            return;
+        }
+        final long seq = CURSOR.getAndIncrement();
+        final Record rec = ring[(int) seq & MASK];
+        rec.seq = -1;
+        rec.time = System.currentTimeMillis();
+        rec.event = event;
+        rec.tenantId = tenantId;
+        rec.arg1 = arg1;
+        rec.arg2 = arg2;
+        rec.seq = seq;
+    }
+
+    /**
+     * Changes the tracing settings. Null arguments leave the setting as it
+     * is; rates in the maps replace the rates of their tenant or type, and
+     * negative rates remove them.
+     *
+     * @param enable whether to trace
+     * @param defaultRate the rate of tenants without one of their own
+     * @param tenantRates rates by tenant ID
+     * @param typeRates rates by message type
+     */
+    public static synchronized void configure(final Boolean enable,
+            final Integer defaultRate, final Map<Integer, Integer> tenantRates,
+            final Map<OFType, Integer> typeRates) {
+        if (enable != null) {
+            enabled = enable;
+        }
+        if (defaultRate != null) {
+            rate = Math.max(defaultRate, 0);
+        }
+        if (tenantRates != null) {
+            update(TENANT_RATES, tenantRates);
+        }
+        if (typeRates != null) {
+            update(TYPE_RATES, typeRates);
+        }
+        if (!enabled) {
+            config = null;
+            return;
+        }
+        if (ring == null) {
+            final Record[] records = new Record[CAPACITY];
+            for (int i = 0; i < CAPACITY; i++) {
+                records[i] = new Record();
+            }
+            ring = records;
+            writer = new Thread(new Writer(), "MessageTracer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        config = new Config(rate, TENANT_RATES, TYPE_RATES);
+        // wake the writer up if it was parked while tracing was disabled
+        LockSupport.unpark(writer);
+        log.info("Tracing enabled, rate {}, tenant rates {}, type rates {}",
+                rate, TENANT_RATES, TYPE_RATES);
+    }
+
+    /**
+     * Gets the tracing settings and counters: whether tracing is enabled,
+     * the rates, and the events traced, written and dropped.
+     *
+     * @return the settings and counters by name
+     */
+    public static synchronized Map<String, Object> getStatus() {
+        final Map<String, Object> status = new HashMap<String, Object>();
+        status.put("enabled", enabled);
+        status.put("rate", rate);
+        final Map<String, Integer> tenants = new HashMap<String, Integer>();
+        for (Map.Entry<Integer, Integer> e : TENANT_RATES.entrySet()) {
+            tenants.put(e.getKey().toString(), e.getValue());
+        }
+        status.put("tenantRates", tenants);
+        final Map<String, Integer> types = new HashMap<String, Integer>();
+        for (Map.Entry<OFType, Integer> e : TYPE_RATES.entrySet()) {
+            types.put(e.getKey().name(), e.getValue());
+        }
+        status.put("typeRates", types);
+        status.put("capacity", CAPACITY);
+        status.put("traced", CURSOR.get());
+        status.put("written", WRITTEN.get());
+        status.put("dropped", DROPPED.get());
+        return status;
+    }
+
+    private static <K> void update(final Map<K, Integer> rates,
+                                   final Map<K, Integer> changes) {
+        for (Map.Entry<K, Integer> e : changes.entrySet()) {
+            if (e.getValue() == null || e.getValue() < 0) {
+                rates.remove(e.getKey());
+            } else {
+                rates.put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Immutable sampling rates. Tenant rates are kept in sorted arrays so
+     * that looking one up neither locks nor boxes the tenant ID.
+     */
+    private static final class Config {
+        private final int rate;
+        private final int[] tenants;
+        private final int[] tenantRates;
+        private final int[] typeRates;
+
+        private Config(final int rate, final Map<Integer, Integer> tenants,
+                       final Map<OFType, Integer> types) {
+            this.rate = rate;
+            // the map is sorted by tenant ID
+            this.tenants = new int[tenants.size()];
+            this.tenantRates = new int[tenants.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> e : tenants.entrySet()) {
+                this.tenants[i] = e.getKey();
+                this.tenantRates[i++] = e.getValue();
+            }
+            this.typeRates = new int[OFType.values().length];
+            Arrays.fill(this.typeRates, 1);
+            for (Map.Entry<OFType, Integer> e : types.entrySet()) {
+                this.typeRates[e.getKey().ordinal()] = e.getValue();
+            }
+        }
+
+        private int rate(final int tenantId, final OFType type) {
+            final int i = Arrays.binarySearch(this.tenants, tenantId);
+            final long r = (long) (i >= 0 ? this.tenantRates[i] : this.rate)
+                    * this.typeRates[type.ordinal()];
+            return (int) Math.min(r, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A traced event. The sequence number is cleared while the record is
+     * being written and set once it is complete.
+     */
+    private static final class Record {
+        private volatile long seq = -1;
+        private long time;
+        private Event event;
+        private int tenantId;
+        private long arg1;
+        private long arg2;
+    }
+
+    /**
+     * Writes the traced events to the trace logger, in order.
+     */
+    private static final class Writer implements Runnable {
+        private final StringBuilder line = new StringBuilder(128);
+        private long next;
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (!this.drain()) {
+                        if (config == null) {
+                            // disabled, until configure enables it again
+                            LockSupport.park(this);
+                        } else {
+                            LockSupport.parkNanos(IDLE_NANOS);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Failed to write trace: {}", e.getMessage());
+                }
+            }
+        }
+
+        /*
+         * Writes the complete records, and returns whether there were any.
+         */
+        private boolean drain() {
+            boolean any = false;
+            long end;
+            while (this.next < (end = CURSOR.get())) {
+                if (end - this.next > CAPACITY) {
+                    DROPPED.addAndGet(end - CAPACITY - this.next);
+                    this.next = end - CAPACITY;
+                }
+                final Record rec = ring[(int) this.next & MASK];
+                final long seq = rec.seq;
+                if (seq < this.next) {
+                    // still being written
+                    break;
+                }
+                if (seq == this.next) {
+                    this.format(rec);
+                    if (rec.seq == seq) {
+                        TRACE_LOG.info(this.line.toString());
+                        WRITTEN.incrementAndGet();
+                    } else {
+                        DROPPED.incrementAndGet();
+                    }
+                } else {
+                    DROPPED.incrementAndGet();
+                }
+                this.next++;
+                any = true;
+            }
+            return any;
+        }
+
+        private void format(final Record rec) {
+            final Event event = rec.event;
+            this.line.setLength(0);
+            this.line.append("time=").append(rec.time)
+                    .append(" event=").append(event)
+                    .append(" tenant=").append(rec.tenantId)
+                    .append(' ').append(event.arg1).append('=');
+            append(this.line, event.hex1, rec.arg1);
+            this.line.append(' ').append(event.arg2).append('=');
+            append(this.line, event.hex2, rec.arg2);
+        }
+
+        private static void append(final StringBuilder sb, final boolean hex,
+                                   final long value) {
+            if (hex) {
+                sb.append("0x").append(Long.toHexString(value));
+            } else {
+                sb.append(value);
+            }
+        }
+    }
+}
@@ -19,85 +19,294 @@
  */
 package net.onrc.openvirtex.util;
 
-import java.math.BigInteger;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import net.onrc.openvirtex.elements.host.Host;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
 import net.onrc.openvirtex.exceptions.IndexOutOfBoundException;
 import net.onrc.openvirtex.util.BitSetIndex.IndexType;
 
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-
-import com.google.common.collect.HashBiMap;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
 import org.projectfloodlight.openflow.types.MacAddress;
 
+/**
+ * Assigns flow IDs to the (source MAC, destination MAC) pairs of a virtual
+ * network, to tag the packets crossing its virtual links.
+ * <p>
+ * Lookups take no lock and allocate nothing; new pairs are added under the
+ * manager lock. Flow table entries using a flow ID hold a reference to it
+ * (see {@link #retain(int, int)}). Once the last of them is removed, the ID
+ * drains: it keeps its MAC address pair, and is not handed out again, until
+ * the physical FlowMods tagged with it have expired. IDs tagging FlowMods
+ * without timeouts stay reserved, as these are never removed from the
+ * switches along virtual links.
+ */
 public class OVXFlowManager {
     static Logger log = LogManager.getLogger(OVXFlowManager.class.getName());
 
-    private final HashBiMap<Integer, BigInteger> flowValues;
+    /**
+     * Returned by lookups when the pair has no flow ID.
+     */
+    public static final int NONE = 0;
+
+    private static final long BROADCAST = 0xffffffffffffL;
+    // share of the flow IDs in use above which a warning is logged
+    private static final double HIGH_OCCUPANCY = 0.9;
+    private static final double LOW_OCCUPANCY = 0.8;
+    // lifetime of FlowMods that do not expire
+    private static final int PERMANENT = Integer.MAX_VALUE;
+    // seconds a drained flow ID is kept for PacketIns still in flight
+    private static final int DRAIN_GRACE = 5;
+
+    private volatile FlowTable flowValues;
     private final BitSetIndex flowCounter;
     private final Integer tenantId;
     private Collection<Host> hostList;
 
+    // guarded by this: references and longest FlowMod lifetime per flow
+    // ID, draining flow IDs with the time they can be released, and
+    // counters
+    private int[] references;
+    private int[] lifetimes;
+    private final Map<Integer, Long> draining = new HashMap<Integer, Long>();
+    private long allocations;
+    private long releases;
+    private long exhausted;
+    private boolean highOccupancy;
+
     public OVXFlowManager(Integer tenantId, Collection<Host> hostList) {
-        this.flowValues = HashBiMap.create();
+        this.flowValues = new FlowTable(FlowTable.INITIAL_CAPACITY,
+                FlowTable.INITIAL_CAPACITY);
         this.flowCounter = new BitSetIndex(IndexType.FLOW_COUNTER);
         this.tenantId = tenantId;
         this.hostList = hostList;
+        this.references = new int[FlowTable.INITIAL_CAPACITY];
+        this.lifetimes = new int[FlowTable.INITIAL_CAPACITY];
     }
 
-    public synchronized Integer storeFlowValues(final byte[] srcMac, final byte[] dstMac)
+    /**
+     * Gets the flow ID of the given MAC address pair, assigning one if the
+     * pair has none.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the flow ID
+     * @throws IndexOutOfBoundException if all flow IDs are in use
+     */
+    public int storeFlowValues(final long srcMac, final long dstMac)
             throws IndexOutOfBoundException {
-        // TODO: Optimize flow numbers
-        final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
-                dstMac));
-        Integer flowId = this.flowValues.inverse().get(dualMac);
-        if (flowId == null) {
-            flowId = this.flowCounter.getNewIndex();
-            log.debug(
-                    "virtual net = {}: save flowId = {} that is associated to {} {}",
-                    this.tenantId, flowId,
-                    MacAddress.of(srcMac).toString(),
-                    MacAddress.of(dstMac).toString());
-            this.flowValues.put(flowId, dualMac);
+        final int flowId = this.flowValues.get(srcMac, dstMac);
+        if (flowId != NONE) {
+            return flowId;
         }
-        return flowId;
+        return this.allocate(srcMac, dstMac);
     }
 
-    public synchronized LinkedList<MacAddress> getFlowValues(final Integer flowId) {
+    /**
+     * Gets the MAC address pair the given flow ID was assigned to.
+     *
+     * @param flowId the flow ID
+     * @return the source and destination MAC addresses, or an empty list if
+     *         the flow ID is not in use
+     */
+    public LinkedList<MacAddress> getFlowValues(final Integer flowId) {
         final LinkedList<MacAddress> macList = new LinkedList<MacAddress>();
-        final BigInteger dualMac = this.flowValues.get(flowId);
-        if (dualMac != null) {
-            final MacAddress srcMac = MacAddress.of(dualMac.shiftRight(48).longValue());
-            final MacAddress dstMac = MacAddress.of(dualMac.longValue());
-            macList.add(srcMac);
-            macList.add(dstMac);
+        final FlowTable table = this.flowValues;
+        final int slot = table.find(flowId);
+        if (slot >= 0) {
+            final long srcMac = table.srcs[slot];
+            final long dstMac = table.dsts[slot];
+            // the slot may have been released meanwhile
+            if (table.ids.get(slot) == flowId) {
+                macList.add(MacAddress.of(srcMac));
+                macList.add(MacAddress.of(dstMac));
+            }
         }
         return macList;
     }
 
-    public synchronized Integer getFlowId(final byte[] srcMac, final byte[] dstMac)
+    /**
+     * Gets the flow ID of the given MAC address pair, assigning one if the
+     * pair has none.
+     *
+     * @param srcMac the source MAC address
+     * @param dstMac the destination MAC address
+     * @return the flow ID
+     * @throws IndexOutOfBoundException if all flow IDs are in use
+     */
+    public int getFlowId(final long srcMac, final long dstMac)
             throws DroppedMessageException, IndexOutOfBoundException {
-        final BigInteger dualMac = new BigInteger(ArrayUtils.addAll(srcMac,
-                dstMac));
-        final Integer flowId = this.flowValues.inverse().get(dualMac);
-        if (flowId != null && flowId != 0) {
-            log.debug(
-                    "virtual net = {}: retrieving flowId {} that is associated to {} {}",
-                    this.tenantId, flowId,
-                    MacAddress.of(srcMac).toString(),
-                    MacAddress.of(dstMac).toString());
+        final int flowId = this.flowValues.get(srcMac, dstMac);
+        if (flowId != NONE) {
+            if (log.isTraceEnabled()) {
+                log.trace(
+                        "virtual net = {}: retrieving flowId {} that is associated to {} {}",
+                        this.tenantId, flowId, MacAddress.of(srcMac),
+                        MacAddress.of(dstMac));
+            }
             return flowId;
-        } else {
-            // Create new flow ID
-            // TODO: this is probably incorrect if the match is not identical
-            // at both ends of the virtual link
-            return this.storeFlowValues(srcMac, dstMac);
+        }
+        // Create new flow ID
+        // TODO: this is probably incorrect if the match is not identical
+        // at both ends of the virtual link
+        return this.allocate(srcMac, dstMac);
+    }
+
+    /**
+     * Adds a reference to the given flow ID, held by a flow table entry
+     * whose physical FlowMods were tagged with it.
+     *
+     * @param flowId the flow ID
+     * @param lifetime the time in seconds the physical FlowMods stay
+     *            installed once unused, 0 if they do not expire
+     */
+    public synchronized void retain(final int flowId, final int lifetime) {
+        if (flowId >= this.references.length) {
+            int length = this.references.length;
+            while (length <= flowId) {
+                length <<= 1;
+            }
+            this.references = grow(this.references, length);
+            this.lifetimes = grow(this.lifetimes, length);
+        }
+        this.references[flowId]++;
+        this.lifetimes[flowId] = Math.max(this.lifetimes[flowId],
+                lifetime > 0 ? lifetime : PERMANENT);
+        // in use again before it drained
+        this.draining.remove(flowId);
+    }
+
+    /**
+     * Drops a reference to the given flow ID. When the last reference is
+     * dropped, the flow ID drains: it is released, and its MAC address
+     * pair forgotten, once the physical FlowMods tagged with it have
+     * expired.
+     *
+     * @param flowId the flow ID
+     */
+    public synchronized void release(final int flowId) {
+        if (flowId <= NONE || flowId >= this.references.length
+                || this.references[flowId] == 0) {
+            return;
+        }
+        if (--this.references[flowId] > 0) {
+            return;
+        }
+        final int lifetime = this.lifetimes[flowId];
+        if (lifetime == PERMANENT) {
+            this.draining.put(flowId, Long.MAX_VALUE);
+            log.debug("virtual net = {}: keeping flowId = {} of permanent "
+                    + "FlowMods", this.tenantId, flowId);
+            return;
+        }
+        final long delay = TimeUnit.SECONDS.toNanos(lifetime + DRAIN_GRACE);
+        this.draining.put(flowId, System.nanoTime() + delay);
+        PhysicalNetwork.getTimer().newTimeout(new Drain(flowId), delay,
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gets the flow ID occupancy of this virtual network: the number of
+     * flow IDs in use and available, the number of flow IDs referenced by
+     * flow table entries and draining, and the number of allocations,
+     * releases and allocations that failed because no flow ID was left.
+     *
+     * @return the occupancy counters, by name
+     */
+    public synchronized Map<String, Object> getOccupancy() {
+        int referenced = 0;
+        for (int count : this.references) {
+            if (count > 0) {
+                referenced++;
+            }
+        }
+        final Map<String, Object> occupancy = new HashMap<String, Object>();
+        occupancy.put("flowIds", this.flowValues.size);
+        occupancy.put("capacity", this.flowCounter.getCapacity());
+        occupancy.put("utilization", this.flowCounter.getUtilization());
+        occupancy.put("referenced", referenced);
+        occupancy.put("draining", this.draining.size());
+        occupancy.put("allocations", this.allocations);
+        occupancy.put("releases", this.releases);
+        occupancy.put("exhausted", this.exhausted);
+        return occupancy;
+    }
+
+    private synchronized int allocate(final long srcMac, final long dstMac)
+            throws IndexOutOfBoundException {
+        int flowId = this.flowValues.get(srcMac, dstMac);
+        if (flowId != NONE) {
+            return flowId;
+        }
+        try {
+            flowId = this.flowCounter.getNewIndex();
+        } catch (IndexOutOfBoundException e) {
+            this.exhausted++;
+            log.warn("virtual net = {}: no flowId left for {} {}",
+                    this.tenantId, MacAddress.of(srcMac), MacAddress.of(dstMac));
+            throw e;
+        }
+        this.flowValues = this.flowValues.put(srcMac, dstMac, flowId);
+        this.allocations++;
+        this.checkOccupancy();
+        if (log.isDebugEnabled()) {
+            log.debug(
+                    "virtual net = {}: save flowId = {} that is associated to {} {}",
+                    this.tenantId, flowId, MacAddress.of(srcMac),
+                    MacAddress.of(dstMac));
+        }
+        return flowId;
+    }
+
+    /*
+     * Releases a drained flow ID, unless it was retained again or released
+     * again later in the meantime.
+     */
+    private synchronized void drained(final int flowId) {
+        final Long deadline = this.draining.get(flowId);
+        if (deadline == null || System.nanoTime() - deadline < 0) {
+            return;
+        }
+        this.draining.remove(flowId);
+        this.lifetimes[flowId] = 0;
+        if (this.flowValues.remove(flowId)) {
+            this.flowCounter.releaseIndex(flowId);
+            this.releases++;
+            this.checkOccupancy();
+            log.debug("virtual net = {}: released flowId = {}", this.tenantId,
+                    flowId);
+        }
+    }
+
+    private static int[] grow(final int[] array, final int length) {
+        final int[] grown = new int[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /*
+     * Warns once when the flow IDs are about to run out, and again only
+     * after usage went down in between.
+     */
+    private void checkOccupancy() {
+        final double utilization = this.flowCounter.getUtilization();
+        if (!this.highOccupancy && utilization >= HIGH_OCCUPANCY) {
+            this.highOccupancy = true;
+            log.warn("virtual net = {}: {} of {} flowIds in use",
+                    this.tenantId, this.flowValues.size,
+                    this.flowCounter.getCapacity());
+        } else if (this.highOccupancy && utilization < LOW_OCCUPANCY) {
+            this.highOccupancy = false;
         }
     }
 
@@ -112,16 +321,156 @@ public class OVXFlowManager {
         return result;
     }
 
+    /**
+     * Removes the flow ID allocator from the index usage, once the virtual
+     * network is unregistered.
+     */
+    public void close() {
+        this.flowCounter.close();
+    }
+
     public void boot() throws IndexOutOfBoundException {
         final List<MacAddress> macList = this.getMACList();
         for (final MacAddress srcMac : macList) {
-            this.storeFlowValues(srcMac.getBytes(),
-                    MacAddress.of("ff:ff:ff:ff:ff:ff").getBytes());
+            this.storeFlowValues(srcMac.getLong(), BROADCAST);
             for (final MacAddress dstMac : macList) {
                 if (srcMac.getLong() != dstMac.getLong()) {
-                    this.storeFlowValues(srcMac.getBytes(), dstMac.getBytes());
+                    this.storeFlowValues(srcMac.getLong(), dstMac.getLong());
                 }
             }
         }
     }
+
+    /**
+     * Releases a flow ID once it has drained.
+     */
+    private final class Drain implements TimerTask {
+        private final int flowId;
+
+        private Drain(final int flowId) {
+            this.flowId = flowId;
+        }
+
+        @Override
+        public void run(final Timeout timeout) {
+            OVXFlowManager.this.drained(this.flowId);
+        }
+    }
+
+    /**
+     * Open addressing table of MAC address pairs to flow IDs with linear
+     * probing, plus the slot of each flow ID. The MAC addresses of a slot
+     * are written before its flow ID, and flow IDs are written and read
+     * with volatile semantics, so a reader that finds a flow ID also sees
+     * its MAC addresses. Removed slots are never reused, so the MAC
+     * addresses of a slot never change; the table is rebuilt instead, once
+     * live and removed slots fill half of it.
+     */
+    private static final class FlowTable {
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int EMPTY = NONE;
+        private static final int REMOVED = -1;
+
+        private final long[] srcs;
+        private final long[] dsts;
+        private final AtomicIntegerArray ids;
+        // slot + 1 of each flow ID, 0 if the flow ID is not in use
+        private final AtomicIntegerArray slots;
+        private final int mask;
+        // only accessed by writers
+        private int size;
+        private int used;
+
+        private FlowTable(final int capacity, final int flowIds) {
+            this.srcs = new long[capacity];
+            this.dsts = new long[capacity];
+            this.ids = new AtomicIntegerArray(capacity);
+            this.slots = new AtomicIntegerArray(flowIds);
+            this.mask = capacity - 1;
+        }
+
+        private int get(final long src, final long dst) {
+            int i = hash(src, dst) & this.mask;
+            while (true) {
+                final int id = this.ids.get(i);
+                if (id == EMPTY) {
+                    return NONE;
+                }
+                if (id != REMOVED && this.srcs[i] == src && this.dsts[i] == dst) {
+                    return id;
+                }
+                i = (i + 1) & this.mask;
+            }
+        }
+
+        /**
+         * @return the slot of the given flow ID, or -1 if it is not in use
+         */
+        private int find(final int flowId) {
+            if (flowId <= NONE || flowId >= this.slots.length()) {
+                return -1;
+            }
+            return this.slots.get(flowId) - 1;
+        }
+
+        /**
+         * @return this table, or a rebuilt copy if it was too full or too
+         *         small for the flow ID
+         */
+        private FlowTable put(final long src, final long dst, final int flowId) {
+            FlowTable table = this;
+            if ((this.used + 1) * 2 > this.srcs.length
+                    || flowId >= this.slots.length()) {
+                int capacity = INITIAL_CAPACITY;
+                while (capacity < (this.size + 1) * 4) {
+                    capacity <<= 1;
+                }
+                int flowIds = this.slots.length();
+                while (flowIds <= flowId) {
+                    flowIds <<= 1;
+                }
+                table = new FlowTable(capacity, flowIds);
+                for (int i = 0; i < this.srcs.length; i++) {
+                    final int id = this.ids.get(i);
+                    if (id != EMPTY && id != REMOVED) {
+                        table.insert(this.srcs[i], this.dsts[i], id);
+                    }
+                }
+            }
+            table.insert(src, dst, flowId);
+            return table;
+        }
+
+        private void insert(final long src, final long dst, final int flowId) {
+            int i = hash(src, dst) & this.mask;
+            while (this.ids.get(i) != EMPTY) {
+                i = (i + 1) & this.mask;
+            }
+            this.srcs[i] = src;
+            this.dsts[i] = dst;
+            this.ids.set(i, flowId);
+            this.slots.set(flowId, i + 1);
+            this.size++;
+            this.used++;
+        }
+
+        private boolean remove(final int flowId) {
+            final int slot = this.find(flowId);
+            if (slot < 0) {
+                return false;
+            }
+            this.ids.set(slot, REMOVED);
+            this.slots.set(flowId, 0);
+            this.size--;
+            return true;
+        }
+
+        private static int hash(final long src, final long dst) {
+            long h = src * 0x9e3779b97f4a7c15L + dst;
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
 }